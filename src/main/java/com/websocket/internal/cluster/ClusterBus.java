@@ -0,0 +1,41 @@
+package com.websocket.internal.cluster;
+
+import java.util.Set;
+
+/**
+ * Topic-based publish/subscribe between the nodes of a cluster.
+ *
+ * A node subscribes to the topics it has local receivers for (a room with local members, a user
+ * with a local session) and publishes everything else it produces; the bus only carries a message
+ * to the nodes that subscribed to its topic, and never back to the publisher. Messages from one
+ * node on one topic arrive in the order they were published. Delivery is at most once: a message
+ * published while a peer is unreachable is not replayed to it.
+ */
+public interface ClusterBus extends AutoCloseable {
+
+    @FunctionalInterface
+    interface Listener {
+        /** Called on the bus's I/O thread for the peer; hand off anything slow. */
+        void onMessage(String topic, byte[] payload, String fromNode);
+    }
+
+    String nodeId();
+
+    void setListener(Listener listener);
+
+    void start() throws Exception;
+
+    /** Starts receiving messages published on the topic by other nodes. */
+    void subscribe(String topic);
+
+    void unsubscribe(String topic);
+
+    /** @return how many nodes the message was sent to */
+    int publish(String topic, byte[] payload);
+
+    /** Node ids of this node and every peer it is currently connected to. */
+    Set<String> members();
+
+    @Override
+    void close();
+}
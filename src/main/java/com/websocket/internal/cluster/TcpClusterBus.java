@@ -0,0 +1,592 @@
+package com.websocket.internal.cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ClusterBus over a full mesh of plain TCP connections, no broker in between.
+ *
+ * Membership: a node dials its seeds, and every node periodically sends each peer the list of
+ * nodes it is connected to (which doubles as the heartbeat). Nodes learned that way are dialed
+ * by the one with the smaller id, so the mesh closes without a central registry. A peer that has
+ * sent nothing for failureTimeoutMillis, or whose connection breaks, leaves the view; seeds are
+ * redialed on every heartbeat, so a restarted node rejoins. If two nodes dial each other at the
+ * same time, both keep the connection dialed by the smaller node id.
+ *
+ * Interest: on connect each side sends the full set of topics it subscribes to, then the changes.
+ * The set is taken and queued under the same lock as subscribe/unsubscribe queue their changes, so
+ * a peer never sees a change before a set that does not include it yet. publish() encodes the frame
+ * once and queues it only for peers that want the topic; the receiver checks its own interest
+ * again, which covers the moment an unsubscribe is still in flight.
+ *
+ * Batching: each peer has a bounded frame queue and one writer thread. The writer takes what has
+ * queued up (up to maxBatchBytes) and writes it with a single flush, so under load many frames
+ * share a syscall and a TCP segment; with Nagle off, a lone frame still leaves immediately. Once
+ * peerQueueCapacity PUBLISH frames are queued, further ones are dropped (counted) rather than
+ * blocking the publisher on a slow peer. Control frames (HELLO, MEMBERS, INTEREST_*) are never
+ * dropped: losing one would leave the peer's view of this node wrong until the next reconnect.
+ *
+ * The port is not authenticated; bind it to an address only the other nodes can reach.
+ *
+ * Wire format, all integers big-endian: int length, byte type, then per type
+ *   HELLO           str nodeId, str host, int port
+ *   MEMBERS         int n, n x (str nodeId, str host, int port)
+ *   INTEREST_SET    int n, n x str topic
+ *   INTEREST_ADD    str topic
+ *   INTEREST_REMOVE str topic
+ *   PUBLISH         str topic, int length, bytes
+ * where str is a short length followed by UTF-8.
+ */
+public class TcpClusterBus implements ClusterBus {
+
+    private static final byte HELLO = 1;
+    private static final byte MEMBERS = 2;
+    private static final byte INTEREST_SET = 3;
+    private static final byte INTEREST_ADD = 4;
+    private static final byte INTEREST_REMOVE = 5;
+    private static final byte PUBLISH = 6;
+
+    private static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    private final String nodeId;
+    private final String bindHost;
+    private final int bindPort;
+    private final String advertiseHost;
+    private final List<InetSocketAddress> seeds;
+
+    private int maxBatchBytes = 64 * 1024;
+    private int peerQueueCapacity = 16 * 1024;
+    private long heartbeatMillis = 1000;
+    private long failureTimeoutMillis = 5000;
+
+    private volatile Listener listener = (topic, payload, fromNode) -> {};
+    private final Set<String> interest = ConcurrentHashMap.newKeySet();
+    // Held while interest changes are queued for the peers, and while a new peer is sent the whole set
+    private final Object interestLock = new Object();
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final Set<InetSocketAddress> dialing = ConcurrentHashMap.newKeySet();
+
+    private ServerSocket server;
+    private volatile InetSocketAddress advertised;
+    private ScheduledExecutorService timer;
+    private ExecutorService dialer;
+    private volatile boolean closed;
+
+    final LongAdder published = new LongAdder();
+    final LongAdder framesSent = new LongAdder();
+    final LongAdder batchesSent = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder framesDropped = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder receivedUninterested = new LongAdder();
+
+    /**
+     * @param nodeId        unique per node; null or blank picks a random one
+     * @param bindHost      the address to listen on; null or blank means advertiseHost
+     * @param bindPort      0 picks a free port, see localAddress()
+     * @param advertiseHost the address other nodes dial to reach this one; required
+     * @param seeds         nodes to dial at start and whenever they are not connected; may include this node
+     */
+    public TcpClusterBus(String nodeId, String bindHost, int bindPort, String advertiseHost, List<InetSocketAddress> seeds) {
+        if (advertiseHost == null || advertiseHost.isBlank()) {
+            throw new IllegalArgumentException("The address other nodes dial to reach this one is required");
+        }
+        this.nodeId = nodeId == null || nodeId.isBlank() ? "node-" + UUID.randomUUID().toString().substring(0, 8) : nodeId;
+        this.bindHost = bindHost == null || bindHost.isBlank() ? advertiseHost : bindHost;
+        this.bindPort = bindPort;
+        this.advertiseHost = advertiseHost;
+        this.seeds = List.copyOf(seeds);
+    }
+
+    /** Parses "host:port,host:port". */
+    public static List<InetSocketAddress> parseAddresses(String addresses) {
+        List<InetSocketAddress> result = new ArrayList<>();
+        if (addresses == null) return result;
+        for (String address : addresses.split(",")) {
+            address = address.trim();
+            if (address.isEmpty()) continue;
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("Expected host:port, got " + address);
+            result.add(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+        }
+        return result;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public void setPeerQueueCapacity(int peerQueueCapacity) {
+        this.peerQueueCapacity = peerQueueCapacity;
+    }
+
+    public void setHeartbeatMillis(long heartbeatMillis) {
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    public void setFailureTimeoutMillis(long failureTimeoutMillis) {
+        this.failureTimeoutMillis = failureTimeoutMillis;
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public InetSocketAddress localAddress() {
+        return advertised;
+    }
+
+    @Override
+    public void start() throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(bindHost, bindPort));
+        advertised = new InetSocketAddress(advertiseHost, server.getLocalPort());
+        daemon("cluster-" + nodeId + "-accept").newThread(this::acceptLoop).start();
+        dialer = Executors.newCachedThreadPool(daemon("cluster-" + nodeId + "-dial"));
+        timer = Executors.newSingleThreadScheduledExecutor(daemon("cluster-" + nodeId + "-heartbeat"));
+        timer.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        System.out.println("Cluster node " + nodeId + " listening on " + server.getLocalSocketAddress() + ", seeds " + seeds);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {
+        }
+        if (timer != null) timer.shutdownNow();
+        if (dialer != null) dialer.shutdownNow();
+        peers.values().forEach(p -> p.close("node closed"));
+    }
+
+    @Override
+    public void subscribe(String topic) {
+        synchronized (interestLock) {
+            if (!interest.add(topic)) return;
+            byte[] frame = topicFrame(INTEREST_ADD, topic);
+            for (Peer peer : peers.values()) peer.send(frame);
+        }
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+        synchronized (interestLock) {
+            if (!interest.remove(topic)) return;
+            byte[] frame = topicFrame(INTEREST_REMOVE, topic);
+            for (Peer peer : peers.values()) peer.send(frame);
+        }
+    }
+
+    @Override
+    public int publish(String topic, byte[] payload) {
+        published.increment();
+        byte[] frame = null;
+        int sent = 0;
+        for (Peer peer : peers.values()) {
+            if (!peer.remoteInterest.contains(topic)) continue;
+            if (frame == null) frame = publishFrame(topic, payload); // encoded once for all peers
+            if (peer.publish(frame)) sent++;
+        }
+        return sent;
+    }
+
+    @Override
+    public Set<String> members() {
+        Set<String> members = new TreeSet<>(peers.keySet());
+        members.add(nodeId);
+        return members;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("nodeId", nodeId);
+        m.put("members", members());
+        m.put("localTopics", interest.size());
+        m.put("published", published.sum());
+        m.put("framesSent", framesSent.sum());
+        m.put("batchesSent", batchesSent.sum());
+        m.put("bytesSent", bytesSent.sum());
+        m.put("framesDropped", framesDropped.sum());
+        m.put("received", received.sum());
+        m.put("receivedUninterested", receivedUninterested.sum());
+        return m;
+    }
+
+    // ---- membership ----
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                new Peer(socket, false).start();
+            } catch (IOException e) {
+                if (!closed) System.out.println("Cluster node " + nodeId + " accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            for (InetSocketAddress seed : seeds) {
+                if (!seed.equals(advertised) && !isConnectedTo(seed)) dial(seed);
+            }
+            byte[] members = membersFrame();
+            long now = System.nanoTime();
+            for (Peer peer : peers.values()) {
+                if (now - peer.lastReceived > TimeUnit.MILLISECONDS.toNanos(failureTimeoutMillis)) {
+                    peer.close("no heartbeat for " + failureTimeoutMillis + " ms");
+                } else {
+                    peer.send(members);
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Cluster node " + nodeId + " heartbeat failed: " + e);
+        }
+    }
+
+    private boolean isConnectedTo(InetSocketAddress address) {
+        for (Peer peer : peers.values()) {
+            if (address.equals(peer.remoteAddress)) return true;
+        }
+        return false;
+    }
+
+    private void dial(InetSocketAddress address) {
+        if (closed || !dialing.add(address)) return;
+        dialer.execute(() -> {
+            try {
+                Socket socket = new Socket();
+                socket.connect(address, (int) failureTimeoutMillis);
+                new Peer(socket, true).start();
+            } catch (IOException e) {
+                // Not up (yet); the next heartbeat dials seeds again and gossip re-announces live members
+            } finally {
+                dialing.remove(address);
+            }
+        });
+    }
+
+    private void onMembers(ByteBuffer in) {
+        int n = in.getInt();
+        for (int i = 0; i < n; i++) {
+            String id = getString(in);
+            InetSocketAddress address = new InetSocketAddress(getString(in), in.getInt());
+            // Only the smaller id dials, so two nodes that learn of each other do not both connect
+            if (!id.equals(nodeId) && !peers.containsKey(id) && nodeId.compareTo(id) < 0) dial(address);
+        }
+    }
+
+    /** Makes the peer the connection to its node, unless a connection that wins the tie already exists. */
+    private boolean register(Peer peer) {
+        synchronized (peers) {
+            Peer existing = peers.get(peer.remoteId);
+            if (existing != null) {
+                if (existing.dialerId().compareTo(peer.dialerId()) <= 0) {
+                    peer.close("duplicate connection to " + peer.remoteId);
+                    return false;
+                }
+                existing.close("duplicate connection to " + peer.remoteId);
+            }
+            peers.put(peer.remoteId, peer);
+        }
+        System.out.println("Cluster node " + nodeId + ": " + peer.remoteId + " joined, members " + members());
+        synchronized (interestLock) {
+            peer.send(interestFrame());
+        }
+        byte[] members = membersFrame();
+        for (Peer p : peers.values()) p.send(members);
+        return true;
+    }
+
+    // ---- frames ----
+
+    private byte[] helloFrame() {
+        byte[] id = utf8(nodeId);
+        byte[] host = utf8(advertised.getHostString());
+        ByteBuffer b = frame(HELLO, 2 + id.length + 2 + host.length + 4);
+        putString(b, id);
+        putString(b, host);
+        b.putInt(advertised.getPort());
+        return b.array();
+    }
+
+    private byte[] membersFrame() {
+        List<byte[]> fields = new ArrayList<>();
+        List<Integer> ports = new ArrayList<>();
+        int size = 4;
+        fields.add(utf8(nodeId));
+        fields.add(utf8(advertised.getHostString()));
+        ports.add(advertised.getPort());
+        for (Peer peer : peers.values()) {
+            if (peer.remoteAddress == null) continue;
+            fields.add(utf8(peer.remoteId));
+            fields.add(utf8(peer.remoteAddress.getHostString()));
+            ports.add(peer.remoteAddress.getPort());
+        }
+        for (byte[] f : fields) size += 2 + f.length;
+        size += 4 * ports.size();
+        ByteBuffer b = frame(MEMBERS, size);
+        b.putInt(ports.size());
+        for (int i = 0; i < ports.size(); i++) {
+            putString(b, fields.get(2 * i));
+            putString(b, fields.get(2 * i + 1));
+            b.putInt(ports.get(i));
+        }
+        return b.array();
+    }
+
+    private byte[] interestFrame() {
+        List<byte[]> topics = new ArrayList<>();
+        int size = 4;
+        for (String topic : interest) {
+            byte[] t = utf8(topic);
+            topics.add(t);
+            size += 2 + t.length;
+        }
+        ByteBuffer b = frame(INTEREST_SET, size);
+        b.putInt(topics.size());
+        for (byte[] t : topics) putString(b, t);
+        return b.array();
+    }
+
+    private static byte[] topicFrame(byte type, String topic) {
+        byte[] t = utf8(topic);
+        ByteBuffer b = frame(type, 2 + t.length);
+        putString(b, t);
+        return b.array();
+    }
+
+    static byte[] publishFrame(String topic, byte[] payload) {
+        byte[] t = utf8(topic);
+        ByteBuffer b = frame(PUBLISH, 2 + t.length + 4 + payload.length);
+        putString(b, t);
+        b.putInt(payload.length);
+        b.put(payload);
+        return b.array();
+    }
+
+    private static ByteBuffer frame(byte type, int bodyLength) {
+        ByteBuffer b = ByteBuffer.allocate(4 + 1 + bodyLength);
+        b.putInt(1 + bodyLength);
+        b.put(type);
+        return b;
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Too long: " + s.substring(0, 64) + "...");
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer b, byte[] utf8) {
+        b.putShort((short) utf8.length);
+        b.put(utf8);
+    }
+
+    private static String getString(ByteBuffer b) {
+        int length = b.getShort() & 0xFFFF;
+        String s = new String(b.array(), b.arrayOffset() + b.position(), length, StandardCharsets.UTF_8);
+        b.position(b.position() + length);
+        return s;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            int i = n.getAndIncrement();
+            Thread t = new Thread(r, i == 0 ? name : name + "-" + i);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /** Topics the peer told this node it subscribes to; empty if it is not connected. */
+    Set<String> remoteInterest(String peerId) {
+        Peer peer = peers.get(peerId);
+        return peer == null ? Set.of() : Set.copyOf(peer.remoteInterest);
+    }
+
+    /** One connection to another node: a reader thread, and a writer thread that batches. */
+    private final class Peer {
+        final Socket socket;
+        final boolean dialed;
+        // Unbounded for control frames; PUBLISH frames are limited by queuedPublishes
+        final BlockingQueue<byte[]> outbox = new LinkedBlockingQueue<>();
+        final AtomicInteger queuedPublishes = new AtomicInteger();
+        final Set<String> remoteInterest = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean closed = new AtomicBoolean();
+        volatile String remoteId;
+        volatile InetSocketAddress remoteAddress;
+        volatile long lastReceived = System.nanoTime();
+        private Thread writer;
+
+        Peer(Socket socket, boolean dialed) throws SocketException {
+            this.socket = socket;
+            this.dialed = dialed;
+            socket.setTcpNoDelay(true); // frames are batched here
+            socket.setKeepAlive(true);
+        }
+
+        String dialerId() {
+            return dialed ? nodeId : remoteId;
+        }
+
+        void start() {
+            outbox.add(helloFrame());
+            String name = "cluster-" + nodeId + (dialed ? "-to-" : "-from-") + socket.getRemoteSocketAddress();
+            writer = daemon(name + "-writer").newThread(this::writeLoop);
+            writer.start();
+            daemon(name + "-reader").newThread(this::readLoop).start();
+        }
+
+        /** Queues a control frame; never dropped while the connection is open. */
+        void send(byte[] frame) {
+            if (!closed.get()) outbox.add(frame);
+        }
+
+        /** Queues a PUBLISH frame, unless peerQueueCapacity of them are already waiting. */
+        boolean publish(byte[] frame) {
+            if (closed.get()) return false;
+            if (queuedPublishes.incrementAndGet() > peerQueueCapacity) {
+                queuedPublishes.decrementAndGet();
+                framesDropped.increment();
+                return false;
+            }
+            outbox.add(frame);
+            return true;
+        }
+
+        private void writeLoop() {
+            try {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), maxBatchBytes);
+                while (!closed.get()) {
+                    byte[] frame = outbox.take();
+                    int bytes = 0;
+                    int frames = 0;
+                    do {
+                        out.write(frame);
+                        if (frame[4] == PUBLISH) queuedPublishes.decrementAndGet();
+                        bytes += frame.length;
+                        frames++;
+                    } while (bytes < maxBatchBytes && (frame = outbox.poll()) != null);
+                    out.flush();
+                    framesSent.add(frames);
+                    bytesSent.add(bytes);
+                    batchesSent.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                close("write failed: " + e.getMessage());
+            }
+        }
+
+        private void readLoop() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                while (!closed.get()) {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_FRAME) throw new IOException("Bad frame length " + length);
+                    byte[] frame = new byte[length];
+                    in.readFully(frame);
+                    lastReceived = System.nanoTime();
+                    handle(ByteBuffer.wrap(frame));
+                }
+            } catch (EOFException e) {
+                close("closed by peer");
+            } catch (IOException | RuntimeException e) {
+                close("read failed: " + e.getMessage());
+            }
+        }
+
+        private void handle(ByteBuffer in) {
+            byte type = in.get();
+            if (remoteId == null && type != HELLO) throw new IllegalStateException("Expected HELLO, got " + type);
+            switch (type) {
+                case HELLO -> {
+                    String id = getString(in);
+                    remoteAddress = new InetSocketAddress(getString(in), in.getInt());
+                    remoteId = id;
+                    if (id.equals(nodeId)) {
+                        close("connected to itself");
+                    } else {
+                        register(this);
+                    }
+                }
+                case MEMBERS -> onMembers(in);
+                case INTEREST_SET -> {
+                    int n = in.getInt();
+                    Set<String> topics = new TreeSet<>();
+                    for (int i = 0; i < n; i++) topics.add(getString(in));
+                    remoteInterest.retainAll(topics);
+                    remoteInterest.addAll(topics);
+                }
+                case INTEREST_ADD -> remoteInterest.add(getString(in));
+                case INTEREST_REMOVE -> remoteInterest.remove(getString(in));
+                case PUBLISH -> {
+                    String topic = getString(in);
+                    byte[] payload = new byte[in.getInt()];
+                    in.get(payload);
+                    if (!interest.contains(topic)) {
+                        receivedUninterested.increment();
+                        return;
+                    }
+                    received.increment();
+                    try {
+                        listener.onMessage(topic, payload, remoteId);
+                    } catch (RuntimeException e) {
+                        System.out.println("Cluster node " + nodeId + " listener failed for " + topic + ": " + e);
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown frame type " + type);
+            }
+        }
+
+        void close(String reason) {
+            if (!closed.compareAndSet(false, true)) return;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            if (writer != null) writer.interrupt();
+            if (remoteId != null && peers.remove(remoteId, this)) {
+                System.out.println("Cluster node " + nodeId + ": " + remoteId + " left (" + reason + "), members " + members());
+            }
+        }
+    }
+}
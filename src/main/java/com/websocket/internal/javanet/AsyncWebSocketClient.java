@@ -0,0 +1,152 @@
+package com.websocket.internal.javanet;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking WebSocket client for holding many connections on a few threads.
+ *
+ * One instance owns a small set of selector I/O loops and a shared read-buffer pool; every
+ * connection opened through it is pinned to one loop. Sends are pipelined: they are encoded on
+ * the caller's thread, queued, and written by the loop with gathering writes, without waiting
+ * for replies. Received messages are delivered to a WebSocketListener on the loop thread.
+ *
+ *   AsyncWebSocketClient client = new AsyncWebSocketClient(2);
+ *   client.connect("localhost", 8080, "/", listener)
+ *         .thenAccept(conn -> conn.sendText("hello"));
+ */
+public class AsyncWebSocketClient implements AutoCloseable {
+
+    static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    final BufferPool bufferPool = new BufferPool(READ_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private volatile long closeTimeoutMillis = 5000;
+
+    public AsyncWebSocketClient(int ioThreads) throws IOException {
+        loops = new IoLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop("ws-client-io-" + i);
+            loops[i].thread.start();
+        }
+    }
+
+    public AsyncWebSocketClient() throws IOException {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /** How long close() waits for the server's close frame before dropping the connection. */
+    public void setCloseTimeoutMillis(long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    long closeTimeoutMillis() {
+        return closeTimeoutMillis;
+    }
+
+    /** Opens a connection and completes once the server's 101 response has been validated. */
+    public CompletableFuture<WebSocketConnection> connect(String host, int port, String path, WebSocketListener listener) {
+        IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        WebSocketConnection connection = new WebSocketConnection(this, loop, host, port, path, listener);
+        loop.connections.add(connection);
+        if (loop.stopped) {
+            // The loop has already failed its connections and will not run startConnect
+            connection.abort(new IOException("Client closed"));
+        } else {
+            loop.execute(connection::startConnect);
+        }
+        return connection.openFuture();
+    }
+
+    @Override
+    public void close() {
+        for (IoLoop loop : loops) loop.shutdown();
+    }
+
+    /* ----------------------------- I/O loop ----------------------------- */
+
+    static final class IoLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        private volatile boolean running = true;
+        // Every connection pinned to this loop until its channel closes, including ones still waiting for startConnect
+        final Set<WebSocketConnection> connections = ConcurrentHashMap.newKeySet();
+        volatile boolean stopped;
+
+        IoLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            // Coalesce wakeups: one selector.wakeup() per select() round is enough
+            if (!inLoop() && wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    // Tasks queued from inside the loop (e.g. a flush scheduled by a callback) must not wait for I/O
+                    if (tasks.isEmpty()) selector.select(); else selector.selectNow();
+                    wakeupPending.set(false);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            System.out.println("[CLIENT-IO] Task failed: " + e);
+                        }
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        WebSocketConnection connection = (WebSocketConnection) key.attachment();
+                        try {
+                            connection.onReady(key);
+                        } catch (RuntimeException e) {
+                            // A bug on one connection fails that connection, not every one on this loop
+                            System.out.println("[CLIENT-IO] Connection failed: " + e);
+                            connection.abort(e);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("[CLIENT-IO] Selector failed: " + e.getMessage());
+                }
+            }
+            // Queued tasks (connects, flushes, close timeouts) are dropped; their connections fail here
+            stopped = true;
+            tasks.clear();
+            for (WebSocketConnection connection : connections) connection.abort(new IOException("Client closed"));
+            try { selector.close(); } catch (IOException ignored) {}
+        }
+    }
+}
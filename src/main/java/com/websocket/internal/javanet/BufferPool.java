@@ -0,0 +1,45 @@
+package com.websocket.internal.javanet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size heap ByteBuffer pool shared by the I/O threads of an AsyncWebSocketClient.
+ *
+ * Connections only hold a read buffer while they have unparsed bytes, so thousands of idle
+ * sockets cost no buffer memory. Buffers of any other capacity (grown for oversized frames)
+ * are dropped on release.
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer b = free.poll();
+        if (b == null) return ByteBuffer.allocate(bufferSize);
+        pooled.decrementAndGet();
+        return b.clear();
+    }
+
+    void release(ByteBuffer b) {
+        if (b == null || b.capacity() != bufferSize) return;
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(b.clear());
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
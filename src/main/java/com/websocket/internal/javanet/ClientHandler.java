@@ -23,6 +23,13 @@ import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
+import com.websocket.internal.javanet.WebSocketEvents.AssemblyEvent;
+import com.websocket.internal.javanet.WebSocketEvents.DeflateEvent;
+import com.websocket.internal.javanet.WebSocketEvents.FrameReadEvent;
+import com.websocket.internal.javanet.WebSocketEvents.FrameWriteEvent;
+import com.websocket.internal.javanet.WebSocketEvents.HandshakeEvent;
+import com.websocket.internal.javanet.WebSocketEvents.InflateEvent;
+
 //      HEX BINARY
 
 //      0	0000
@@ -56,6 +63,7 @@ import java.util.zip.Inflater;
 public class ClientHandler implements Runnable {
     private static final int CTRL_MAX_LEN = 125;           // RFC: control frames ≤ 125
     private static final long MAX_MESSAGE_BYTES = 16 * 1024 * 1024; // 16 MB assembled message limit
+    public static final String DEFLATE_LEVEL_PROPERTY = "websocket.deflate.level";
 
     private final Socket client;
     private InputStream is;
@@ -64,10 +72,14 @@ public class ClientHandler implements Runnable {
     // Fragmentation assembly state
     private boolean assembling = false;
     private int assemblingType = 0; // 1 = text, 2 = binary
+    private boolean assemblingCompressed = false; // RSV1 was set on the first fragment
     private ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+    private AssemblyEvent assemblyEvent; // JFR: spans first fragment to final continuation
+    private int assemblyFragments = 0;
 
     // Compression negotiation flag (permessage-deflate)
     private final AtomicBoolean perMessageDeflate = new AtomicBoolean(false);
+    private final int deflateLevel = Integer.getInteger(DEFLATE_LEVEL_PROPERTY, Deflater.BEST_COMPRESSION);
 
     public ClientHandler(Socket client) {
         this.client = client;
@@ -80,6 +92,8 @@ public class ClientHandler implements Runnable {
             this.out = client.getOutputStream();
 
             // Handshake and negotiate extensions
+            HandshakeEvent handshakeEvent = new HandshakeEvent();
+            handshakeEvent.begin();
             System.out.println("[HANDSHAKE] Starting handshake with " + client.getRemoteSocketAddress());
             BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.US_ASCII));
             String line;
@@ -99,7 +113,14 @@ public class ClientHandler implements Runnable {
                     origin = line.split(":",2)[1].trim();
                 }
             }
-            if (wsKey == null) throw new IOException("Missing Sec-WebSocket-Key");
+            if (wsKey == null) {
+                if (handshakeEvent.shouldCommit()) {
+                    handshakeEvent.remoteAddress = String.valueOf(client.getRemoteSocketAddress());
+                    handshakeEvent.success = false;
+                    handshakeEvent.commit();
+                }
+                throw new IOException("Missing Sec-WebSocket-Key");
+            }
 
             // Decide on permessage-deflate
             boolean clientRequestedPMD = false;
@@ -131,12 +152,21 @@ public class ClientHandler implements Runnable {
             resp.append("\r\n");
             out.write(resp.toString().getBytes(StandardCharsets.US_ASCII));
             out.flush();
+            if (handshakeEvent.shouldCommit()) {
+                handshakeEvent.remoteAddress = String.valueOf(client.getRemoteSocketAddress());
+                handshakeEvent.perMessageDeflate = perMessageDeflate.get();
+                handshakeEvent.success = true;
+                handshakeEvent.commit();
+            }
 
             System.out.println("Handshake OK (PMD=" + perMessageDeflate.get() + ") for " + client.getRemoteSocketAddress());
 
             // Frame loop
             while (true) {
                 int b1 = readByte();
+                // Timed from the first header byte so idle time between frames is not counted
+                FrameReadEvent readEvent = new FrameReadEvent();
+                readEvent.begin();
                 int b2 = readByte();
                 boolean fin = (b1 & 0x80) != 0;
                 boolean rsv1 = (b1 & 0x40) != 0;
@@ -189,10 +219,29 @@ public class ClientHandler implements Runnable {
 
                 // Unmask
                 for (int i = 0; i < payload.length; i++) payload[i] = (byte)(payload[i] ^ mask[i & 3]);
+                if (readEvent.shouldCommit()) {
+                    readEvent.opcode = opcode;
+                    readEvent.fin = fin;
+                    readEvent.compressed = rsv1;
+                    readEvent.payloadLength = payloadLen;
+                    readEvent.commit();
+                }
 
-                // If RSV1 and permessage-deflate: inflate (no_context_takeover semantics)
-                if (rsv1 && perMessageDeflate.get()) {
+                // RSV1 is only valid on the first frame of a message (RFC 7692)
+                if (rsv1 && (isControl || opcode == 0x0)) {
+                    System.out.println("[ERROR] RSV1 on control/continuation frame");
+                    sendCloseAndRemove(1002, "RSV1 only allowed on the first frame of a message");
+                    return;
+                }
+
+                // If RSV1 and permessage-deflate: inflate (no_context_takeover semantics).
+                // A fragmented compressed message is one DEFLATE stream, so it is inflated once assembled.
+                if (rsv1 && fin) {
                     payload = inflatePerMessage(payload);
+                    if (payload == null) {
+                        sendCloseAndRemove(1009, "Inflated message too large");
+                        return;
+                    }
                     System.out.println("[DECOMPRESS] Inflated payload, new len=" + payload.length);
                     // after deflate/inflate, RSV1 is considered consumed
                 }
@@ -214,7 +263,7 @@ public class ClientHandler implements Runnable {
                             WebSocketApplication.broadcast(msg, this);
                             System.out.println("[TEXT] Complete message: " + msg);
                         } else {
-                            startAssembly(0x1);
+                            startAssembly(0x1, rsv1);
                             appendAssembly(payload);
                             System.out.println("[TEXT] Started fragmentation assembly");
                         }
@@ -230,7 +279,7 @@ public class ClientHandler implements Runnable {
                             System.out.println("[BINARY] Complete binary msg (" + payload.length + " bytes)");
                             WebSocketApplication.broadcastBinary(payload, this);
                         } else {
-                            startAssembly(0x2);
+                            startAssembly(0x2, rsv1);
                             appendAssembly(payload);
                             System.out.println("[BINARY] Started fragmentation assembly");
                         }
@@ -246,7 +295,16 @@ public class ClientHandler implements Runnable {
                         appendAssembly(payload);
                         if (fin) {
                             int tempAssemblingType = assemblingType;
+                            boolean tempCompressed = assemblingCompressed;
                             byte[] full = endAssembly();
+                            if (tempCompressed) {
+                                full = inflatePerMessage(full);
+                                if (full == null) {
+                                    sendCloseAndRemove(1009, "Inflated message too large");
+                                    return;
+                                }
+                                System.out.println("[DECOMPRESS] Inflated reassembled payload, new len=" + full.length);
+                            }
                             if (tempAssemblingType == 0x1) {
                                 if (!isValidUtf8(full)) {
                                     sendCloseAndRemove(1007, "Invalid UTF-8 in reassembled text");
@@ -298,11 +356,15 @@ public class ClientHandler implements Runnable {
 
     /* ----------------------------- Fragmentation ---------------------------- */
 
-    private void startAssembly(int opcode) {
-        System.out.println("[ASSEMBLY] Start assembly, type=" + (opcode==1?"TEXT":"BINARY"));
+    private void startAssembly(int opcode, boolean compressed) {
+        System.out.println("[ASSEMBLY] Start assembly, type=" + (opcode==1?"TEXT":"BINARY") + ", compressed=" + compressed);
         assembling = true;
         assemblingType = opcode;
+        assemblingCompressed = compressed;
         buffer.reset();
+        assemblyFragments = 0;
+        assemblyEvent = new AssemblyEvent();
+        assemblyEvent.begin();
     }
 
     private void appendAssembly(byte[] chunk) throws IOException {
@@ -310,15 +372,24 @@ public class ClientHandler implements Runnable {
             throw new IOException("Assembled message too large");
         }
         buffer.write(chunk);
+        assemblyFragments++;
         System.out.println("[ASSEMBLY] Appended " + chunk.length + " bytes (total=" + buffer.size() + ")");
     }
 
     private byte[] endAssembly() {
         assembling = false;
-//        int t = assemblingType;
+        int type = assemblingType;
         assemblingType = 0;
+        assemblingCompressed = false;
         byte[] data = buffer.toByteArray();
         buffer.reset();
+        if (assemblyEvent != null && assemblyEvent.shouldCommit()) {
+            assemblyEvent.opcode = type;
+            assemblyEvent.fragments = assemblyFragments;
+            assemblyEvent.messageLength = data.length;
+            assemblyEvent.commit();
+        }
+        assemblyEvent = null;
         System.out.println("[ASSEMBLY] End assembly, total=" + data.length + " bytes");
         return data;
     }
@@ -327,10 +398,14 @@ public class ClientHandler implements Runnable {
 
     // Inflate permessage-deflate payload (no_context_takeover). Browsers usually send raw DEFLATE data
     // terminated with 0x00 0x00 0xff 0xff removed per RFC 7692. Many clients include that tail; if present we handle both.
+    // Returns null once the output passes MAX_MESSAGE_BYTES: the frame size limit only bounds the
+    // compressed input, and a few KB of DEFLATE can expand to gigabytes.
     private byte[] inflatePerMessage(byte[] compressed) throws IOException, DataFormatException {
         // Some implementations omit the RFC7692 tail; some include it. Try both ways.
         // We'll first try with a zlib wrapper (nowrap=false) fallback to nowrap=true if needed.
         // But permessage-deflate expects raw DEFLATE (no zlib header). We'll try nowrap=true by default.
+        InflateEvent event = new InflateEvent();
+        event.begin();
 
         Inflater inflater = new Inflater(true); // nowrap=true
         inflater.setInput(compressed);
@@ -340,6 +415,10 @@ public class ClientHandler implements Runnable {
             int r = inflater.inflate(tmp);
             if (r == 0) break;
             baos.write(tmp, 0, r);
+            if (baos.size() > MAX_MESSAGE_BYTES) {
+                inflater.end();
+                return null;
+            }
         }
         // If inflater didn't finish (maybe missing tail), try adding the 0x00 0x00 0xff 0xff tail (RFC tweak)
         if (!inflater.finished()) {
@@ -358,15 +437,27 @@ public class ClientHandler implements Runnable {
                 int r = inflater.inflate(tmp);
                 if (r == 0) break;
                 baos.write(tmp, 0, r);
+                if (baos.size() > MAX_MESSAGE_BYTES) {
+                    inflater.end();
+                    return null;
+                }
             }
         }
         inflater.end();
-        return baos.toByteArray();
+        byte[] inflated = baos.toByteArray();
+        if (event.shouldCommit()) {
+            event.inputLength = compressed.length;
+            event.outputLength = inflated.length;
+            event.commit();
+        }
+        return inflated;
     }
 
     // Deflate payload for permessage-deflate (no_context_takeover). We produce raw DEFLATE bytes (nowrap=true).
     private byte[] deflatePerMessage(byte[] data) throws IOException {
-        Deflater def = new Deflater(Deflater.BEST_COMPRESSION, true); // nowrap=true
+        DeflateEvent event = new DeflateEvent();
+        event.begin();
+        Deflater def = new Deflater(deflateLevel, true); // nowrap=true
         def.setInput(data);
         def.finish();
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -382,9 +473,15 @@ public class ClientHandler implements Runnable {
         if (outBytes.length >= 4) {
             int n = outBytes.length;
             if ((outBytes[n-4] == 0x00) && (outBytes[n-3] == 0x00) && (outBytes[n-2] == (byte)0xFF) && (outBytes[n-1] == (byte)0xFF)) {
-                return Arrays.copyOf(outBytes, n-4);
+                outBytes = Arrays.copyOf(outBytes, n-4);
             }
         }
+        if (event.shouldCommit()) {
+            event.inputLength = data.length;
+            event.outputLength = outBytes.length;
+            event.level = deflateLevel;
+            event.commit();
+        }
         return outBytes;
     }
 
@@ -417,17 +514,30 @@ public class ClientHandler implements Runnable {
 
     private void sendControlFrame(byte opcode, byte[] payload) throws IOException {
         // Control frames must be <=125 and not masked (server->client)
+        FrameWriteEvent event = new FrameWriteEvent();
+        event.begin();
+        long lockRequested = System.nanoTime();
+        long lockWait;
         synchronized (out) {
+            lockWait = System.nanoTime() - lockRequested;
             out.write(0x80 | (opcode & 0x0F));
             out.write(payload.length & 0x7F);
             if (payload.length > 0) out.write(payload);
             out.flush();
         }
+        commitWrite(event, opcode, false, payload.length, lockWait);
     }
 
     private void sendDataFrame(byte opcode, byte[] payload, boolean compress) throws IOException {
         System.out.printf("[SEND] Sending frame: OPCODE=0x%X, PayloadLen=%d%n", opcode, payload.length);
+        FrameWriteEvent event = new FrameWriteEvent();
+        event.begin();
+        long lockRequested = System.nanoTime();
+        long lockWait;
+        int wireLength;
+        boolean compressed;
         synchronized (out) {
+            lockWait = System.nanoTime() - lockRequested;
             byte[] outPayload = payload;
             int rsv = 0;
             if (compress && outPayload.length > 0) {
@@ -456,7 +566,10 @@ public class ClientHandler implements Runnable {
             }
             if (len > 0) out.write(outPayload);
             out.flush();
+            wireLength = len;
+            compressed = rsv != 0;
         }
+        commitWrite(event, opcode, compressed, wireLength, lockWait);
     }
 
     private void sendCloseAndRemove(int code, String reason) throws IOException {
@@ -474,13 +587,29 @@ public class ClientHandler implements Runnable {
             baos.write(r, 0, Math.min(r.length, CTRL_MAX_LEN - 2));
         }
         byte[] payload = baos.toByteArray();
+        FrameWriteEvent event = new FrameWriteEvent();
+        event.begin();
+        long lockRequested = System.nanoTime();
+        long lockWait;
         synchronized (out) {
+            lockWait = System.nanoTime() - lockRequested;
             out.write((byte)(0x80 | 0x8)); // FIN + opcode 8
             int len = payload.length;
             out.write(len & 0x7F);
             if (len > 0) out.write(payload);
             out.flush();
         }
+        commitWrite(event, 0x8, false, payload.length, lockWait);
+    }
+
+    private static void commitWrite(FrameWriteEvent event, int opcode, boolean compressed, long wireLength, long lockWait) {
+        if (event.shouldCommit()) {
+            event.opcode = opcode;
+            event.lockWait = lockWait;
+            event.compressed = compressed;
+            event.payloadLength = wireLength;
+            event.commit();
+        }
     }
 
     /* ----------------------------- Close handling ------------------------- */
@@ -0,0 +1,54 @@
+package com.websocket.internal.javanet;
+
+import java.security.SecureRandom;
+
+/**
+ * Source of client frame masking keys (RFC 6455 5.3).
+ *
+ * Keys must be unpredictable, so they still come from a SecureRandom, but are drawn in bulk:
+ * one nextBytes() call refills 1024 keys, instead of one synchronized call per frame.
+ * The default SecureRandom on Linux reads /dev/urandom and never blocks after boot.
+ */
+final class MaskGenerator {
+
+    private static final int KEYS_PER_REFILL = 1024;
+
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] pool = new byte[KEYS_PER_REFILL * 4];
+    private int next = pool.length;
+
+    /** Returns the next 32-bit masking key, big-endian as it goes on the wire. */
+    synchronized int nextMask() {
+        if (next == pool.length) {
+            random.nextBytes(pool);
+            next = 0;
+        }
+        int mask = ((pool[next] & 0xFF) << 24) | ((pool[next + 1] & 0xFF) << 16)
+              | ((pool[next + 2] & 0xFF) << 8) | (pool[next + 3] & 0xFF);
+        next += 4;
+        return mask;
+    }
+
+    /**
+     * XORs len bytes of src into dst with the given key. Masking is position-dependent,
+     * so callers that split a payload pass the payload offset the chunk starts at.
+     */
+    static void mask(byte[] src, int srcOff, byte[] dst, int dstOff, int len, int mask, long payloadOffset) {
+        int shift = (int) (payloadOffset & 3);
+        byte m0 = (byte) (mask >>> (24 - 8 * shift));
+        byte m1 = (byte) (mask >>> (24 - 8 * ((shift + 1) & 3)));
+        byte m2 = (byte) (mask >>> (24 - 8 * ((shift + 2) & 3)));
+        byte m3 = (byte) (mask >>> (24 - 8 * ((shift + 3) & 3)));
+        int i = 0;
+        for (int end = len & ~3; i < end; i += 4) {
+            dst[dstOff + i] = (byte) (src[srcOff + i] ^ m0);
+            dst[dstOff + i + 1] = (byte) (src[srcOff + i + 1] ^ m1);
+            dst[dstOff + i + 2] = (byte) (src[srcOff + i + 2] ^ m2);
+            dst[dstOff + i + 3] = (byte) (src[srcOff + i + 3] ^ m3);
+        }
+        for (; i < len; i++) {
+            int k = (i & 3) == 0 ? m0 : (i & 3) == 1 ? m1 : (i & 3) == 2 ? m2 : m3;
+            dst[dstOff + i] = (byte) (src[srcOff + i] ^ k);
+        }
+    }
+}
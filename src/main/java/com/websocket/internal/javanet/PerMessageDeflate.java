@@ -0,0 +1,195 @@
+package com.websocket.internal.javanet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Client side of permessage-deflate (RFC 7692): builds the offer, validates the server's
+ * response and holds one Deflater/Inflater pair for the lifetime of the connection.
+ *
+ * With context takeover the compressor and decompressor keep their 32 KB history between
+ * messages, which is where most of the gain on repetitive JSON comes from. Not thread-safe:
+ * compress() is called under the client's write lock, decompress() from its reader thread.
+ *
+ * java.util.zip always compresses with a 15-bit window, so the client never offers
+ * client_max_window_bits. The Inflater accepts any window, so server_max_window_bits can be
+ * requested freely to cut server memory.
+ */
+public final class PerMessageDeflate {
+
+    static final String EXTENSION = "permessage-deflate";
+    private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+    private static final int MAX_INFLATED_BYTES = 16 * 1024 * 1024;
+
+    /** Client-side settings; fluent so callers can write new Options().level(1).threshold(512). */
+    public static final class Options {
+        int level = Deflater.DEFAULT_COMPRESSION;
+        int threshold = 256;
+        boolean clientNoContextTakeover = false;
+        boolean serverNoContextTakeover = false;
+        int serverMaxWindowBits = 15;
+
+        public Options level(int level) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Deflate level out of range: " + level);
+            }
+            this.level = level;
+            return this;
+        }
+
+        /** Messages smaller than this many bytes are sent uncompressed. */
+        public Options threshold(int bytes) {
+            this.threshold = Math.max(0, bytes);
+            return this;
+        }
+
+        public Options clientNoContextTakeover(boolean value) {
+            this.clientNoContextTakeover = value;
+            return this;
+        }
+
+        public Options serverNoContextTakeover(boolean value) {
+            this.serverNoContextTakeover = value;
+            return this;
+        }
+
+        public Options serverMaxWindowBits(int bits) {
+            if (bits < 8 || bits > 15) throw new IllegalArgumentException("Window bits must be 8..15: " + bits);
+            this.serverMaxWindowBits = bits;
+            return this;
+        }
+    }
+
+    final int threshold;
+    final boolean clientNoContextTakeover;
+    final boolean serverNoContextTakeover;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true); // raw DEFLATE, no zlib header
+
+    // Reused output buffers; grown on demand and kept for the connection
+    private byte[] compressed = new byte[8192];
+    private int compressedLength;
+    private byte[] inflated = new byte[8192];
+
+    private PerMessageDeflate(Options options, boolean clientNoContextTakeover, boolean serverNoContextTakeover) {
+        this.threshold = options.threshold;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.deflater = new Deflater(options.level, true);
+    }
+
+    /** Value for the Sec-WebSocket-Extensions request header. */
+    static String offer(Options options) {
+        StringBuilder sb = new StringBuilder(EXTENSION);
+        if (options.clientNoContextTakeover) sb.append("; client_no_context_takeover");
+        if (options.serverNoContextTakeover) sb.append("; server_no_context_takeover");
+        if (options.serverMaxWindowBits < 15) sb.append("; server_max_window_bits=").append(options.serverMaxWindowBits);
+        return sb.toString();
+    }
+
+    /**
+     * Parses the server's Sec-WebSocket-Extensions response. Returns null when the server
+     * declined permessage-deflate, throws if it answered with parameters we cannot honour.
+     */
+    static PerMessageDeflate accept(String responseHeader, Options options) throws IOException {
+        if (responseHeader == null) return null;
+        for (String extension : responseHeader.split(",")) {
+            String[] params = extension.split(";");
+            if (!params[0].trim().equalsIgnoreCase(EXTENSION)) continue;
+
+            boolean clientNoTakeover = options.clientNoContextTakeover;
+            boolean serverNoTakeover = false;
+            for (int i = 1; i < params.length; i++) {
+                String[] kv = params[i].split("=", 2);
+                String name = kv[0].trim().toLowerCase(Locale.ROOT);
+                String value = kv.length > 1 ? kv[1].trim().replace("\"", "") : null;
+                switch (name) {
+                    case "client_no_context_takeover" -> clientNoTakeover = true;
+                    case "server_no_context_takeover" -> serverNoTakeover = true;
+                    case "server_max_window_bits" -> parseWindowBits(name, value);
+                    case "client_max_window_bits" -> {
+                        // Not offered; tolerate only the value we use anyway
+                        if (parseWindowBits(name, value) != 15) {
+                            throw new IOException("Server requires client_max_window_bits=" + value + ", only 15 is supported");
+                        }
+                    }
+                    default -> throw new IOException("Unknown permessage-deflate parameter: " + name);
+                }
+            }
+            return new PerMessageDeflate(options, clientNoTakeover, serverNoTakeover);
+        }
+        return null;
+    }
+
+    private static int parseWindowBits(String name, String value) throws IOException {
+        try {
+            int bits = Integer.parseInt(value);
+            if (bits >= 8 && bits <= 15) return bits;
+        } catch (NumberFormatException | NullPointerException ignored) {
+            // fall through
+        }
+        throw new IOException("Invalid " + name + ": " + value);
+    }
+
+    /**
+     * Compresses one message with a sync flush and strips the trailing 00 00 FF FF.
+     * The result is valid until the next call: read it through compressedBuffer()/compressedLength().
+     */
+    void compress(byte[] data, int off, int len) {
+        deflater.setInput(data, off, len);
+        int pos = 0;
+        while (true) {
+            int n = deflater.deflate(compressed, pos, compressed.length - pos, Deflater.SYNC_FLUSH);
+            pos += n;
+            if (pos < compressed.length) break; // output space left over: flush is complete
+            compressed = Arrays.copyOf(compressed, compressed.length * 2);
+        }
+        if (pos >= 4 && compressed[pos - 4] == 0x00 && compressed[pos - 3] == 0x00
+              && compressed[pos - 2] == (byte) 0xFF && compressed[pos - 1] == (byte) 0xFF) {
+            pos -= 4;
+        }
+        compressedLength = pos;
+        if (clientNoContextTakeover) deflater.reset();
+    }
+
+    byte[] compressedBuffer() {
+        return compressed;
+    }
+
+    int compressedLength() {
+        return compressedLength;
+    }
+
+    /** Inflates one complete message (all fragments joined). */
+    byte[] decompress(byte[] payload) throws DataFormatException {
+        int pos = inflateInto(payload, 0);
+        // The server may have ended its stream with BFINAL (e.g. Deflater.finish()); then the
+        // tail is not needed and the next message starts a new stream.
+        if (!inflater.finished()) pos = inflateInto(TAIL, pos);
+        if (inflater.finished() || serverNoContextTakeover) inflater.reset();
+        return Arrays.copyOf(inflated, pos);
+    }
+
+    private int inflateInto(byte[] input, int pos) throws DataFormatException {
+        inflater.setInput(input);
+        while (!inflater.finished()) {
+            if (pos == inflated.length) {
+                if (inflated.length >= MAX_INFLATED_BYTES) throw new DataFormatException("Inflated message too large");
+                inflated = Arrays.copyOf(inflated, Math.min(inflated.length * 2, MAX_INFLATED_BYTES));
+            }
+            int n = inflater.inflate(inflated, pos, inflated.length - pos);
+            pos += n;
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+        }
+        return pos;
+    }
+
+    void end() {
+        deflater.end();
+        inflater.end();
+    }
+}
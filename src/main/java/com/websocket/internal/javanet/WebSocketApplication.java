@@ -1,17 +1,24 @@
 package com.websocket.internal.javanet;
 
+import com.websocket.internal.javanet.WebSocketEvents.BroadcastEvent;
+
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSocket;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * WebSocket broadcast server with:
@@ -39,6 +46,12 @@ public class WebSocketApplication {
           new ThreadPoolExecutor.AbortPolicy()
     );
 
+    // Connections shed because the pool and its queue were full
+    public static final AtomicLong rejectedConnections = new AtomicLong();
+    private static final byte[] SERVICE_UNAVAILABLE =
+          "HTTP/1.1 503 Service Unavailable\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII);
+
     public static void main(String[] args) throws Exception {
         int port = 8080;
 //        int tlsPort = 8443;
@@ -55,34 +68,74 @@ public class WebSocketApplication {
 //            clients.add(handler);
 //            executor.execute(handler);
 //        }
+//        or simply: serve(sslServer);
 
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("WebSocket broadcast server (thread pool + permessage-deflate + fragmentation) on port " + port);
-            while (true) {
-                final Socket client = serverSocket.accept();
-                client.setTcpNoDelay(true);
-                ClientHandler handler = new ClientHandler(client);
-                clients.add(handler);
-                executor.execute(handler);
-            }
+            serve(serverSocket);
         } finally {
             executor.shutdown();
         }
     }
 
+    // Accept loop shared by ws:// and wss:// listeners
+    public static void serve(ServerSocket serverSocket) throws IOException {
+        while (true) {
+            final Socket client = serverSocket.accept();
+            client.setTcpNoDelay(true);
+            ClientHandler handler = new ClientHandler(client);
+            clients.add(handler);
+            try {
+                executor.execute(handler);
+            } catch (RejectedExecutionException e) {
+                // Pool and queue are full: shed this connection instead of letting the exception end the accept loop
+                clients.remove(handler);
+                rejectedConnections.incrementAndGet();
+                System.out.println("[REJECTED] " + client.getRemoteSocketAddress() + " (executor saturated)");
+                try (client) {
+                    // Writing on an SSLSocket would run the TLS handshake on the accept thread
+                    if (!(client instanceof SSLSocket)) {
+                        client.getOutputStream().write(SERVICE_UNAVAILABLE);
+                    }
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
     public static void broadcast(String message, ClientHandler sender) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        int recipients = 0;
         for (ClientHandler c : clients) {
-            if (c == sender)
+            if (c == sender) {
                 c.sendText(message);
+                recipients++;
+            }
         }
+        commitBroadcast(event, false, message.length(), recipients);
     }
 
     public static void broadcastBinary(byte[] message, ClientHandler sender) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        int recipients = 0;
         for (ClientHandler client : clients) {
             if (client == sender) { // skip echoing back to sender if you want
                 client.sendBinary(message);
+                recipients++;
             }
         }
+        commitBroadcast(event, true, message.length, recipients);
+    }
+
+    private static void commitBroadcast(BroadcastEvent event, boolean binary, long payloadLength, int recipients) {
+        if (event.shouldCommit()) {
+            event.binary = binary;
+            event.payloadLength = payloadLength;
+            event.clients = clients.size();
+            event.recipients = recipients;
+            event.commit();
+        }
     }
 
     public static SSLServerSocket createSslServerSocket(int port,
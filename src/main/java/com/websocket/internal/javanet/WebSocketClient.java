@@ -1,11 +1,15 @@
 package com.websocket.internal.javanet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.security.SecureRandom;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
-import java.util.Random;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.function.BiConsumer;
 
 public class WebSocketClient {
 
@@ -15,7 +19,18 @@ public class WebSocketClient {
     private Socket socket;
     private InputStream in;
     private OutputStream out;
-    private final Random random = new SecureRandom();
+    private final MaskGenerator masks = new MaskGenerator();
+
+    // Frames are assembled here (header + masked payload) and written with one call
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LEN = 14;
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+    private int writePos;
+
+    // permessage-deflate: options to offer, and the negotiated codec once the server accepted
+    private PerMessageDeflate.Options deflateOptions;
+    private volatile PerMessageDeflate deflate;
+    private volatile BiConsumer<Integer, byte[]> messageHandler;
 
     public WebSocketClient(String host, int port, String path) {
         this.host = host;
@@ -23,8 +38,33 @@ public class WebSocketClient {
         this.path = path;
     }
 
+    /** Offer permessage-deflate on the next connect(). */
+    public void enablePerMessageDeflate(PerMessageDeflate.Options options) {
+        this.deflateOptions = options;
+    }
+
+    public boolean isPerMessageDeflateActive() {
+        return deflate != null;
+    }
+
+    /** Receives every complete data message (opcode 0x1 or 0x2), already reassembled and inflated. */
+    public void setMessageHandler(BiConsumer<Integer, byte[]> handler) {
+        this.messageHandler = handler;
+    }
+
     public void connect() throws Exception {
+        endDeflate(deflate); // from a previous connection
         socket = new Socket(host, port);
+        try {
+            handshake();
+        } catch (Exception e) {
+            endDeflate(deflate);
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void handshake() throws Exception {
         in = socket.getInputStream();
         out = socket.getOutputStream();
 
@@ -35,43 +75,109 @@ public class WebSocketClient {
               "Upgrade: websocket\r\n" +
               "Connection: Upgrade\r\n" +
               "Sec-WebSocket-Key: " + key + "\r\n" +
-              "Sec-WebSocket-Version: 13\r\n\r\n";
+              "Sec-WebSocket-Version: 13\r\n" +
+              (deflateOptions != null ? "Sec-WebSocket-Extensions: " + PerMessageDeflate.offer(deflateOptions) + "\r\n" : "") +
+              "\r\n";
 
         out.write(req.getBytes("UTF-8"));
         out.flush();
 
-        byte[] buf = new byte[1024];
-        int read = in.read(buf);
-        String resp = new String(buf, 0, read);
+        String resp = readHandshakeResponse();
         System.out.println("[CLIENT-HANDSHAKE] Response:\n" + resp);
+
+        String extensions = null;
+        for (String line : resp.split("\r\n")) {
+            if (line.toLowerCase(Locale.ROOT).startsWith("sec-websocket-extensions:")) {
+                extensions = line.split(":", 2)[1].trim();
+            }
+        }
+        if (deflateOptions != null) {
+            deflate = PerMessageDeflate.accept(extensions, deflateOptions);
+        } else if (extensions != null) {
+            throw new IOException("Server sent extensions that were not offered: " + extensions);
+        }
+    }
+
+    // The Deflater and Inflater hold native memory until end(); the field is cleared under the
+    // write lock so no send is compressing with them when they go
+    private void endDeflate(PerMessageDeflate pmd) {
+        if (pmd == null) return;
+        synchronized (writeBuffer) {
+            if (deflate == pmd) deflate = null;
+            pmd.end();
+        }
+    }
+
+    // Reads up to and including the blank line, so no frame bytes are consumed with the headers
+    private String readHandshakeResponse() throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(256);
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Connection closed during handshake");
+            head.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return head.toString(StandardCharsets.ISO_8859_1);
     }
 
     /* ---------------- Frame send helpers ---------------- */
 
     public void sendText(String msg) throws Exception {
-        System.out.println("[CLIENT-SEND] Sending text: " + msg);
-        sendFrame((byte) 0x1, msg.getBytes("UTF-8"));
+        sendMessage((byte) 0x1, msg.getBytes(StandardCharsets.UTF_8));
     }
 
     public void sendBinary(byte[] data) throws Exception {
-        System.out.println("[CLIENT-SEND] Sending binary of " + data.length + " bytes");
-        sendFrame((byte) 0x2, data);
+        sendMessage((byte) 0x2, data);
+    }
+
+    /** Sends each message as its own text frame, packing as many frames per socket write as fit. */
+    public void sendTextBatch(Collection<String> messages) throws Exception {
+        synchronized (writeBuffer) {
+            for (String msg : messages) {
+                appendMessage((byte) 0x1, msg.getBytes(StandardCharsets.UTF_8));
+            }
+            flushWriteBuffer();
+        }
+    }
+
+    /** Sends each array as its own binary frame, packing as many frames per socket write as fit. */
+    public void sendBinaryBatch(Collection<byte[]> messages) throws Exception {
+        synchronized (writeBuffer) {
+            for (byte[] payload : messages) {
+                appendMessage((byte) 0x2, payload);
+            }
+            flushWriteBuffer();
+        }
     }
 
     public void sendFragmentedText(String msg, int chunkSize) throws Exception {
         System.out.println("[CLIENT-SEND] Sending fragmented text: " + msg + " (chunkSize=" + chunkSize + ")");
         byte[] all = msg.getBytes("UTF-8");
 
-        // First frame (FIN=0, opcode=1)
-        int firstLen = Math.min(chunkSize, all.length);
-        sendFrameFragment((byte) 0x1, false, all, 0, firstLen);
+        synchronized (writeBuffer) {
+            // A compressed message is one DEFLATE stream split across the fragments (RFC 7692)
+            PerMessageDeflate pmd = deflate;
+            boolean compressed = pmd != null && all.length >= pmd.threshold;
+            int total = all.length;
+            if (compressed) {
+                pmd.compress(all, 0, all.length);
+                all = pmd.compressedBuffer();
+                total = pmd.compressedLength();
+            }
 
-        int offset = firstLen;
-        while (offset < all.length) {
-            int len = Math.min(chunkSize, all.length - offset);
-            boolean fin = (offset + len == all.length);
-            sendFrameFragment((byte) 0x0, fin, all, offset, len);
-            offset += len;
+            // First frame (FIN=0, opcode=1), RSV1 only here
+            int firstLen = Math.min(chunkSize, total);
+            appendFrame((byte) 0x1, firstLen == total, compressed, all, 0, firstLen);
+
+            int offset = firstLen;
+            while (offset < total) {
+                int len = Math.min(chunkSize, total - offset);
+                boolean fin = (offset + len == total);
+                appendFrame((byte) 0x0, fin, false, all, offset, len);
+                offset += len;
+            }
+            flushWriteBuffer();
         }
     }
 
@@ -94,36 +200,73 @@ public class WebSocketClient {
         sendFrameInternal(opcode, true, payload, 0, payload.length);
     }
 
-    private void sendFrameFragment(byte opcode, boolean fin, byte[] payload, int off, int len) throws Exception {
-        sendFrameInternal(opcode, fin, payload, off, len);
+    private void sendFrameInternal(byte opcode, boolean fin, byte[] payload, int off, int len) throws Exception {
+        synchronized (writeBuffer) {
+            appendFrame(opcode, fin, false, payload, off, len);
+            flushWriteBuffer();
+        }
     }
 
-    private void sendFrameInternal(byte opcode, boolean fin, byte[] payload, int off, int len) throws Exception {
-        byte b1 = (byte) ((fin ? 0x80 : 0x00) | (opcode & 0x0F));
-        out.write(b1);
-
-        int length = len;
-        if (length <= 125) {
-            out.write(0x80 | length); // mask bit set
-        } else if (length <= 0xFFFF) {
-            out.write(0x80 | 126);
-            out.write((length >>> 8) & 0xFF);
-            out.write(length & 0xFF);
+    private void sendMessage(byte opcode, byte[] payload) throws Exception {
+        synchronized (writeBuffer) {
+            appendMessage(opcode, payload);
+            flushWriteBuffer();
+        }
+    }
+
+    // Data messages at or above the threshold are compressed when permessage-deflate is active
+    private void appendMessage(byte opcode, byte[] payload) throws Exception {
+        PerMessageDeflate pmd = deflate;
+        if (pmd != null && payload.length >= pmd.threshold) {
+            pmd.compress(payload, 0, payload.length);
+            appendFrame(opcode, true, true, pmd.compressedBuffer(), 0, pmd.compressedLength());
+        } else {
+            appendFrame(opcode, true, false, payload, 0, payload.length);
+        }
+    }
+
+    // Appends one masked frame to writeBuffer. Payloads larger than the buffer are masked
+    // and written in buffer-sized chunks; the key offset carries across chunks.
+    private void appendFrame(byte opcode, boolean fin, boolean rsv1, byte[] payload, int off, int len) throws Exception {
+        if (WRITE_BUFFER_SIZE - writePos < MAX_HEADER_LEN) flushWriteBuffer();
+
+        byte[] buf = writeBuffer;
+        int p = writePos;
+        buf[p++] = (byte) ((fin ? 0x80 : 0x00) | (rsv1 ? 0x40 : 0x00) | (opcode & 0x0F));
+        if (len <= 125) {
+            buf[p++] = (byte) (0x80 | len); // mask bit set
+        } else if (len <= 0xFFFF) {
+            buf[p++] = (byte) (0x80 | 126);
+            buf[p++] = (byte) (len >>> 8);
+            buf[p++] = (byte) len;
         } else {
-            out.write(0x80 | 127);
+            buf[p++] = (byte) (0x80 | 127);
             for (int i = 7; i >= 0; i--) {
-                out.write((int) ((long) length >>> (8 * i)) & 0xFF);
+                buf[p++] = (byte) ((long) len >>> (8 * i));
             }
         }
 
-        // Mask key
-        byte[] mask = new byte[4];
-        random.nextBytes(mask);
-        out.write(mask);
+        int mask = masks.nextMask();
+        buf[p++] = (byte) (mask >>> 24);
+        buf[p++] = (byte) (mask >>> 16);
+        buf[p++] = (byte) (mask >>> 8);
+        buf[p++] = (byte) mask;
+        writePos = p;
+
+        int done = 0;
+        while (done < len) {
+            if (writePos == WRITE_BUFFER_SIZE) flushWriteBuffer();
+            int n = Math.min(len - done, WRITE_BUFFER_SIZE - writePos);
+            MaskGenerator.mask(payload, off + done, buf, writePos, n, mask, done);
+            writePos += n;
+            done += n;
+        }
+    }
 
-        // Apply mask
-        for (int i = 0; i < length; i++) {
-            out.write(payload[off + i] ^ mask[i & 3]);
+    private void flushWriteBuffer() throws Exception {
+        if (writePos > 0) {
+            out.write(writeBuffer, 0, writePos);
+            writePos = 0;
         }
         out.flush();
     }
@@ -131,13 +274,18 @@ public class WebSocketClient {
     /* ---------------- Receiving ---------------- */
 
     public void listen() throws Exception {
+        PerMessageDeflate pmd = deflate;
         new Thread(() -> {
+            ByteArrayOutputStream fragments = null;
+            int fragmentOpcode = 0;
+            boolean fragmentCompressed = false;
             try {
                 while (true) {
                     int b1 = in.read();
                     if (b1 == -1) break;
                     int b2 = in.read();
                     boolean fin = (b1 & 0x80) != 0;
+                    boolean rsv1 = (b1 & 0x40) != 0;
                     int opcode = b1 & 0x0F;
                     int len = b2 & 0x7F;
 
@@ -156,12 +304,36 @@ public class WebSocketClient {
                         off += r;
                     }
 
+                    // RSV1 marks a compressed message: only on its first frame, only if negotiated
+                    if (rsv1 && (pmd == null || opcode == 0x0 || opcode >= 0x8)) {
+                        System.out.println("[CLIENT-ERROR] Unexpected RSV1 on opcode " + opcode);
+                        sendClose(1002, "Unexpected RSV1");
+                        return;
+                    }
+
                     switch (opcode) {
                         case 0x1:
-                            System.out.println("[CLIENT-RECV] Text: " + new String(data, "UTF-8"));
-                            break;
                         case 0x2:
-                            System.out.println("[CLIENT-RECV] Binary (" + data.length + " bytes)");
+                            if (fin) {
+                                deliver(opcode, rsv1 ? pmd.decompress(data) : data);
+                            } else {
+                                fragments = new ByteArrayOutputStream();
+                                fragments.write(data);
+                                fragmentOpcode = opcode;
+                                fragmentCompressed = rsv1;
+                            }
+                            break;
+                        case 0x0:
+                            if (fragments == null) {
+                                System.out.println("[CLIENT-ERROR] Continuation without a started message");
+                                break;
+                            }
+                            fragments.write(data);
+                            if (fin) {
+                                byte[] full = fragments.toByteArray();
+                                fragments = null;
+                                deliver(fragmentOpcode, fragmentCompressed ? pmd.decompress(full) : full);
+                            }
                             break;
                         case 0x8:
                             System.out.println("[CLIENT-RECV] Close frame received");
@@ -178,10 +350,23 @@ public class WebSocketClient {
                 }
             } catch (Exception e) {
                 System.out.println("[CLIENT-ERROR] " + e.getMessage());
+            } finally {
+                // The connection is over either way
+                endDeflate(pmd);
             }
         }).start();
     }
 
+    private void deliver(int opcode, byte[] data) {
+        if (opcode == 0x1) {
+            System.out.println("[CLIENT-RECV] Text: " + new String(data, StandardCharsets.UTF_8));
+        } else {
+            System.out.println("[CLIENT-RECV] Binary (" + data.length + " bytes)");
+        }
+        BiConsumer<Integer, byte[]> handler = messageHandler;
+        if (handler != null) handler.accept(opcode, data);
+    }
+
     public static void main(String[] args) throws Exception {
         WebSocketClient client = new WebSocketClient("localhost", 8080, "/");
         client.connect();
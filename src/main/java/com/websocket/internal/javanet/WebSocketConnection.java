@@ -0,0 +1,533 @@
+package com.websocket.internal.javanet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One client connection of an AsyncWebSocketClient.
+ *
+ * Send methods are thread-safe and never block: each frame is encoded and masked on the caller's
+ * thread, queued, and the returned future completes once the loop has written it to the socket.
+ * Everything else (connect, handshake, frame parsing, listener callbacks) runs on the owning loop.
+ */
+public class WebSocketConnection {
+
+    private static final int CTRL_MAX_LEN = 125;
+    private static final long MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_GATHER = 64; // buffers per gathering write
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final SecureRandom random = new SecureRandom();
+    private static final MaskGenerator masks = new MaskGenerator();
+
+    private enum State { CONNECTING, HANDSHAKE, OPEN, CLOSING, CLOSED }
+
+    private final AsyncWebSocketClient client;
+    private final AsyncWebSocketClient.IoLoop loop;
+    private final String host;
+    private final int port;
+    private final String path;
+    private final WebSocketListener listener;
+    private final CompletableFuture<WebSocketConnection> openFuture = new CompletableFuture<>();
+    private final String secKey;
+
+    private volatile State state = State.CONNECTING;
+    private SocketChannel channel;
+    private SelectionKey key;
+
+    // Outbound: filled by any thread, drained by the loop
+    private final ConcurrentLinkedQueue<PendingWrite> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    // Inbound: loop-confined
+    private ByteBuffer readBuffer; // pooled, held only while it has unparsed bytes
+    private ByteArrayOutputStream fragments;
+    private int fragmentOpcode;
+    // Reports malformed input instead of substituting U+FFFD; only the I/O thread decodes
+    private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder();
+
+    private static final class PendingWrite {
+        final ByteBuffer data;
+        final CompletableFuture<Void> future;
+
+        PendingWrite(ByteBuffer data, CompletableFuture<Void> future) {
+            this.data = data;
+            this.future = future;
+        }
+    }
+
+    WebSocketConnection(AsyncWebSocketClient client, AsyncWebSocketClient.IoLoop loop,
+          String host, int port, String path, WebSocketListener listener) {
+        this.client = client;
+        this.loop = loop;
+        this.host = host;
+        this.port = port;
+        this.path = path;
+        this.listener = listener;
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        this.secKey = Base64.getEncoder().encodeToString(nonce);
+    }
+
+    CompletableFuture<WebSocketConnection> openFuture() {
+        return openFuture;
+    }
+
+    public boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    /** Bytes queued for this connection but not yet written to the socket. */
+    public long bufferedAmount() {
+        return queuedBytes.get();
+    }
+
+    /* ----------------------------- Sending ----------------------------- */
+
+    public CompletableFuture<Void> sendText(String text) {
+        return sendFrame(0x1, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public CompletableFuture<Void> sendBinary(byte[] data) {
+        return sendFrame(0x2, data);
+    }
+
+    public CompletableFuture<Void> sendPing(byte[] payload) {
+        if (payload.length > CTRL_MAX_LEN) throw new IllegalArgumentException("Control frame payload > 125 bytes");
+        return sendFrame(0x9, payload);
+    }
+
+    /**
+     * Starts the closing handshake; the connection closes when the server echoes the close frame,
+     * or is dropped if no echo arrives within the client's close timeout.
+     */
+    public CompletableFuture<Void> close(int code, String reason) {
+        if (state != State.OPEN) return CompletableFuture.completedFuture(null);
+        state = State.CLOSING;
+        CompletableFuture.delayedExecutor(client.closeTimeoutMillis(), TimeUnit.MILLISECONDS).execute(() -> loop.execute(() -> {
+            if (state == State.CLOSING) abort(new IOException("No close frame from the server"));
+        }));
+        return enqueue(encodeFrame(0x8, true, closePayload(code, reason)));
+    }
+
+    /** Drops the TCP connection without a closing handshake. */
+    public void abort() {
+        loop.execute(() -> abort(new IOException("Aborted")));
+    }
+
+    private CompletableFuture<Void> sendFrame(int opcode, byte[] payload) {
+        if (state != State.OPEN) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Connection is " + state));
+        }
+        return enqueue(encodeFrame(opcode, true, payload));
+    }
+
+    private CompletableFuture<Void> enqueue(ByteBuffer frame) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        queuedBytes.addAndGet(frame.remaining());
+        PendingWrite write = new PendingWrite(frame, future);
+        outbound.add(write);
+        // abort() may have drained the queue between the caller's state check and the add
+        if (state == State.CLOSED && outbound.remove(write)) {
+            queuedBytes.addAndGet(-frame.limit());
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+        return future;
+    }
+
+    // Client frames are always masked (RFC 6455 5.3)
+    private static ByteBuffer encodeFrame(int opcode, boolean fin, byte[] payload) {
+        int len = payload.length;
+        int headerLen = 2 + (len <= 125 ? 0 : len <= 0xFFFF ? 2 : 8) + 4;
+        ByteBuffer frame = ByteBuffer.allocate(headerLen + len);
+        frame.put((byte) ((fin ? 0x80 : 0x00) | (opcode & 0x0F)));
+        if (len <= 125) {
+            frame.put((byte) (0x80 | len));
+        } else if (len <= 0xFFFF) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) len);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(len);
+        }
+        int mask = masks.nextMask();
+        frame.putInt(mask);
+        int base = frame.position();
+        MaskGenerator.mask(payload, 0, frame.array(), base, len, mask, 0);
+        frame.position(base + len);
+        return frame.flip();
+    }
+
+    private static byte[] closePayload(int code, String reason) {
+        byte[] r = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+        int rl = Math.min(r.length, CTRL_MAX_LEN - 2);
+        byte[] payload = new byte[2 + rl];
+        payload[0] = (byte) ((code >>> 8) & 0xFF);
+        payload[1] = (byte) (code & 0xFF);
+        System.arraycopy(r, 0, payload, 2, rl);
+        return payload;
+    }
+
+    /* ----------------------------- Loop side ----------------------------- */
+
+    void startConnect() {
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean connected = channel.connect(new InetSocketAddress(host, port));
+            key = channel.register(loop.selector, connected ? 0 : SelectionKey.OP_CONNECT, this);
+            if (connected) onConnected();
+        } catch (IOException e) {
+            abort(e);
+        }
+    }
+
+    void onReady(SelectionKey k) {
+        try {
+            if (!k.isValid()) return;
+            if (k.isConnectable()) {
+                if (!channel.finishConnect()) return;
+                onConnected();
+            }
+            if (k.isValid() && k.isWritable()) flush();
+            if (k.isValid() && k.isReadable()) onReadable();
+        } catch (IOException e) {
+            abort(e);
+        }
+    }
+
+    private void onConnected() {
+        state = State.HANDSHAKE;
+        key.interestOps(SelectionKey.OP_READ);
+        String request = "GET " + path + " HTTP/1.1\r\n"
+              + "Host: " + host + ":" + port + "\r\n"
+              + "Upgrade: websocket\r\n"
+              + "Connection: Upgrade\r\n"
+              + "Sec-WebSocket-Key: " + secKey + "\r\n"
+              + "Sec-WebSocket-Version: 13\r\n\r\n";
+        enqueue(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private void flush() {
+        if (key == null) return;
+        if (!key.isValid()) {
+            // Cancelled under a write that was queued meanwhile; nothing will ever write it
+            failQueued();
+            return;
+        }
+        try {
+            while (true) {
+                int n = 0;
+                for (PendingWrite w : outbound) {
+                    gather[n++] = w.data;
+                    if (n == MAX_GATHER) break;
+                }
+                if (n == 0) break;
+                channel.write(gather, 0, n);
+                PendingWrite w;
+                while ((w = outbound.peek()) != null && !w.data.hasRemaining()) {
+                    outbound.poll();
+                    queuedBytes.addAndGet(-w.data.limit());
+                    w.future.complete(null);
+                }
+                if (w != null) {
+                    // Socket buffer full: resume when writable
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (state == State.CLOSED) closeChannel();
+        } catch (IOException e) {
+            abort(e);
+        } finally {
+            Arrays.fill(gather, null);
+        }
+    }
+
+    private void onReadable() throws IOException {
+        if (readBuffer == null) readBuffer = client.bufferPool.acquire();
+        int n = channel.read(readBuffer);
+        if (n == -1) {
+            abort(new IOException("Connection closed by server"));
+            return;
+        }
+        readBuffer.flip();
+        if (state == State.HANDSHAKE) parseHandshake();
+        if (state == State.OPEN || state == State.CLOSING) parseFrames();
+        if (readBuffer == null) return; // aborted while parsing
+        if (readBuffer.hasRemaining()) {
+            readBuffer.compact();
+        } else {
+            client.bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    private void parseHandshake() throws IOException {
+        int end = indexOfHeaderEnd(readBuffer);
+        if (end < 0) {
+            if (readBuffer.limit() == readBuffer.capacity()) throw new IOException("Handshake response too large");
+            return;
+        }
+        String head = new String(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(),
+              end - readBuffer.position(), StandardCharsets.US_ASCII);
+        readBuffer.position(end + 4);
+
+        String[] lines = head.split("\r\n");
+        if (lines.length == 0 || !lines[0].contains(" 101")) {
+            throw new IOException("Upgrade rejected: " + (lines.length > 0 ? lines[0] : "<empty>"));
+        }
+        String accept = null;
+        for (String line : lines) {
+            if (line.toLowerCase(Locale.ROOT).startsWith("sec-websocket-accept:")) {
+                accept = line.split(":", 2)[1].trim();
+            }
+        }
+        if (!expectedAccept().equals(accept)) throw new IOException("Invalid Sec-WebSocket-Accept");
+
+        state = State.OPEN;
+        openFuture.complete(this);
+        callback(() -> listener.onOpen(this));
+    }
+
+    private static int indexOfHeaderEnd(ByteBuffer b) {
+        for (int i = b.position(); i + 3 < b.limit(); i++) {
+            if (b.get(i) == '\r' && b.get(i + 1) == '\n' && b.get(i + 2) == '\r' && b.get(i + 3) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private String expectedAccept() {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                  .digest((secKey + WS_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void parseFrames() throws IOException {
+        ByteBuffer b = readBuffer;
+        while (b.remaining() >= 2) {
+            int pos = b.position();
+            int b1 = b.get(pos) & 0xFF;
+            int b2 = b.get(pos + 1) & 0xFF;
+            int headerLen = 2;
+            long len = b2 & 0x7F;
+            if (len == 126) {
+                headerLen = 4;
+                if (b.remaining() < headerLen) return;
+                len = b.getShort(pos + 2) & 0xFFFF;
+            } else if (len == 127) {
+                headerLen = 10;
+                if (b.remaining() < headerLen) return;
+                len = b.getLong(pos + 2);
+            }
+            if ((b2 & 0x80) != 0) {
+                failProtocol(1002, "Server frames must not be masked");
+                return;
+            }
+            if (len < 0 || len > MAX_MESSAGE_BYTES) {
+                failProtocol(1009, "Message too large");
+                return;
+            }
+            int total = headerLen + (int) len;
+            if (b.remaining() < total) {
+                if (total > b.capacity()) growReadBuffer(total);
+                return;
+            }
+            ByteBuffer payload = b.slice(pos + headerLen, (int) len);
+            b.position(pos + total);
+            handleFrame(b1, payload);
+            if (readBuffer == null) return; // closed inside handler
+        }
+    }
+
+    // Oversized frame: swap the pooled buffer for a dedicated one; it is dropped, not pooled, once drained
+    private void growReadBuffer(int frameSize) {
+        ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+        bigger.put(readBuffer);
+        bigger.flip();
+        client.bufferPool.release(readBuffer);
+        readBuffer = bigger;
+    }
+
+    private void handleFrame(int b1, ByteBuffer payload) throws IOException {
+        boolean fin = (b1 & 0x80) != 0;
+        int opcode = b1 & 0x0F;
+        if ((b1 & 0x70) != 0) {
+            failProtocol(1002, "RSV bits set without negotiated extension");
+            return;
+        }
+        switch (opcode) {
+            case 0x1, 0x2 -> {
+                if (fragments != null) {
+                    failProtocol(1002, "New data frame while continuation expected");
+                } else if (fin) {
+                    deliver(opcode, payload);
+                } else {
+                    fragmentOpcode = opcode;
+                    fragments = new ByteArrayOutputStream(Math.max(256, payload.remaining() * 2));
+                    appendFragment(payload);
+                }
+            }
+            case 0x0 -> {
+                if (fragments == null) {
+                    failProtocol(1002, "Unexpected continuation");
+                    return;
+                }
+                appendFragment(payload);
+                if (fragments == null) return; // over MAX_MESSAGE_BYTES, connection aborted
+                if (fin) {
+                    ByteBuffer full = ByteBuffer.wrap(fragments.toByteArray());
+                    fragments = null;
+                    deliver(fragmentOpcode, full);
+                }
+            }
+            case 0x8 -> onCloseFrame(payload);
+            case 0x9 -> {
+                byte[] echo = new byte[payload.remaining()];
+                payload.get(echo);
+                if (state == State.OPEN) enqueue(encodeFrame(0xA, true, echo));
+            }
+            case 0xA -> callback(() -> listener.onPong(this, payload.asReadOnlyBuffer()));
+            default -> failProtocol(1002, "Unsupported opcode " + opcode);
+        }
+    }
+
+    private void appendFragment(ByteBuffer payload) throws IOException {
+        if (fragments.size() + (long) payload.remaining() > MAX_MESSAGE_BYTES) {
+            failProtocol(1009, "Message too large");
+            return;
+        }
+        fragments.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+    }
+
+    private void deliver(int opcode, ByteBuffer payload) {
+        if (opcode == 0x1) {
+            String text;
+            try {
+                text = utf8.decode(payload).toString();
+            } catch (CharacterCodingException e) {
+                // RFC 6455 8.1: a text message that is not valid UTF-8 fails the connection with 1007
+                failProtocol(1007, "Invalid UTF-8 in text message");
+                return;
+            }
+            callback(() -> listener.onText(this, text));
+        } else {
+            callback(() -> listener.onBinary(this, payload.asReadOnlyBuffer()));
+        }
+    }
+
+    private void callback(Runnable r) {
+        try {
+            r.run();
+        } catch (RuntimeException e) {
+            notifyError(e);
+        }
+    }
+
+    // Runs on the shared I/O thread: a listener throwing from onError must not take the loop down
+    private void notifyError(Throwable cause) {
+        try {
+            listener.onError(this, cause);
+        } catch (RuntimeException e) {
+            System.out.println("[CLIENT-IO] onError listener failed: " + e);
+        }
+    }
+
+    private void onCloseFrame(ByteBuffer payload) {
+        int code = 1005;
+        String reason = "";
+        if (payload.remaining() >= 2) {
+            code = payload.getShort(payload.position()) & 0xFFFF;
+            reason = new String(payload.array(), payload.arrayOffset() + payload.position() + 2,
+                  payload.remaining() - 2, StandardCharsets.UTF_8);
+        }
+        if (state == State.OPEN) {
+            // Echo the close, then drop the connection once it is flushed
+            enqueue(encodeFrame(0x8, true, closePayload(code, reason)));
+        }
+        state = State.CLOSED;
+        releaseReadBuffer();
+        if (outbound.isEmpty()) closeChannel();
+        int c = code;
+        String r = reason;
+        callback(() -> listener.onClose(this, c, r));
+    }
+
+    private void failProtocol(int code, String reason) {
+        if (state == State.OPEN && outbound.isEmpty()) {
+            // Best effort: tell the server why before dropping the connection
+            try { channel.write(encodeFrame(0x8, true, closePayload(code, reason))); } catch (IOException ignored) {}
+        }
+        abort(new IOException("Protocol error " + code + ": " + reason));
+    }
+
+    void abort(Throwable cause) {
+        if (state == State.CLOSED && (channel == null || !channel.isOpen())) return;
+        boolean wasOpen = state == State.OPEN || state == State.CLOSING;
+        state = State.CLOSED;
+        releaseReadBuffer();
+        closeChannel();
+        failQueued();
+        if (!openFuture.isDone()) {
+            openFuture.completeExceptionally(cause);
+        } else if (wasOpen) {
+            notifyError(cause);
+            callback(() -> listener.onClose(this, 1006, cause.getMessage() == null ? "" : cause.getMessage()));
+        }
+    }
+
+    private void failQueued() {
+        PendingWrite w;
+        while ((w = outbound.poll()) != null) {
+            queuedBytes.addAndGet(-w.data.limit());
+            w.future.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    private void releaseReadBuffer() {
+        client.bufferPool.release(readBuffer);
+        readBuffer = null;
+        fragments = null;
+    }
+
+    private void closeChannel() {
+        loop.connections.remove(this);
+        if (key != null) key.cancel();
+        if (channel != null) {
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+}
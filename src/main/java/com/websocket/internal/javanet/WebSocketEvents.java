@@ -0,0 +1,153 @@
+package com.websocket.internal.javanet;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events emitted by ClientHandler and WebSocketApplication.
+ *
+ * All events are durations, so a recording shows where a slow message spent its time:
+ * reading, inflating, assembling, waiting for the socket lock, writing or fanning out.
+ * Stack traces are off by default to keep always-on recording cheap; see resources/jfr/websocket.jfc.
+ *
+ * Usage pattern at each call site (the event is scalar-replaced by the JIT when recording is off):
+ *   FrameReadEvent e = new FrameReadEvent(); e.begin(); ...; if (e.shouldCommit()) { e.x = ...; e.commit(); }
+ */
+public final class WebSocketEvents {
+
+    private WebSocketEvents() {}
+
+    @Name("com.websocket.Handshake")
+    @Label("WebSocket Handshake")
+    @Description("HTTP upgrade: header parsing, Sec-WebSocket-Accept computation and 101 response")
+    @Category({"WebSocket", "javanet"})
+    @StackTrace(false)
+    public static class HandshakeEvent extends Event {
+        @Label("Remote Address")
+        public String remoteAddress;
+
+        @Label("permessage-deflate")
+        public boolean perMessageDeflate;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("com.websocket.FrameRead")
+    @Label("WebSocket Frame Read")
+    @Description("Reading one frame, from its first header byte until the payload is unmasked")
+    @Category({"WebSocket", "javanet"})
+    @StackTrace(false)
+    public static class FrameReadEvent extends Event {
+        @Label("Opcode")
+        public int opcode;
+
+        @Label("FIN")
+        public boolean fin;
+
+        @Label("Compressed")
+        @Description("RSV1 set on this frame")
+        public boolean compressed;
+
+        @Label("Payload Length")
+        @DataAmount
+        public long payloadLength;
+    }
+
+    @Name("com.websocket.FrameWrite")
+    @Label("WebSocket Frame Write")
+    @Description("Writing one frame, including the wait for the per-connection output lock")
+    @Category({"WebSocket", "javanet"})
+    @StackTrace(false)
+    public static class FrameWriteEvent extends Event {
+        @Label("Opcode")
+        public int opcode;
+
+        @Label("Compressed")
+        public boolean compressed;
+
+        @Label("Payload Length")
+        @Description("Bytes on the wire after compression")
+        @DataAmount
+        public long payloadLength;
+
+        @Label("Lock Wait")
+        @Description("Time spent blocked on synchronized (out) before writing")
+        @Timespan(Timespan.NANOSECONDS)
+        public long lockWait;
+    }
+
+    @Name("com.websocket.Inflate")
+    @Label("WebSocket Inflate")
+    @Category({"WebSocket", "javanet", "Compression"})
+    @StackTrace(false)
+    public static class InflateEvent extends Event {
+        @Label("Compressed Size")
+        @DataAmount
+        public long inputLength;
+
+        @Label("Inflated Size")
+        @DataAmount
+        public long outputLength;
+    }
+
+    @Name("com.websocket.Deflate")
+    @Label("WebSocket Deflate")
+    @Category({"WebSocket", "javanet", "Compression"})
+    @StackTrace(false)
+    public static class DeflateEvent extends Event {
+        @Label("Input Size")
+        @DataAmount
+        public long inputLength;
+
+        @Label("Deflated Size")
+        @DataAmount
+        public long outputLength;
+
+        @Label("Level")
+        public int level;
+    }
+
+    @Name("com.websocket.AssemblyComplete")
+    @Label("WebSocket Message Assembled")
+    @Description("A fragmented message, from its first fragment until the final continuation frame")
+    @Category({"WebSocket", "javanet"})
+    @StackTrace(false)
+    public static class AssemblyEvent extends Event {
+        @Label("Opcode")
+        public int opcode;
+
+        @Label("Fragments")
+        public int fragments;
+
+        @Label("Message Size")
+        @DataAmount
+        public long messageLength;
+    }
+
+    @Name("com.websocket.Broadcast")
+    @Label("WebSocket Broadcast")
+    @Description("Fan-out of one message to the connected clients")
+    @Category({"WebSocket", "javanet"})
+    @StackTrace(false)
+    public static class BroadcastEvent extends Event {
+        @Label("Binary")
+        public boolean binary;
+
+        @Label("Payload Length")
+        @DataAmount
+        public long payloadLength;
+
+        @Label("Connected Clients")
+        public int clients;
+
+        @Label("Recipients")
+        public int recipients;
+    }
+}
@@ -0,0 +1,25 @@
+package com.websocket.internal.javanet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callbacks for an AsyncWebSocketClient connection.
+ *
+ * All callbacks for one connection run on its I/O thread, one at a time, so they must not block.
+ * ByteBuffer arguments are read-only views of pooled read buffers: they are only valid for the
+ * duration of the call, copy them if you need the bytes later.
+ */
+public interface WebSocketListener {
+
+    default void onOpen(WebSocketConnection connection) {}
+
+    default void onText(WebSocketConnection connection, String text) {}
+
+    default void onBinary(WebSocketConnection connection, ByteBuffer payload) {}
+
+    default void onPong(WebSocketConnection connection, ByteBuffer payload) {}
+
+    default void onClose(WebSocketConnection connection, int code, String reason) {}
+
+    default void onError(WebSocketConnection connection, Throwable error) {}
+}
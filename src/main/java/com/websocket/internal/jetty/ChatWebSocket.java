@@ -4,31 +4,100 @@ import jakarta.websocket.OnClose;
 import jakarta.websocket.OnError;
 import jakarta.websocket.OnMessage;
 import jakarta.websocket.OnOpen;
+import jakarta.websocket.SendResult;
 import jakarta.websocket.Session;
 import jakarta.websocket.server.ServerEndpoint;
-import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @ServerEndpoint("/chat")
 public class ChatWebSocket {
 
+    /** Max async sends queued to one peer before further messages to it are dropped. */
+    public static final String MAX_IN_FLIGHT_PROPERTY = "chat.fanout.maxInFlight";
+    static final int MAX_IN_FLIGHT_PER_PEER = Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, 64);
+
+    private static final String IN_FLIGHT_KEY = "chat.inFlight";
+
+    // Delivery stats across all sessions
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+
+    /** Messages not sent because their peer had MAX_IN_FLIGHT_PER_PEER sends outstanding. */
+    public static long droppedMessages() {
+        return dropped.get();
+    }
+
+    /** Sends that threw or completed with an error. */
+    public static long failedDeliveries() {
+        return failed.get();
+    }
+
     @OnOpen
-    public void onOpen(Session session) throws IOException {
+    public void onOpen(Session session) {
         System.out.printf("Client connected: %s%n", session.getId());
-        session.getBasicRemote().sendText("Welcome " + session.getId());
+        inFlight(session);
+        // Async like every other send: over HTTP/2 Jetty can call onOpen from the connection's frame
+        // flusher, and a blocking send there waits on that same flusher forever
+        sendAsync(session, "Welcome " + session.getId());
     }
 
     @OnMessage
-    public void onMessage(String message, Session session) throws IOException {
+    public void onMessage(String message, Session session) {
         System.out.printf("Received message from client %s: %s%n", session.getId(), message);
-        // Broadcast the message to all connected clients
-//        session.getBasicRemote().sendText("Echo: " + message);
+        // Broadcast the message to all connected clients.
+        // Formatted once; async sends so a slow peer never stalls this (the sender's) thread.
+        String text = "Client " + session.getId() + ": " + message;
         for (Session peer : session.getOpenSessions()) {
             if (peer.isOpen()) {
-                peer.getBasicRemote().sendText("Client " + session.getId() + ": " + message);
+                sendAsync(peer, text);
             }
         }
     }
 
+    /**
+     * The peer's count of outstanding sends. Created by whoever gets there first: a broadcast can
+     * reach a peer whose onOpen is still running on another thread. Jetty's user properties are a
+     * plain HashMap, so every access holds its lock.
+     */
+    private static AtomicInteger inFlight(Session peer) {
+        Map<String, Object> properties = peer.getUserProperties();
+        synchronized (properties) {
+            return (AtomicInteger) properties.computeIfAbsent(IN_FLIGHT_KEY, k -> new AtomicInteger());
+        }
+    }
+
+    private static void sendAsync(Session peer, String text) {
+        AtomicInteger inFlight = inFlight(peer);
+
+        // A peer that is not draining its socket loses messages instead of growing an unbounded queue
+        if (inFlight.incrementAndGet() > MAX_IN_FLIGHT_PER_PEER) {
+            inFlight.decrementAndGet();
+            if (dropped.incrementAndGet() % 1000 == 1) {
+                System.err.printf("Peer %s is %d sends behind, dropping messages (%d dropped so far)%n",
+                      peer.getId(), MAX_IN_FLIGHT_PER_PEER, dropped.get());
+            }
+            return;
+        }
+        try {
+            peer.getAsyncRemote().sendText(text, result -> onSendComplete(peer, inFlight, result));
+        } catch (RuntimeException e) {
+            // e.g. the session closed between isOpen() and the send
+            inFlight.decrementAndGet();
+            failed.incrementAndGet();
+            System.err.printf("Send to client %s failed: %s%n", peer.getId(), e);
+        }
+    }
+
+    private static void onSendComplete(Session peer, AtomicInteger inFlight, SendResult result) {
+        inFlight.decrementAndGet();
+        if (!result.isOK()) {
+            failed.incrementAndGet();
+            System.err.printf("Delivery to client %s failed: %s%n", peer.getId(), result.getException());
+        }
+    }
+
     @OnClose
     public void onClose(Session session) {
         System.out.printf("Client disconnected: %s%n", session.getId());
@@ -38,4 +107,4 @@ public class ChatWebSocket {
     public void onError(Session session, Throwable throwable) {
         System.err.printf("Error on client %s: %s%n", session.getId(), throwable.toString());
     }
-}
\ No newline at end of file
+}
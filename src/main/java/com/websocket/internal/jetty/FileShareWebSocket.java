@@ -0,0 +1,189 @@
+package com.websocket.internal.jetty;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.OnClose;
+import jakarta.websocket.OnError;
+import jakarta.websocket.OnMessage;
+import jakarta.websocket.OnOpen;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.ServerEndpoint;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File sharing: every binary or text message is relayed to the other /files clients while it is
+ * still arriving, one frame at a time.
+ *
+ * Jetty hands the partial handlers each frame as it is parsed (frames over maxFrameSize are split),
+ * so neither side ever holds a whole message: a relay keeps one frame per sender in memory, and the
+ * blocking sends slow the upload down to the pace of its slowest receiver. The container's
+ * maxBinaryMessageSize/maxTextMessageSize only apply to whole-message endpoints such as /chat; here
+ * the limit is JettyServerConfig.maxStreamedMessageSize (bytes, or characters for text). A sender
+ * going over it is closed with 1009, and its receivers get the message finished with an empty last
+ * frame followed by the text "Transfer from client <id> aborted".
+ *
+ * A receiver takes one streamed message at a time, since frames of two messages cannot be
+ * interleaved on one connection. A message whose receiver is still busy with another one after
+ * chat.files.acquireTimeoutMs is not sent to that receiver.
+ */
+@ServerEndpoint("/files")
+public class FileShareWebSocket {
+
+    /** ServerEndpointConfig user property with the per-message limit; -1 for none. */
+    public static final String MAX_MESSAGE_SIZE_KEY = "chat.files.maxMessageSize";
+
+    /** How long a message waits for a receiver that is busy with another one. */
+    public static final String ACQUIRE_TIMEOUT_PROPERTY = "chat.files.acquireTimeoutMs";
+    static final long ACQUIRE_TIMEOUT_MS = Long.getLong(ACQUIRE_TIMEOUT_PROPERTY, 10_000);
+
+    private static final String OUTBOUND_KEY = "chat.files.outbound";
+
+    // Relay stats across all sessions
+    public static final AtomicLong streamedMessages = new AtomicLong();
+    public static final AtomicLong streamedBytes = new AtomicLong();
+    public static final AtomicLong abortedMessages = new AtomicLong();
+    public static final AtomicLong skippedReceivers = new AtomicLong();
+
+    // The message this session is sending. Jetty delivers one frame at a time, the lock is for an
+    // onClose after a dropped connection while a frame is still being relayed.
+    private final List<Session> receivers = new ArrayList<>();
+    private long maxMessageSize = -1;
+    private long messageSize;
+    private boolean inMessage;
+    private boolean binary;
+    private boolean aborted;
+
+    @OnOpen
+    public void onOpen(Session session) {
+        System.out.printf("File client connected: %s%n", session.getId());
+        Object max = session.getUserProperties().get(MAX_MESSAGE_SIZE_KEY);
+        if (max instanceof Number n) maxMessageSize = n.longValue();
+        session.getUserProperties().put(OUTBOUND_KEY, new Semaphore(1));
+    }
+
+    @OnMessage
+    public synchronized void onBinary(ByteBuffer chunk, boolean last, Session session) {
+        if (!begin(session, true, chunk.remaining())) return;
+        for (int i = receivers.size() - 1; i >= 0; i--) {
+            Session receiver = receivers.get(i);
+            try {
+                receiver.getBasicRemote().sendBinary(chunk.duplicate(), last);
+            } catch (IOException | RuntimeException e) {
+                fail(i, e);
+            }
+        }
+        if (last) end();
+    }
+
+    @OnMessage
+    public synchronized void onText(String chunk, boolean last, Session session) {
+        if (!begin(session, false, chunk.length())) return;
+        for (int i = receivers.size() - 1; i >= 0; i--) {
+            try {
+                receivers.get(i).getBasicRemote().sendText(chunk, last);
+            } catch (IOException | RuntimeException e) {
+                fail(i, e);
+            }
+        }
+        if (last) end();
+    }
+
+    /** @return whether this frame is to be relayed */
+    private boolean begin(Session session, boolean binary, int length) {
+        if (aborted) return false; // rest of a message over the limit, the close is on its way
+        if (!inMessage) {
+            inMessage = true;
+            this.binary = binary;
+            messageSize = 0;
+            claimReceivers(session);
+        }
+        messageSize += length;
+        if (maxMessageSize >= 0 && messageSize > maxMessageSize) {
+            aborted = true;
+            abort(session.getId());
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.TOO_BIG,
+                      "Message over " + maxMessageSize + (binary ? " bytes" : " characters")));
+            } catch (IOException e) {
+                System.err.printf("Closing client %s failed: %s%n", session.getId(), e);
+            }
+            return false;
+        }
+        streamedBytes.addAndGet((long) length * receivers.size());
+        return true;
+    }
+
+    // Always in session id order, so two senders with overlapping receivers cannot wait on each other
+    private void claimReceivers(Session session) {
+        List<Session> peers = new ArrayList<>(session.getOpenSessions());
+        peers.sort(Comparator.comparing(Session::getId));
+        for (Session peer : peers) {
+            if (peer == session || !peer.isOpen()) continue;
+            Semaphore outbound = (Semaphore) peer.getUserProperties().get(OUTBOUND_KEY);
+            if (outbound == null) continue; // a /chat session, or onOpen has not run yet
+            try {
+                if (outbound.tryAcquire(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    receivers.add(peer);
+                } else {
+                    skippedReceivers.incrementAndGet();
+                    System.err.printf("Client %s is busy with another transfer, not sending it the one from %s%n",
+                          peer.getId(), session.getId());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void end() {
+        streamedMessages.incrementAndGet();
+        releaseReceivers();
+        inMessage = false;
+    }
+
+    // Finishes the message for every receiver, so they can take the next one
+    private void abort(String senderId) {
+        if (!inMessage) return;
+        abortedMessages.incrementAndGet();
+        for (int i = receivers.size() - 1; i >= 0; i--) {
+            try {
+                if (binary) receivers.get(i).getBasicRemote().sendBinary(ByteBuffer.allocate(0), true);
+                else receivers.get(i).getBasicRemote().sendText("", true);
+                receivers.get(i).getBasicRemote().sendText("Transfer from client " + senderId + " aborted");
+            } catch (IOException | RuntimeException e) {
+                fail(i, e);
+            }
+        }
+        releaseReceivers();
+        inMessage = false;
+    }
+
+    private void fail(int index, Exception e) {
+        Session receiver = receivers.remove(index);
+        ((Semaphore) receiver.getUserProperties().get(OUTBOUND_KEY)).release();
+        System.err.printf("Relay to client %s failed: %s%n", receiver.getId(), e);
+    }
+
+    private void releaseReceivers() {
+        for (Session receiver : receivers) ((Semaphore) receiver.getUserProperties().get(OUTBOUND_KEY)).release();
+        receivers.clear();
+    }
+
+    @OnClose
+    public synchronized void onClose(Session session) {
+        abort(session.getId()); // closed mid-message
+        System.out.printf("File client disconnected: %s%n", session.getId());
+    }
+
+    @OnError
+    public void onError(Session session, Throwable throwable) {
+        System.err.printf("Error on file client %s: %s%n", session.getId(), throwable.toString());
+    }
+}
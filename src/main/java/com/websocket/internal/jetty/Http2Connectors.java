@@ -0,0 +1,70 @@
+package com.websocket.internal.jetty;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection factories for the WebSocketServer connector: HTTP/1.1, optionally TLS, optionally HTTP/2.
+ *
+ * With HTTP/2, browsers open WebSockets as streams of one connection per origin (RFC 8441: a
+ * CONNECT request with :protocol websocket), so tabs no longer cost a TCP connection and a TLS
+ * handshake each. Jetty's WebSocket upgrade handles those CONNECT streams like HTTP/1.1 upgrades;
+ * the HTTP/2 factory only has to advertise SETTINGS_ENABLE_CONNECT_PROTOCOL.
+ */
+final class Http2Connectors {
+
+    private Http2Connectors() {}
+
+    /** In the order the connector needs them, the one a new connection starts with first. */
+    static ConnectionFactory[] connectionFactories(JettyServerConfig config) {
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        SslContextFactory.Server ssl = null;
+        if (config.keyStorePath != null) {
+            ssl = new SslContextFactory.Server();
+            ssl.setKeyStorePath(config.keyStorePath);
+            ssl.setKeyStorePassword(config.keyStorePassword);
+            httpConfig.addCustomizer(new SecureRequestCustomizer());
+        }
+        HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfig);
+
+        List<ConnectionFactory> factories = new ArrayList<>();
+        if (!config.http2) {
+            if (ssl != null) factories.add(new SslConnectionFactory(ssl, http1.getProtocol()));
+            factories.add(http1);
+        } else if (ssl == null) {
+            // h2c: HTTP/1.1 first, which hands over to HTTP/2 on the client preface (prior knowledge)
+            // or on "Upgrade: h2c"
+            factories.add(http1);
+            factories.add(configure(new HTTP2CServerConnectionFactory(httpConfig), config));
+        } else {
+            // h2: ALPN picks h2 or http/1.1 during the TLS handshake
+            ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory("h2", http1.getProtocol());
+            alpn.setDefaultProtocol(http1.getProtocol());
+            factories.add(new SslConnectionFactory(ssl, alpn.getProtocol()));
+            factories.add(alpn);
+            factories.add(configure(new HTTP2ServerConnectionFactory(httpConfig), config));
+            factories.add(http1);
+        }
+        return factories.toArray(ConnectionFactory[]::new);
+    }
+
+    private static ConnectionFactory configure(AbstractHTTP2ServerConnectionFactory factory, JettyServerConfig config) {
+        // Jetty's default, set anyway: without it browsers fall back to a connection per WebSocket
+        factory.setConnectProtocolEnabled(true);
+        if (config.http2MaxConcurrentStreams > 0) {
+            factory.setMaxConcurrentStreams(config.http2MaxConcurrentStreams);
+        }
+        return factory;
+    }
+}
@@ -0,0 +1,170 @@
+package com.websocket.internal.jetty;
+
+import java.util.Properties;
+
+/**
+ * Tuning knobs for the standalone Jetty WebSocketServer.
+ *
+ * Every setting has a system property (-Djetty.ws.maxThreads=400 ...) so one build can be tuned
+ * per environment; -1 keeps Jetty's own default for that setting.
+ *
+ *   JettyServerConfig config = JettyServerConfig.builder().port(9090).virtualThreads(true).build();
+ *   WebSocketServer.createServer(config).start();
+ *
+ * http2 with a key store is h2 negotiated by ALPN next to HTTP/1.1, without one h2c next to
+ * HTTP/1.1 on the same port.
+ */
+public final class JettyServerConfig {
+
+    public static final String PREFIX = "jetty.ws.";
+
+    // Connector
+    final int port;
+    final int acceptors;          // -1: Jetty picks from the CPU count
+    final int selectors;          // -1: Jetty picks from the CPU count
+    final long idleTimeoutMs;     // TCP connection idle timeout
+    final boolean http2;          // also HTTP/2 (h2c, or h2 with TLS) with RFC 8441 WebSocket streams
+    final int http2MaxConcurrentStreams; // WebSocket streams (tabs) per HTTP/2 connection
+    final String keyStorePath;    // null: plain text
+    final String keyStorePassword;
+    // Thread pool
+    final int minThreads;
+    final int maxThreads;
+    final boolean virtualThreads; // run blocking tasks (endpoint callbacks) on virtual threads
+    // WebSocket sessions
+    final long sessionIdleTimeoutMs; // 0: never
+    final long asyncSendTimeoutMs;
+    final int inputBufferSize;
+    final int outputBufferSize;
+    final int maxTextMessageSize;
+    final int maxBinaryMessageSize;
+    final long maxFrameSize;
+    final long maxStreamedMessageSize; // per message on the partial-message /files endpoint, -1: none
+
+    private JettyServerConfig(Builder b) {
+        this.port = b.port;
+        this.acceptors = b.acceptors;
+        this.selectors = b.selectors;
+        this.idleTimeoutMs = b.idleTimeoutMs;
+        this.http2 = b.http2;
+        this.http2MaxConcurrentStreams = b.http2MaxConcurrentStreams;
+        this.keyStorePath = b.keyStorePath;
+        this.keyStorePassword = b.keyStorePassword;
+        this.minThreads = b.minThreads;
+        this.maxThreads = b.maxThreads;
+        this.virtualThreads = b.virtualThreads;
+        this.sessionIdleTimeoutMs = b.sessionIdleTimeoutMs;
+        this.asyncSendTimeoutMs = b.asyncSendTimeoutMs;
+        this.inputBufferSize = b.inputBufferSize;
+        this.outputBufferSize = b.outputBufferSize;
+        this.maxTextMessageSize = b.maxTextMessageSize;
+        this.maxBinaryMessageSize = b.maxBinaryMessageSize;
+        this.maxFrameSize = b.maxFrameSize;
+        this.maxStreamedMessageSize = b.maxStreamedMessageSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Defaults overridden by any jetty.ws.* entries in the given properties. */
+    public static JettyServerConfig fromProperties(Properties props) {
+        Builder b = builder();
+        b.port = intProp(props, "port", b.port);
+        b.acceptors = intProp(props, "acceptors", b.acceptors);
+        b.selectors = intProp(props, "selectors", b.selectors);
+        b.idleTimeoutMs = longProp(props, "idleTimeoutMs", b.idleTimeoutMs);
+        b.http2 = Boolean.parseBoolean(props.getProperty(PREFIX + "http2", Boolean.toString(b.http2)));
+        b.http2MaxConcurrentStreams = intProp(props, "http2MaxConcurrentStreams", b.http2MaxConcurrentStreams);
+        b.keyStorePath = props.getProperty(PREFIX + "keyStorePath", b.keyStorePath);
+        b.keyStorePassword = props.getProperty(PREFIX + "keyStorePassword", b.keyStorePassword);
+        b.minThreads = intProp(props, "minThreads", b.minThreads);
+        b.maxThreads = intProp(props, "maxThreads", b.maxThreads);
+        b.virtualThreads = Boolean.parseBoolean(props.getProperty(PREFIX + "virtualThreads", Boolean.toString(b.virtualThreads)));
+        b.sessionIdleTimeoutMs = longProp(props, "sessionIdleTimeoutMs", b.sessionIdleTimeoutMs);
+        b.asyncSendTimeoutMs = longProp(props, "asyncSendTimeoutMs", b.asyncSendTimeoutMs);
+        b.inputBufferSize = intProp(props, "inputBufferSize", b.inputBufferSize);
+        b.outputBufferSize = intProp(props, "outputBufferSize", b.outputBufferSize);
+        b.maxTextMessageSize = intProp(props, "maxTextMessageSize", b.maxTextMessageSize);
+        b.maxBinaryMessageSize = intProp(props, "maxBinaryMessageSize", b.maxBinaryMessageSize);
+        b.maxFrameSize = longProp(props, "maxFrameSize", b.maxFrameSize);
+        b.maxStreamedMessageSize = longProp(props, "maxStreamedMessageSize", b.maxStreamedMessageSize);
+        return b.build();
+    }
+
+    public static JettyServerConfig fromSystemProperties() {
+        return fromProperties(System.getProperties());
+    }
+
+    private static int intProp(Properties props, String name, int def) {
+        String v = props.getProperty(PREFIX + name);
+        return v == null ? def : Integer.parseInt(v.trim());
+    }
+
+    private static long longProp(Properties props, String name, long def) {
+        String v = props.getProperty(PREFIX + name);
+        return v == null ? def : Long.parseLong(v.trim());
+    }
+
+    @Override
+    public String toString() {
+        return "port=" + port + (keyStorePath != null ? " tls" : "")
+              + (http2 ? (keyStorePath != null ? " h2" : " h2c") + " maxStreams=" + http2MaxConcurrentStreams : "")
+              + " acceptors=" + acceptors + " selectors=" + selectors
+              + " threads=" + minThreads + ".." + maxThreads + (virtualThreads ? "+virtual" : "")
+              + " idle=" + idleTimeoutMs + "ms sessionIdle=" + sessionIdleTimeoutMs + "ms"
+              + " in/out=" + inputBufferSize + "/" + outputBufferSize
+              + " maxText=" + maxTextMessageSize + " maxBinary=" + maxBinaryMessageSize + " maxFrame=" + maxFrameSize
+              + " maxStreamed=" + maxStreamedMessageSize;
+    }
+
+    public static final class Builder {
+        private int port = 8080;
+        private int acceptors = -1;
+        private int selectors = -1;
+        private long idleTimeoutMs = 30_000;
+        private boolean http2 = false;
+        private int http2MaxConcurrentStreams = -1;
+        private String keyStorePath;
+        private String keyStorePassword;
+        private int minThreads = 8;
+        private int maxThreads = 200;
+        private boolean virtualThreads = false;
+        private long sessionIdleTimeoutMs = -1;
+        private long asyncSendTimeoutMs = -1;
+        private int inputBufferSize = -1;
+        private int outputBufferSize = -1;
+        private int maxTextMessageSize = -1;
+        private int maxBinaryMessageSize = -1;
+        private long maxFrameSize = -1;
+        private long maxStreamedMessageSize = 128L * 1024 * 1024;
+
+        private Builder() {}
+
+        public Builder port(int port) { this.port = port; return this; }
+        public Builder acceptors(int acceptors) { this.acceptors = acceptors; return this; }
+        public Builder selectors(int selectors) { this.selectors = selectors; return this; }
+        public Builder idleTimeoutMs(long ms) { this.idleTimeoutMs = ms; return this; }
+        public Builder http2(boolean on) { this.http2 = on; return this; }
+        public Builder http2MaxConcurrentStreams(int n) { this.http2MaxConcurrentStreams = n; return this; }
+        public Builder keyStore(String path, String password) { this.keyStorePath = path; this.keyStorePassword = password; return this; }
+        public Builder minThreads(int n) { this.minThreads = n; return this; }
+        public Builder maxThreads(int n) { this.maxThreads = n; return this; }
+        public Builder virtualThreads(boolean on) { this.virtualThreads = on; return this; }
+        public Builder sessionIdleTimeoutMs(long ms) { this.sessionIdleTimeoutMs = ms; return this; }
+        public Builder asyncSendTimeoutMs(long ms) { this.asyncSendTimeoutMs = ms; return this; }
+        public Builder inputBufferSize(int bytes) { this.inputBufferSize = bytes; return this; }
+        public Builder outputBufferSize(int bytes) { this.outputBufferSize = bytes; return this; }
+        public Builder maxTextMessageSize(int bytes) { this.maxTextMessageSize = bytes; return this; }
+        public Builder maxBinaryMessageSize(int bytes) { this.maxBinaryMessageSize = bytes; return this; }
+        public Builder maxFrameSize(long bytes) { this.maxFrameSize = bytes; return this; }
+        public Builder maxStreamedMessageSize(long bytes) { this.maxStreamedMessageSize = bytes; return this; }
+
+        public JettyServerConfig build() {
+            if (minThreads > maxThreads) {
+                throw new IllegalArgumentException("minThreads " + minThreads + " > maxThreads " + maxThreads);
+            }
+            return new JettyServerConfig(this);
+        }
+    }
+}
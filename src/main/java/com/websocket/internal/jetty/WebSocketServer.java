@@ -1,17 +1,53 @@
 package com.websocket.internal.jetty;
 
+import jakarta.websocket.server.ServerEndpointConfig;
+import org.eclipse.jetty.ee10.servlet.FilterHolder;
 import org.eclipse.jetty.ee10.websocket.jakarta.server.config.JakartaWebSocketServletContainerInitializer;
+import org.eclipse.jetty.ee10.websocket.servlet.WebSocketUpgradeFilter;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 public class WebSocketServer {
 
     public static void main(String[] args) throws Exception {
+        JettyServerConfig config = JettyServerConfig.fromSystemProperties();
+        System.out.println("Starting Jetty WebSocket server: " + config);
+        Server server = createServer(config);
+
+        // Start the server
+        server.start();
+        server.join();
+    }
+
+    /** Builds (but does not start) the server with default tuning; port 0 picks a free port. */
+    public static Server createServer(int port) {
+        return createServer(JettyServerConfig.builder().port(port).build());
+    }
+
+    /** Builds (but does not start) the server. */
+    public static Server createServer(JettyServerConfig config) {
+        // Thread pool: bounded platform threads, optionally handing blocking work to virtual threads
+        QueuedThreadPool threadPool = new QueuedThreadPool(config.maxThreads, config.minThreads);
+        threadPool.setName("jetty-ws");
+        if (config.virtualThreads) {
+            if (VirtualThreads.areSupported()) {
+                threadPool.setVirtualThreadsExecutor(VirtualThreads.getNamedVirtualThreadsExecutor("jetty-ws-vt"));
+            } else {
+                System.err.println("Virtual threads requested but not supported by this JVM (" + Runtime.version()
+                      + "), using platform threads");
+            }
+        }
+
         // Create a Jetty Server
-        Server server = new Server();
-        ServerConnector connector = new ServerConnector(server);
-        connector.setPort(8080);
+        Server server = new Server(threadPool);
+        // HTTP/1.1, plus TLS and HTTP/2 (RFC 8441 WebSocket streams) when configured
+        ServerConnector connector = new ServerConnector(server, config.acceptors, config.selectors,
+              Http2Connectors.connectionFactories(config));
+        connector.setPort(config.port);
+        connector.setIdleTimeout(config.idleTimeoutMs);
         server.addConnector(connector);
 
         // Create a ServletContextHandler
@@ -21,11 +57,24 @@ public class WebSocketServer {
 
         // Configure WebSocket support for the context
         JakartaWebSocketServletContainerInitializer.configure(context, (servletContext, container) -> {
+            if (config.sessionIdleTimeoutMs >= 0) container.setDefaultMaxSessionIdleTimeout(config.sessionIdleTimeoutMs);
+            if (config.maxTextMessageSize > 0) container.setDefaultMaxTextMessageBufferSize(config.maxTextMessageSize);
+            if (config.maxBinaryMessageSize > 0) container.setDefaultMaxBinaryMessageBufferSize(config.maxBinaryMessageSize);
+            if (config.asyncSendTimeoutMs >= 0) container.setAsyncSendTimeout(config.asyncSendTimeoutMs);
+
+            // Frame-level buffers are not part of the jakarta API; Jetty reads them from the upgrade filter
+            FilterHolder upgradeFilter = WebSocketUpgradeFilter.ensureFilter(servletContext);
+            if (config.inputBufferSize > 0) upgradeFilter.setInitParameter("inputBufferSize", Integer.toString(config.inputBufferSize));
+            if (config.outputBufferSize > 0) upgradeFilter.setInitParameter("outputBufferSize", Integer.toString(config.outputBufferSize));
+            if (config.maxFrameSize > 0) upgradeFilter.setInitParameter("maxFrameSize", Long.toString(config.maxFrameSize));
+
             container.addEndpoint(ChatWebSocket.class);
-        });
 
-        // Start the server
-        server.start();
-        server.join();
+            // Partial-message endpoint; its size limit travels in the endpoint config's user properties
+            ServerEndpointConfig files = ServerEndpointConfig.Builder.create(FileShareWebSocket.class, "/files").build();
+            files.getUserProperties().put(FileShareWebSocket.MAX_MESSAGE_SIZE_KEY, config.maxStreamedMessageSize);
+            container.addEndpoint(files);
+        });
+        return server;
     }
-}
\ No newline at end of file
+}
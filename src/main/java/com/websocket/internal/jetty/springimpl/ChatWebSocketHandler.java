@@ -1,41 +1,114 @@
 package com.websocket.internal.jetty.springimpl;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator.OverflowStrategy;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
-public class ChatWebSocketHandler extends TextWebSocketHandler {
+public class ChatWebSocketHandler extends TextWebSocketHandler implements DisposableBean {
 
-    private final Set<WebSocketSession> sessions = new CopyOnWriteArraySet<>();
+    /*
+     * Every session is wrapped in a ConcurrentWebSocketSessionDecorator, and each send of a broadcast
+     * is its own task on a fixed fan-out pool, so the inbound or closing thread only hands work off.
+     * Only one thread at a time writes to a session; any other task sending to it meanwhile appends
+     * to the session's buffer and returns. A slow session therefore holds up at most the one pool
+     * thread flushing it, and once its buffer or send time limit is exceeded the decorator drops its
+     * oldest messages (DROP) or we close it (TERMINATE, and always for the time limit). When the
+     * pool's queue is full the caller runs the send itself. Sends to one session from broadcasts
+     * that overlap in time may reach it in either order.
+     */
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+
+    private final int sendTimeLimitMs;
+    private final int bufferSizeLimit;
+    private final OverflowStrategy overflowStrategy;
+    private final ThreadPoolExecutor fanOut;
+
+    final AtomicLong failedSends = new AtomicLong();
+
+    public ChatWebSocketHandler(
+          @Value("${chat.ws.send-time-limit-ms:10000}") int sendTimeLimitMs,
+          @Value("${chat.ws.buffer-size-limit:524288}") int bufferSizeLimit,
+          @Value("${chat.ws.overflow-strategy:DROP}") OverflowStrategy overflowStrategy,
+          @Value("${chat.ws.fanout-threads:0}") int fanOutThreads) {
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.overflowStrategy = overflowStrategy;
+        int n = fanOutThreads > 0 ? fanOutThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadId = new AtomicInteger();
+        this.fanOut = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(4096),
+              r -> {
+                  Thread t = new Thread(r, "chat-fanout-" + threadId.getAndIncrement());
+                  t.setDaemon(true);
+                  return t;
+              },
+              new ThreadPoolExecutor.CallerRunsPolicy());
+    }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        sessions.add(session);
+        WebSocketSession decorated = new ConcurrentWebSocketSessionDecorator(
+              session, sendTimeLimitMs, bufferSizeLimit, overflowStrategy);
+        sessions.put(session.getId(), decorated);
         System.out.println("Connection Established with session id" + session.getId());
-        session.sendMessage(new TextMessage("✅ Welcome " + session.getId()));
+        TextMessage welcome = new TextMessage("✅ Welcome " + session.getId());
+        fanOut.execute(() -> send(decorated, welcome));
     }
 
     @Override
-    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        for (WebSocketSession s : sessions) {
-            System.out.println("Sessions present with session id" + session.getId());
-            if (s.isOpen()) {
-                s.sendMessage(new TextMessage("[" + session.getId() + "]: " + message.getPayload()));
-            }
-        }
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        broadcast(new TextMessage("[" + session.getId() + "]: " + message.getPayload()));
     }
 
     @Override
-    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        sessions.remove(session);
-        for (WebSocketSession s : sessions) {
-            if (s.isOpen()) {
-                s.sendMessage(new TextMessage("[" + session.getId() + "]: closed"));
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        sessions.remove(session.getId());
+        broadcast(new TextMessage("[" + session.getId() + "]: closed"));
+    }
+
+    /** Sends one prebuilt message to every open session, one fan-out task per session. */
+    void broadcast(TextMessage message) {
+        for (WebSocketSession s : sessions.values()) {
+            fanOut.execute(() -> send(s, message));
+        }
+    }
+
+    private void send(WebSocketSession session, TextMessage message) {
+        if (!session.isOpen()) return;
+        try {
+            session.sendMessage(message);
+        } catch (SessionLimitExceededException e) {
+            // Send time limit hit, or buffer overflow with TERMINATE: the decorator only flags it,
+            // closing is up to us; afterConnectionClosed then removes the session
+            failedSends.incrementAndGet();
+            System.out.println("Session " + session.getId() + " closed, send limit exceeded: " + e.getMessage());
+            try {
+                session.close(e.getStatus());
+            } catch (Exception ignored) {
             }
+        } catch (Exception e) {
+            failedSends.incrementAndGet();
+            System.out.println("Send to session " + session.getId() + " failed: " + e.getMessage());
         }
     }
+
+    int sessionCount() {
+        return sessions.size();
+    }
+
+    @Override
+    public void destroy() {
+        fanOut.shutdownNow();
+    }
 }
@@ -0,0 +1,89 @@
+package com.websocket.internal.jetty.springimpl;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lets WebSockets over HTTP/2 (RFC 8441) through to Spring's handshake handlers.
+ *
+ * Over HTTP/2 a WebSocket is opened with CONNECT and :protocol websocket instead of a GET with
+ * Upgrade/Connection/Sec-WebSocket-Key. Jetty upgrades either kind, but the DispatcherServlet
+ * answers CONNECT with 501 and Spring's handshake checks insist on the HTTP/1.1 form. Such requests
+ * are therefore shown to Spring as the equivalent HTTP/1.1 upgrade; Jetty unwraps the request when
+ * Spring hands it over for the upgrade and sees the CONNECT stream again.
+ *
+ * Only does anything with server.http2.enabled (see application-http2.properties).
+ */
+@Component
+public class ExtendedConnectUpgradeFilter extends OncePerRequestFilter {
+
+    // Never checked over HTTP/2 (there is no Sec-WebSocket-Accept), only has to be present
+    static final String PLACEHOLDER_KEY = "AAAAAAAAAAAAAAAAAAAAAA==";
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // :protocol is not visible through the servlet API; a CONNECT carrying a WebSocket version is one
+        return !("CONNECT".equals(request.getMethod()) && request.getProtocol().startsWith("HTTP/2")
+              && request.getHeader("Sec-WebSocket-Version") != null);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+          throws ServletException, IOException {
+        chain.doFilter(new UpgradeRequest(request), response);
+    }
+
+    private static final class UpgradeRequest extends HttpServletRequestWrapper {
+
+        private static final Map<String, String> ADDED = Map.of(
+              "upgrade", "websocket",
+              "connection", "Upgrade",
+              "sec-websocket-key", PLACEHOLDER_KEY);
+
+        UpgradeRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getMethod() {
+            return "GET";
+        }
+
+        @Override
+        public String getHeader(String name) {
+            String value = super.getHeader(name);
+            return value != null ? value : ADDED.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if (super.getHeader(name) != null) return super.getHeaders(name);
+            String added = ADDED.get(name.toLowerCase(Locale.ROOT));
+            return added == null ? Collections.emptyEnumeration() : Collections.enumeration(List.of(added));
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            List<String> names = Collections.list(super.getHeaderNames());
+            List<String> lowerCase = names.stream().map(n -> n.toLowerCase(Locale.ROOT)).toList();
+            List<String> all = new ArrayList<>(names);
+            for (String name : ADDED.keySet()) {
+                if (!lowerCase.contains(name)) all.add(name);
+            }
+            return Collections.enumeration(all);
+        }
+    }
+}
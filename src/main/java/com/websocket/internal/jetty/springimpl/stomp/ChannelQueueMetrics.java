@@ -0,0 +1,98 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queue latency of one executor: how long tasks wait between being handed to it and starting.
+ *
+ * Installed as the executor's TaskDecorator, which runs on the submitting thread, so it works the
+ * same for thread pools, virtual-thread executors and the broker lanes. Waits go into power-of-two
+ * microsecond buckets, enough for p50/p99 without keeping samples.
+ */
+public final class ChannelQueueMetrics implements TaskDecorator {
+
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS); // bucket i: wait < 2^i us
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public ChannelQueueMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Runnable decorate(Runnable task) {
+        long submitted = System.nanoTime();
+        queued.incrementAndGet();
+        return () -> {
+            queued.decrementAndGet();
+            record(System.nanoTime() - submitted);
+            task.run();
+        };
+    }
+
+    void record(long waitNanos) {
+        tasks.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        long micros = waitNanos / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+    }
+
+    /** Tasks submitted but not started yet. */
+    public int queued() {
+        return queued.get();
+    }
+
+    public long tasks() {
+        return tasks.sum();
+    }
+
+    /** Upper bound, in microseconds, of the bucket holding the given percentile (0..1). */
+    public long percentileMicros(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) total += counts[i] = buckets.get(i);
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return 1L << i;
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    public Map<String, Object> snapshot() {
+        long n = tasks.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("tasks", n);
+        m.put("queued", queued.get());
+        m.put("meanWaitMicros", n == 0 ? 0 : totalWaitNanos.sum() / n / 1000);
+        m.put("p50WaitMicros", percentileMicros(0.50));
+        m.put("p99WaitMicros", percentileMicros(0.99));
+        m.put("maxWaitMicros", maxWaitNanos.get() / 1000);
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + snapshot();
+    }
+}
@@ -1,9 +1,15 @@
 package com.websocket.internal.jetty.springimpl.stomp;
 
+import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.context.event.EventListener;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
 import java.security.Principal;
 
@@ -12,10 +18,26 @@ public class ChatController {
 
     private final SimpMessagingTemplate messagingTemplate;
     private final RoomRegistry roomRegistry;
+    private final SimpUserRegistry userRegistry;
+    private final PrivateDelivery privateDelivery;
+    private final OfflineDelivery offlineDelivery;
+    private final ClusterRelay clusterRelay;
+    private final RoomPresence presence;
+    private final RoomHistory history;
+    private final ChatMessageEncoding encoding;
 
-    public ChatController(SimpMessagingTemplate messagingTemplate, RoomRegistry roomRegistry) {
+    public ChatController(SimpMessagingTemplate messagingTemplate, RoomRegistry roomRegistry,
+          SimpUserRegistry userRegistry, PrivateDelivery privateDelivery, OfflineDelivery offlineDelivery,
+          ClusterRelay clusterRelay, RoomPresence presence, RoomHistory history, ChatMessageEncoding encoding) {
         this.messagingTemplate = messagingTemplate;
         this.roomRegistry = roomRegistry;
+        this.userRegistry = userRegistry;
+        this.privateDelivery = privateDelivery;
+        this.offlineDelivery = offlineDelivery;
+        this.clusterRelay = clusterRelay;
+        this.presence = presence;
+        this.history = history;
+        this.encoding = encoding;
     }
 
     @MessageMapping("/chat") // client -> /app/chat
@@ -30,25 +52,51 @@ public class ChatController {
             this.leaveRoom(message);
         } else if (message.getRoomId() != null && !message.getRoomId().isBlank()) {
             // Send to a specific room
-            messagingTemplate.convertAndSend("/topic/room/" + message.getRoomId(), message);
+            sendToRoom(message);
         } else if (message.getTo() != null && !message.getTo().isBlank()) {
-            // Private chat
-            messagingTemplate.convertAndSendToUser(message.getTo(), "/queue/private", message);
+            // Private chat; kept for the recipient's next connection if no node has them
+            boolean delivered = privateDelivery.send(message.getTo(), message);
+            if (!clusterRelay.publishPrivate(message.getTo(), message) && !delivered) {
+                offlineDelivery.enqueue(message.getTo(), message);
+            }
         } else {
             // Broadcast
-            messagingTemplate.convertAndSend("/topic/public", message);
+            messagingTemplate.convertAndSend("/topic/public", message, encoding.headersFor(message));
+            clusterRelay.publishPublic(message);
         }
     }
 
+    private void sendToRoom(ChatMessage message) {
+        history.publish(message.getRoomId(), message);
+        clusterRelay.publishRoom(message.getRoomId(), message);
+    }
+
     private void joinRoom(ChatMessage message) {
         roomRegistry.joinRoom(message.getRoomId(), message.getFrom());
+        presence.changed(message.getRoomId());
         message.setContent(message.getFrom() + " joined the room.");
-        messagingTemplate.convertAndSend("/topic/room/" + message.getRoomId(), message);
+        sendToRoom(message);
     }
 
     private void leaveRoom(ChatMessage message) {
         roomRegistry.leaveRoom(message.getRoomId(), message.getFrom());
+        presence.changed(message.getRoomId());
         message.setContent(message.getFrom() + " left the room.");
-        messagingTemplate.convertAndSend("/topic/room/" + message.getRoomId(), message);
+        sendToRoom(message);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        if (event.getUser() == null || event.getUser().getName() == null) return;
+        String username = event.getUser().getName();
+        // Only drop the memberships once the user's last session is gone
+        SimpUser user = userRegistry.getUser(username);
+        if (user != null && user.getSessions().stream().anyMatch(s -> !s.getId().equals(event.getSessionId()))) return;
+        roomRegistry.leaveAll(username).forEach(presence::changed);
+    }
+
+    @SubscribeMapping("/presence/{roomId}") // client SUBSCRIBE /app/presence/{roomId}, answered once
+    public RoomPresence.Snapshot presence(@DestinationVariable String roomId) {
+        return presence.snapshot(roomId);
     }
 }
@@ -0,0 +1,120 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact encoding of ChatMessage, content type application/x-chat-compact.
+ *
+ * The five fields are written in a fixed order (type, from, to, roomId, content) after a version
+ * character, each as "length:value" or "-" for null, so no field names or quoting go on the wire:
+ *
+ *   {"type":"CHAT","from":"alice","to":null,"roomId":"7","content":"hi"}   (68 bytes as JSON)
+ *   14:CHAT5:alice-1:72:hi                                               (22 bytes)
+ *
+ * Lengths count UTF-16 chars, like String.length() in Java and JavaScript, and the result is plain
+ * UTF-8 text, so it travels in STOMP text frames and over SockJS like JSON does.
+ *
+ * Only applies when the content type says so (strict match); anything else stays with Jackson.
+ */
+public class ChatMessageCompactConverter extends AbstractMessageConverter {
+
+    public static final MimeType CHAT_COMPACT = new MimeType("application", "x-chat-compact", StandardCharsets.UTF_8);
+
+    private static final char VERSION = '1';
+
+    public ChatMessageCompactConverter() {
+        super(CHAT_COMPACT);
+        setStrictContentTypeMatch(true);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ChatMessage.class == clazz;
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        Object payload = message.getPayload();
+        String text = payload instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : payload.toString();
+        return decode(text);
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        return encode((ChatMessage) payload);
+    }
+
+    public static byte[] encode(ChatMessage m) {
+        StringBuilder sb = new StringBuilder(32 + length(m.getContent()));
+        sb.append(VERSION);
+        append(sb, m.getType());
+        append(sb, m.getFrom());
+        append(sb, m.getTo());
+        append(sb, m.getRoomId());
+        append(sb, m.getContent());
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static void append(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append('-');
+        } else {
+            sb.append(value.length()).append(':').append(value);
+        }
+    }
+
+    public static ChatMessage decode(String text) {
+        if (text.isEmpty() || text.charAt(0) != VERSION) {
+            throw new MessageConversionException("Unsupported compact ChatMessage version: " + abbreviate(text));
+        }
+        int[] pos = { 1 };
+        ChatMessage m = new ChatMessage();
+        m.setType(field(text, pos));
+        m.setFrom(field(text, pos));
+        m.setTo(field(text, pos));
+        m.setRoomId(field(text, pos));
+        m.setContent(field(text, pos));
+        if (pos[0] != text.length()) {
+            throw new MessageConversionException("Trailing data in compact ChatMessage: " + abbreviate(text));
+        }
+        return m;
+    }
+
+    private static String field(String text, int[] pos) {
+        int i = pos[0];
+        if (i >= text.length()) throw new MessageConversionException("Truncated compact ChatMessage");
+        if (text.charAt(i) == '-') {
+            pos[0] = i + 1;
+            return null;
+        }
+        int len = 0;
+        int digits = 0;
+        char c;
+        while (i < text.length() && (c = text.charAt(i)) != ':') {
+            if (c < '0' || c > '9' || ++digits > 9) {
+                throw new MessageConversionException("Bad field length in compact ChatMessage: " + abbreviate(text));
+            }
+            len = len * 10 + (c - '0');
+            i++;
+        }
+        if (digits == 0 || i >= text.length() || i + 1 + len > text.length()) {
+            throw new MessageConversionException("Truncated compact ChatMessage: " + abbreviate(text));
+        }
+        pos[0] = i + 1 + len;
+        return text.substring(i + 1, i + 1 + len);
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() <= 40 ? text : text.substring(0, 40) + "...";
+    }
+}
@@ -0,0 +1,119 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-session choice between JSON and the compact ChatMessage encoding.
+ *
+ * A client opts in on CONNECT with an "accept" header listing content types in preference order,
+ * e.g. accept:application/x-chat-compact,application/json. Sessions that do not, get JSON as before.
+ *
+ * Outgoing ChatMessages are still converted to JSON by SimpMessagingTemplate / RoomDelivery, and
+ * additionally carry a ChatPayloads header (see headersFor) that encodes the compact form lazily,
+ * at most once per published message no matter how many sessions asked for it. This interceptor,
+ * on the client outbound channel, swaps the payload and content type for sessions that chose it.
+ */
+@Component
+public class ChatMessageEncoding implements ChannelInterceptor {
+
+    public static final String PAYLOADS_HEADER = "chatPayloads";
+    public static final String ACCEPT_HEADER = "accept";
+
+    /** The compact form of one published ChatMessage, encoded on first use. */
+    public static final class ChatPayloads {
+        private final ChatMessage message;
+        private volatile byte[] compact;
+
+        ChatPayloads(ChatMessage message) {
+            this.message = message;
+        }
+
+        byte[] compact() {
+            byte[] c = compact;
+            if (c == null) {
+                // A racing second encode is harmless, both produce the same bytes
+                c = ChatMessageCompactConverter.encode(message);
+                compact = c;
+            }
+            return c;
+        }
+    }
+
+    private final Map<String, MimeType> encodingBySession = new ConcurrentHashMap<>();
+
+    /**
+     * Headers for SimpMessagingTemplate.convertAndSend that make the message eligible for the compact
+     * encoding. The message must not be modified after it was sent.
+     */
+    public MessageHeaders headersFor(ChatMessage message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setHeader(PAYLOADS_HEADER, new ChatPayloads(message));
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String accept = accessor.getFirstNativeHeader(ACCEPT_HEADER);
+        if (sessionId == null || accept == null) return;
+        MimeType chosen = negotiate(accept);
+        if (chosen != null) encodingBySession.put(sessionId, chosen);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        encodingBySession.remove(event.getSessionId());
+    }
+
+    /** First acceptable type we can produce, or null to keep the JSON default. */
+    static MimeType negotiate(String accept) {
+        List<MimeType> types;
+        try {
+            types = MimeTypeUtils.parseMimeTypes(accept);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        for (MimeType type : types) {
+            if (type.equalsTypeAndSubtype(ChatMessageCompactConverter.CHAT_COMPACT)) return ChatMessageCompactConverter.CHAT_COMPACT;
+            if (type.equalsTypeAndSubtype(MimeTypeUtils.APPLICATION_JSON)) return null;
+        }
+        return null;
+    }
+
+    MimeType encodingOf(String sessionId) {
+        MimeType type = encodingBySession.get(sessionId);
+        return type == null ? MimeTypeUtils.APPLICATION_JSON : type;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (!(headers.get(PAYLOADS_HEADER) instanceof ChatPayloads payloads)) return message;
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) return message;
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (sessionId == null || encodingBySession.get(sessionId) == null) return message;
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        accessor.setContentType(ChatMessageCompactConverter.CHAT_COMPACT);
+        accessor.removeHeader(PAYLOADS_HEADER);
+        return MessageBuilder.createMessage(payloads.compact(), accessor.getMessageHeaders());
+    }
+}
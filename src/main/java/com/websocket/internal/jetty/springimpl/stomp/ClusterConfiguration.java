@@ -0,0 +1,47 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import com.websocket.internal.cluster.ClusterBus;
+import com.websocket.internal.cluster.TcpClusterBus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/** The cluster bus, with chat.cluster.enabled=true; ClusterRelay connects it to the STOMP delivery paths. */
+@Configuration
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "true")
+public class ClusterConfiguration {
+
+    /**
+     * With spring.main.lazy-initialization (the prod profile) nothing would ask for the bus or the
+     * relay before the first local chat message, and until then the node would not join the cluster.
+     */
+    @Bean
+    static LazyInitializationExcludeFilter eagerClusterBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(ClusterBus.class, ClusterRelay.class);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public ClusterBus clusterBus(
+          @Value("${chat.cluster.node-id:}") String nodeId,
+          @Value("${chat.cluster.bind-host:}") String bindHost,
+          @Value("${chat.cluster.port:7600}") int port,
+          @Value("${chat.cluster.advertise-host:}") String advertiseHost,
+          @Value("${chat.cluster.seeds:}") String seeds,
+          @Value("${chat.cluster.max-batch-bytes:65536}") int maxBatchBytes,
+          @Value("${chat.cluster.peer-queue-capacity:16384}") int peerQueueCapacity,
+          @Value("${chat.cluster.heartbeat-ms:1000}") long heartbeatMillis,
+          @Value("${chat.cluster.failure-timeout-ms:5000}") long failureTimeoutMillis) {
+        // A default would be wrong on every host but one: gossip hands it to the other nodes to dial
+        if (advertiseHost.isBlank()) {
+            throw new IllegalStateException("chat.cluster.advertise-host must be set to the address other nodes reach this one on");
+        }
+        TcpClusterBus bus = new TcpClusterBus(nodeId, bindHost, port, advertiseHost, TcpClusterBus.parseAddresses(seeds));
+        bus.setMaxBatchBytes(maxBatchBytes);
+        bus.setPeerQueueCapacity(peerQueueCapacity);
+        bus.setHeartbeatMillis(heartbeatMillis);
+        bus.setFailureTimeoutMillis(failureTimeoutMillis);
+        return bus;
+    }
+}
@@ -0,0 +1,183 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import com.websocket.internal.cluster.ClusterBus;
+import com.websocket.internal.cluster.TcpClusterBus;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Carries chat messages to the other nodes when a ClusterBus is configured; without one every
+ * method is a no-op and the node runs alone.
+ *
+ * Topics: "public" (every node), "room:{roomId}" (nodes with a local subscriber to that room, as
+ * RoomDelivery reports them) and "user:{username}" (nodes where the user has a private
+ * subscription, from PrivateDelivery). Messages travel in the compact ChatMessage encoding and are
+ * handed to the same local delivery paths as messages from local senders (room messages through
+ * RoomHistory, so they are in this node's history too), so they are never relayed a second time.
+ * A private message for a user who left this node while it was on its way is queued in
+ * OfflineDelivery here, as the sending node already counted it as delivered.
+ *
+ * Messages from other nodes are not delivered on the bus's reader thread, which also carries the
+ * membership and interest frames and heart-beats: each topic is hashed to one of relayThreads
+ * single-thread lanes, which keeps a topic's messages in order. A lane holds at most
+ * relayQueueCapacity messages; beyond that room and public messages are dropped and counted, and
+ * private ones are queued offline for their user.
+ *
+ * Only delivery is clustered: RoomRegistry membership and the STOMP user registry stay per node.
+ */
+@Component
+public class ClusterRelay implements DisposableBean {
+
+    static final String PUBLIC_TOPIC = "public";
+    static final String ROOM_TOPIC = "room:";
+    static final String USER_TOPIC = "user:";
+
+    @Nullable
+    private final ClusterBus bus;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final RoomHistory roomHistory;
+    private final PrivateDelivery privateDelivery;
+    private final OfflineDelivery offlineDelivery;
+    private final ChatMessageEncoding encoding;
+    private final ThreadPoolExecutor[] lanes;
+
+    final LongAdder relayed = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+
+    @Autowired
+    public ClusterRelay(ObjectProvider<ClusterBus> bus, SimpMessagingTemplate messagingTemplate,
+          RoomDelivery roomDelivery, RoomHistory roomHistory, PrivateDelivery privateDelivery,
+          OfflineDelivery offlineDelivery, ChatMessageEncoding encoding,
+          @Value("${chat.cluster.relay-threads:0}") int relayThreads,
+          @Value("${chat.cluster.relay-queue-capacity:16384}") int relayQueueCapacity) {
+        this(bus.getIfAvailable(), messagingTemplate, roomDelivery, roomHistory, privateDelivery, offlineDelivery, encoding,
+              relayThreads, relayQueueCapacity);
+    }
+
+    ClusterRelay(@Nullable ClusterBus bus, SimpMessagingTemplate messagingTemplate,
+          RoomDelivery roomDelivery, RoomHistory roomHistory, PrivateDelivery privateDelivery,
+          OfflineDelivery offlineDelivery, ChatMessageEncoding encoding, int relayThreads, int relayQueueCapacity) {
+        this.bus = bus;
+        this.messagingTemplate = messagingTemplate;
+        this.roomHistory = roomHistory;
+        this.privateDelivery = privateDelivery;
+        this.offlineDelivery = offlineDelivery;
+        this.encoding = encoding;
+        int n = bus == null ? 0 : relayThreads > 0 ? relayThreads : Runtime.getRuntime().availableProcessors();
+        this.lanes = new ThreadPoolExecutor[n];
+        for (int i = 0; i < n; i++) {
+            String name = "cluster-relay-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                  new LinkedBlockingQueue<>(relayQueueCapacity),
+                  r -> {
+                      Thread t = new Thread(r, name);
+                      t.setDaemon(true);
+                      return t;
+                  });
+        }
+        if (bus == null) return;
+        bus.setListener(this::relay);
+        bus.subscribe(PUBLIC_TOPIC);
+        roomDelivery.setInterestListener(new TopicInterest(ROOM_TOPIC));
+        privateDelivery.setInterestListener(new TopicInterest(USER_TOPIC));
+    }
+
+    public void publishPublic(ChatMessage message) {
+        if (bus != null) bus.publish(PUBLIC_TOPIC, ChatMessageCompactConverter.encode(message));
+    }
+
+    public void publishRoom(String roomId, ChatMessage message) {
+        if (bus != null) bus.publish(ROOM_TOPIC + roomId, ChatMessageCompactConverter.encode(message));
+    }
+
+    /** @return whether another node has a private subscription of the user and was sent the message */
+    public boolean publishPrivate(String username, ChatMessage message) {
+        return bus != null && bus.publish(USER_TOPIC + username, ChatMessageCompactConverter.encode(message)) > 0;
+    }
+
+    /** Called on the bus's reader thread: hands the message to its topic's lane. */
+    private void relay(String topic, byte[] payload, String fromNode) {
+        ThreadPoolExecutor lane = lanes[Math.floorMod(topic.hashCode(), lanes.length)];
+        try {
+            lane.execute(() -> {
+                try {
+                    onClusterMessage(topic, payload, fromNode);
+                } catch (RuntimeException e) {
+                    System.out.println("Cluster message on " + topic + " from " + fromNode + " failed: " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (lane.isShutdown()) return;
+            dropped.increment();
+            // The sending node counted a private message as delivered, so keep it for the user
+            if (topic.startsWith(USER_TOPIC)) {
+                String username = topic.substring(USER_TOPIC.length());
+                offlineDelivery.enqueue(username, ChatMessageCompactConverter.decode(new String(payload, StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    void onClusterMessage(String topic, byte[] payload, String fromNode) {
+        relayed.increment();
+        ChatMessage message = ChatMessageCompactConverter.decode(new String(payload, StandardCharsets.UTF_8));
+        if (topic.equals(PUBLIC_TOPIC)) {
+            messagingTemplate.convertAndSend("/topic/public", message, encoding.headersFor(message));
+        } else if (topic.startsWith(ROOM_TOPIC)) {
+            roomHistory.publish(topic.substring(ROOM_TOPIC.length()), message);
+        } else if (topic.startsWith(USER_TOPIC)) {
+            String username = topic.substring(USER_TOPIC.length());
+            // Unsubscribed after the sender's bus looked up who is interested
+            if (!privateDelivery.send(username, message)) offlineDelivery.enqueue(username, message);
+        }
+    }
+
+    Map<String, Object> snapshot() {
+        if (bus == null) return Map.of("enabled", false);
+        Map<String, Object> m = new LinkedHashMap<>();
+        if (bus instanceof TcpClusterBus tcp) m.putAll(tcp.stats());
+        else {
+            m.put("nodeId", bus.nodeId());
+            m.put("members", bus.members());
+        }
+        m.put("relayed", relayed.sum());
+        m.put("relayDropped", dropped.sum());
+        return m;
+    }
+
+    @Override
+    public void destroy() {
+        for (ThreadPoolExecutor lane : lanes) lane.shutdownNow();
+    }
+
+    private final class TopicInterest implements LocalInterestListener {
+        private final String prefix;
+
+        TopicInterest(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void interested(String key) {
+            bus.subscribe(prefix + key);
+        }
+
+        @Override
+        public void uninterested(String key) {
+            bus.unsubscribe(prefix + key);
+        }
+    }
+}
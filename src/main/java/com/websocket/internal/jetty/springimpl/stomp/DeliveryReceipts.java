@@ -0,0 +1,140 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tells a sender when a MESSAGE frame it tagged has been written to a WebSocket session.
+ *
+ * The sender sets the frame's message-id to an id from newId() and waits on expect(id). Each
+ * session's outgoing WebSocket messages pass through a ReceiptWebSocketSession directly on top of
+ * the transport's session, underneath Spring's ConcurrentWebSocketSessionDecorator and
+ * StompOutboundBatching, and the wait completes once a frame carrying the id has been handed to
+ * the transport without an error. A frame the broker lanes discarded, or one still buffered when
+ * its session closed, completes nothing. While nobody waits, a send costs one isEmpty check.
+ *
+ * The ids carry a random per-node part, so a message body cannot complete someone else's wait.
+ */
+@Component
+public class DeliveryReceipts implements WebSocketHandlerDecoratorFactory {
+
+    static final String MESSAGE_ID = "message-id";
+    private static final String ID_PREFIX = "receipt-";
+    private static final String ID_HEADER = "\n" + MESSAGE_ID + ":" + ID_PREFIX;
+
+    private final String node = Long.toHexString(new SecureRandom().nextLong());
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<String, CompletableFuture<Void>> waiting = new ConcurrentHashMap<>();
+
+    final LongAdder confirmed = new LongAdder();
+
+    /** A message-id no other frame carries. */
+    String newId() {
+        return ID_PREFIX + node + "-" + nextId.incrementAndGet();
+    }
+
+    /** Completes when a frame with this message-id has been written to a session. */
+    CompletableFuture<Void> expect(String id) {
+        return waiting.computeIfAbsent(id, k -> new CompletableFuture<>());
+    }
+
+    /** Stops waiting for the id, e.g. after a timeout. */
+    void forget(String id) {
+        waiting.remove(id);
+    }
+
+    /** Called with the text of a WebSocket message the transport accepted; it may hold several frames. */
+    void written(String frames) {
+        if (waiting.isEmpty()) return;
+        int from = 0;
+        for (int i; (i = frames.indexOf(ID_HEADER, from)) >= 0; ) {
+            int start = i + 1 + MESSAGE_ID.length() + 1;
+            int end = frames.indexOf('\n', start);
+            if (end < 0) return;
+            confirm(frames.substring(start, end));
+            from = end;
+        }
+    }
+
+    void confirm(String id) {
+        CompletableFuture<Void> write = waiting.remove(id);
+        if (write == null) return;
+        confirmed.increment();
+        write.complete(null);
+    }
+
+    int waitingCount() {
+        return waiting.size();
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new ReceiptWebSocketHandler(handler);
+    }
+
+    /** Hands the decorators above it a ReceiptWebSocketSession instead of the transport's session. */
+    private final class ReceiptWebSocketHandler extends WebSocketHandlerDecorator {
+
+        private final Map<String, ReceiptWebSocketSession> sessions = new ConcurrentHashMap<>();
+
+        ReceiptWebSocketHandler(WebSocketHandler delegate) {
+            super(delegate);
+        }
+
+        private WebSocketSession receipting(WebSocketSession session) {
+            WebSocketSession s = sessions.get(session.getId());
+            return s != null ? s : session;
+        }
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+            ReceiptWebSocketSession receipting = new ReceiptWebSocketSession(session);
+            sessions.put(session.getId(), receipting);
+            super.afterConnectionEstablished(receipting);
+        }
+
+        @Override
+        public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+            super.handleMessage(receipting(session), message);
+        }
+
+        @Override
+        public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+            super.handleTransportError(receipting(session), exception);
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+            ReceiptWebSocketSession receipting = sessions.remove(session.getId());
+            super.afterConnectionClosed(receipting != null ? receipting : session, closeStatus);
+        }
+    }
+
+    private final class ReceiptWebSocketSession extends WebSocketSessionDecorator {
+
+        ReceiptWebSocketSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            super.sendMessage(message);
+            if (message instanceof TextMessage text) written(text.getPayload());
+        }
+    }
+}
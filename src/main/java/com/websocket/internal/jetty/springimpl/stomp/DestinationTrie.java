@@ -0,0 +1,217 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.util.AntPathMatcher;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Subscription index for TrieBrokerMessageHandler.
+ *
+ * Subscriptions are stored at the trie node of their destination, split on '/'. Publishing to
+ * /topic/room/42 walks three nodes instead of testing every subscription in the registry. Whole
+ * segment wildcards ("*" = one segment, "**" = any number) are trie nodes too; any other Ant
+ * pattern (e.g. /topic/room-?) is kept in a short list and matched with AntPathMatcher.
+ *
+ * Each node splits its subscribers into shards by session id. The broker delivers shard i on
+ * lane i, so one hot destination is fanned out in parallel while a session's messages stay on
+ * one thread. Lookups are lock-free; subscribe/unsubscribe take a single writer lock, which also
+ * lets empty nodes (e.g. a disconnected user's private queue) be pruned safely.
+ */
+final class DestinationTrie {
+
+    record Subscription(String sessionId, String subscriptionId, String destination) {}
+
+    static final class Node {
+        final String segment;
+        final Node parent;
+        final Map<String, Node> children = new ConcurrentHashMap<>();
+        final Set<Subscription>[] shards;
+        volatile int size; // written under the trie's writer lock
+
+        @SuppressWarnings("unchecked")
+        Node(String segment, Node parent, int shardCount) {
+            this.segment = segment;
+            this.parent = parent;
+            this.shards = new Set[shardCount];
+            for (int i = 0; i < shardCount; i++) shards[i] = ConcurrentHashMap.newKeySet();
+        }
+
+        Set<Subscription> shard(int i) {
+            return shards[i];
+        }
+    }
+
+    private final int shardCount;
+    private final Node root;
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    // Subscriptions whose pattern cannot be expressed as trie nodes
+    private final List<Subscription> patternSubscriptions = new CopyOnWriteArrayList<>();
+    // sessionId -> subscriptionId -> subscription, for UNSUBSCRIBE and DISCONNECT
+    private final Map<String, Map<String, Subscription>> bySession = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    // Subscriptions to anything but a literal destination, written under the writer lock
+    private volatile int wildcardCount;
+
+    DestinationTrie(int shardCount) {
+        this.shardCount = shardCount;
+        this.root = new Node("", null, shardCount);
+    }
+
+    int shardOf(String sessionId) {
+        return Math.floorMod(sessionId.hashCode(), shardCount);
+    }
+
+    private static String[] split(String destination) {
+        String d = destination.startsWith("/") ? destination.substring(1) : destination;
+        return d.isEmpty() ? new String[0] : d.split("/", -1);
+    }
+
+    private static boolean isWildcard(String segment) {
+        return segment.equals("*") || segment.equals("**");
+    }
+
+    private static boolean isLiteral(String[] segments) {
+        for (String s : segments) {
+            if (isWildcard(s) || s.indexOf('*') >= 0 || s.indexOf('?') >= 0 || s.indexOf('{') >= 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean isTriePattern(String[] segments) {
+        for (String s : segments) {
+            if (s.equals("*") || s.equals("**")) continue;
+            if (s.indexOf('*') >= 0 || s.indexOf('?') >= 0 || s.indexOf('{') >= 0) return false;
+        }
+        return true;
+    }
+
+    void subscribe(String sessionId, String subscriptionId, String destination) {
+        Subscription sub = new Subscription(sessionId, subscriptionId, destination);
+        String[] segments = split(destination);
+        synchronized (writeLock) {
+            Subscription previous = bySession.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>()).put(subscriptionId, sub);
+            if (previous != null) removeLocked(previous);
+            if (!isLiteral(segments)) wildcardCount++;
+            if (!isTriePattern(segments)) {
+                patternSubscriptions.add(sub);
+                return;
+            }
+            Node node = root;
+            for (String segment : segments) {
+                Node parent = node;
+                node = parent.children.computeIfAbsent(segment, s -> new Node(s, parent, shardCount));
+            }
+            if (node.shards[shardOf(sessionId)].add(sub)) node.size++;
+        }
+    }
+
+    void unsubscribe(String sessionId, String subscriptionId) {
+        synchronized (writeLock) {
+            Map<String, Subscription> subs = bySession.get(sessionId);
+            if (subs == null) return;
+            Subscription sub = subs.remove(subscriptionId);
+            if (subs.isEmpty()) bySession.remove(sessionId);
+            if (sub != null) removeLocked(sub);
+        }
+    }
+
+    void removeSession(String sessionId) {
+        synchronized (writeLock) {
+            Map<String, Subscription> subs = bySession.remove(sessionId);
+            if (subs == null) return;
+            for (Subscription sub : subs.values()) removeLocked(sub);
+        }
+    }
+
+    private void removeLocked(Subscription sub) {
+        String[] segments = split(sub.destination());
+        if (!isLiteral(segments)) wildcardCount--;
+        if (!isTriePattern(segments)) {
+            patternSubscriptions.remove(sub);
+            return;
+        }
+        Node node = root;
+        for (String segment : segments) {
+            node = node.children.get(segment);
+            if (node == null) return;
+        }
+        if (node.shards[shardOf(sub.sessionId())].remove(sub)) node.size--;
+        // Prune empty leaves so per-session destinations do not accumulate
+        while (node != root && node.size == 0 && node.children.isEmpty()) {
+            node.parent.children.remove(node.segment, node);
+            node = node.parent;
+        }
+    }
+
+    /** Nodes whose subscribers should receive a message published to the destination. */
+    List<Node> match(String destination) {
+        String[] segments = split(destination);
+        List<Node> out = new ArrayList<>(2);
+        collect(root, segments, 0, out);
+        if (out.size() > 1) {
+            // "**" can reach the same node along several paths
+            Set<Node> unique = Collections.newSetFromMap(new IdentityHashMap<>());
+            out.removeIf(n -> !unique.add(n));
+        }
+        return out;
+    }
+
+    private static void collect(Node node, String[] segments, int index, List<Node> out) {
+        Node doubleStar = node.children.get("**");
+        if (index == segments.length) {
+            if (node.size > 0) out.add(node);
+            if (doubleStar != null) collect(doubleStar, segments, index, out);
+            return;
+        }
+        Node exact = node.children.get(segments[index]);
+        if (exact != null) collect(exact, segments, index + 1, out);
+        Node star = node.children.get("*");
+        if (star != null) collect(star, segments, index + 1, out);
+        if (doubleStar != null) {
+            for (int i = index; i <= segments.length; i++) collect(doubleStar, segments, i, out);
+        }
+    }
+
+    /**
+     * The nodes of match() that were reached through a "*" or "**" segment, i.e. every subscriber of
+     * the destination except those that subscribed to it literally.
+     */
+    List<Node> matchWildcards(String destination) {
+        if (wildcardCount == 0) return Collections.emptyList();
+        List<Node> out = match(destination);
+        out.removeIf(node -> {
+            for (Node n = node; n != root; n = n.parent) {
+                if (isWildcard(n.segment)) return false;
+            }
+            return true;
+        });
+        return out;
+    }
+
+    /** Whether anyone subscribed to something other than a literal destination. */
+    boolean hasWildcards() {
+        return wildcardCount > 0;
+    }
+
+    /** Subscriptions kept outside the trie that match the destination. */
+    List<Subscription> matchPatterns(String destination) {
+        if (patternSubscriptions.isEmpty()) return Collections.emptyList();
+        List<Subscription> out = new ArrayList<>();
+        for (Subscription sub : patternSubscriptions) {
+            if (matcher.match(sub.destination(), destination)) out.add(sub);
+        }
+        return out;
+    }
+
+    int subscriptionCount() {
+        int n = 0;
+        for (Map<String, Subscription> subs : bySession.values()) n += subs.size();
+        return n;
+    }
+
+    boolean isEmptyTree() {
+        return root.children.isEmpty();
+    }
+}
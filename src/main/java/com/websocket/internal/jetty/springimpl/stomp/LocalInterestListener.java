@@ -0,0 +1,23 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+/**
+ * Told when a delivery index gets its first local subscriber for a key (a room id, a username)
+ * and when the last one goes. Called while the index entry is being updated, so calls for one
+ * key arrive in order; implementations must not block.
+ */
+interface LocalInterestListener {
+
+    LocalInterestListener NONE = new LocalInterestListener() {
+        @Override
+        public void interested(String key) {
+        }
+
+        @Override
+        public void uninterested(String key) {
+        }
+    };
+
+    void interested(String key);
+
+    void uninterested(String key);
+}
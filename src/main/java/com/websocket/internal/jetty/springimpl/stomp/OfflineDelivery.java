@@ -0,0 +1,244 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import com.websocket.internal.store.KeyedMessageLog;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Private messages for users who are offline, kept until they are back.
+ *
+ * A private message that reaches no session (PrivateDelivery.send returned false and no other
+ * node took it) is appended to a KeyedMessageLog under the recipient's name; the append is
+ * group-committed by the log's writer thread, so the sender's thread never waits for the disk.
+ * When the user connects again (customHandshakeHandler names the session's user) and subscribes
+ * to /user/queue/private, the queue is drained in batches of drainBatch on a separate thread,
+ * which serves other users while a batch's frames and ack are pending: each batch is sent through
+ * PrivateDelivery with a DeliveryReceipts message-id per message, and acknowledged in the log up
+ * to the last message of the unbroken run whose frames were written to a session within
+ * receiptTimeout. Messages the broker lanes dropped (the session disconnected) or
+ * that had no subscription yet (the simple broker had not processed the SUBSCRIBE) are not written,
+ * so they stay queued; while the user is still subscribed the drain is retried after
+ * receiptTimeout, up to maxRetries times in a row without progress. Delivery is at least once: a
+ * crash between the write and the ack, or a retry after a slow write, sends a message again.
+ *
+ * Per node: a message waits on the node that accepted it for its recipient.
+ */
+@Component
+public class OfflineDelivery implements DisposableBean {
+
+    private static final int MAX_RETRIES = 3;
+
+    private final PrivateDelivery privateDelivery;
+    private final DeliveryReceipts receipts;
+    private final KeyedMessageLog log;
+    private final int drainBatch;
+    private final long receiptTimeoutNanos;
+    private final ScheduledExecutorService drainer;
+    private final Set<String> draining = ConcurrentHashMap.newKeySet();
+
+    final LongAdder queued = new LongAdder();
+    final LongAdder drained = new LongAdder();
+    final LongAdder unconfirmed = new LongAdder();
+    final LongAdder failedAppends = new LongAdder();
+
+    public OfflineDelivery(PrivateDelivery privateDelivery, DeliveryReceipts receipts,
+          @Value("${chat.offline.enabled:true}") boolean enabled,
+          @Value("${chat.offline.dir:${java.io.tmpdir}/websocket-internals/offline}") String dir,
+          @Value("${chat.offline.segment-bytes:67108864}") long segmentBytes,
+          @Value("${chat.offline.max-per-user:1000}") int maxPerUser,
+          @Value("${chat.offline.retention-hours:168}") long retentionHours,
+          @Value("${chat.offline.drain-batch:100}") int drainBatch,
+          @Value("${chat.offline.receipt-timeout-ms:5000}") long receiptTimeoutMs) throws IOException {
+        this.privateDelivery = privateDelivery;
+        this.receipts = receipts;
+        this.drainBatch = drainBatch;
+        this.receiptTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(receiptTimeoutMs);
+        this.log = enabled ? new KeyedMessageLog(Path.of(dir), segmentBytes, maxPerUser, Duration.ofHours(retentionHours)) : null;
+        this.drainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "offline-drain");
+            t.setDaemon(true);
+            return t;
+        });
+        if (log != null) System.out.println("Offline private messages in " + Path.of(dir).toAbsolutePath() + ", " + log.stats());
+    }
+
+    /**
+     * Keeps the message for the user's next connection.
+     *
+     * @return false if offline queueing is disabled
+     */
+    public boolean enqueue(String username, ChatMessage message) {
+        if (log == null) return false;
+        queued.increment();
+        log.append(username, ChatMessageCompactConverter.encode(message)).whenComplete((offset, e) -> {
+            if (e == null) {
+                // The user may have subscribed while the message was being written
+                if (privateDelivery.isSubscribed(username)) drainLater(username);
+                return;
+            }
+            failedAppends.increment();
+            System.out.println("Offline message for " + username + " lost: " + e);
+        });
+        return true;
+    }
+
+    @EventListener
+    @Order(Ordered.LOWEST_PRECEDENCE) // after PrivateDelivery has the subscription
+    public void onSubscribe(SessionSubscribeEvent event) {
+        if (log == null || event.getUser() == null) return;
+        if (!PrivateDelivery.PRIVATE_QUEUE.equals(SimpMessageHeaderAccessor.getDestination(event.getMessage().getHeaders()))) return;
+        String username = event.getUser().getName();
+        if (username != null && log.pending(username) > 0) drainLater(username);
+    }
+
+    private void drainLater(String username) {
+        if (draining.add(username)) drainer.execute(() -> drain(username, 0));
+    }
+
+    CompletableFuture<Void> drain(String username) {
+        return drain(username, 0);
+    }
+
+    /**
+     * Sends the user's queued messages, oldest first, until none are left, the user is gone or a
+     * message was not written in time. Runs on the drain thread without blocking it: each batch
+     * continues there once its frames are written (or the receipt timeout passed) and its ack is on
+     * disk, so one slow user does not hold up the others.
+     *
+     * @param retries rounds in a row that have ended without a single message written
+     * @return completes when this round ends
+     */
+    private CompletableFuture<Void> drain(String username, int retries) {
+        CompletableFuture<Void> round = new CompletableFuture<>();
+        drainNext(username, retries, round);
+        return round;
+    }
+
+    private void drainNext(String username, int retries, CompletableFuture<Void> round) {
+        List<KeyedMessageLog.Entry> batch;
+        CompletableFuture<Integer> sent;
+        try {
+            batch = log.read(username, drainBatch);
+            if (batch.isEmpty()) {
+                endRound(username, true, false, retries, null, round);
+                return;
+            }
+            sent = sendAndAwait(username, batch);
+        } catch (RuntimeException e) {
+            endRound(username, false, false, retries, e, round);
+            return;
+        }
+        sent.thenComposeAsync(written -> {
+            if (written == 0) return CompletableFuture.completedFuture(0);
+            // The next read has to start after the ack, so the next batch waits for it
+            return log.ack(username, batch.get(written - 1).offset()).thenApply(offset -> {
+                drained.add(written);
+                return written;
+            });
+        }, drainer).whenCompleteAsync((written, e) -> {
+            if (e != null) {
+                endRound(username, false, false, retries, e, round);
+            } else if (written == batch.size()) {
+                drainNext(username, 0, round);
+            } else {
+                int attempts = written > 0 ? 0 : retries;
+                boolean retry = privateDelivery.isSubscribed(username) && attempts < MAX_RETRIES;
+                endRound(username, false, retry, written == 0 ? attempts + 1 : attempts, null, round);
+            }
+        }, drainer);
+    }
+
+    private void endRound(String username, boolean emptied, boolean retry, int retries, Throwable failure,
+          CompletableFuture<Void> round) {
+        if (failure != null) System.out.println("Draining offline messages of " + username + " failed: " + failure);
+        if (retry && !drainer.isShutdown()) {
+            drainer.schedule(() -> drain(username, retries), receiptTimeoutNanos, TimeUnit.NANOSECONDS);
+        } else {
+            draining.remove(username);
+            // A message written while the queue was being emptied would wait for the next connection
+            if (emptied && log.pending(username) > 0 && privateDelivery.isSubscribed(username)) drainLater(username);
+        }
+        round.complete(null);
+    }
+
+    /**
+     * Sends the batch, each message with its own receipt id.
+     *
+     * @return completes, within receiptTimeout, with how many messages from the start of the batch
+     *         were written, in a row
+     */
+    private CompletableFuture<Integer> sendAndAwait(String username, List<KeyedMessageLog.Entry> batch) {
+        List<String> ids = new ArrayList<>(batch.size());
+        List<CompletableFuture<Void>> writes = new ArrayList<>(batch.size());
+        try {
+            for (KeyedMessageLog.Entry entry : batch) {
+                ChatMessage message = ChatMessageCompactConverter.decode(new String(entry.payload(), StandardCharsets.UTF_8));
+                String id = receipts.newId();
+                ids.add(id);
+                writes.add(receipts.expect(id));
+                if (!privateDelivery.send(username, message, Map.of(DeliveryReceipts.MESSAGE_ID, id))) {
+                    writes.remove(writes.size() - 1);
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            ids.forEach(receipts::forget);
+            throw e;
+        }
+        return CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new))
+              .orTimeout(receiptTimeoutNanos, TimeUnit.NANOSECONDS)
+              .handle((all, e) -> {
+                  int written = 0;
+                  for (CompletableFuture<Void> write : writes) {
+                      if (!write.isDone() || write.isCompletedExceptionally()) break;
+                      written++;
+                  }
+                  unconfirmed.add(writes.size() - written);
+                  ids.forEach(receipts::forget);
+                  return written;
+              });
+    }
+
+    int pending(String username) {
+        return log == null ? 0 : log.pending(username);
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", log != null);
+        m.put("queued", queued.sum());
+        m.put("drained", drained.sum());
+        m.put("unconfirmed", unconfirmed.sum());
+        m.put("failedAppends", failedAppends.sum());
+        if (log != null) m.put("log", log.stats());
+        return m;
+    }
+
+    @Override
+    public void destroy() {
+        drainer.shutdownNow();
+        if (log != null) log.close();
+    }
+}
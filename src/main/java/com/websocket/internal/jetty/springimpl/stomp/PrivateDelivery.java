@@ -0,0 +1,193 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivery path for private messages (/user/queue/private).
+ *
+ * convertAndSendToUser goes through DefaultUserDestinationResolver for every message: look the
+ * user up in the SimpUserRegistry, build "/queue/private-user{sessionId}" per session, send each
+ * of those to the broker, which matches them against its subscriptions. Here the result of that
+ * work is kept up to date from the session events instead: username -> the (session,
+ * subscription) pairs subscribed to /user/queue/private, several per session if it subscribed more
+ * than once. A private message is one map lookup and one TrieBrokerMessageHandler.deliver,
+ * serialized once like RoomDelivery. With the simple broker configured it falls back to
+ * SimpMessagingTemplate.
+ */
+@Component
+public class PrivateDelivery {
+
+    public static final String PRIVATE_QUEUE = "/user/queue/private";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final TrieBrokerMessageHandler broker;
+
+    // username -> open session ids, from CONNECTED / DISCONNECT
+    private final Map<String, Set<String>> sessionsByUser = new ConcurrentHashMap<>();
+    // username -> subscriptions to /user/queue/private
+    private final Map<String, Set<DestinationTrie.Subscription>> subscriptionsByUser = new ConcurrentHashMap<>();
+    // sessionId -> username, for the events that only carry a session id
+    private final Map<String, String> userBySession = new ConcurrentHashMap<>();
+
+    private volatile LocalInterestListener interestListener = LocalInterestListener.NONE;
+
+    final LongAdder sends = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    // lookup, serialization and hand-off to the broker lanes
+    final LongAdder sendNanos = new LongAdder();
+    final AtomicLong maxSendNanos = new AtomicLong();
+
+    public PrivateDelivery(SimpMessagingTemplate messagingTemplate, AbstractBrokerMessageHandler simpleBrokerMessageHandler) {
+        this.messagingTemplate = messagingTemplate;
+        this.broker = simpleBrokerMessageHandler instanceof TrieBrokerMessageHandler trie ? trie : null;
+    }
+
+    /**
+     * Sends the payload to every session of the user that subscribed to /user/queue/private.
+     *
+     * @return false if the user has no such session, so nothing was sent
+     */
+    public boolean send(String username, Object payload) {
+        return send(username, payload, Map.of());
+    }
+
+    /** As send(username, payload), with extra STOMP headers on the MESSAGE frames. */
+    public boolean send(String username, Object payload, Map<String, String> nativeHeaders) {
+        if (broker == null) {
+            if (!isSubscribed(username)) return false;
+            // The simple broker resolves the user's sessions itself; one that unsubscribes meanwhile
+            // still counts as delivered
+            messagingTemplate.convertAndSendToUser(username, "/queue/private", payload, Map.<String, Object>copyOf(nativeHeaders));
+            return true;
+        }
+        long start = System.nanoTime();
+        Set<DestinationTrie.Subscription> subscriptions = subscriptionsByUser.get(username);
+        boolean found = subscriptions != null && !subscriptions.isEmpty();
+        if (found) {
+            broker.deliver(subscriptions, RoomDelivery.toBrokerMessage(messagingTemplate, PRIVATE_QUEUE, payload, nativeHeaders));
+        } else {
+            misses.increment();
+        }
+        long elapsed = System.nanoTime() - start;
+        sends.increment();
+        sendNanos.add(elapsed);
+        maxSendNanos.accumulateAndGet(elapsed, Math::max);
+        return found;
+    }
+
+    /** Told when a user gets a first local private subscription and loses the last one. */
+    void setInterestListener(LocalInterestListener interestListener) {
+        this.interestListener = interestListener;
+    }
+
+    public boolean isOnline(String username) {
+        Set<String> sessions = sessionsByUser.get(username);
+        return sessions != null && !sessions.isEmpty();
+    }
+
+    /** Whether the user has a session subscribed to /user/queue/private on this node. */
+    public boolean isSubscribed(String username) {
+        Set<DestinationTrie.Subscription> subscriptions = subscriptionsByUser.get(username);
+        return subscriptions != null && !subscriptions.isEmpty();
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        String username = nameOf(event.getUser());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (username == null || sessionId == null) return;
+        userBySession.put(sessionId, username);
+        sessionsByUser.computeIfAbsent(username, u -> ConcurrentHashMap.newKeySet()).add(sessionId);
+    }
+
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE) // before OfflineDelivery drains to the new subscription
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String username = nameOf(event.getUser());
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        if (username == null || sessionId == null || subscriptionId == null) return;
+        if (!PRIVATE_QUEUE.equals(headers.getDestination())) return;
+        userBySession.putIfAbsent(sessionId, username);
+        subscriptionsByUser.compute(username, (u, subscriptions) -> {
+            if (subscriptions == null) {
+                subscriptions = ConcurrentHashMap.newKeySet();
+                interestListener.interested(username);
+            }
+            subscriptions.add(new DestinationTrie.Subscription(sessionId, subscriptionId, PRIVATE_QUEUE));
+            return subscriptions;
+        });
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        String username = sessionId == null ? null : userBySession.get(sessionId);
+        if (username == null || subscriptionId == null) return;
+        subscriptionsByUser.computeIfPresent(username, (u, subscriptions) -> {
+            subscriptions.remove(new DestinationTrie.Subscription(sessionId, subscriptionId, PRIVATE_QUEUE));
+            return withoutLast(username, subscriptions);
+        });
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        String username = userBySession.remove(sessionId);
+        if (username == null) return;
+        subscriptionsByUser.computeIfPresent(username, (u, subscriptions) -> {
+            subscriptions.removeIf(sub -> sub.sessionId().equals(sessionId));
+            return withoutLast(username, subscriptions);
+        });
+        sessionsByUser.computeIfPresent(username, (u, sessions) -> {
+            sessions.remove(sessionId);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    private Set<DestinationTrie.Subscription> withoutLast(String username, Set<DestinationTrie.Subscription> subscriptions) {
+        if (!subscriptions.isEmpty()) return subscriptions;
+        interestListener.uninterested(username);
+        return null;
+    }
+
+    private static String nameOf(Principal user) {
+        return user == null ? null : user.getName();
+    }
+
+    int userCount() {
+        return sessionsByUser.size();
+    }
+
+    Map<String, Object> snapshot() {
+        long n = sends.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("users", sessionsByUser.size());
+        m.put("sends", n);
+        m.put("misses", misses.sum());
+        m.put("meanSendNanos", n == 0 ? 0 : sendNanos.sum() / n);
+        m.put("maxSendNanos", maxSendNanos.get());
+        return m;
+    }
+}
@@ -0,0 +1,189 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delivery path for /topic/room/{roomId}.
+ *
+ * Keeps roomId -> subscriptions up to date from the STOMP SUBSCRIBE, UNSUBSCRIBE and DISCONNECT
+ * events, so sending to a room needs no destination matching for its own subscribers: the payload
+ * is serialized once and handed with the recipient list straight to the broker's delivery lanes
+ * (TrieBrokerMessageHandler.deliver), which keeps it ordered with other traffic to those sessions.
+ * A session may subscribe to a room more than once and gets a copy per subscription. Wildcard and
+ * pattern subscriptions (/topic/room/*, /topic/**) stay with the broker, which adds their matches
+ * to the delivery; while there are none that costs nothing. Cost is O(members of the room). With
+ * the simple broker configured it falls back to SimpMessagingTemplate.
+ *
+ * Only rooms with a literal subscriber here count as local interest for ClusterRelay, so a pattern
+ * subscriber sees another node's room messages only while someone on this node is in that room.
+ */
+@Component
+public class RoomDelivery {
+
+    public static final String ROOM_PREFIX = "/topic/room/";
+
+    private static final class Room {
+        final String destination;
+        final Set<DestinationTrie.Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+        Room(String roomId) {
+            this.destination = ROOM_PREFIX + roomId;
+        }
+    }
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final TrieBrokerMessageHandler broker;
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    // sessionId -> subscriptionId -> roomId, for UNSUBSCRIBE (which carries no destination) and DISCONNECT
+    private final Map<String, Map<String, String>> roomsBySession = new ConcurrentHashMap<>();
+
+    private volatile LocalInterestListener interestListener = LocalInterestListener.NONE;
+
+    public RoomDelivery(SimpMessagingTemplate messagingTemplate, AbstractBrokerMessageHandler simpleBrokerMessageHandler) {
+        this.messagingTemplate = messagingTemplate;
+        this.broker = simpleBrokerMessageHandler instanceof TrieBrokerMessageHandler trie ? trie : null;
+    }
+
+    /** Told when a room gets its first local subscriber and loses its last one. */
+    void setInterestListener(LocalInterestListener interestListener) {
+        this.interestListener = interestListener;
+    }
+
+    /** Sends the payload to every session subscribed to the room. */
+    public void send(String roomId, Object payload) {
+        if (broker == null) {
+            messagingTemplate.convertAndSend(ROOM_PREFIX + roomId, payload);
+            return;
+        }
+        Room room = rooms.get(roomId);
+        if (room == null && !broker.hasWildcardSubscriptions()) return;
+
+        String destination = room != null ? room.destination : ROOM_PREFIX + roomId;
+        broker.deliver(destination, recipients(room), toBrokerMessage(messagingTemplate, destination, payload));
+    }
+
+    /** Sends a message already built by toBrokerMessage for this room to every session subscribed to it. */
+    public void deliver(String roomId, Message<?> message) {
+        if (broker == null) {
+            messagingTemplate.send(ROOM_PREFIX + roomId, message);
+            return;
+        }
+        Room room = rooms.get(roomId);
+        if (room == null && !broker.hasWildcardSubscriptions()) return;
+
+        broker.deliver(room != null ? room.destination : ROOM_PREFIX + roomId, recipients(room), message);
+    }
+
+    private static Collection<DestinationTrie.Subscription> recipients(Room room) {
+        return room != null ? room.subscriptions : List.of();
+    }
+
+    static Message<?> toBrokerMessage(SimpMessagingTemplate messagingTemplate, String destination, Object payload) {
+        return toBrokerMessage(messagingTemplate, destination, payload, Map.of());
+    }
+
+    /**
+     * Serializes the payload once into a MESSAGE for the given destination; every recipient shares the byte[].
+     * The native headers become STOMP headers of the MESSAGE frame.
+     */
+    static Message<?> toBrokerMessage(SimpMessagingTemplate messagingTemplate, String destination, Object payload,
+          Map<String, String> nativeHeaders) {
+        Message<?> converted = messagingTemplate.getMessageConverter().toMessage(payload, null);
+        if (converted == null) {
+            throw new IllegalArgumentException("No converter for " + payload.getClass().getName());
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        nativeHeaders.forEach(accessor::setNativeHeader);
+        Object contentType = converted.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+        if (contentType != null) accessor.setHeader(MessageHeaders.CONTENT_TYPE, contentType);
+        if (payload instanceof ChatMessage chat) {
+            // Sessions that negotiated the compact encoding get it from ChatMessageEncoding
+            accessor.setHeader(ChatMessageEncoding.PAYLOADS_HEADER, new ChatMessageEncoding.ChatPayloads(chat));
+        }
+        return MessageBuilder.createMessage(converted.getPayload(), accessor.getMessageHeaders());
+    }
+
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE) // before RoomHistory replays to the new subscription
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String destination = headers.getDestination();
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        if (destination == null || sessionId == null || subscriptionId == null) return;
+        if (!destination.startsWith(ROOM_PREFIX) || destination.length() == ROOM_PREFIX.length()) return;
+        String roomId = destination.substring(ROOM_PREFIX.length());
+        if (roomId.indexOf('/') >= 0 || roomId.indexOf('*') >= 0 || roomId.indexOf('?') >= 0
+              || roomId.indexOf('{') >= 0) {
+            return; // not a single room; the broker matches it
+        }
+
+        rooms.compute(roomId, (k, room) -> {
+            if (room == null) {
+                room = new Room(roomId);
+                interestListener.interested(roomId);
+            }
+            room.subscriptions.add(new DestinationTrie.Subscription(sessionId, subscriptionId, room.destination));
+            roomsBySession.computeIfAbsent(sessionId, s -> new ConcurrentHashMap<>()).put(subscriptionId, roomId);
+            return room;
+        });
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        if (sessionId == null || subscriptionId == null) return;
+        Map<String, String> subscriptions = roomsBySession.get(sessionId);
+        String roomId = subscriptions == null ? null : subscriptions.remove(subscriptionId);
+        if (roomId != null) removeSession(roomId, sessionId, subscriptionId);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        Map<String, String> subscriptions = roomsBySession.remove(sessionId);
+        if (subscriptions == null) return;
+        subscriptions.forEach((subscriptionId, roomId) -> removeSession(roomId, sessionId, subscriptionId));
+    }
+
+    private void removeSession(String roomId, String sessionId, String subscriptionId) {
+        rooms.computeIfPresent(roomId, (k, room) -> {
+            room.subscriptions.remove(new DestinationTrie.Subscription(sessionId, subscriptionId, room.destination));
+            if (!room.subscriptions.isEmpty()) return room;
+            interestListener.uninterested(roomId);
+            return null;
+        });
+    }
+
+    int subscriptionCount(String roomId) {
+        Room room = rooms.get(roomId);
+        return room == null ? 0 : room.subscriptions.size();
+    }
+
+    int roomCount() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,386 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import com.websocket.internal.store.MappedSegmentLog;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Recent messages of each room, replayed to a new subscriber.
+ *
+ * Every room message goes through publish(): it gets the room's next sequence number (sent as the
+ * "seq" header of the MESSAGE), is appended to the room's MappedSegmentLog under dir/room-{roomId}
+ * and kept, as the broker message that was delivered, in a ring of the room's last ringSize
+ * messages. A SUBSCRIBE to /topic/room/{roomId} carrying "history-last: N" or "history-since: seq"
+ * is answered with those messages before live traffic is relied on: from the ring when it covers
+ * the range (nothing is serialized again), otherwise from the log. At most maxReplay messages are
+ * replayed, the newest ones; a client that sees the first seq above since + 1 knows it missed some.
+ *
+ * RoomDelivery adds the subscriber before the replay reads the history, so every message is either
+ * in the replay or delivered live; one may be both, and clients drop seq values they have seen.
+ * Replays go through the trie broker's lanes; with the simple broker messages are still recorded
+ * but not replayed. Each room keeps retainMessages messages on disk, in whole segments.
+ *
+ * Only rooms with members (joined in the RoomRegistry, or subscribed on this node) are recorded; a
+ * message to any other room id is passed on and leaves nothing behind. At most maxOpenRooms logs
+ * are open; opening another closes the least recently used one, which is opened from disk again
+ * when it is next needed. A room whose append fails (disk full, say) goes on in memory only, so
+ * live delivery never depends on the disk; its log then ends before the room's seq, so once such a
+ * room is closed it stays in memory only, from the seq it had reached, until the node restarts.
+ * Room ids come from clients, so at most maxRooms room directories are kept: making another
+ * deletes the one used least recently, among those not open.
+ *
+ * Per node: a room's history holds the messages this node delivered to it.
+ */
+@Component
+public class RoomHistory implements DisposableBean {
+
+    public static final String SEQ_HEADER = "seq";
+    public static final String LAST_HEADER = "history-last";
+    public static final String SINCE_HEADER = "history-since";
+
+    private static final String ROOM_DIR = "room-";
+
+    private static final class Room {
+        MappedSegmentLog log; // null if it could not be opened or written: history in memory only
+        final Message<?>[] ring;
+        long lastSeq;
+        long ringFrom; // oldest seq held by the ring
+        volatile long lastUsed;
+        boolean closed; // evicted; look the room up again
+
+        Room(MappedSegmentLog log, int ringSize, long lastSeq) {
+            this.log = log;
+            this.ring = new Message<?>[ringSize];
+            this.lastSeq = log == null ? lastSeq : log.lastSeq();
+            this.ringFrom = this.lastSeq + 1;
+        }
+
+        long firstSeq() {
+            return log == null ? ringFrom : log.firstSeq();
+        }
+    }
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final RoomDelivery roomDelivery;
+    private final RoomRegistry roomRegistry;
+    private final TrieBrokerMessageHandler broker;
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentBytes;
+    private final long retainMessages;
+    private final int ringSize;
+    private final int maxReplay;
+    private final int maxOpenRooms;
+    private final int maxRooms;
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    // Room directories on disk -> when the room was last opened or closed; guarded by itself
+    private final Map<String, Long> roomsOnDisk = new HashMap<>();
+    // Closed rooms whose log fell behind (an append failed) -> the last seq they handed out
+    private final Map<String, Long> seqFloors = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    final LongAdder appended = new LongAdder();
+    final LongAdder replays = new LongAdder();
+    final LongAdder replayedMessages = new LongAdder();
+    final LongAdder coldReads = new LongAdder();
+    final LongAdder evicted = new LongAdder();
+    final LongAdder deletedRooms = new LongAdder();
+    final LongAdder failedAppends = new LongAdder();
+    final LongAdder replayNanos = new LongAdder();
+    final AtomicLong maxReplayNanos = new AtomicLong();
+
+    public RoomHistory(SimpMessagingTemplate messagingTemplate, RoomDelivery roomDelivery, RoomRegistry roomRegistry,
+          AbstractBrokerMessageHandler simpleBrokerMessageHandler,
+          @Value("${chat.history.enabled:true}") boolean enabled,
+          @Value("${chat.history.dir:${java.io.tmpdir}/websocket-internals/history}") String dir,
+          @Value("${chat.history.segment-bytes:1048576}") int segmentBytes,
+          @Value("${chat.history.retain-messages:10000}") long retainMessages,
+          @Value("${chat.history.ring-size:256}") int ringSize,
+          @Value("${chat.history.max-replay:500}") int maxReplay,
+          @Value("${chat.history.max-open-rooms:1024}") int maxOpenRooms,
+          @Value("${chat.history.max-rooms:10000}") int maxRooms) {
+        this.messagingTemplate = messagingTemplate;
+        this.roomDelivery = roomDelivery;
+        this.roomRegistry = roomRegistry;
+        this.broker = simpleBrokerMessageHandler instanceof TrieBrokerMessageHandler trie ? trie : null;
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.segmentBytes = segmentBytes;
+        this.retainMessages = retainMessages;
+        this.ringSize = ringSize;
+        this.maxReplay = maxReplay;
+        this.maxOpenRooms = Math.max(1, maxOpenRooms);
+        this.maxRooms = Math.max(this.maxOpenRooms, maxRooms);
+        if (!enabled) return;
+        System.out.println("Room history in " + this.dir.toAbsolutePath());
+        if (!Files.isDirectory(this.dir)) return;
+        try (Stream<Path> dirs = Files.list(this.dir)) {
+            for (Path d : dirs.toList()) {
+                String name = d.getFileName().toString();
+                if (!name.startsWith(ROOM_DIR) || !Files.isDirectory(d)) continue;
+                String roomId = URLDecoder.decode(name.substring(ROOM_DIR.length()), StandardCharsets.UTF_8);
+                roomsOnDisk.put(roomId, Files.getLastModifiedTime(d).toMillis());
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot list room histories in " + this.dir + ": " + e);
+        }
+    }
+
+    /** Records the message in the room's history and sends it to the room's subscribers. */
+    public void publish(String roomId, ChatMessage message) {
+        if (!enabled || (roomRegistry.memberCount(roomId) == 0 && roomDelivery.subscriptionCount(roomId) == 0)) {
+            roomDelivery.send(roomId, message);
+            return;
+        }
+        while (true) {
+            Room room = open(roomId);
+            synchronized (room) {
+                if (room.closed) continue;
+                long seq = room.lastSeq + 1;
+                if (room.log != null) append(roomId, room, message);
+                Message<?> brokerMessage = toBrokerMessage(roomId, message, seq);
+                room.ring[(int) (seq % ringSize)] = brokerMessage;
+                room.lastSeq = seq;
+                room.ringFrom = Math.max(room.ringFrom, seq - ringSize + 1);
+                // Under the lock, so the room's messages reach the broker lanes in seq order
+                roomDelivery.deliver(roomId, brokerMessage);
+            }
+            appended.increment();
+            return;
+        }
+    }
+
+    private void append(String roomId, Room room, ChatMessage message) {
+        try {
+            room.log.append(ChatMessageCompactConverter.encode(message), System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            failedAppends.increment();
+            System.out.println("Room history for " + roomId + " kept in memory only from seq " + (room.lastSeq + 1) + ": " + e);
+            // From now on the ring is all the history this room has
+            try {
+                room.log.close();
+            } catch (RuntimeException ignored) {
+            }
+            room.log = null;
+        }
+    }
+
+    /** The room's last n messages, oldest first. */
+    public List<Message<?>> last(String roomId, int n) {
+        while (true) {
+            Room room = existing(roomId);
+            if (room == null) return List.of();
+            synchronized (room) {
+                if (!room.closed) return read(roomId, room, room.lastSeq - n + 1, n);
+            }
+        }
+    }
+
+    /** The room's messages after seq, oldest first; at most max of them, the newest. */
+    public List<Message<?>> since(String roomId, long seq, int max) {
+        while (true) {
+            Room room = existing(roomId);
+            if (room == null) return List.of();
+            synchronized (room) {
+                if (!room.closed) return read(roomId, room, Math.max(seq + 1, room.lastSeq - max + 1), max);
+            }
+        }
+    }
+
+    private List<Message<?>> read(String roomId, Room room, long from, int max) {
+        from = Math.max(from, room.firstSeq());
+        long to = Math.min(room.lastSeq, from + max - 1);
+        if (to < from) return List.of();
+        List<Message<?>> result = new ArrayList<>((int) (to - from + 1));
+        if (from < room.ringFrom) {
+            coldReads.increment();
+            for (MappedSegmentLog.Entry entry : room.log.read(from, (int) (Math.min(to, room.ringFrom - 1) - from + 1))) {
+                ChatMessage message = ChatMessageCompactConverter.decode(new String(entry.payload(), StandardCharsets.UTF_8));
+                result.add(toBrokerMessage(roomId, message, entry.seq()));
+            }
+            from = room.ringFrom;
+        }
+        for (long seq = from; seq <= to; seq++) result.add(room.ring[(int) (seq % ringSize)]);
+        return result;
+    }
+
+    @EventListener
+    @Order(Ordered.LOWEST_PRECEDENCE) // after RoomDelivery has added the subscriber
+    public void onSubscribe(SessionSubscribeEvent event) {
+        if (broker == null) return;
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String last = headers.getFirstNativeHeader(LAST_HEADER);
+        String since = headers.getFirstNativeHeader(SINCE_HEADER);
+        if (last == null && since == null) return;
+        String destination = headers.getDestination();
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        if (destination == null || sessionId == null || subscriptionId == null) return;
+        if (!destination.startsWith(RoomDelivery.ROOM_PREFIX)) return;
+        String roomId = destination.substring(RoomDelivery.ROOM_PREFIX.length());
+
+        long start = System.nanoTime();
+        List<Message<?>> history;
+        try {
+            history = since != null
+                  ? since(roomId, Long.parseLong(since.trim()), maxReplay)
+                  : last(roomId, Math.min(Integer.parseInt(last.trim()), maxReplay));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        List<DestinationTrie.Subscription> recipient = List.of(new DestinationTrie.Subscription(sessionId, subscriptionId, destination));
+        for (Message<?> message : history) broker.deliver(recipient, message);
+        long elapsed = System.nanoTime() - start;
+        replays.increment();
+        replayedMessages.add(history.size());
+        replayNanos.add(elapsed);
+        maxReplayNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    private Message<?> toBrokerMessage(String roomId, ChatMessage message, long seq) {
+        return RoomDelivery.toBrokerMessage(messagingTemplate, RoomDelivery.ROOM_PREFIX + roomId, message,
+              Map.of(SEQ_HEADER, Long.toString(seq)));
+    }
+
+    /** The room's history, opened from disk on first use; null if it has none. */
+    private Room existing(String roomId) {
+        if (!enabled) return null;
+        if (!rooms.containsKey(roomId) && !Files.isDirectory(roomDir(roomId))) return null;
+        return open(roomId);
+    }
+
+    /** The room, opened (and another one closed, if that makes too many) unless it is open already. */
+    private Room open(String roomId) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
+            room = rooms.computeIfAbsent(roomId, this::load);
+            if (rooms.size() > maxOpenRooms) evictIdlest(roomId);
+        }
+        room.lastUsed = clock.incrementAndGet();
+        return room;
+    }
+
+    private void evictIdlest(String keep) {
+        Map.Entry<String, Room> idlest = null;
+        for (Map.Entry<String, Room> e : rooms.entrySet()) {
+            if (e.getKey().equals(keep)) continue;
+            if (idlest == null || e.getValue().lastUsed < idlest.getValue().lastUsed) idlest = e;
+        }
+        if (idlest == null || !rooms.remove(idlest.getKey(), idlest.getValue())) return;
+        Room room = idlest.getValue();
+        synchronized (room) {
+            room.closed = true;
+            if (room.log != null) room.log.close();
+            // Reopened from disk it would hand out seqs it has already used
+            else if (room.lastSeq > 0) seqFloors.put(idlest.getKey(), room.lastSeq);
+        }
+        synchronized (roomsOnDisk) {
+            roomsOnDisk.computeIfPresent(idlest.getKey(), (k, t) -> System.currentTimeMillis());
+        }
+        evicted.increment();
+    }
+
+    private Path roomDir(String roomId) {
+        return dir.resolve(ROOM_DIR + URLEncoder.encode(roomId, StandardCharsets.UTF_8));
+    }
+
+    private Room load(String roomId) {
+        Long floor = seqFloors.get(roomId);
+        if (floor != null) return new Room(null, ringSize, floor);
+        makeRoomOnDisk(roomId);
+        try {
+            return new Room(new MappedSegmentLog(roomDir(roomId), segmentBytes, retainMessages), ringSize, 0);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Room history for " + roomId + " kept in memory only: " + e);
+            return new Room(null, ringSize, 0);
+        }
+    }
+
+    /** Records the room's directory, deleting the least recently used ones of closed rooms past maxRooms. */
+    private void makeRoomOnDisk(String roomId) {
+        List<String> delete = new ArrayList<>();
+        synchronized (roomsOnDisk) {
+            if (roomsOnDisk.put(roomId, System.currentTimeMillis()) != null) return;
+            while (roomsOnDisk.size() > maxRooms) {
+                String oldest = null;
+                long oldestTime = Long.MAX_VALUE;
+                for (Map.Entry<String, Long> e : roomsOnDisk.entrySet()) {
+                    if (e.getValue() < oldestTime && !e.getKey().equals(roomId) && !rooms.containsKey(e.getKey())) {
+                        oldest = e.getKey();
+                        oldestTime = e.getValue();
+                    }
+                }
+                if (oldest == null) break;
+                roomsOnDisk.remove(oldest);
+                delete.add(oldest);
+            }
+        }
+        for (String old : delete) {
+            try (Stream<Path> files = Files.walk(roomDir(old))) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+                deletedRooms.increment();
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Cannot delete the history of room " + old + ": " + e);
+            }
+        }
+    }
+
+    Map<String, Object> snapshot() {
+        long n = replays.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("rooms", rooms.size());
+        m.put("evicted", evicted.sum());
+        synchronized (roomsOnDisk) {
+            m.put("roomsOnDisk", roomsOnDisk.size());
+        }
+        m.put("deletedRooms", deletedRooms.sum());
+        m.put("failedAppends", failedAppends.sum());
+        m.put("appended", appended.sum());
+        m.put("replays", n);
+        m.put("replayedMessages", replayedMessages.sum());
+        m.put("coldReads", coldReads.sum());
+        m.put("meanReplayNanos", n == 0 ? 0 : replayNanos.sum() / n);
+        m.put("maxReplayNanos", maxReplayNanos.get());
+        return m;
+    }
+
+    @Override
+    public void destroy() {
+        for (Map.Entry<String, Room> e : rooms.entrySet()) {
+            Room room = e.getValue();
+            rooms.remove(e.getKey(), room);
+            synchronized (room) {
+                room.closed = true;
+                if (room.log != null) room.log.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Room member lists for clients, as a versioned snapshot plus deltas.
+ *
+ * A client subscribes to /topic/presence/{roomId} for deltas, then to /app/presence/{roomId},
+ * which answers once with the snapshot (members and version). It then applies the deltas whose
+ * fromVersion equals its version and skips older ones; on a gap it takes a new snapshot.
+ *
+ * RoomRegistry stays the source of truth. changed(roomId) only marks the room; coalesceMillis
+ * later the room's current members are compared with what was last published and a single delta
+ * carries the difference. Joins and leaves within the window are folded together, and a join that
+ * is undone within the window is never sent. A room's state is dropped once it is empty; when it
+ * fills again its version starts at the highest version any room on this node has published, so a
+ * room's versions only ever grow and a client holding an older one sees a gap, never a delta that
+ * looks stale.
+ *
+ * Per node, like RoomRegistry.
+ */
+@Component
+public class RoomPresence implements DisposableBean {
+
+    public static final String PRESENCE_PREFIX = "/topic/presence/";
+
+    public record Snapshot(String roomId, long version, Collection<String> members) {}
+
+    public record Delta(String roomId, long fromVersion, long version, Collection<String> joined, Collection<String> left) {}
+
+    private static final class State {
+        Set<String> members = Set.of(); // as last published
+        long version;
+        boolean flushScheduled;
+
+        State(long version) {
+            this.version = version;
+        }
+    }
+
+    private final RoomRegistry roomRegistry;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long coalesceMillis;
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    // Highest version published for any room, where a room that is not tracked (again) starts
+    private final AtomicLong highestVersion = new AtomicLong();
+    // One thread, so the deltas of a room are published in version order
+    private final ScheduledExecutorService flusher;
+
+    final LongAdder changes = new LongAdder();
+    final LongAdder deltasPublished = new LongAdder();
+
+    public RoomPresence(RoomRegistry roomRegistry, SimpMessagingTemplate messagingTemplate,
+          @Value("${chat.presence.coalesce-ms:200}") long coalesceMillis) {
+        this.roomRegistry = roomRegistry;
+        this.messagingTemplate = messagingTemplate;
+        this.coalesceMillis = coalesceMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "room-presence");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** The room's membership may have changed; publishes a delta within coalesceMillis if it did. */
+    public void changed(String roomId) {
+        changes.increment();
+        boolean[] schedule = new boolean[1];
+        states.compute(roomId, (k, state) -> {
+            if (state == null) state = new State(highestVersion.get());
+            if (!state.flushScheduled) {
+                state.flushScheduled = true;
+                schedule[0] = true;
+            }
+            return state;
+        });
+        if (schedule[0]) flusher.schedule(() -> flush(roomId), coalesceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Members and version as of the last published delta. */
+    public Snapshot snapshot(String roomId) {
+        State state = states.get(roomId);
+        if (state == null) return new Snapshot(roomId, highestVersion.get(), List.of());
+        synchronized (state) {
+            return new Snapshot(roomId, state.version, state.members);
+        }
+    }
+
+    void flush(String roomId) {
+        Delta[] delta = new Delta[1];
+        states.computeIfPresent(roomId, (k, state) -> {
+            state.flushScheduled = false;
+            Set<String> now = roomRegistry.getMembers(roomId); // immutable, shared with the registry
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            for (String member : now) if (!state.members.contains(member)) joined.add(member);
+            for (String member : state.members) if (!now.contains(member)) left.add(member);
+            if (!joined.isEmpty() || !left.isEmpty()) {
+                synchronized (state) {
+                    delta[0] = new Delta(roomId, state.version, state.version + 1, joined, left);
+                    state.members = now;
+                    state.version++;
+                    highestVersion.accumulateAndGet(state.version, Math::max);
+                }
+            }
+            return now.isEmpty() ? null : state;
+        });
+        if (delta[0] != null) {
+            messagingTemplate.convertAndSend(PRESENCE_PREFIX + roomId, delta[0]);
+            deltasPublished.increment();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdownNow();
+    }
+}
@@ -3,26 +3,140 @@ package com.websocket.internal.jetty.springimpl.stomp;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Room membership, safe to call from any number of inbound threads.
+ *
+ * Rooms are spread over independent ConcurrentHashMap shards. join/leave are O(1): they change one
+ * room inside compute(), which locks only that room's bin, so churn in one room never waits on
+ * another. Readers get immutable snapshots: getMembers() copies a room once after it changes and
+ * hands the same Set to every later reader until the next change. A reverse user -> rooms index
+ * makes leaveAll() (disconnect cleanup) proportional to the user's own rooms.
+ */
 @Service
 public class RoomRegistry {
-    private final Map<String, Set<String>> roomMembers = new HashMap<>();
 
-    public synchronized void joinRoom(String roomId, String username) {
-        roomMembers.computeIfAbsent(roomId, k -> new HashSet<>()).add(username);
+    private static final int DEFAULT_SHARDS = 16;
+
+    private static final class Snapshot {
+        final long version;
+        final Set<String> members;
+
+        Snapshot(long version, Set<String> members) {
+            this.version = version;
+            this.members = members;
+        }
+    }
+
+    private static final class Room {
+        final Set<String> members = ConcurrentHashMap.newKeySet();
+        volatile long version; // bumped after every change, inside compute() for the room
+        final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(0, Set.of()));
+
+        Set<String> snapshot() {
+            Snapshot s = snapshot.get();
+            long v = version;
+            if (s.version == v) return s.members;
+            Set<String> copy = Set.copyOf(members);
+            // Only cache the copy if no change raced with it
+            if (version == v) snapshot.compareAndSet(s, new Snapshot(v, copy));
+            return copy;
+        }
+    }
+
+    private final Map<String, Room>[] shards;
+    private final Map<String, Set<String>> roomsByUser = new ConcurrentHashMap<>();
+
+    public RoomRegistry() {
+        this(DEFAULT_SHARDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    RoomRegistry(int shardCount) {
+        this.shards = new Map[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new ConcurrentHashMap<>();
+    }
+
+    private Map<String, Room> shard(String roomId) {
+        int h = roomId.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
     }
 
-    public synchronized void leaveRoom(String roomId, String username) {
-        Set<String> members = roomMembers.get(roomId);
-        if (members != null) {
-            members.remove(username);
-            if (members.isEmpty()) {
-                roomMembers.remove(roomId);
+    public void joinRoom(String roomId, String username) {
+        shard(roomId).compute(roomId, (k, room) -> {
+            if (room == null) room = new Room();
+            if (room.members.add(username)) room.version++;
+            // Index updated under the room's lock, so a racing leave of the same room cannot undo it
+            roomsByUser.compute(username, (u, rooms) -> {
+                if (rooms == null) rooms = ConcurrentHashMap.newKeySet();
+                rooms.add(roomId);
+                return rooms;
+            });
+            return room;
+        });
+    }
+
+    public void leaveRoom(String roomId, String username) {
+        // The index changes under the room's lock; a room that is already gone has no lock to take
+        Room remaining = shard(roomId).computeIfPresent(roomId, (k, room) -> {
+            if (room.members.remove(username)) room.version++;
+            unindex(roomId, username);
+            return room.members.isEmpty() ? null : room;
+        });
+        if (remaining == null) unindex(roomId, username);
+    }
+
+    /**
+     * Removes the user from every room they joined; returns those rooms. Each room is left under its
+     * own lock, the same one joinRoom() takes, and the index is re-read until it is empty, so a join
+     * racing with the cleanup is either undone here or left with both its membership and index entry.
+     */
+    public Set<String> leaveAll(String username) {
+        Set<String> left = new HashSet<>();
+        Set<String> rooms;
+        while ((rooms = roomsByUser.get(username)) != null) {
+            for (String roomId : Set.copyOf(rooms)) {
+                leaveRoom(roomId, username);
+                left.add(roomId);
             }
         }
+        return Set.copyOf(left);
+    }
+
+    private void unindex(String roomId, String username) {
+        roomsByUser.computeIfPresent(username, (u, rooms) -> {
+            rooms.remove(roomId);
+            return rooms.isEmpty() ? null : rooms;
+        });
+    }
+
+    /** Immutable snapshot of the room's members. */
+    public Set<String> getMembers(String roomId) {
+        Room room = shard(roomId).get(roomId);
+        return room == null ? Set.of() : room.snapshot();
+    }
+
+    public int memberCount(String roomId) {
+        Room room = shard(roomId).get(roomId);
+        return room == null ? 0 : room.members.size();
+    }
+
+    public boolean isMember(String roomId, String username) {
+        Room room = shard(roomId).get(roomId);
+        return room != null && room.members.contains(username);
+    }
+
+    /** Immutable snapshot of the rooms the user is in. */
+    public Set<String> getRooms(String username) {
+        Set<String> rooms = roomsByUser.get(username);
+        return rooms == null ? Set.of() : Set.copyOf(rooms);
     }
 
-    public synchronized Set<String> getMembers(String roomId) {
-        return roomMembers.getOrDefault(roomId, Collections.emptySet());
+    public int roomCount() {
+        int n = 0;
+        for (Map<String, Room> shard : shards) n += shard.size();
+        return n;
     }
 }
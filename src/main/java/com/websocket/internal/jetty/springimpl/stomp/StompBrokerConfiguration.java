@@ -0,0 +1,69 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.user.DefaultUserDestinationResolver;
+import org.springframework.messaging.simp.user.UserDestinationResolver;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+
+/**
+ * What @EnableWebSocketMessageBroker would import, with the broker swapped for
+ * TrieBrokerMessageHandler. The WebSocketMessageBrokerConfigurer beans (WebSocketMessageBrokerConfig)
+ * are still applied; the prefixes and publish-order setting given to enableSimpleBroker(...) are
+ * carried over to the replacement. Set chat.stomp.broker.type=simple to get Spring's simple broker.
+ */
+@Configuration
+public class StompBrokerConfiguration extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    @Value("${chat.stomp.broker.type:trie}")
+    private String brokerType;
+
+    @Value("${chat.stomp.broker.lanes:0}")
+    private int lanes;
+
+    @Value("${chat.stomp.broker.lane-queue-capacity:4096}")
+    private int laneQueueCapacity;
+
+    @Value("${chat.stomp.broker.lane-offer-timeout-ms:100}")
+    private long laneOfferTimeoutMs;
+
+    @Value("${chat.stomp.broker.max-batch:256}")
+    private int maxBatch;
+
+    @Autowired
+    private StompChannelMetrics channelMetrics;
+
+    @Bean
+    @Nullable
+    @Override
+    public AbstractBrokerMessageHandler simpleBrokerMessageHandler(
+          @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+          @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel,
+          @Qualifier("brokerChannel") AbstractSubscribableChannel brokerChannel,
+          UserDestinationResolver userDestinationResolver) {
+
+        // Built but never started: only read for the registry's settings
+        AbstractBrokerMessageHandler simple = super.simpleBrokerMessageHandler(
+              clientInboundChannel, clientOutboundChannel, brokerChannel, userDestinationResolver);
+        if (simple == null || "simple".equalsIgnoreCase(brokerType)) {
+            return simple;
+        }
+
+        TrieBrokerMessageHandler handler = new TrieBrokerMessageHandler(clientInboundChannel, clientOutboundChannel,
+              brokerChannel, simple.getDestinationPrefixes(), lanes, laneQueueCapacity, maxBatch);
+        handler.setPreservePublishOrder(simple.isPreservePublishOrder());
+        handler.setLaneMetrics(channelMetrics.brokerLanes);
+        handler.setLaneOfferTimeoutMillis(laneOfferTimeoutMs);
+        if (userDestinationResolver instanceof DefaultUserDestinationResolver resolver) {
+            String prefix = resolver.getDestinationPrefix();
+            handler.setUserDestinationPredicate(destination -> destination.startsWith(prefix));
+        }
+        return handler;
+    }
+}
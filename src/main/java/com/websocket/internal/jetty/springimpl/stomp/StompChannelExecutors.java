@@ -0,0 +1,62 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor for a STOMP client channel, read from chat.stomp.{inbound|outbound}.* properties:
+ *
+ *   core-pool-size      0 = 2 x CPUs
+ *   max-pool-size       0 = core-pool-size (a pool only grows past core once the queue is full)
+ *   queue-capacity      bounded; when full the sending thread runs the task itself, which slows
+ *                       the reading (inbound) or publishing (outbound) side down instead of failing
+ *   keep-alive-seconds
+ *   virtual-threads     one virtual thread per task, at most max-pool-size at a time (JDK 21+;
+ *                       falls back to the pool on older JVMs)
+ *
+ * Every variant reports queue latency through the given ChannelQueueMetrics.
+ */
+final class StompChannelExecutors {
+
+    private StompChannelExecutors() {}
+
+    static void configure(ChannelRegistration registration, Environment env, String channel, ChannelQueueMetrics metrics) {
+        String prefix = "chat.stomp." + channel + ".";
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int core = env.getProperty(prefix + "core-pool-size", Integer.class, 0);
+        if (core <= 0) core = cpus * 2;
+        int max = env.getProperty(prefix + "max-pool-size", Integer.class, 0);
+        if (max <= 0) max = core;
+        int queueCapacity = env.getProperty(prefix + "queue-capacity", Integer.class, 10_000);
+        int keepAlive = env.getProperty(prefix + "keep-alive-seconds", Integer.class, 60);
+        boolean virtual = env.getProperty(prefix + "virtual-threads", Boolean.class, false);
+
+        if (virtual) {
+            if (Runtime.version().feature() >= 21) {
+                SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("stomp-" + channel + "-vt-");
+                executor.setVirtualThreads(true);
+                executor.setConcurrencyLimit(max);
+                executor.setTaskDecorator(metrics);
+                registration.executor(executor);
+                return;
+            }
+            System.err.println("Virtual threads requested for the STOMP " + channel + " channel but not supported by this JVM ("
+                  + Runtime.version() + "), using a thread pool");
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("stomp-" + channel + "-");
+        executor.setTaskDecorator(metrics);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // The registration applies the sizes and Spring initializes and shuts down the pool as a bean
+        registration.taskExecutor(executor)
+              .corePoolSize(core)
+              .maxPoolSize(Math.max(core, max))
+              .queueCapacity(queueCapacity)
+              .keepAliveSeconds(keepAlive);
+    }
+}
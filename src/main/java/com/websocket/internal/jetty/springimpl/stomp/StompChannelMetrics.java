@@ -0,0 +1,16 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Where STOMP messages wait: the client inbound channel (frames read from sessions, before
+ * @MessageMapping or the broker sees them), the broker's delivery lanes, and the client outbound
+ * channel (messages on their way to a session's WebSocket).
+ */
+@Component
+public class StompChannelMetrics {
+
+    final ChannelQueueMetrics inbound = new ChannelQueueMetrics("clientInbound");
+    final ChannelQueueMetrics brokerLanes = new ChannelQueueMetrics("brokerLanes");
+    final ChannelQueueMetrics outbound = new ChannelQueueMetrics("clientOutbound");
+}
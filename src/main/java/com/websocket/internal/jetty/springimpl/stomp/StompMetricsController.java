@@ -0,0 +1,61 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GET /stomp/metrics: queue latency of the inbound channel, broker lanes and outbound channel,
+ * how well outbound frames are batched, private-message user resolution, the offline queue, the
+ * cluster bus, room history replays, and the trie broker's counters when it is the configured broker.
+ */
+@RestController
+public class StompMetricsController {
+
+    private final StompChannelMetrics channelMetrics;
+    private final StompOutboundBatching outboundBatching;
+    private final PrivateDelivery privateDelivery;
+    private final OfflineDelivery offlineDelivery;
+    private final ClusterRelay clusterRelay;
+    private final RoomHistory roomHistory;
+    private final TrieBrokerMessageHandler broker;
+
+    public StompMetricsController(StompChannelMetrics channelMetrics, StompOutboundBatching outboundBatching,
+          PrivateDelivery privateDelivery, OfflineDelivery offlineDelivery, ClusterRelay clusterRelay, RoomHistory roomHistory,
+          AbstractBrokerMessageHandler simpleBrokerMessageHandler) {
+        this.channelMetrics = channelMetrics;
+        this.outboundBatching = outboundBatching;
+        this.privateDelivery = privateDelivery;
+        this.offlineDelivery = offlineDelivery;
+        this.clusterRelay = clusterRelay;
+        this.roomHistory = roomHistory;
+        this.broker = simpleBrokerMessageHandler instanceof TrieBrokerMessageHandler trie ? trie : null;
+    }
+
+    @GetMapping("/stomp/metrics")
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put(channelMetrics.inbound.getName(), channelMetrics.inbound.snapshot());
+        m.put(channelMetrics.brokerLanes.getName(), channelMetrics.brokerLanes.snapshot());
+        m.put(channelMetrics.outbound.getName(), channelMetrics.outbound.snapshot());
+        m.put("outboundBatching", outboundBatching.snapshot());
+        m.put("privateDelivery", privateDelivery.snapshot());
+        m.put("offlineDelivery", offlineDelivery.snapshot());
+        m.put("cluster", clusterRelay.snapshot());
+        m.put("roomHistory", roomHistory.snapshot());
+        if (broker != null) {
+            Map<String, Object> b = new LinkedHashMap<>();
+            b.put("lanes", broker.laneCount());
+            b.put("subscriptions", broker.subscriptionCount());
+            b.put("published", broker.published.sum());
+            b.put("delivered", broker.delivered.sum());
+            b.put("failedSends", broker.failedSends.sum());
+            b.put("droppedPublishes", broker.droppedPublishes.sum());
+            m.put("broker", b);
+        }
+        return m;
+    }
+}
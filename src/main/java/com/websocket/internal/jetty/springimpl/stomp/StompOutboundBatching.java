@@ -0,0 +1,283 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces the STOMP frames sent to one session into fewer WebSocket (or SockJS) messages.
+ *
+ * STOMP allows several frames in one WebSocket message (each ends with NUL), and both stomp.js
+ * and Spring's client split them again. Each session's outgoing messages pass through a
+ * BatchingWebSocketSession underneath Spring's ConcurrentWebSocketSessionDecorator. A MESSAGE
+ * frame whose destination matches a configured prefix is held for at most that prefix's window
+ * and sent together with the frames that follow it, until maxChars is reached. Everything else
+ * (other prefixes, CONNECTED, RECEIPT, ERROR, heart-beats, binary frames) first flushes what is
+ * held and then goes out immediately, so the order a session sees never changes.
+ *
+ * When a window expires, the timer thread does not write: it sends a HEARTBEAT for the session to
+ * the client outbound channel, and the outbound thread that handles it flushes on the way through
+ * Spring's ConcurrentWebSocketSessionDecorator (the heart-beat itself is dropped if the flush sent
+ * anything). So timer flushes are subject to the send time and buffer limits like any other send,
+ * and a slow client blocks an outbound thread, as it would anyway, rather than a timer thread.
+ *
+ * chat.stomp.batching.windows is a list of prefix=milliseconds; the longest matching prefix wins
+ * and 0 turns batching off for that prefix, e.g. "/topic/room/=5,/topic/room/vip=0".
+ */
+@Component
+public class StompOutboundBatching implements WebSocketHandlerDecoratorFactory, DisposableBean {
+
+    record Rule(String prefix, long windowNanos) {}
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    static final String HEARTBEAT = "\n";
+
+    private final MessageChannel clientOutboundChannel;
+    private final boolean enabled;
+    private final List<Rule> rules;
+    private final int maxChars;
+    private final ScheduledThreadPoolExecutor flusher;
+
+    final LongAdder framesBatched = new LongAdder();
+    final LongAdder framesImmediate = new LongAdder();
+    final LongAdder batchesSent = new LongAdder();
+    final LongAdder failedFlushes = new LongAdder();
+
+    public StompOutboundBatching(
+          @Lazy @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+          @Value("${chat.stomp.batching.enabled:true}") boolean enabled,
+          @Value("${chat.stomp.batching.windows:/topic/=5}") String windows,
+          @Value("${chat.stomp.batching.max-chars:16384}") int maxChars,
+          @Value("${chat.stomp.batching.flush-threads:0}") int flushThreads) {
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.enabled = enabled;
+        this.rules = parseRules(windows);
+        this.maxChars = maxChars;
+        int n = flushThreads > 0 ? flushThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.flusher = new ScheduledThreadPoolExecutor(n, r -> {
+            Thread t = new Thread(r, "stomp-batch-flush-" + threadIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static List<Rule> parseRules(String windows) {
+        List<Rule> rules = new ArrayList<>();
+        for (String entry : windows.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            int eq = entry.lastIndexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected prefix=milliseconds in chat.stomp.batching.windows: " + entry);
+            }
+            long ms = Long.parseLong(entry.substring(eq + 1).trim());
+            rules.add(new Rule(entry.substring(0, eq).trim(), TimeUnit.MILLISECONDS.toNanos(ms)));
+        }
+        rules.sort(Comparator.comparingInt((Rule r) -> r.prefix().length()).reversed());
+        return List.copyOf(rules);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new BatchingWebSocketHandler(handler);
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdownNow();
+    }
+
+    /** How long a frame may wait for company, or 0 to send it now. */
+    long windowNanos(String frame) {
+        if (!frame.startsWith("MESSAGE\n")) return 0;
+        int headersEnd = frame.indexOf("\n\n");
+        int header = frame.indexOf("\ndestination:", 7);
+        if (header < 0 || (headersEnd >= 0 && header > headersEnd)) return 0;
+        int value = header + "\ndestination:".length();
+        for (Rule rule : rules) {
+            if (frame.startsWith(rule.prefix(), value)) return rule.windowNanos();
+        }
+        return 0;
+    }
+
+    Map<String, Object> snapshot() {
+        long frames = framesBatched.sum();
+        long batches = batchesSent.sum();
+        return Map.of(
+              "framesBatched", frames,
+              "framesImmediate", framesImmediate.sum(),
+              "batchesSent", batches,
+              "framesPerBatch", batches == 0 ? 0.0 : (double) frames / batches,
+              "failedFlushes", failedFlushes.sum());
+    }
+
+    /** Hands Spring's sub-protocol handler a batching session instead of the transport's session. */
+    private final class BatchingWebSocketHandler extends WebSocketHandlerDecorator {
+
+        private final Map<String, BatchingWebSocketSession> sessions = new ConcurrentHashMap<>();
+
+        BatchingWebSocketHandler(WebSocketHandler delegate) {
+            super(delegate);
+        }
+
+        private WebSocketSession batching(WebSocketSession session) {
+            WebSocketSession s = sessions.get(session.getId());
+            return s != null ? s : session;
+        }
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+            BatchingWebSocketSession batching = new BatchingWebSocketSession(session);
+            sessions.put(session.getId(), batching);
+            super.afterConnectionEstablished(batching);
+        }
+
+        @Override
+        public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+            super.handleMessage(batching(session), message);
+        }
+
+        @Override
+        public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+            super.handleTransportError(batching(session), exception);
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+            BatchingWebSocketSession batching = sessions.remove(session.getId());
+            if (batching != null) batching.discard();
+            super.afterConnectionClosed(batching != null ? batching : session, closeStatus);
+        }
+    }
+
+    /**
+     * Holds a session's batchable frames. Only outbound-channel threads write; the lock keeps a
+     * flush and the timer's bookkeeping apart, so frames reach the transport in the order they were
+     * sent. A writer holds it while the transport takes the frames, so the timer only tries it.
+     */
+    final class BatchingWebSocketSession extends WebSocketSessionDecorator {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final StringBuilder pending = new StringBuilder();
+        private int pendingFrames;
+        private long flushDue;  // nanoTime of the earliest scheduled flush, 0 if none
+        private boolean flushRequested; // a timer's HEARTBEAT is on its way through the outbound channel
+        private boolean discarded;
+
+        BatchingWebSocketSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            long window = message instanceof TextMessage text && text.getPayload().length() < maxChars
+                  ? windowNanos(text.getPayload()) : 0;
+            lock.lock();
+            try {
+                if (window == 0) {
+                    if (flushRequested && HEARTBEAT.equals(message.getPayload()) && pendingFrames > 0) {
+                        flushLocked(); // the batch is as good as a heart-beat
+                        return;
+                    }
+                    flushLocked();
+                    framesImmediate.increment();
+                    getDelegate().sendMessage(message);
+                    return;
+                }
+                String frame = ((TextMessage) message).getPayload();
+                if (pending.length() + frame.length() > maxChars) flushLocked();
+                pending.append(frame);
+                pendingFrames++;
+                framesBatched.increment();
+                long due = System.nanoTime() + window;
+                if (flushDue == 0 || due - flushDue < 0) {
+                    flushDue = due;
+                    flusher.schedule(() -> flushOnTimer(window), window, TimeUnit.NANOSECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void flushOnTimer(long window) {
+            // The lock may be held across a write to a slow client; try again later rather than
+            // pin one of the few timer threads
+            if (!lock.tryLock()) {
+                if (!flusher.isShutdown()) flusher.schedule(() -> flushOnTimer(window), window, TimeUnit.NANOSECONDS);
+                return;
+            }
+            try {
+                if (pendingFrames == 0 || discarded || flushRequested) return;
+                flushRequested = true;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.HEARTBEAT);
+                accessor.setSessionId(getId());
+                clientOutboundChannel.send(MessageBuilder.createMessage(EMPTY_PAYLOAD, accessor.getMessageHeaders()));
+            } catch (Exception e) {
+                // The frames would wait for the session's next send: count it and close the session
+                failedFlushes.increment();
+                try {
+                    getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+                } catch (Exception ignored) {
+                }
+            }
+        }
+
+        private void flushLocked() throws IOException {
+            flushDue = 0;
+            flushRequested = false;
+            if (pendingFrames == 0 || discarded) return;
+            TextMessage batch = new TextMessage(pending.toString());
+            pending.setLength(0);
+            pendingFrames = 0;
+            batchesSent.increment();
+            getDelegate().sendMessage(batch);
+        }
+
+        void discard() {
+            lock.lock();
+            try {
+                discarded = true;
+                pending.setLength(0);
+                pendingFrames = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory STOMP broker used in place of Spring's SimpleBrokerMessageHandler.
+ *
+ * It speaks the same protocol to the rest of the messaging pipeline (CONNECT_ACK, DISCONNECT_ACK,
+ * MESSAGE per subscription, sent through the client outbound channel), so @MessageMapping,
+ * @SendTo, SimpMessagingTemplate and /user destinations work unchanged. What differs:
+ *  - subscriptions live in a DestinationTrie, so a publish costs a walk down the destination's
+ *    segments rather than a scan over the subscription registry;
+ *  - each trie node shards its subscribers by session, and shard i is delivered by lane i (one
+ *    thread each). A busy topic fans out on all lanes at once, and every message to a given
+ *    session, including its CONNECT_ACK, is produced by the same lane in publish order;
+ *  - lanes defer sends per session: messages are collected in the session's outbox while the lane
+ *    has queued work and sent one by one (at most maxBatch pending) once it runs dry. This only
+ *    orders and defers the sends; coalescing the frames into fewer transport writes is done by
+ *    StompOutboundBatching;
+ *  - a lane holds at most laneQueueCapacity queued publishes. A publisher waits up to the lane
+ *    offer timeout for room and then the publish is dropped for that lane and counted, so a stuck
+ *    lane cannot stall the inbound or cluster reader threads behind it. CONNECT and DISCONNECT
+ *    handling is always queued.
+ * Not supported compared to the simple broker: server heartbeats and the "selector" header.
+ */
+public class TrieBrokerMessageHandler extends AbstractBrokerMessageHandler {
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    private static final int FORGOTTEN_SESSIONS = 4096;
+
+    private final DestinationTrie trie;
+    private final Lane[] lanes;
+    private final int laneQueueCapacity;
+    private final int maxBatch;
+
+    final LongAdder published = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder failedSends = new LongAdder();
+    final LongAdder droppedPublishes = new LongAdder();
+
+    private volatile long laneOfferTimeoutMillis = 100;
+
+    @Nullable
+    private volatile ChannelQueueMetrics laneMetrics;
+
+    /**
+     * @param laneCount         delivery threads; 0 means one per CPU
+     * @param laneQueueCapacity publish tasks a lane may have queued before publishers wait and then drop
+     * @param maxBatch          messages a lane collects before it flushes even though more work is queued
+     */
+    public TrieBrokerMessageHandler(SubscribableChannel clientInboundChannel, MessageChannel clientOutboundChannel,
+          SubscribableChannel brokerChannel, Collection<String> destinationPrefixes,
+          int laneCount, int laneQueueCapacity, int maxBatch) {
+        super(clientInboundChannel, clientOutboundChannel, brokerChannel, destinationPrefixes);
+        int n = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        this.trie = new DestinationTrie(n);
+        this.laneQueueCapacity = laneQueueCapacity;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.lanes = new Lane[n];
+        for (int i = 0; i < n; i++) lanes[i] = new Lane(i);
+    }
+
+    /** How long a publisher waits for room in a full lane before the publish is dropped; 0 drops at once. */
+    public void setLaneOfferTimeoutMillis(long laneOfferTimeoutMillis) {
+        this.laneOfferTimeoutMillis = laneOfferTimeoutMillis;
+    }
+
+    /** Records how long publish tasks wait in the lane queues. */
+    public void setLaneMetrics(@Nullable ChannelQueueMetrics laneMetrics) {
+        this.laneMetrics = laneMetrics;
+    }
+
+    @Override
+    protected void startInternal() {
+        for (Lane lane : lanes) lane.start();
+        publishBrokerAvailableEvent();
+    }
+
+    @Override
+    protected void stopInternal() {
+        for (Lane lane : lanes) lane.stop();
+    }
+
+    @Override
+    protected void handleMessageInternal(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+
+        if (type == null || type == SimpMessageType.MESSAGE) {
+            if (destination != null && checkDestinationPrefix(destination)) {
+                publish(destination, message);
+            }
+        } else if (type == SimpMessageType.CONNECT) {
+            if (sessionId == null) return;
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT_ACK);
+            accessor.setSessionId(sessionId);
+            accessor.setUser(SimpMessageHeaderAccessor.getUser(headers));
+            accessor.setHeader(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER, message);
+            accessor.setHeader(SimpMessageHeaderAccessor.HEART_BEAT_HEADER, new long[] { 0, 0 });
+            accessor.setLeaveMutable(true); // preservePublishOrder tags outbound messages
+            Message<byte[]> ack = MessageBuilder.createMessage(EMPTY_PAYLOAD, accessor.getMessageHeaders());
+            Lane lane = laneOf(sessionId);
+            lane.submitControl(() -> lane.enqueue(sessionId, ack));
+        } else if (type == SimpMessageType.DISCONNECT) {
+            if (sessionId == null) return;
+            trie.removeSession(sessionId);
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT_ACK);
+            accessor.setSessionId(sessionId);
+            accessor.setUser(SimpMessageHeaderAccessor.getUser(headers));
+            accessor.setHeader(SimpMessageHeaderAccessor.DISCONNECT_MESSAGE_HEADER, message);
+            accessor.setLeaveMutable(true); // preservePublishOrder tags outbound messages
+            Message<byte[]> ack = MessageBuilder.createMessage(EMPTY_PAYLOAD, accessor.getMessageHeaders());
+            Lane lane = laneOf(sessionId);
+            lane.submitControl(() -> {
+                // Undelivered messages for a closing session are dropped
+                lane.discard(sessionId);
+                lane.send(sessionId, ack);
+                lane.forget(sessionId);
+            });
+        } else if (type == SimpMessageType.SUBSCRIBE) {
+            String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+            if (sessionId == null || subscriptionId == null || destination == null) {
+                logger.error("SUBSCRIBE without session, subscription id or destination: " + message);
+                return;
+            }
+            if (checkDestinationPrefix(destination)) {
+                trie.subscribe(sessionId, subscriptionId, destination);
+            }
+        } else if (type == SimpMessageType.UNSUBSCRIBE) {
+            String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+            if (sessionId != null && subscriptionId != null) {
+                trie.unsubscribe(sessionId, subscriptionId);
+            }
+        }
+    }
+
+    private void publish(String destination, Message<?> message) {
+        List<DestinationTrie.Node> nodes = trie.match(destination);
+        List<DestinationTrie.Subscription> patterns = trie.matchPatterns(destination);
+        if (nodes.isEmpty() && patterns.isEmpty()) return;
+        published.increment();
+        for (int i = 0; i < lanes.length; i++) {
+            int shard = i;
+            boolean any = false;
+            for (DestinationTrie.Node node : nodes) {
+                if (!node.shard(shard).isEmpty()) { any = true; break; }
+            }
+            if (!any) {
+                for (DestinationTrie.Subscription sub : patterns) {
+                    if (trie.shardOf(sub.sessionId()) == shard) { any = true; break; }
+                }
+            }
+            if (!any) continue;
+            Lane lane = lanes[shard];
+            lane.submit(() -> {
+                for (DestinationTrie.Node node : nodes) {
+                    for (DestinationTrie.Subscription sub : node.shard(shard)) {
+                        lane.enqueue(sub.sessionId(), toSubscriber(sub, message));
+                    }
+                }
+                for (DestinationTrie.Subscription sub : patterns) {
+                    if (trie.shardOf(sub.sessionId()) == shard) {
+                        lane.enqueue(sub.sessionId(), toSubscriber(sub, message));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Delivers a message for the destination to the subscriptions the caller has already resolved
+     * for it, and to the wildcard and pattern subscriptions that match it (e.g. /topic/room/* for
+     * /topic/room/7), which the caller does not track. Only those need a lookup, and none at all
+     * while nobody holds one. Ordered with broker traffic like deliver(Collection, Message).
+     */
+    void deliver(String destination, Collection<DestinationTrie.Subscription> recipients, Message<?> message) {
+        deliver(recipients, trie.matchPatterns(destination), trie.matchWildcards(destination), message);
+    }
+
+    /**
+     * Delivers a message to exactly the subscriptions the caller has already resolved, skipping the
+     * destination lookup (a private message, a history replay to a new subscriber). Goes through the
+     * same lanes as broker traffic, so it stays in order with everything else sent to those sessions.
+     */
+    void deliver(Collection<DestinationTrie.Subscription> recipients, Message<?> message) {
+        deliver(recipients, List.of(), List.of(), message);
+    }
+
+    private void deliver(Collection<DestinationTrie.Subscription> recipients, List<DestinationTrie.Subscription> patterns,
+          List<DestinationTrie.Node> wildcards, Message<?> message) {
+        if (recipients.isEmpty() && wildcards.isEmpty() && patterns.isEmpty()) return;
+        published.increment();
+        List<DestinationTrie.Subscription>[] byLane = newLaneLists();
+        for (DestinationTrie.Subscription recipient : recipients) addTo(byLane, recipient);
+        for (DestinationTrie.Subscription recipient : patterns) addTo(byLane, recipient);
+        for (int i = 0; i < lanes.length; i++) {
+            int shard = i;
+            List<DestinationTrie.Subscription> direct = byLane[i];
+            boolean any = direct != null;
+            for (int n = 0; !any && n < wildcards.size(); n++) any = !wildcards.get(n).shard(shard).isEmpty();
+            if (!any) continue;
+            Lane lane = lanes[shard];
+            lane.submit(() -> {
+                if (direct != null) {
+                    for (DestinationTrie.Subscription sub : direct) lane.enqueue(sub.sessionId(), toSubscriber(sub, message));
+                }
+                for (DestinationTrie.Node node : wildcards) {
+                    for (DestinationTrie.Subscription sub : node.shard(shard)) {
+                        lane.enqueue(sub.sessionId(), toSubscriber(sub, message));
+                    }
+                }
+            });
+        }
+    }
+
+    /** Whether a deliver(destination, ...) could reach anyone besides the given recipients. */
+    boolean hasWildcardSubscriptions() {
+        return trie.hasWildcards();
+    }
+
+    private void addTo(List<DestinationTrie.Subscription>[] byLane, DestinationTrie.Subscription recipient) {
+        int shard = trie.shardOf(recipient.sessionId());
+        if (byLane[shard] == null) byLane[shard] = new ArrayList<>();
+        byLane[shard].add(recipient);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<T>[] newLaneLists() {
+        return new List[lanes.length];
+    }
+
+    private static Message<?> toSubscriber(DestinationTrie.Subscription sub, Message<?> message) {
+        return toSubscriber(sub.sessionId(), sub.subscriptionId(), message);
+    }
+
+    private static Message<?> toSubscriber(String sessionId, String subscriptionId, Message<?> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.copyHeadersIfAbsent(message.getHeaders());
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+    }
+
+    private Lane laneOf(String sessionId) {
+        return lanes[trie.shardOf(sessionId)];
+    }
+
+    int laneCount() {
+        return lanes.length;
+    }
+
+    int subscriptionCount() {
+        return trie.subscriptionCount();
+    }
+
+    /**
+     * One delivery thread. The outboxes are only touched from that thread, so they need no locking;
+     * a task that finds the queue empty afterwards (or too much pending) flushes them.
+     */
+    private final class Lane {
+        private final int index;
+        private final Map<String, ArrayDeque<Message<?>>> outboxes = new LinkedHashMap<>();
+        // With preservePublishOrder each channel is an ordering decorator, so keep one per session
+        private final Map<String, MessageChannel> channels = new HashMap<>();
+        // Recently disconnected sessions. A publish or deliver(recipients) resolved before the
+        // DISCONNECT may still be queued behind it; sending for it would recreate the channel.
+        // Session ids are not reused, so only the latest few are kept.
+        private final Set<String> forgotten = Collections.newSetFromMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > FORGOTTEN_SESSIONS;
+            }
+        });
+        private int pending;
+        private final Semaphore publishSlots = new Semaphore(laneQueueCapacity);
+        private volatile ThreadPoolExecutor executor;
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        void start() {
+            String name = "stomp-broker-" + index;
+            // Unbounded so CONNECT and DISCONNECT always get in; publishSlots bounds the publishes.
+            // A task is never run on the caller's thread, which would break per-session ordering.
+            executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                  new LinkedBlockingQueue<>(),
+                  r -> {
+                      Thread t = new Thread(r, name);
+                      t.setDaemon(true);
+                      return t;
+                  },
+                  new ThreadPoolExecutor.DiscardPolicy());
+        }
+
+        void stop() {
+            ThreadPoolExecutor e = executor;
+            if (e != null) e.shutdown();
+        }
+
+        /** Queues a publish, waiting up to the offer timeout while the lane is full; drops it after that. */
+        void submit(Runnable task) {
+            ThreadPoolExecutor e = executor;
+            if (e == null || e.isShutdown()) return;
+            try {
+                if (!publishSlots.tryAcquire(laneOfferTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    dropped();
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                dropped();
+                return;
+            }
+            execute(e, () -> {
+                publishSlots.release();
+                task.run();
+            });
+        }
+
+        /** Queues session bookkeeping, which is never dropped and takes no publish slot. */
+        void submitControl(Runnable task) {
+            ThreadPoolExecutor e = executor;
+            if (e != null) execute(e, task);
+        }
+
+        private void dropped() {
+            droppedPublishes.increment();
+            if (logger.isDebugEnabled()) logger.debug("Lane " + index + " full, publish dropped");
+        }
+
+        private void execute(ThreadPoolExecutor e, Runnable task) {
+            Runnable run = () -> {
+                try {
+                    task.run();
+                } finally {
+                    if (pending >= maxBatch || e.getQueue().isEmpty()) flush();
+                }
+            };
+            ChannelQueueMetrics metrics = laneMetrics;
+            e.execute(metrics != null ? metrics.decorate(run) : run);
+        }
+
+        void enqueue(String sessionId, Message<?> message) {
+            if (forgotten.contains(sessionId)) return;
+            outboxes.computeIfAbsent(sessionId, k -> new ArrayDeque<>()).add(message);
+            pending++;
+        }
+
+        void discard(String sessionId) {
+            ArrayDeque<Message<?>> outbox = outboxes.remove(sessionId);
+            if (outbox != null) pending -= outbox.size();
+        }
+
+        void send(String sessionId, Message<?> message) {
+            if (forgotten.contains(sessionId)) return;
+            MessageChannel channel = channels.computeIfAbsent(sessionId, id -> getClientOutboundChannelForSession(id));
+            try {
+                channel.send(message);
+                delivered.increment();
+            } catch (Exception ex) {
+                failedSends.increment();
+                logger.error("Failed to send " + message, ex);
+            }
+        }
+
+        void forget(String sessionId) {
+            channels.remove(sessionId);
+            forgotten.add(sessionId);
+        }
+
+        private void flush() {
+            if (pending == 0) return;
+            for (Map.Entry<String, ArrayDeque<Message<?>>> entry : outboxes.entrySet()) {
+                for (Message<?> m; (m = entry.getValue().poll()) != null; ) {
+                    send(entry.getKey(), m);
+                }
+            }
+            outboxes.clear();
+            pending = 0;
+        }
+    }
+}
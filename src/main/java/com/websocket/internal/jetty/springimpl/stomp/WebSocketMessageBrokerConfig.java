@@ -2,28 +2,80 @@ package com.websocket.internal.jetty.springimpl.stomp;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.WebSocketHandler;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.server.HandshakeHandler;
 import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
 import java.security.Principal;
+import java.util.List;
 import java.util.Map;
 
+// Broker infrastructure comes from StompBrokerConfiguration instead of @EnableWebSocketMessageBroker
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketMessageBrokerConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final ChatMessageEncoding chatMessageEncoding;
+    private final StompChannelMetrics channelMetrics;
+    private final StompOutboundBatching outboundBatching;
+    private final DeliveryReceipts deliveryReceipts;
+    private final Environment env;
+
+    public WebSocketMessageBrokerConfig(ChatMessageEncoding chatMessageEncoding, StompChannelMetrics channelMetrics,
+          StompOutboundBatching outboundBatching, DeliveryReceipts deliveryReceipts, Environment env) {
+        this.chatMessageEncoding = chatMessageEncoding;
+        this.channelMetrics = channelMetrics;
+        this.outboundBatching = outboundBatching;
+        this.deliveryReceipts = deliveryReceipts;
+        this.env = env;
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.enableSimpleBroker("/topic", "/queue");  // where clients subscribe
         config.setApplicationDestinationPrefixes("/app"); // prefix for sending
         config.setUserDestinationPrefix("/user");
+        // Keep the broker's per-session order through the outbound pool
+        config.setPreservePublishOrder(env.getProperty("chat.stomp.broker.preserve-publish-order", Boolean.class, true));
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // Only used for content-type application/x-chat-compact; the defaults (JSON) follow
+        messageConverters.add(new ChatMessageCompactConverter());
+        return true;
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        StompChannelExecutors.configure(registration, env, "inbound", channelMetrics.inbound);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        StompChannelExecutors.configure(registration, env, "outbound", channelMetrics.outbound);
+        registration.interceptors(chatMessageEncoding); // per-session JSON / compact payload
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setMessageSizeLimit(env.getProperty("chat.stomp.transport.message-size-limit", Integer.class, 64 * 1024))
+              .setSendBufferSizeLimit(env.getProperty("chat.stomp.transport.send-buffer-size-limit", Integer.class, 512 * 1024))
+              .setSendTimeLimit(env.getProperty("chat.stomp.transport.send-time-limit-ms", Integer.class, 10_000))
+              .setTimeToFirstMessage(env.getProperty("chat.stomp.transport.time-to-first-message-ms", Integer.class, 60_000));
+        if (outboundBatching.isEnabled()) {
+            registration.addDecoratorFactory(outboundBatching); // several STOMP frames per WebSocket message
+        }
+        // Added last, so its session sits right on the transport and sees what was actually written
+        registration.addDecoratorFactory(deliveryReceipts);
     }
 
     @Bean
@@ -39,7 +91,7 @@ public class WebSocketMessageBrokerConfig implements WebSocketMessageBrokerConfi
                     var params = servletRequest.getServletRequest().getParameter("username");
                     if (params != null && !params.isBlank()) {
                         System.out.println("🔐 Assigned username: " + params);
-                        return () -> params;
+                        return new StompPrincipal(params);
                     }
                 }
 
@@ -48,8 +100,18 @@ public class WebSocketMessageBrokerConfig implements WebSocketMessageBrokerConfi
         };
     }
 
+    /** The user a session was opened for; PrivateDelivery and the user registry key on the name. */
+    record StompPrincipal(String name) implements Principal {
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // Frames from one session reach the inbound pool one at a time, in the order they were read
+        registry.setPreserveReceiveOrder(env.getProperty("chat.stomp.inbound.preserve-receive-order", Boolean.class, true));
         registry.addEndpoint("/ws-stomp", "/ws-chat")
                 .setAllowedOriginPatterns("*")
                 .setHandshakeHandler(customHandshakeHandler())
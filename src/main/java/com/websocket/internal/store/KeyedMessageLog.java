@@ -0,0 +1,495 @@
+package com.websocket.internal.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable queues of byte[] messages, one per key (a username), in a single append-only log.
+ *
+ * Writes are group-committed: append() and ack() only queue the record and return a future. One
+ * writer thread takes everything queued, writes it with as few write calls as the segment
+ * boundaries allow, fsyncs once and then completes all of those futures, so N concurrent appends
+ * cost one fsync instead of N and no caller ever waits on the disk unless it wants to.
+ *
+ * Records:
+ *   int length (of what follows), int CRC32C (of what follows), byte type, short keyLength, key,
+ *   MESSAGE: payload | ACK: long upToOffset
+ * A record's offset is its position in the whole log; segment files are named after the offset
+ * of their first byte and rolled at segmentBytes. An ACK consumes every message of its key up to
+ * and including upToOffset.
+ *
+ * The per-key index (offset and length of each unconsumed message) is in memory and rebuilt by
+ * replaying the segments on open; a torn or corrupt tail is cut off there. A message is in the
+ * index, so visible to read(), once it is on disk. Segments are deleted oldest first: once none of
+ * their messages is unconsumed, or once they are older than the retention and their messages
+ * expire. Only ever deleting the oldest segment keeps replay correct, as an ACK always comes after
+ * the messages it consumes. A key holding more than maxPerKey messages drops its oldest.
+ */
+public final class KeyedMessageLog implements Closeable {
+
+    public record Entry(long offset, byte[] payload) {}
+
+    private static final byte MESSAGE = 1;
+    private static final byte ACK = 2;
+    private static final int HEADER = 4 + 4;
+    private static final String SUFFIX = ".log";
+
+    private record Ref(long offset, int length, Segment segment) {}
+
+    private static final class Segment {
+        final long base;
+        final Path file;
+        final FileChannel channel;
+        long size;
+        int live; // unconsumed messages
+        long lastWriteMillis;
+
+        Segment(long base, Path file, FileChannel channel, long size, long lastWriteMillis) {
+            this.base = base;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+            this.lastWriteMillis = lastWriteMillis;
+        }
+    }
+
+    private static final class Op {
+        final byte type;
+        final String key;
+        final byte[] keyBytes;
+        final byte[] payload; // MESSAGE
+        final long upTo;      // ACK
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+        long offset;
+        Segment segment;
+
+        Op(byte type, String key, byte[] payload, long upTo) {
+            this.type = type;
+            this.key = key;
+            this.keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            this.payload = payload;
+            this.upTo = upTo;
+        }
+
+        int recordBytes() {
+            return HEADER + 1 + 2 + keyBytes.length + (type == MESSAGE ? payload.length : 8);
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final int maxPerKey;
+    private final long retentionMillis;
+
+    // Guarded by this: the index and the segment list
+    private final Map<String, ArrayDeque<Ref>> index = new HashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private final Object queueLock = new Object();
+    private List<Op> queued = new ArrayList<>();
+    private boolean closed;
+    private final Thread writer;
+    private ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+    private final CRC32C crc = new CRC32C();
+
+    final LongAdder messagesAppended = new LongAdder();
+    final LongAdder acks = new LongAdder();
+    final LongAdder commits = new LongAdder();
+    final LongAdder commitNanos = new LongAdder();
+    final AtomicLong maxCommitRecords = new AtomicLong();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder expired = new LongAdder();
+
+    // Test hook: the next flush writes half of its bytes and then fails, as a full disk would
+    volatile boolean tearNextFlush;
+
+    public KeyedMessageLog(Path dir, long segmentBytes, int maxPerKey, Duration retention) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxPerKey = maxPerKey;
+        this.retentionMillis = retention.toMillis();
+        Files.createDirectories(dir);
+        recover();
+        synchronized (this) {
+            deleteOldSegments();
+        }
+        this.writer = new Thread(this::writeLoop, "message-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // ---- API
+
+    /** Queues the message; the future completes with its offset once it is on disk. */
+    public CompletableFuture<Long> append(String key, byte[] payload) {
+        return enqueue(new Op(MESSAGE, key, payload, 0));
+    }
+
+    /** Consumes the key's messages up to and including the offset; completes once that is on disk. */
+    public CompletableFuture<Long> ack(String key, long upToOffset) {
+        return enqueue(new Op(ACK, key, null, upToOffset));
+    }
+
+    /** The key's oldest unconsumed messages, at most max; read() again after ack() for the next ones. */
+    public List<Entry> read(String key, int max) {
+        List<Ref> refs;
+        synchronized (this) {
+            ArrayDeque<Ref> queue = index.get(key);
+            if (queue == null) return List.of();
+            refs = new ArrayList<>(Math.min(max, queue.size()));
+            for (Ref ref : queue) {
+                if (refs.size() == max) break;
+                refs.add(ref);
+            }
+        }
+        List<Entry> entries = new ArrayList<>(refs.size());
+        try {
+            for (Ref ref : refs) {
+                ByteBuffer record = ByteBuffer.allocate(ref.length);
+                long position = ref.offset - ref.segment.base;
+                while (record.hasRemaining()) {
+                    int n = ref.segment.channel.read(record, position + record.position());
+                    if (n < 0) throw new IOException("Segment " + ref.segment.file + " ends inside a record");
+                }
+                record.flip();
+                record.position(HEADER + 1);
+                record.position(record.position() + 2 + record.getShort(HEADER + 1));
+                byte[] payload = new byte[record.remaining()];
+                record.get(payload);
+                entries.add(new Entry(ref.offset, payload));
+            }
+        } catch (IOException e) {
+            // A segment deleted by expiry between the index lookup and the read: what was read is still valid
+            if (entries.isEmpty()) throw new UncheckedIOException(e);
+        }
+        return entries;
+    }
+
+    public synchronized int pending(String key) {
+        ArrayDeque<Ref> queue = index.get(key);
+        return queue == null ? 0 : queue.size();
+    }
+
+    public synchronized int keyCount() {
+        return index.size();
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    public Map<String, Object> stats() {
+        long n = commits.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("keys", keyCount());
+        m.put("segments", segmentCount());
+        m.put("messagesAppended", messagesAppended.sum());
+        m.put("acks", acks.sum());
+        m.put("commits", n);
+        m.put("meanRecordsPerCommit", n == 0 ? 0 : (messagesAppended.sum() + acks.sum()) / (double) n);
+        m.put("maxRecordsPerCommit", maxCommitRecords.get());
+        m.put("meanCommitNanos", n == 0 ? 0 : commitNanos.sum() / n);
+        m.put("dropped", dropped.sum());
+        m.put("expired", expired.sum());
+        return m;
+    }
+
+    /** Writes what is queued, then stops the writer and closes the segments. */
+    @Override
+    public void close() {
+        synchronized (queueLock) {
+            if (closed) return;
+            closed = true;
+            queueLock.notifyAll();
+        }
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Segment segment : segments.values()) closeQuietly(segment.channel);
+            segments.clear();
+        }
+    }
+
+    // ---- Group commit
+
+    private CompletableFuture<Long> enqueue(Op op) {
+        synchronized (queueLock) {
+            if (closed) {
+                op.done.completeExceptionally(new IllegalStateException("Log closed"));
+                return op.done;
+            }
+            queued.add(op);
+            if (queued.size() == 1) queueLock.notify();
+        }
+        return op.done;
+    }
+
+    private void writeLoop() {
+        List<Op> batch = new ArrayList<>();
+        while (true) {
+            synchronized (queueLock) {
+                while (queued.isEmpty() && !closed) {
+                    try {
+                        queueLock.wait(60_000); // wake up now and then to expire old segments
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                    if (queued.isEmpty()) break;
+                }
+                if (queued.isEmpty() && closed) return;
+                List<Op> swap = batch;
+                batch = queued;
+                queued = swap;
+            }
+            if (batch.isEmpty()) {
+                synchronized (this) {
+                    deleteOldSegments();
+                }
+                continue;
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Op> batch) {
+        long start = System.nanoTime();
+        Segment first = null;
+        long firstSize = 0;
+        try {
+            Segment segment = first = activeSegment();
+            firstSize = first.size;
+            List<Segment> written = new ArrayList<>(2);
+            out.clear();
+            for (Op op : batch) {
+                int bytes = op.recordBytes();
+                if (segment.size + out.position() + bytes > segmentBytes && segment.size + out.position() > 0) {
+                    flush(segment, written);
+                    segment = roll(segment.base + segment.size);
+                }
+                if (out.remaining() < bytes) {
+                    if (out.position() > 0) flush(segment, written);
+                    if (out.capacity() < bytes) out = ByteBuffer.allocateDirect(Integer.highestOneBit(bytes) << 1);
+                }
+                op.offset = segment.base + segment.size + out.position();
+                op.segment = segment;
+                encode(op, bytes);
+            }
+            flush(segment, written);
+            for (Segment s : written) s.channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            if (first != null) rollBack(first, firstSize);
+            for (Op op : batch) op.done.completeExceptionally(e);
+            System.out.println("Message log commit failed: " + e);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        commits.increment();
+        commitNanos.add(elapsed);
+        maxCommitRecords.accumulateAndGet(batch.size(), Math::max);
+
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Op op : batch) {
+                op.segment.lastWriteMillis = now;
+                apply(op.type, op.key, op.offset, op.recordBytes(), op.upTo, op.segment);
+            }
+            deleteOldSegments();
+        }
+        for (Op op : batch) {
+            (op.type == MESSAGE ? messagesAppended : acks).increment();
+            op.done.complete(op.offset);
+        }
+    }
+
+    private void encode(Op op, int bytes) {
+        int start = out.position();
+        out.putInt(bytes - 4);
+        out.putInt(0); // CRC, below
+        out.put(op.type);
+        out.putShort((short) op.keyBytes.length);
+        out.put(op.keyBytes);
+        if (op.type == MESSAGE) out.put(op.payload);
+        else out.putLong(op.upTo);
+        crc.reset();
+        crc.update(out.slice(start + HEADER, bytes - HEADER));
+        out.putInt(start + 4, (int) crc.getValue());
+    }
+
+    /**
+     * Undoes a failed commit: whatever part of it reached the disk would otherwise sit in front of
+     * the next commit's records, and recovery stops at the first torn record. Segments rolled by the
+     * commit are deleted and the one it started in is cut back to its size before it.
+     */
+    private void rollBack(Segment first, long size) {
+        synchronized (this) {
+            while (segments.lastKey() > first.base) {
+                Segment rolled = segments.pollLastEntry().getValue();
+                closeQuietly(rolled.channel);
+                try {
+                    Files.deleteIfExists(rolled.file);
+                } catch (IOException e) {
+                    System.out.println("Cannot delete " + rolled.file + ": " + e);
+                }
+            }
+        }
+        // Even if the truncate fails, the next commit writes over the torn bytes from here
+        first.size = size;
+        try {
+            first.channel.truncate(size);
+        } catch (IOException e) {
+            System.out.println("Cannot truncate " + first.file + " after a failed commit: " + e);
+        }
+    }
+
+    private void flush(Segment segment, List<Segment> written) throws IOException {
+        out.flip();
+        if (tearNextFlush && out.hasRemaining()) {
+            tearNextFlush = false;
+            out.limit(out.position() + out.remaining() / 2);
+            while (out.hasRemaining()) segment.size += segment.channel.write(out, segment.size);
+            out.clear();
+            throw new IOException("Torn write");
+        }
+        while (out.hasRemaining()) segment.size += segment.channel.write(out, segment.size);
+        out.clear();
+        if (!written.contains(segment)) written.add(segment);
+    }
+
+    private synchronized Segment activeSegment() throws IOException {
+        return segments.isEmpty() ? roll(0) : segments.lastEntry().getValue();
+    }
+
+    private synchronized Segment roll(long base) throws IOException {
+        Path file = dir.resolve(String.format("%020d%s", base, SUFFIX));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(base, file, channel, 0, System.currentTimeMillis());
+        segments.put(base, segment);
+        return segment;
+    }
+
+    // ---- Index, guarded by this
+
+    private void apply(byte type, String key, long offset, int length, long upTo, Segment segment) {
+        if (type == MESSAGE) {
+            ArrayDeque<Ref> queue = index.computeIfAbsent(key, k -> new ArrayDeque<>());
+            queue.addLast(new Ref(offset, length, segment));
+            segment.live++;
+            if (queue.size() > maxPerKey) {
+                queue.removeFirst().segment.live--;
+                dropped.increment();
+            }
+        } else {
+            ArrayDeque<Ref> queue = index.get(key);
+            if (queue == null) return;
+            while (!queue.isEmpty() && queue.peekFirst().offset <= upTo) queue.removeFirst().segment.live--;
+            if (queue.isEmpty()) index.remove(key);
+        }
+    }
+
+    private void deleteOldSegments() {
+        long expireBefore = System.currentTimeMillis() - retentionMillis;
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest.live > 0 && oldest.lastWriteMillis >= expireBefore) return;
+            segments.pollFirstEntry();
+            if (oldest.live > 0) expire(oldest);
+            closeQuietly(oldest.channel);
+            try {
+                Files.deleteIfExists(oldest.file);
+            } catch (IOException e) {
+                System.out.println("Cannot delete " + oldest.file + ": " + e);
+            }
+        }
+    }
+
+    private void expire(Segment segment) {
+        index.values().removeIf(queue -> {
+            while (!queue.isEmpty() && queue.peekFirst().segment == segment) {
+                queue.removeFirst();
+                expired.increment();
+            }
+            return queue.isEmpty();
+        });
+    }
+
+    // ---- Recovery
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        CRC32C check = new CRC32C();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String name = file.getFileName().toString();
+            long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            Segment segment = new Segment(base, file, channel, size, Files.getLastModifiedTime(file).toMillis());
+            synchronized (this) {
+                segments.put(base, segment);
+            }
+            if (size == 0) continue;
+            MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int pos = 0;
+            while (pos + HEADER + 3 <= size) {
+                int length = b.getInt(pos);
+                if (length < 4 + 3 || pos + 4L + length > size) break;
+                check.reset();
+                check.update(b.slice(pos + HEADER, length - 4));
+                if ((int) check.getValue() != b.getInt(pos + 4)) break;
+                byte type = b.get(pos + HEADER);
+                int keyLength = b.getShort(pos + HEADER + 1);
+                byte[] key = new byte[keyLength];
+                b.get(pos + HEADER + 3, key);
+                long upTo = type == ACK ? b.getLong(pos + HEADER + 3 + keyLength) : 0;
+                synchronized (this) {
+                    apply(type, new String(key, StandardCharsets.UTF_8), base + pos, length + 4, upTo, segment);
+                }
+                pos += 4 + length;
+            }
+            if (pos < size) {
+                boolean last = i == files.size() - 1;
+                System.out.println((last ? "Cutting off a torn tail of " : "Corrupt record in ") + file + " at " + pos);
+                // A later segment's offsets start after this one's nominal size, so only the last is cut
+                if (last) {
+                    channel.truncate(pos);
+                    segment.size = pos;
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
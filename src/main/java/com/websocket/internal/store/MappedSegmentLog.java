@@ -0,0 +1,205 @@
+package com.websocket.internal.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of byte[] entries numbered 1, 2, 3..., kept in segment files written through
+ * MappedByteBuffer: an append is a few puts into memory the OS writes back on its own, with no
+ * system call. Meant for data where losing the last moments on a machine crash is acceptable
+ * (a process crash loses nothing, the pages are already in the page cache); flush() forces it.
+ *
+ * Segment files are named after their first sequence number and created at segmentBytes (larger
+ * for an entry that does not fit). Record layout:
+ *   int length (of what follows), long seq, long timestampMillis, payload
+ * The length is written last, so a record is either complete or reads as the zero fill that marks
+ * the end of the segment.
+ *
+ * The offset index is in memory, one int per entry (its position in the segment), rebuilt by
+ * scanning the segments on open. Reading any sequence number is a floor lookup on the segment and
+ * an array access. Retention: once more than retainEntries entries are held, whole segments that
+ * only contain older entries are deleted.
+ *
+ * Not thread-safe; callers serialize access (one log per room, used under the room's lock).
+ */
+public final class MappedSegmentLog implements Closeable {
+
+    public record Entry(long seq, long timestampMillis, byte[] payload) {}
+
+    private static final int HEADER = 4 + 8 + 8;
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long retainEntries;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private long nextSeq = 1;
+
+    private static final class Segment {
+        final long baseSeq;
+        final Path file;
+        final MappedByteBuffer buffer;
+        int[] offsets = new int[64];
+        int count;
+        int position;
+
+        Segment(long baseSeq, Path file, MappedByteBuffer buffer) {
+            this.baseSeq = baseSeq;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        long lastSeq() {
+            return baseSeq + count - 1;
+        }
+
+        void index(int offset) {
+            if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count++] = offset;
+        }
+
+        Entry read(long seq) {
+            int offset = offsets[(int) (seq - baseSeq)];
+            int length = buffer.getInt(offset);
+            long timestamp = buffer.getLong(offset + 12);
+            byte[] payload = new byte[length - 16];
+            buffer.get(offset + HEADER, payload);
+            return new Entry(seq, timestamp, payload);
+        }
+    }
+
+    public MappedSegmentLog(Path dir, int segmentBytes, long retainEntries) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.retainEntries = retainEntries;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long baseSeq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            Segment segment = new Segment(baseSeq, file, map(file, Files.size(file)));
+            MappedByteBuffer b = segment.buffer;
+            int pos = 0;
+            while (pos + HEADER <= b.capacity()) {
+                int length = b.getInt(pos);
+                if (length < 16 || pos + 4 + length > b.capacity()) break;
+                if (b.getLong(pos + 4) != baseSeq + segment.count) break; // not a record of this segment
+                segment.index(pos);
+                pos += 4 + length;
+            }
+            segment.position = pos;
+            if (segment.count == 0 && !segments.isEmpty()) {
+                Files.deleteIfExists(file); // rolled but never written
+                continue;
+            }
+            segments.put(baseSeq, segment);
+            nextSeq = Math.max(nextSeq, baseSeq + segment.count);
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // the mapping outlives the channel
+        }
+    }
+
+    /** Appends the payload and returns its sequence number. */
+    public long append(byte[] payload, long timestampMillis) {
+        int recordBytes = HEADER + payload.length;
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (segment == null || segment.position + recordBytes + 4 > segment.buffer.capacity()) {
+            segment = roll(recordBytes + 4);
+        }
+        long seq = nextSeq++;
+        MappedByteBuffer b = segment.buffer;
+        int pos = segment.position;
+        b.putLong(pos + 4, seq);
+        b.putLong(pos + 12, timestampMillis);
+        b.put(pos + HEADER, payload);
+        b.putInt(pos, recordBytes - 4);
+        segment.index(pos);
+        segment.position = pos + recordBytes;
+        return seq;
+    }
+
+    private Segment roll(int atLeast) {
+        long baseSeq = nextSeq;
+        Path file = dir.resolve(String.format("%020d%s", baseSeq, SUFFIX));
+        try {
+            Segment segment = new Segment(baseSeq, file, map(file, Math.max(segmentBytes, atLeast)));
+            segments.put(baseSeq, segment);
+            enforceRetention();
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create segment " + file, e);
+        }
+    }
+
+    private void enforceRetention() throws IOException {
+        long keepFrom = nextSeq - retainEntries;
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest.lastSeq() >= keepFrom) break;
+            segments.pollFirstEntry();
+            // Unmapped when the buffer is collected; Linux keeps the pages until then
+            Files.deleteIfExists(oldest.file);
+        }
+    }
+
+    /** Up to max entries starting at fromSeq (or the oldest retained entry, if that is later). */
+    public List<Entry> read(long fromSeq, int max) {
+        List<Entry> result = new ArrayList<>(Math.min(max, 256));
+        long seq = Math.max(fromSeq, firstSeq());
+        while (result.size() < max && seq < nextSeq) {
+            Map.Entry<Long, Segment> floor = segments.floorEntry(seq);
+            if (floor == null) break;
+            Segment segment = floor.getValue();
+            for (; seq <= segment.lastSeq() && result.size() < max; seq++) result.add(segment.read(seq));
+            if (seq <= segment.lastSeq()) break;
+        }
+        return result;
+    }
+
+    /** Oldest retained sequence number; lastSeq() + 1 when empty. */
+    public long firstSeq() {
+        return segments.isEmpty() ? nextSeq : segments.firstKey();
+    }
+
+    public long lastSeq() {
+        return nextSeq - 1;
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /** Forces the written pages to disk. */
+    public void flush() {
+        for (Segment segment : segments.values()) segment.buffer.force();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        segments.clear();
+    }
+}
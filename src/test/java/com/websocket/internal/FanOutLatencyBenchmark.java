@@ -0,0 +1,336 @@
+package com.websocket.internal;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fan-out benchmark: one publisher, N subscribers.
+ *
+ * Every published payload carries its sequence number and the publisher's System.nanoTime(),
+ * so each subscriber can compute its own delivery latency. Per sequence we also keep the first
+ * and last receive time, which gives the first-to-last delivery skew across all subscribers.
+ *
+ * Targets (start the matching server first):
+ *  - JAVANET : javanet.WebSocketApplication        ws://host:8080/
+ *              (its broadcast() only echoes to the sender, so only the publisher receives, and
+ *              upgrades beyond the pool's core threads stay queued and are reported as failed)
+ *  - JETTY   : jetty.WebSocketServer / ChatWebSocket  ws://host:8080/chat
+ *  - SPRING  : springimpl.ChatWebSocketHandler        ws://host:8080/chat
+ *  - STOMP   : /topic/room/{id} via /app/chat        ws://host:8080/ws-stomp/websocket
+ *
+ * Configuration (system properties):
+ *  -Dtarget=JETTY -Dsubscribers=10,100,1000 -Drate=100 -Dmessages=500 -Dpayload=128 -Dtimeout=30
+ *
+ * Subscribers share one HttpClient and a small executor, so 50k connections do not need 50k threads.
+ * Above ~28k subscribers you will need extra loopback addresses or a wider ephemeral port range.
+ */
+public class FanOutLatencyBenchmark {
+
+    private static final String HOST = System.getProperty("host", "127.0.0.1");
+    private static final int PORT = Integer.getInteger("port", 8080);
+    private static final String MARKER = "FANOUT|";
+    private static final String ROOM_ID = "bench";
+
+    private enum Target {
+        JAVANET("/"),
+        JETTY("/chat"),
+        SPRING("/chat"),
+        STOMP("/ws-stomp/websocket");
+
+        final String path;
+
+        Target(String path) { this.path = path; }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Target target = Target.valueOf(System.getProperty("target", "JETTY"));
+        int[] subscriberCounts = Arrays.stream(System.getProperty("subscribers", "10,100,1000").split(","))
+              .map(String::trim).mapToInt(Integer::parseInt).toArray();
+        int rate = Integer.getInteger("rate", 100);          // publishes per second
+        int messages = Integer.getInteger("messages", 500);
+        int payloadSize = Integer.getInteger("payload", 128);
+
+        for (int subscribers : subscriberCounts) {
+            System.out.printf("%n=== %s fan-out: subscribers=%d, rate=%d msg/s, messages=%d, payload=%dB ===%n",
+                  target, subscribers, rate, messages, payloadSize);
+            runRound(target, subscribers, rate, messages, payloadSize);
+        }
+        System.exit(0);
+    }
+
+    private static void runRound(Target target, int subscribers, int rate, int messages, int payloadSize) throws Exception {
+        ExecutorService ioPool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        HttpClient http = HttpClient.newBuilder().executor(ioPool).build();
+        Stats stats = new Stats(subscribers + 1, messages);
+
+        // Subscriber 0 is the publisher, which also receives its own broadcast on every stack here.
+        List<WebSocket> sockets = new ArrayList<>(subscribers + 1);
+        List<CompletableFuture<WebSocket>> pending = new ArrayList<>();
+        int failed = 0;
+        for (int i = 0; i <= subscribers; i++) {
+            String uri = "ws://" + HOST + ":" + PORT + target.path
+                  + (target == Target.STOMP ? "?username=sub" + i : "");
+            pending.add(http.newWebSocketBuilder()
+                  .buildAsync(URI.create(uri), new SubscriberListener(i, stats)));
+            // Avoid flooding the accept backlog while ramping up
+            if (pending.size() == 500) {
+                failed += awaitConnected(pending, sockets);
+            }
+        }
+        failed += awaitConnected(pending, sockets);
+        System.out.println("Connected " + sockets.size() + " sockets, failed=" + failed);
+        if (sockets.isEmpty()) {
+            ioPool.shutdownNow();
+            return;
+        }
+
+        if (target == Target.STOMP) {
+            for (int i = 0; i < sockets.size(); i++) {
+                WebSocket ws = sockets.get(i);
+                ws.sendText("CONNECT\naccept-version:1.2\nhost:" + HOST + "\n\n\0", true).join();
+                ws.sendText("SUBSCRIBE\nid:sub-" + i + "\ndestination:/topic/room/" + ROOM_ID + "\n\n\0", true).join();
+            }
+        }
+        // Let welcome messages and subscriptions settle before measuring
+        Thread.sleep(1000);
+        stats.reset();
+
+        WebSocket publisher = sockets.get(0);
+        String padding = "x".repeat(Math.max(0, payloadSize - 48));
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long start = System.nanoTime();
+        long next = start;
+        for (int seq = 0; seq < messages; seq++) {
+            if (intervalNanos > 0) {
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) TimeUnit.NANOSECONDS.sleep(sleep);
+                next += intervalNanos;
+            }
+            String body = MARKER + seq + "|" + System.nanoTime() + "|" + padding;
+            if (target == Target.STOMP) {
+                String json = "{\"type\":\"CHAT\",\"from\":\"sub0\",\"roomId\":\"" + ROOM_ID + "\",\"content\":\"" + body + "\"}";
+                publisher.sendText("SEND\ndestination:/app/chat\ncontent-type:application/json\n\n" + json + "\0", true).join();
+            } else {
+                publisher.sendText(body, true).join();
+            }
+        }
+        double publishSeconds = (System.nanoTime() - start) / 1e9;
+
+        // javanet echoes each message to its sender only, so there the publisher is the one receiving socket
+        int receivers = target == Target.JAVANET ? 1 : sockets.size();
+        stats.awaitDelivery((long) messages * receivers, Integer.getInteger("timeout", 30), TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        stats.print(publishSeconds, elapsed);
+
+        for (WebSocket ws : sockets) ws.abort();
+        ioPool.shutdownNow();
+    }
+
+    // The javanet server only runs CORE_THREADS handlers until its queue fills, so upgrades beyond that
+    // stay pending. Count those as failures instead of hanging the round.
+    private static int awaitConnected(List<CompletableFuture<WebSocket>> pending, List<WebSocket> sockets) {
+        int failed = 0;
+        for (CompletableFuture<WebSocket> f : pending) {
+            try {
+                sockets.add(f.get(10, TimeUnit.SECONDS));
+            } catch (Exception e) {
+                f.cancel(true);
+                failed++;
+            }
+        }
+        pending.clear();
+        return failed;
+    }
+
+    /* ----------------------------- Subscriber ----------------------------- */
+
+    private static class SubscriberListener implements WebSocket.Listener {
+        private final int id;
+        private final Stats stats;
+        private final StringBuilder partial = new StringBuilder();
+
+        SubscriberListener(int id, Stats stats) {
+            this.id = id;
+            this.stats = stats;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+            long now = System.nanoTime();
+            partial.append(data);
+            if (last) {
+                parse(partial, now);
+                partial.setLength(0);
+            }
+            ws.request(1);
+            return null;
+        }
+
+        private void parse(CharSequence text, long now) {
+            String s = text.toString();
+            int idx = s.indexOf(MARKER);
+            if (idx < 0) return; // welcome / CONNECTED / join notices
+            int seqEnd = s.indexOf('|', idx + MARKER.length());
+            int tsEnd = s.indexOf('|', seqEnd + 1);
+            if (seqEnd < 0 || tsEnd < 0) return;
+            int seq = Integer.parseInt(s, idx + MARKER.length(), seqEnd, 10);
+            long sentAt = Long.parseLong(s, seqEnd + 1, tsEnd, 10);
+            stats.record(id, seq, sentAt, now);
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket ws, int statusCode, String reason) {
+            stats.closed.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket ws, Throwable error) {
+            stats.errors.incrementAndGet();
+        }
+    }
+
+    /* ------------------------------- Stats -------------------------------- */
+
+    private static class Stats {
+        // Log-linear latency histogram: 8 sub-buckets per power of two (ns), max error ~12%
+        private static final int SUB_BITS = 3;
+        private final AtomicLongArray histogram = new AtomicLongArray(64 << SUB_BITS);
+
+        private final long[] subscriberCount;
+        private final long[] subscriberSum;
+        private final long[] subscriberMax;
+        private final AtomicLongArray firstRecv;
+        private final AtomicLongArray lastRecv;
+        private final AtomicLong delivered = new AtomicLong();
+        final AtomicLong closed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        private volatile CountDownLatch done;
+
+        Stats(int subscribers, int messages) {
+            subscriberCount = new long[subscribers];
+            subscriberSum = new long[subscribers];
+            subscriberMax = new long[subscribers];
+            firstRecv = new AtomicLongArray(messages);
+            lastRecv = new AtomicLongArray(messages);
+        }
+
+        void reset() {
+            for (int i = 0; i < histogram.length(); i++) histogram.set(i, 0);
+            Arrays.fill(subscriberCount, 0);
+            Arrays.fill(subscriberSum, 0);
+            Arrays.fill(subscriberMax, 0);
+            delivered.set(0);
+        }
+
+        // A WebSocket.Listener is never invoked concurrently for the same socket, so the per-subscriber slots
+        // are single-writer. Cross-subscriber aggregates use atomics.
+        void record(int subscriber, int seq, long sentAt, long now) {
+            long latency = now - sentAt;
+            histogram.incrementAndGet(bucket(latency));
+            subscriberCount[subscriber]++;
+            subscriberSum[subscriber] += latency;
+            if (latency > subscriberMax[subscriber]) subscriberMax[subscriber] = latency;
+
+            if (seq < firstRecv.length()) {
+                firstRecv.compareAndSet(seq, 0, now);
+                long prev;
+                while ((prev = lastRecv.get(seq)) < now && !lastRecv.compareAndSet(seq, prev, now)) { /* retry */ }
+            }
+            delivered.incrementAndGet();
+            CountDownLatch l = done;
+            if (l != null) l.countDown();
+        }
+
+        void awaitDelivery(long expected, long timeout, TimeUnit unit) throws InterruptedException {
+            long remaining = expected - delivered.get();
+            if (remaining <= 0) return;
+            CountDownLatch l = new CountDownLatch((int) Math.min(Integer.MAX_VALUE, remaining));
+            done = l;
+            if (!l.await(timeout, unit)) {
+                System.out.println("[WARN] Timed out waiting for delivery; reporting partial results");
+            }
+        }
+
+        void print(double publishSeconds, double elapsedSeconds) {
+            long total = delivered.get();
+            System.out.printf("Delivered=%d in %.2fs (publish phase %.2fs), deliveries/s=%.0f, closed=%d, errors=%d%n",
+                  total, elapsedSeconds, publishSeconds, total / elapsedSeconds, closed.get(), errors.get());
+            System.out.printf("Latency   : p50=%.3f ms, p90=%.3f ms, p99=%.3f ms, p99.9=%.3f ms, max=%.3f ms%n",
+                  percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, percentile(99.9) / 1e6,
+                  percentile(100) / 1e6);
+
+            List<Long> skews = new ArrayList<>();
+            for (int i = 0; i < firstRecv.length(); i++) {
+                if (firstRecv.get(i) != 0) skews.add(lastRecv.get(i) - firstRecv.get(i));
+            }
+            skews.sort(null);
+            if (!skews.isEmpty()) {
+                System.out.printf("Skew      : first-to-last p50=%.3f ms, p99=%.3f ms, max=%.3f ms%n",
+                      pick(skews, 50) / 1e6, pick(skews, 99) / 1e6, skews.get(skews.size() - 1) / 1e6);
+            }
+
+            // Distribution of per-subscriber mean latency shows whether some peers are systematically served last
+            List<Long> means = new ArrayList<>();
+            List<Long> maxes = new ArrayList<>();
+            int starved = 0;
+            for (int i = 0; i < subscriberCount.length; i++) {
+                if (subscriberCount[i] == 0) { starved++; continue; }
+                means.add(subscriberSum[i] / subscriberCount[i]);
+                maxes.add(subscriberMax[i]);
+            }
+            means.sort(null);
+            maxes.sort(null);
+            if (!means.isEmpty()) {
+                System.out.printf("Per-sub   : mean p50=%.3f ms, mean p99=%.3f ms, worst mean=%.3f ms, worst max=%.3f ms, no-delivery=%d%n",
+                      pick(means, 50) / 1e6, pick(means, 99) / 1e6, means.get(means.size() - 1) / 1e6,
+                      maxes.get(maxes.size() - 1) / 1e6, starved);
+            }
+        }
+
+        private static int bucket(long value) {
+            if (value <= 0) return 0;
+            int msb = 63 - Long.numberOfLeadingZeros(value);
+            if (msb < SUB_BITS) return (int) value;
+            int sub = (int) ((value >>> (msb - SUB_BITS)) & ((1 << SUB_BITS) - 1));
+            return (msb << SUB_BITS) | sub;
+        }
+
+        private static long bucketValue(int bucket) {
+            int msb = bucket >>> SUB_BITS;
+            if (msb < SUB_BITS) return bucket;
+            long sub = bucket & ((1 << SUB_BITS) - 1);
+            return (1L << msb) | (sub << (msb - SUB_BITS));
+        }
+
+        private long percentile(double pct) {
+            long count = 0;
+            for (int i = 0; i < histogram.length(); i++) count += histogram.get(i);
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(pct / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < histogram.length(); i++) {
+                seen += histogram.get(i);
+                if (seen >= rank) return bucketValue(i);
+            }
+            return bucketValue(histogram.length() - 1);
+        }
+
+        private static long pick(List<Long> sorted, double pct) {
+            int idx = (int) Math.ceil((pct / 100.0) * sorted.size()) - 1;
+            return sorted.get(Math.max(0, idx));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.websocket.internal.cluster;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TcpClusterBusTest {
+
+    private final List<TcpClusterBus> nodes = new ArrayList<>();
+
+    @AfterEach
+    void closeNodes() {
+        nodes.forEach(TcpClusterBus::close);
+    }
+
+    private TcpClusterBus node(String id, InetSocketAddress... seeds) throws Exception {
+        return node(id, 16 * 1024, seeds);
+    }
+
+    private TcpClusterBus node(String id, int peerQueueCapacity, InetSocketAddress... seeds) throws Exception {
+        TcpClusterBus bus = new TcpClusterBus(id, "127.0.0.1", 0, "127.0.0.1", List.of(seeds));
+        bus.setPeerQueueCapacity(peerQueueCapacity);
+        bus.setHeartbeatMillis(50);
+        bus.setFailureTimeoutMillis(2000);
+        bus.start();
+        nodes.add(bus);
+        return bus;
+    }
+
+    private static BlockingQueue<String> inbox(TcpClusterBus bus) {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        bus.setListener((topic, payload, from) -> received.add(topic + "|" + from + "|" + new String(payload, StandardCharsets.UTF_8)));
+        return received;
+    }
+
+    private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("timed out waiting for " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    /** Next message that is not one of the probes sent while waiting for interest to propagate. */
+    private static String next(BlockingQueue<String> inbox, long timeoutMillis) throws InterruptedException {
+        String m;
+        do {
+            m = inbox.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } while (m != null && m.endsWith("|probe"));
+        return m;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMembershipConvergesThroughGossipAndShrinksWhenANodeLeaves() throws Exception {
+        TcpClusterBus a = node("a");
+        TcpClusterBus b = node("b", a.localAddress());
+        TcpClusterBus c = node("c", a.localAddress()); // learns about b only from a
+        Set<String> all = Set.of("a", "b", "c");
+        await("full mesh", () -> a.members().equals(all) && b.members().equals(all) && c.members().equals(all));
+
+        c.close();
+        await("c gone", () -> a.members().equals(Set.of("a", "b")) && b.members().equals(Set.of("a", "b")));
+    }
+
+    @Test
+    public void testMessagesOnlyGoToNodesInterestedInTheTopic() throws Exception {
+        TcpClusterBus a = node("a");
+        TcpClusterBus b = node("b", a.localAddress());
+        TcpClusterBus c = node("c", a.localAddress());
+        BlockingQueue<String> atA = inbox(a);
+        BlockingQueue<String> atB = inbox(b);
+        inbox(c);
+        await("full mesh", () -> c.members().size() == 3);
+
+        a.subscribe("room:1");
+        b.subscribe("room:1");
+        await("interest to reach c", () -> c.publish("room:1", bytes("probe")) == 2);
+        assertEquals(2, c.publish("room:1", bytes("hello")));
+        assertEquals("room:1|c|hello", next(atA, 5000));
+        assertEquals("room:1|c|hello", next(atB, 5000));
+
+        assertEquals(0, c.publish("room:2", bytes("nobody")), "no node subscribed to room:2");
+        assertEquals(1, a.publish("room:1", bytes("to b")), "never back to the publisher");
+        assertEquals("room:1|a|to b", next(atB, 5000));
+        assertNull(next(atA, 100));
+
+        b.unsubscribe("room:1");
+        await("unsubscribe to reach c", () -> c.publish("room:1", bytes("probe")) == 1);
+        assertEquals(0, c.received.sum(), "c never subscribed");
+        assertEquals(0, c.receivedUninterested.sum(), "and was never sent anything");
+    }
+
+    @Test
+    public void testFramesArriveInOrderAndAreBatched() throws Exception {
+        TcpClusterBus a = node("a");
+        TcpClusterBus b = node("b", a.localAddress());
+        BlockingQueue<String> atB = inbox(b);
+        b.subscribe("t");
+        await("interest", () -> a.publish("t", bytes("-1")) == 1);
+        assertEquals("t|a|-1", next(atB, 5000));
+
+        long batchesBefore = a.batchesSent.sum();
+        long framesBefore = a.framesSent.sum();
+        int n = 10_000;
+        for (int i = 0; i < n; i++) a.publish("t", bytes(Integer.toString(i)));
+        for (int i = 0; i < n; i++) assertEquals("t|a|" + i, next(atB, 5000));
+
+        long frames = a.framesSent.sum() - framesBefore;
+        long batches = a.batchesSent.sum() - batchesBefore;
+        assertTrue(frames >= n);
+        assertTrue(batches < frames, frames + " frames in " + batches + " writes");
+    }
+
+    @Test
+    public void testNodesThatDialEachOtherKeepOneConnection() throws Exception {
+        TcpClusterBus a = node("a");
+        TcpClusterBus b = node("b", a.localAddress());
+        TcpClusterBus c = new TcpClusterBus("c", "127.0.0.1", 0, "127.0.0.1", List.of(a.localAddress(), b.localAddress()));
+        c.setHeartbeatMillis(50);
+        c.start();
+        nodes.add(c);
+        await("full mesh", () -> a.members().size() == 3 && b.members().size() == 3 && c.members().size() == 3);
+
+        BlockingQueue<String> atC = inbox(c);
+        c.subscribe("x");
+        await("interest", () -> a.publish("x", bytes("probe")) == 1 && b.publish("x", bytes("probe")) == 1);
+        a.publish("x", bytes("once"));
+        assertEquals("x|a|once", next(atC, 5000));
+        assertNull(next(atC, 200), "delivered over exactly one connection");
+    }
+
+    @Test
+    public void testInterestChangesAreNotDroppedWhenTheQueueIsFull() throws Exception {
+        TcpClusterBus a = node("a", 1);
+        TcpClusterBus b = node("b", 1, a.localAddress());
+        await("mesh", () -> a.members().size() == 2 && b.members().size() == 2);
+
+        for (int i = 0; i < 1000; i++) b.subscribe("t" + i);
+        await("all of b's interest at a", () -> a.remoteInterest("b").size() == 1000);
+        for (int i = 0; i < 1000; i += 2) b.unsubscribe("t" + i);
+        await("removals too", () -> a.remoteInterest("b").size() == 500);
+        assertEquals(0, b.framesDropped.sum());
+    }
+
+    @Test
+    public void testAdvertiseHostIsRequiredAndBindHostDefaultsToIt() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new TcpClusterBus("a", "0.0.0.0", 0, "", List.of()));
+        TcpClusterBus a = new TcpClusterBus("a", null, 0, "127.0.0.1", List.of());
+        a.start();
+        nodes.add(a);
+        assertEquals("127.0.0.1", a.localAddress().getHostString());
+    }
+
+    @Test
+    public void testParseAddresses() {
+        assertEquals(List.of(new InetSocketAddress("127.0.0.1", 7600), new InetSocketAddress("localhost", 7601)),
+              TcpClusterBus.parseAddresses(" 127.0.0.1:7600, localhost:7601 ,"));
+        assertTrue(TcpClusterBus.parseAddresses("").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> TcpClusterBus.parseAddresses("nohost"));
+    }
+}
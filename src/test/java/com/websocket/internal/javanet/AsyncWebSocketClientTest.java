@@ -0,0 +1,290 @@
+package com.websocket.internal.javanet;
+
+import org.junit.jupiter.api.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class AsyncWebSocketClientTest {
+
+    private ServerSocket serverSocket;
+    private AsyncWebSocketClient client;
+
+    @BeforeAll
+    void startServer() throws Exception {
+        // Own ephemeral listener on the shared accept loop, so this class does not depend on port 8080
+        serverSocket = new ServerSocket(0);
+        Thread serverThread = new Thread(() -> {
+            try {
+                WebSocketApplication.serve(serverSocket);
+            } catch (IOException ignored) {
+                // socket closed in stopServer()
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        client = new AsyncWebSocketClient(2);
+    }
+
+    @AfterAll
+    void stopServer() throws IOException {
+        client.close();
+        serverSocket.close();
+    }
+
+    private static class RecordingListener implements WebSocketListener {
+        final BlockingQueue<String> texts = new LinkedBlockingQueue<>();
+        final BlockingQueue<byte[]> binaries = new LinkedBlockingQueue<>();
+        final CompletableFuture<Integer> closed = new CompletableFuture<>();
+
+        @Override
+        public void onText(WebSocketConnection connection, String text) {
+            texts.add(text);
+        }
+
+        @Override
+        public void onBinary(WebSocketConnection connection, ByteBuffer payload) {
+            byte[] copy = new byte[payload.remaining()];
+            payload.get(copy);
+            binaries.add(copy);
+        }
+
+        @Override
+        public void onClose(WebSocketConnection connection, int code, String reason) {
+            closed.complete(code);
+        }
+    }
+
+    private WebSocketConnection connect(RecordingListener listener) throws Exception {
+        return client.connect("localhost", serverSocket.getLocalPort(), "/", listener).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testPipelinedTextSends() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        WebSocketConnection conn = connect(listener);
+
+        // Fire all sends without waiting for echoes
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        for (int i = 0; i < 200; i++) sends.add(conn.sendText("msg-" + i));
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 200; i++) {
+            assertEquals("msg-" + i, listener.texts.poll(5, TimeUnit.SECONDS), "Echoes must arrive in send order");
+        }
+        conn.close(1000, "done").get(5, TimeUnit.SECONDS);
+        assertEquals(1000, listener.closed.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLargeBinaryLargerThanReadBuffer() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        WebSocketConnection conn = connect(listener);
+
+        byte[] payload = new byte[AsyncWebSocketClient.READ_BUFFER_SIZE * 4 + 7];
+        for (int i = 0; i < payload.length; i++) payload[i] = (byte) i;
+        conn.sendBinary(payload);
+
+        assertArrayEquals(payload, listener.binaries.poll(5, TimeUnit.SECONDS));
+        conn.close(1000, "done");
+    }
+
+    @Test
+    public void testConnectionsShareIoThreads() throws Exception {
+        // The server pool runs 4 handlers at once; stay below that
+        RecordingListener a = new RecordingListener();
+        RecordingListener b = new RecordingListener();
+        RecordingListener c = new RecordingListener();
+        WebSocketConnection ca = connect(a);
+        WebSocketConnection cb = connect(b);
+        WebSocketConnection cc = connect(c);
+
+        ca.sendText("a");
+        cb.sendText("b");
+        cc.sendText(new String(new char[] { 'c', 'é' }));
+        assertEquals("a", a.texts.poll(5, TimeUnit.SECONDS));
+        assertEquals("b", b.texts.poll(5, TimeUnit.SECONDS));
+        assertEquals("cé", c.texts.poll(5, TimeUnit.SECONDS));
+
+        for (WebSocketConnection conn : List.of(ca, cb, cc)) conn.close(1000, "done").get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testConnectFailureCompletesFutureExceptionally() throws Exception {
+        int unusedPort;
+        try (ServerSocket s = new ServerSocket(0)) {
+            unusedPort = s.getLocalPort();
+        }
+        CompletableFuture<WebSocketConnection> f = client.connect("localhost", unusedPort, "/", new RecordingListener());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    @Test
+    public void testOversizedFragmentedMessageFailsOnlyItsConnection() throws Exception {
+        try (ServerSocket raw = new ServerSocket(0); AsyncWebSocketClient single = new AsyncWebSocketClient(1)) {
+            // Two frames under the limit that add up to more than the 16 MB message limit
+            Thread server = new Thread(() -> {
+                try (Socket s = raw.accept()) {
+                    acceptUpgrade(s);
+                    OutputStream out = s.getOutputStream();
+                    writeFrame(out, 0x01, new byte[9 * 1024 * 1024]);  // text, not final
+                    writeFrame(out, 0x80, new byte[8 * 1024 * 1024]);  // final continuation
+                    s.getInputStream().read();
+                } catch (IOException ignored) {
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+
+            CompletableFuture<Throwable> error = new CompletableFuture<>();
+            RecordingListener listener = new RecordingListener() {
+                @Override
+                public void onError(WebSocketConnection connection, Throwable e) {
+                    error.complete(e);
+                    throw new IllegalStateException("listener bug"); // must not reach the I/O loop
+                }
+            };
+            single.connect("localhost", raw.getLocalPort(), "/", listener).get(5, TimeUnit.SECONDS);
+            assertTrue(error.get(10, TimeUnit.SECONDS).getMessage().contains("1009"));
+            assertEquals(1006, listener.closed.get(5, TimeUnit.SECONDS));
+
+            // The loop thread survived: another connection on it still works
+            RecordingListener other = new RecordingListener();
+            WebSocketConnection conn = single.connect("localhost", serverSocket.getLocalPort(), "/", other).get(5, TimeUnit.SECONDS);
+            conn.sendText("still alive");
+            assertEquals("still alive", other.texts.poll(5, TimeUnit.SECONDS));
+            conn.close(1000, "done").get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testInvalidUtf8TextFailsWith1007() throws Exception {
+        try (ServerSocket raw = new ServerSocket(0)) {
+            CompletableFuture<Integer> closeCode = new CompletableFuture<>();
+            Thread server = new Thread(() -> {
+                try (Socket s = raw.accept()) {
+                    acceptUpgrade(s);
+                    writeFrame(s.getOutputStream(), 0x81, new byte[] { 'o', 'k', (byte) 0xC3, 0x28 }); // truncated sequence
+                    // The client's close frame: FIN+close, masked length, 4-byte mask, then the code
+                    byte[] frame = s.getInputStream().readNBytes(8);
+                    closeCode.complete(((frame[6] ^ frame[2]) & 0xFF) << 8 | ((frame[7] ^ frame[3]) & 0xFF));
+                } catch (IOException e) {
+                    closeCode.completeExceptionally(e);
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+
+            CompletableFuture<Throwable> error = new CompletableFuture<>();
+            RecordingListener listener = new RecordingListener() {
+                @Override
+                public void onError(WebSocketConnection connection, Throwable e) {
+                    error.complete(e);
+                }
+            };
+            client.connect("localhost", raw.getLocalPort(), "/", listener).get(5, TimeUnit.SECONDS);
+            assertTrue(error.get(5, TimeUnit.SECONDS).getMessage().contains("1007"));
+            assertEquals(1007, closeCode.get(5, TimeUnit.SECONDS));
+            assertNull(listener.texts.poll(100, TimeUnit.MILLISECONDS), "nothing delivered");
+        }
+    }
+
+    @Test
+    public void testCloseWithoutEchoTimesOut() throws Exception {
+        try (ServerSocket raw = new ServerSocket(0); AsyncWebSocketClient single = new AsyncWebSocketClient(1)) {
+            single.setCloseTimeoutMillis(200);
+            Thread server = new Thread(() -> {
+                try (Socket s = raw.accept()) {
+                    acceptUpgrade(s);
+                    s.getInputStream().readAllBytes(); // never answers the close frame
+                } catch (IOException ignored) {
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+
+            RecordingListener listener = new RecordingListener();
+            WebSocketConnection conn = single.connect("localhost", raw.getLocalPort(), "/", listener).get(5, TimeUnit.SECONDS);
+            conn.close(1000, "bye").get(5, TimeUnit.SECONDS);
+            assertEquals(1006, listener.closed.get(5, TimeUnit.SECONDS));
+            assertFalse(conn.isOpen());
+        }
+    }
+
+    @Test
+    public void testClosingTheClientFailsPendingConnects() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0)) {
+            // The TCP connect succeeds from the backlog, the upgrade is never answered
+            AsyncWebSocketClient single = new AsyncWebSocketClient(1);
+            CompletableFuture<WebSocketConnection> pending = single.connect("localhost", silent.getLocalPort(), "/", new RecordingListener());
+            single.close();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> pending.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+
+            CompletableFuture<WebSocketConnection> late = single.connect("localhost", silent.getLocalPort(), "/", new RecordingListener());
+            assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testEverySendCompletesWhenTheConnectionAborts() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        WebSocketConnection conn = connect(listener);
+        List<CompletableFuture<Void>> sends = new CopyOnWriteArrayList<>();
+        Thread sender = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) sends.add(conn.sendText("m" + i));
+        });
+        sender.start();
+        while (sends.size() < 1000) Thread.sleep(1);
+        conn.abort();
+        sender.join(10_000);
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new));
+        try {
+            all.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException expected) {
+            // Sends after the abort fail; the point is that none is left pending
+        }
+        assertTrue(sends.stream().allMatch(CompletableFuture::isDone), "a send never completed");
+        assertEquals(0, conn.bufferedAmount());
+    }
+
+    private static void acceptUpgrade(Socket s) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+        String key = null;
+        for (String line; (line = in.readLine()) != null && !line.isEmpty(); ) {
+            if (line.toLowerCase().startsWith("sec-websocket-key:")) key = line.substring(18).trim();
+        }
+        String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                  .digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        s.getOutputStream().write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+              + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeFrame(OutputStream out, int firstByte, byte[] payload) throws IOException {
+        out.write(ByteBuffer.allocate(10).put((byte) firstByte).put((byte) 127).putLong(payload.length).array());
+        out.write(payload);
+        out.flush();
+    }
+}
@@ -0,0 +1,233 @@
+package com.websocket.internal.javanet;
+
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Allocation regression tests for the ClientHandler codec.
+ *
+ * The handler runs on its own thread over an in-memory socket pair, and we read that thread's
+ * allocated bytes with com.sun.management.ThreadMXBean before and after a batch of echoed messages.
+ * Each scenario fails when bytes/message exceed its budget. Budgets include the handler's current
+ * per-frame logging; tighten them when the hot path gets leaner, never loosen them silently.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ClientHandlerAllocationTest {
+
+    private static final int WARMUP_MESSAGES = 2_000;
+    private static final int MEASURED_MESSAGES = 2_000;
+
+    // bytes allocated by the handler thread per echoed message (~1.3x the measured baseline, JFR
+    // events included; the same with and without a recording running)
+    private static final long SMALL_TEXT_BUDGET = 2_600;       // measured ~2.0 KB
+    private static final long BINARY_BUDGET = 7_500;           // measured ~5.8 KB (4 KB payload)
+    private static final long FRAGMENTED_BUDGET = 32_500;      // measured ~24.8 KB (3 x 900 B fragments)
+    private static final long COMPRESSED_BUDGET = 20_700;      // measured ~15.9 KB (640 B inflated)
+
+    private final com.sun.management.ThreadMXBean threads =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private PrintStream originalOut;
+
+    @BeforeAll
+    void muteHandlerLogging() {
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "JVM must support per-thread allocation counters");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        // The handler logs every frame; keep it off the console but still pay its allocations
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterAll
+    void restoreLogging() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    public void smallTextMessage() throws Exception {
+        byte[] payload = "Hello allocation budget".getBytes(StandardCharsets.UTF_8);
+        long perMessage = measure(false, conn -> {
+            conn.sendFrame(0x1, true, false, payload);
+            assertEquals(payload.length, conn.readFrame().length);
+        });
+        assertWithinBudget("small text", perMessage, SMALL_TEXT_BUDGET);
+    }
+
+    @Test
+    public void binaryMessage() throws Exception {
+        byte[] payload = new byte[4096];
+        Arrays.fill(payload, (byte) 7);
+        long perMessage = measure(false, conn -> {
+            conn.sendFrame(0x2, true, false, payload);
+            assertEquals(payload.length, conn.readFrame().length);
+        });
+        assertWithinBudget("binary 4KB", perMessage, BINARY_BUDGET);
+    }
+
+    @Test
+    public void fragmentedTextMessage() throws Exception {
+        byte[] part = "fragment-".repeat(100).getBytes(StandardCharsets.UTF_8);
+        long perMessage = measure(false, conn -> {
+            conn.sendFrame(0x1, false, false, part);
+            conn.sendFrame(0x0, false, false, part);
+            conn.sendFrame(0x0, true, false, part);
+            assertEquals(part.length * 3, conn.readFrame().length);
+        });
+        assertWithinBudget("fragmented text", perMessage, FRAGMENTED_BUDGET);
+    }
+
+    @Test
+    public void compressedTextMessage() throws Exception {
+        byte[] raw = "{\"type\":\"CHAT\",\"from\":\"alice\",\"roomId\":\"general\",\"content\":\"hello everyone\"}"
+              .repeat(8).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = deflate(raw);
+        long perMessage = measure(true, conn -> {
+            conn.sendFrame(0x1, true, true, compressed);
+            assertTrue(conn.readFrame().length > 0);
+        });
+        assertWithinBudget("compressed text", perMessage, COMPRESSED_BUDGET);
+    }
+
+    /* ----------------------------- Harness ----------------------------- */
+
+    private interface Exchange {
+        void run(Connection conn) throws Exception;
+    }
+
+    private long measure(boolean compression, Exchange exchange) throws Exception {
+        try (Connection conn = new Connection(compression)) {
+            for (int i = 0; i < WARMUP_MESSAGES; i++) exchange.run(conn);
+
+            // A ping round trip guarantees the handler finished the previous frame and is parked in read()
+            conn.pingRoundTrip();
+            long before = threads.getThreadAllocatedBytes(conn.handlerThread.getId());
+            for (int i = 0; i < MEASURED_MESSAGES; i++) exchange.run(conn);
+            conn.pingRoundTrip();
+            long after = threads.getThreadAllocatedBytes(conn.handlerThread.getId());
+            return (after - before) / MEASURED_MESSAGES;
+        }
+    }
+
+    private void assertWithinBudget(String scenario, long perMessage, long budget) {
+        originalOut.printf("[ALLOC] %-16s %,8d bytes/msg (budget %,d)%n", scenario, perMessage, budget);
+        assertTrue(perMessage <= budget,
+              scenario + " allocates " + perMessage + " bytes/msg, budget is " + budget);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater def = new Deflater(Deflater.BEST_COMPRESSION, true);
+        def.setInput(data);
+        def.finish();
+        byte[] buf = new byte[data.length + 64];
+        int len = def.deflate(buf);
+        def.end();
+        return Arrays.copyOf(buf, len);
+    }
+
+    /** ClientHandler on its own thread, wired to the test through two in-memory pipes. */
+    private static class Connection implements AutoCloseable {
+        final Thread handlerThread;
+        private final PipedOutputStream toHandler = new PipedOutputStream();
+        private final PipedInputStream fromHandler = new PipedInputStream(1 << 20);
+        private final OutputStream out = new BufferedOutputStream(toHandler, 1 << 16);
+        private final InputStream in = new BufferedInputStream(fromHandler, 1 << 16);
+
+        Connection(boolean compression) throws IOException {
+            PipedInputStream handlerIn = new PipedInputStream(toHandler, 1 << 20);
+            PipedOutputStream handlerOut = new PipedOutputStream(fromHandler);
+            ClientHandler handler = new ClientHandler(new InMemorySocket(handlerIn, handlerOut));
+            WebSocketApplication.clients.add(handler); // broadcast() echoes to registered senders
+            handlerThread = new Thread(handler, "alloc-handler");
+            handlerThread.setDaemon(true);
+            handlerThread.start();
+            handshake(compression);
+        }
+
+        private void handshake(boolean compression) throws IOException {
+            String key = Base64.getEncoder().encodeToString("allocation-test!".getBytes(StandardCharsets.US_ASCII));
+            String req = "GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                  + "Sec-WebSocket-Key: " + key + "\r\nSec-WebSocket-Version: 13\r\n"
+                  + (compression ? "Sec-WebSocket-Extensions: permessage-deflate\r\n" : "") + "\r\n";
+            out.write(req.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            int matched = 0;
+            while (matched < 4) {
+                int b = in.read();
+                if (b == -1) throw new EOFException("Handshake aborted");
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+        }
+
+        void sendFrame(int opcode, boolean fin, boolean rsv1, byte[] payload) throws IOException {
+            out.write((fin ? 0x80 : 0x00) | (rsv1 ? 0x40 : 0x00) | opcode);
+            int len = payload.length;
+            if (len <= 125) {
+                out.write(0x80 | len);
+            } else {
+                out.write(0x80 | 126);
+                out.write((len >>> 8) & 0xFF);
+                out.write(len & 0xFF);
+            }
+            byte[] mask = { 1, 2, 3, 4 };
+            out.write(mask);
+            for (int i = 0; i < len; i++) out.write(payload[i] ^ mask[i & 3]);
+            out.flush();
+        }
+
+        byte[] readFrame() throws IOException {
+            int b1 = in.read();
+            int b2 = in.read();
+            if (b1 == -1 || b2 == -1) throw new EOFException();
+            long len = b2 & 0x7F;
+            if (len == 126) {
+                len = (in.read() << 8) | in.read();
+            } else if (len == 127) {
+                len = 0;
+                for (int i = 0; i < 8; i++) len = (len << 8) | (in.read() & 0xFF);
+            }
+            return in.readNBytes((int) len);
+        }
+
+        void pingRoundTrip() throws IOException {
+            sendFrame(0x9, true, false, new byte[] { 'p' });
+            readFrame();
+        }
+
+        @Override
+        public void close() throws Exception {
+            toHandler.close();
+            handlerThread.join(5_000);
+        }
+    }
+
+    /** Unconnected Socket whose streams are in-memory pipes; only what ClientHandler touches is overridden. */
+    private static class InMemorySocket extends Socket {
+        private final InputStream in;
+        private final OutputStream out;
+
+        InMemorySocket(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override public InputStream getInputStream() { return in; }
+        @Override public OutputStream getOutputStream() { return out; }
+        @Override public SocketAddress getRemoteSocketAddress() { return null; }
+
+        @Override
+        public synchronized void close() throws IOException {
+            in.close();
+            out.close();
+            super.close();
+        }
+    }
+}
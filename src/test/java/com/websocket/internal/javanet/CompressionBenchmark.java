@@ -0,0 +1,341 @@
+package com.websocket.internal.javanet;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * permessage-deflate cost/benefit benchmark against an in-process WebSocketApplication.
+ *
+ * Corpora:
+ *  - CHAT_JSON : ChatMessage-shaped JSON (type/from/to/roomId/content) with natural-language content
+ *  - TELEMETRY : JSON metric batches, repetitive keys and numeric values
+ *  - BINARY    : random bytes, incompressible
+ *
+ * For each corpus and compression setting (off, deflate level 1/6/9) we send single-frame and
+ * fragmented messages and report:
+ *  - ratio       : wire payload bytes / raw payload bytes (client -> server)
+ *  - server CPU  : CPU ms spent by server threads per MB of raw payload echoed
+ *  - latency     : send -> echo received and decoded, p50/p99
+ *
+ * Server stdout is muted for the whole run, otherwise per-message logging dominates the CPU numbers.
+ * Run with: -Dmessages=2000 -Dfragments=4
+ */
+public class CompressionBenchmark {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8080;
+    // WebSocketApplication only runs CORE_THREADS connections concurrently
+    private static final int CLIENTS = 4;
+    private static final int MESSAGES_PER_CLIENT = Integer.getInteger("messages", 2000) / CLIENTS;
+    private static final int FRAGMENTS = Integer.getInteger("fragments", 4);
+    private static final int[] LEVELS = { -1, 1, 6, 9 }; // -1 = permessage-deflate off
+    private static final String CLIENT_THREAD_PREFIX = "bench-client-";
+
+    private enum Corpus { CHAT_JSON, TELEMETRY, BINARY }
+
+    private static final PrintStream console = System.out;
+
+    public static void main(String[] args) throws Exception {
+        Thread serverThread = new Thread(() -> {
+            try {
+                WebSocketApplication.main(new String[]{});
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "ws-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(1000);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Warm up the codec paths on both sides before measuring
+        runScenario(Corpus.CHAT_JSON, 6, false, false);
+
+        console.printf("%-10s %-6s %-10s %8s %12s %12s %10s %10s%n",
+              "corpus", "level", "shape", "ratio", "msgs/s", "srvCPU ms/MB", "p50 ms", "p99 ms");
+        for (Corpus corpus : Corpus.values()) {
+            for (int level : LEVELS) {
+                for (boolean fragmented : new boolean[] { false, true }) {
+                    runScenario(corpus, level, fragmented, true);
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void runScenario(Corpus corpus, int level, boolean fragmented, boolean report) throws Exception {
+        if (level >= 0) System.setProperty(ClientHandler.DEFLATE_LEVEL_PROPERTY, Integer.toString(level));
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ExecutorService pool = Executors.newFixedThreadPool(CLIENTS, new ThreadFactory() {
+            private int n = 0;
+            @Override public synchronized Thread newThread(Runnable r) {
+                return new Thread(r, CLIENT_THREAD_PREFIX + (n++));
+            }
+        });
+        List<Future<ClientResult>> futures = new ArrayList<>();
+        Map<Long, Long> cpuBefore = serverCpu(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            futures.add(pool.submit(new ClientTask(i, corpus, level, fragmented)));
+        }
+        ClientResult total = new ClientResult();
+        for (Future<ClientResult> f : futures) total.merge(f.get());
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long serverCpuNanos = cpuDelta(cpuBefore, serverCpu(threads));
+        pool.shutdown();
+        if (!report) return;
+
+        double rawMb = total.rawBytes / (1024.0 * 1024.0);
+        console.printf("%-10s %-6s %-10s %8.3f %12.0f %12.2f %10.3f %10.3f%n",
+              corpus, level < 0 ? "off" : Integer.toString(level), fragmented ? "fragmented" : "single",
+              (double) total.wireBytes / total.rawBytes, total.latencies.size() / elapsed,
+              (serverCpuNanos / 1e6) / rawMb, total.percentile(50), total.percentile(99));
+    }
+
+    // CPU time of every thread except the benchmark clients and main; server handler threads are pooled,
+    // so they survive across the measurement window.
+    private static Map<Long, Long> serverCpu(ThreadMXBean threads) {
+        Map<Long, Long> cpu = new HashMap<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith(CLIENT_THREAD_PREFIX) || t.getName().equals("main")) continue;
+            long c = threads.getThreadCpuTime(t.getId());
+            if (c > 0) cpu.put(t.getId(), c);
+        }
+        return cpu;
+    }
+
+    private static long cpuDelta(Map<Long, Long> before, Map<Long, Long> after) {
+        long delta = 0;
+        for (Map.Entry<Long, Long> e : after.entrySet()) {
+            delta += e.getValue() - before.getOrDefault(e.getKey(), 0L);
+        }
+        return delta;
+    }
+
+    /* ----------------------------- Corpora ----------------------------- */
+
+    private static final String[] WORDS = {
+          "hello", "everyone", "meeting", "starts", "in", "five", "minutes", "please", "join", "the", "room",
+          "deploy", "finished", "thanks", "can", "someone", "review", "my", "pull", "request", "lunch", "today",
+          "yes", "no", "maybe", "later", "sounds", "good", "see", "you", "tomorrow", "build", "is", "green"
+    };
+
+    private static byte[] sample(Corpus corpus, Random rand, int clientId, int i) {
+        switch (corpus) {
+            case CHAT_JSON: {
+                StringBuilder content = new StringBuilder();
+                int words = 5 + rand.nextInt(25);
+                for (int w = 0; w < words; w++) {
+                    if (w > 0) content.append(' ');
+                    content.append(WORDS[rand.nextInt(WORDS.length)]);
+                }
+                String json = "{\"type\":\"CHAT\",\"from\":\"user" + clientId + "\",\"to\":null,\"roomId\":\"room-"
+                      + rand.nextInt(50) + "\",\"content\":\"" + content + "\"}";
+                return json.getBytes(StandardCharsets.UTF_8);
+            }
+            case TELEMETRY: {
+                StringBuilder sb = new StringBuilder("{\"host\":\"node-" + clientId + "\",\"seq\":" + i + ",\"metrics\":[");
+                for (int m = 0; m < 20; m++) {
+                    if (m > 0) sb.append(',');
+                    sb.append("{\"name\":\"cpu.core").append(m).append(".util\",\"ts\":")
+                          .append(1_700_000_000_000L + i * 1000L).append(",\"value\":")
+                          .append(String.format(Locale.ROOT, "%.3f", rand.nextDouble() * 100)).append('}');
+                }
+                return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+            }
+            default: {
+                byte[] b = new byte[4096];
+                rand.nextBytes(b);
+                return b;
+            }
+        }
+    }
+
+    /* ----------------------------- Client ----------------------------- */
+
+    private static class ClientResult {
+        final List<Long> latencies = new ArrayList<>();
+        long rawBytes;
+        long wireBytes;
+
+        void merge(ClientResult other) {
+            latencies.addAll(other.latencies);
+            rawBytes += other.rawBytes;
+            wireBytes += other.wireBytes;
+        }
+
+        double percentile(double pct) {
+            if (latencies.isEmpty()) return 0;
+            Collections.sort(latencies);
+            int idx = (int) Math.ceil((pct / 100.0) * latencies.size()) - 1;
+            return latencies.get(Math.max(0, idx)) / 1e6;
+        }
+    }
+
+    private static class ClientTask implements Callable<ClientResult> {
+        private final int id;
+        private final Corpus corpus;
+        private final int level;
+        private final boolean fragmented;
+
+        ClientTask(int id, Corpus corpus, int level, boolean fragmented) {
+            this.id = id;
+            this.corpus = corpus;
+            this.level = level;
+            this.fragmented = fragmented;
+        }
+
+        @Override
+        public ClientResult call() throws Exception {
+            ClientResult result = new ClientResult();
+            boolean compression = level >= 0;
+            Deflater deflater = compression ? new Deflater(level, true) : null;
+            Inflater inflater = new Inflater(true);
+            Random rand = new Random(id);
+            int opcode = corpus == Corpus.BINARY ? 0x2 : 0x1;
+
+            try (Socket socket = new Socket(HOST, PORT)) {
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                handshake(in, out, compression);
+
+                for (int i = 0; i < MESSAGES_PER_CLIENT; i++) {
+                    byte[] raw = sample(corpus, rand, id, i);
+                    long start = System.nanoTime();
+
+                    byte[] wire = compression ? deflate(deflater, raw) : raw;
+                    if (fragmented) {
+                        int chunk = Math.max(1, (wire.length + FRAGMENTS - 1) / FRAGMENTS);
+                        for (int off = 0; off < wire.length; off += chunk) {
+                            int len = Math.min(chunk, wire.length - off);
+                            boolean first = off == 0;
+                            boolean fin = off + len >= wire.length;
+                            writeFrame(out, first ? opcode : 0x0, fin, first && compression, wire, off, len);
+                        }
+                    } else {
+                        writeFrame(out, opcode, true, compression, wire, 0, wire.length);
+                    }
+                    out.flush();
+
+                    Frame echoed = readFrame(in);
+                    byte[] decoded = echoed.rsv1 ? inflate(inflater, echoed.payload) : echoed.payload;
+                    result.latencies.add(System.nanoTime() - start);
+                    result.rawBytes += raw.length;
+                    result.wireBytes += wire.length;
+                    if (decoded.length != raw.length) {
+                        throw new IOException("Echo length mismatch: " + decoded.length + " != " + raw.length);
+                    }
+                }
+            } finally {
+                if (deflater != null) deflater.end();
+                inflater.end();
+            }
+            return result;
+        }
+
+        private void handshake(InputStream in, OutputStream out, boolean compression) throws IOException {
+            String wsKey = Base64.getEncoder().encodeToString(("bench-key-" + id).getBytes(StandardCharsets.UTF_8));
+            StringBuilder req = new StringBuilder();
+            req.append("GET / HTTP/1.1\r\n")
+                  .append("Host: ").append(HOST).append(":").append(PORT).append("\r\n")
+                  .append("Upgrade: websocket\r\n")
+                  .append("Connection: Upgrade\r\n")
+                  .append("Sec-WebSocket-Key: ").append(wsKey).append("\r\n")
+                  .append("Sec-WebSocket-Version: 13\r\n");
+            if (compression) {
+                req.append("Sec-WebSocket-Extensions: permessage-deflate\r\n");
+            }
+            req.append("\r\n");
+            out.write(req.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            // Read headers byte-wise so no frame bytes are swallowed by a reader buffer
+            int matched = 0;
+            while (matched < 4) {
+                int b = in.read();
+                if (b == -1) throw new EOFException("Handshake aborted");
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+        }
+
+        private static void writeFrame(OutputStream out, int opcode, boolean fin, boolean rsv1,
+              byte[] payload, int off, int len) throws IOException {
+            out.write((fin ? 0x80 : 0x00) | (rsv1 ? 0x40 : 0x00) | opcode);
+            if (len <= 125) {
+                out.write(0x80 | len);
+            } else if (len <= 0xFFFF) {
+                out.write(0x80 | 126);
+                out.write((len >>> 8) & 0xFF);
+                out.write(len & 0xFF);
+            } else {
+                out.write(0x80 | 127);
+                for (int i = 7; i >= 0; i--) out.write((int) (((long) len >>> (8 * i)) & 0xFF));
+            }
+            byte[] mask = { 0x11, 0x22, 0x33, 0x44 };
+            out.write(mask);
+            byte[] masked = new byte[len];
+            for (int i = 0; i < len; i++) masked[i] = (byte) (payload[off + i] ^ mask[i & 3]);
+            out.write(masked);
+        }
+
+        private static Frame readFrame(InputStream in) throws IOException {
+            int b1 = in.read();
+            int b2 = in.read();
+            if (b1 == -1 || b2 == -1) throw new EOFException();
+            long len = b2 & 0x7F;
+            if (len == 126) {
+                len = (in.read() << 8) | in.read();
+            } else if (len == 127) {
+                len = 0;
+                for (int i = 0; i < 8; i++) len = (len << 8) | (in.read() & 0xFF);
+            }
+            Frame f = new Frame();
+            f.rsv1 = (b1 & 0x40) != 0;
+            f.payload = in.readNBytes((int) len);
+            return f;
+        }
+
+        private static byte[] deflate(Deflater def, byte[] data) {
+            def.reset(); // no_context_takeover
+            def.setInput(data);
+            def.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] tmp = new byte[4096];
+            while (!def.finished()) {
+                int r = def.deflate(tmp);
+                baos.write(tmp, 0, r);
+            }
+            return baos.toByteArray();
+        }
+
+        private static byte[] inflate(Inflater inflater, byte[] compressed) throws IOException {
+            inflater.reset();
+            inflater.setInput(compressed);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] tmp = new byte[4096];
+            try {
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    int r = inflater.inflate(tmp);
+                    if (r == 0) break;
+                    baos.write(tmp, 0, r);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("inflate error", e);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    private static class Frame {
+        boolean rsv1;
+        byte[] payload;
+    }
+}
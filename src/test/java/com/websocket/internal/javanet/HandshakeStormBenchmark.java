@@ -0,0 +1,231 @@
+package com.websocket.internal.javanet;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reconnect-storm benchmark: open and upgrade connections as fast as possible against an
+ * in-process WebSocketApplication, over ws:// and wss:// (createSslServerSocket).
+ *
+ * Handshake latency covers TCP connect, TLS (for wss), the upgrade request, and the server's
+ * header parsing, SHA-1 accept computation, executor submission and clients.add, up to the
+ * last byte of the 101 response.
+ *
+ * Failures are split by cause. REJECTED counts 503s written by WebSocketApplication.serve when
+ * the bounded pool throws RejectedExecutionException. The server-side counter is reported too,
+ * because wss rejections are closed without a response.
+ *
+ * Options:
+ *  -Dconnections=2000  total upgrades per mode
+ *  -Dconcurrency=64    connector threads
+ *  -Dhold=false        keep upgraded sockets open (true models a storm of clients that stay connected)
+ *  -Dmodes=PLAIN,TLS
+ */
+public class HandshakeStormBenchmark {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8080;
+    private static final int TLS_PORT = 8443;
+    private static final String KEYSTORE_PASSWORD = "changeit";
+    private static final int CONNECTIONS = Integer.getInteger("connections", 2000);
+    private static final int CONCURRENCY = Integer.getInteger("concurrency", 64);
+    private static final boolean HOLD = Boolean.getBoolean("hold");
+    private static final int SO_TIMEOUT_MS = 10_000;
+
+    private enum Mode { PLAIN, TLS }
+
+    private enum Failure { CONNECT, REJECTED, BAD_STATUS, EOF, TIMEOUT, OTHER }
+
+    private static final PrintStream console = System.out;
+
+    public static void main(String[] args) throws Exception {
+        Path keystore = generateKeystore();
+        startServer(new ServerSocket(PORT, 4096), "ws-server");
+        SSLServerSocket sslServer = WebSocketApplication.createSslServerSocket(TLS_PORT, keystore.toString(), KEYSTORE_PASSWORD);
+        startServer(sslServer, "wss-server");
+        Thread.sleep(500);
+
+        // The handler logs every connection; mute it so the accept path is what we measure
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        SSLContext clientTls = trustAllContext();
+
+        for (String m : System.getProperty("modes", "PLAIN,TLS").split(",")) {
+            Mode mode = Mode.valueOf(m.trim());
+            runStorm(mode, clientTls);
+        }
+        Files.deleteIfExists(keystore);
+        System.exit(0);
+    }
+
+    private static void runStorm(Mode mode, SSLContext clientTls) throws Exception {
+        ExecutorService connectors = Executors.newFixedThreadPool(CONCURRENCY);
+        AtomicInteger remaining = new AtomicInteger(CONNECTIONS);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        Map<Failure, AtomicInteger> failures = new EnumMap<>(Failure.class);
+        for (Failure f : Failure.values()) failures.put(f, new AtomicInteger());
+        ConcurrentLinkedQueue<Socket> held = new ConcurrentLinkedQueue<>();
+        long rejectedBefore = WebSocketApplication.rejectedConnections.get();
+
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < CONCURRENCY; t++) {
+            futures.add(connectors.submit(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    long begin = System.nanoTime();
+                    Socket socket = null;
+                    try {
+                        socket = open(mode, clientTls);
+                        Failure failure = upgrade(socket);
+                        if (failure == null) {
+                            latencies.add(System.nanoTime() - begin);
+                            if (HOLD) {
+                                held.add(socket);
+                                socket = null;
+                            }
+                        } else {
+                            failures.get(failure).incrementAndGet();
+                        }
+                    } catch (ConnectException e) {
+                        failures.get(Failure.CONNECT).incrementAndGet();
+                    } catch (SocketTimeoutException e) {
+                        failures.get(Failure.TIMEOUT).incrementAndGet();
+                    } catch (EOFException | SocketException e) {
+                        failures.get(Failure.EOF).incrementAndGet();
+                    } catch (Exception e) {
+                        failures.get(Failure.OTHER).incrementAndGet();
+                    } finally {
+                        if (socket != null) {
+                            try { socket.close(); } catch (IOException ignored) {}
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        connectors.shutdown();
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        console.printf("%n=== %s storm: connections=%d, concurrency=%d, hold=%s ===%n", mode, CONNECTIONS, CONCURRENCY, HOLD);
+        console.printf("Upgraded=%d in %.2fs -> %.0f handshakes/s%n", sorted.size(), elapsed, sorted.size() / elapsed);
+        console.printf("Latency : p50=%.3f ms, p90=%.3f ms, p99=%.3f ms, p99.9=%.3f ms, max=%.3f ms%n",
+              pick(sorted, 50), pick(sorted, 90), pick(sorted, 99), pick(sorted, 99.9), pick(sorted, 100));
+        console.printf("Failures: %s, server rejected (RejectedExecutionException)=%d%n",
+              failures, WebSocketApplication.rejectedConnections.get() - rejectedBefore);
+
+        for (Socket s : held) {
+            try { s.close(); } catch (IOException ignored) {}
+        }
+        // Let handlers observe EOF and return their pool threads before the next mode
+        Thread.sleep(1000);
+    }
+
+    private static Socket open(Mode mode, SSLContext clientTls) throws IOException {
+        Socket socket;
+        if (mode == Mode.TLS) {
+            SSLSocket ssl = (SSLSocket) clientTls.getSocketFactory().createSocket();
+            ssl.connect(new InetSocketAddress(HOST, TLS_PORT), SO_TIMEOUT_MS);
+            ssl.setSoTimeout(SO_TIMEOUT_MS);
+            ssl.setEnabledProtocols(new String[] { "TLSv1.2", "TLSv1.3" });
+            ssl.startHandshake();
+            socket = ssl;
+        } else {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(HOST, PORT), SO_TIMEOUT_MS);
+            socket.setSoTimeout(SO_TIMEOUT_MS);
+        }
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    // Returns null on 101, otherwise the failure category
+    private static Failure upgrade(Socket socket) throws IOException {
+        byte[] keyBytes = new byte[16];
+        ThreadLocalRandom.current().nextBytes(keyBytes);
+        String req = "GET / HTTP/1.1\r\n"
+              + "Host: " + HOST + "\r\n"
+              + "Upgrade: websocket\r\n"
+              + "Connection: Upgrade\r\n"
+              + "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(keyBytes) + "\r\n"
+              + "Sec-WebSocket-Version: 13\r\n\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(req.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        InputStream in = new BufferedInputStream(socket.getInputStream(), 512);
+        StringBuilder head = new StringBuilder(256);
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) throw new EOFException("Connection closed during upgrade");
+            head.append((char) b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        if (head.indexOf(" 101 ") > 0) return null;
+        return head.indexOf(" 503 ") > 0 ? Failure.REJECTED : Failure.BAD_STATUS;
+    }
+
+    /* ----------------------------- Setup ----------------------------- */
+
+    private static void startServer(ServerSocket serverSocket, String name) {
+        Thread t = new Thread(() -> {
+            try {
+                WebSocketApplication.serve(serverSocket);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Self-signed keystore for the wss:// listener, same keytool invocation as documented in createSslServerSocket
+    private static Path generateKeystore() throws Exception {
+        Path dir = Files.createTempDirectory("wss-bench");
+        Path keystore = dir.resolve("keystore.jks");
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "wss-bench", "-keyalg", "RSA",
+              "-keysize", "2048", "-storetype", "JKS", "-keystore", keystore.toString(), "-validity", "1",
+              "-storepass", KEYSTORE_PASSWORD, "-keypass", KEYSTORE_PASSWORD,
+              "-dname", "CN=localhost, OU=dev, O=me, L=City, S=State, C=US")
+              .redirectErrorStream(true).start();
+        p.getInputStream().transferTo(OutputStream.nullOutputStream());
+        if (p.waitFor() != 0) throw new IllegalStateException("keytool failed");
+        keystore.toFile().deleteOnExit();
+        dir.toFile().deleteOnExit();
+        return keystore;
+    }
+
+    private static SSLContext trustAllContext() throws Exception {
+        TrustManager[] trustAll = new TrustManager[] {
+              new X509TrustManager() {
+                  public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
+                  public void checkClientTrusted(X509Certificate[] certs, String authType) {}
+                  public void checkServerTrusted(X509Certificate[] certs, String authType) {}
+              }
+        };
+        SSLContext sc = SSLContext.getInstance("TLS");
+        sc.init(null, trustAll, new SecureRandom());
+        return sc;
+    }
+
+    private static double pick(List<Long> sorted, double pct) {
+        if (sorted.isEmpty()) return 0;
+        int idx = (int) Math.ceil((pct / 100.0) * sorted.size()) - 1;
+        return sorted.get(Math.min(sorted.size() - 1, Math.max(0, idx))) / 1e6;
+    }
+}
@@ -0,0 +1,61 @@
+package com.websocket.internal.javanet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MaskGeneratorTest {
+
+    private static byte[] referenceMask(byte[] payload, int mask) {
+        byte[] key = { (byte) (mask >>> 24), (byte) (mask >>> 16), (byte) (mask >>> 8), (byte) mask };
+        byte[] out = new byte[payload.length];
+        for (int i = 0; i < payload.length; i++) out[i] = (byte) (payload[i] ^ key[i & 3]);
+        return out;
+    }
+
+    @Test
+    public void testMaskMatchesPerByteReference() {
+        Random r = new Random(42);
+        for (int len : new int[] { 0, 1, 3, 4, 5, 125, 126, 4099 }) {
+            byte[] payload = new byte[len];
+            r.nextBytes(payload);
+            int mask = r.nextInt();
+            byte[] out = new byte[len];
+            MaskGenerator.mask(payload, 0, out, 0, len, mask, 0);
+            assertArrayEquals(referenceMask(payload, mask), out, "len=" + len);
+        }
+    }
+
+    @Test
+    public void testChunkedMaskingCarriesKeyOffset() {
+        Random r = new Random(7);
+        byte[] payload = new byte[1000];
+        r.nextBytes(payload);
+        int mask = r.nextInt();
+
+        // Odd chunk sizes force every key rotation
+        byte[] out = new byte[payload.length];
+        int done = 0;
+        int chunk = 1;
+        while (done < payload.length) {
+            int n = Math.min(chunk, payload.length - done);
+            MaskGenerator.mask(payload, done, out, done, n, mask, done);
+            done += n;
+            chunk += 2;
+        }
+        assertArrayEquals(referenceMask(payload, mask), out);
+    }
+
+    @Test
+    public void testKeysAreNotRepeatedAcrossRefills() {
+        MaskGenerator generator = new MaskGenerator();
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < 5000; i++) seen.add(generator.nextMask());
+        // 5000 draws from 2^32 values: a handful of collisions at most, never a repeating pattern
+        assertTrue(seen.size() > 4990, "unique keys: " + seen.size());
+    }
+}
@@ -0,0 +1,152 @@
+package com.websocket.internal.javanet;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class WebSocketClientDeflateTest {
+
+    private ServerSocket serverSocket;
+
+    @BeforeAll
+    void startServer() throws Exception {
+        serverSocket = new ServerSocket(0);
+        Thread serverThread = new Thread(() -> {
+            try {
+                WebSocketApplication.serve(serverSocket);
+            } catch (IOException ignored) {
+                // socket closed in stopServer()
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @AfterAll
+    void stopServer() throws IOException {
+        serverSocket.close();
+    }
+
+    private static String chatJson(int i) {
+        return "{\"type\":\"chat\",\"room\":\"general\",\"sender\":\"user-" + (i % 7)
+              + "\",\"content\":\"message number " + i + " with the usual chatter\",\"timestamp\":" + (1700000000000L + i) + "}";
+    }
+
+    private static String repeatedJson(int count) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; i++) sb.append(i == 0 ? "" : ",").append(chatJson(i));
+        return sb.append(']').toString();
+    }
+
+    @Test
+    public void testOfferListsRequestedParameters() {
+        assertEquals("permessage-deflate", PerMessageDeflate.offer(new PerMessageDeflate.Options()));
+        assertEquals("permessage-deflate; client_no_context_takeover; server_max_window_bits=10",
+              PerMessageDeflate.offer(new PerMessageDeflate.Options().clientNoContextTakeover(true).serverMaxWindowBits(10)));
+    }
+
+    @Test
+    public void testAcceptHonoursServerResponse() throws IOException {
+        PerMessageDeflate.Options options = new PerMessageDeflate.Options();
+        assertNull(PerMessageDeflate.accept(null, options));
+        assertNull(PerMessageDeflate.accept("x-webkit-deflate-frame", options));
+
+        PerMessageDeflate pmd = PerMessageDeflate.accept(
+              "permessage-deflate; client_no_context_takeover; server_no_context_takeover; server_max_window_bits=12", options);
+        assertNotNull(pmd);
+        assertTrue(pmd.clientNoContextTakeover);
+        assertTrue(pmd.serverNoContextTakeover);
+
+        assertThrows(IOException.class, () -> PerMessageDeflate.accept("permessage-deflate; client_max_window_bits=9", options));
+        assertThrows(IOException.class, () -> PerMessageDeflate.accept("permessage-deflate; server_max_window_bits=20", options));
+        assertThrows(IOException.class, () -> PerMessageDeflate.accept("permessage-deflate; bogus", options));
+    }
+
+    @Test
+    public void testContextTakeoverShrinksRepeatedMessages() throws Exception {
+        PerMessageDeflate.Options options = new PerMessageDeflate.Options();
+        PerMessageDeflate sender = PerMessageDeflate.accept("permessage-deflate", options);
+        PerMessageDeflate receiver = PerMessageDeflate.accept("permessage-deflate", options);
+        PerMessageDeflate resetting = PerMessageDeflate.accept("permessage-deflate; client_no_context_takeover", options);
+
+        int withContext = 0;
+        int withoutContext = 0;
+        for (int i = 0; i < 50; i++) {
+            byte[] raw = chatJson(i).getBytes(StandardCharsets.UTF_8);
+            sender.compress(raw, 0, raw.length);
+            withContext += sender.compressedLength();
+            byte[] wire = Arrays.copyOf(sender.compressedBuffer(), sender.compressedLength());
+            assertArrayEquals(raw, receiver.decompress(wire), "message " + i);
+
+            resetting.compress(raw, 0, raw.length);
+            withoutContext += resetting.compressedLength();
+        }
+        assertTrue(withContext < withoutContext / 2,
+              "context takeover should at least halve the bytes: " + withContext + " vs " + withoutContext);
+    }
+
+    @Test
+    public void testCompressedEchoAgainstServer() throws Exception {
+        WebSocketClient client = new WebSocketClient("localhost", serverSocket.getLocalPort(), "/");
+        client.enablePerMessageDeflate(new PerMessageDeflate.Options().threshold(64));
+        BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        client.setMessageHandler((opcode, data) -> received.add(data));
+        client.connect();
+        client.listen();
+        assertTrue(client.isPerMessageDeflateActive());
+
+        // Below threshold (sent plain), above threshold, fragmented and batched
+        String small = "hi";
+        String large = repeatedJson(40);
+        client.sendText(small);
+        client.sendText(large);
+        client.sendFragmentedText(large, 100);
+        client.sendTextBatch(List.of(chatJson(1), chatJson(2), chatJson(3)));
+
+        for (String expected : List.of(small, large, large, chatJson(1), chatJson(2), chatJson(3))) {
+            byte[] echo = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(echo, "missing echo");
+            assertEquals(expected, new String(echo, StandardCharsets.UTF_8));
+        }
+        client.sendClose(1000, "done");
+
+        // The codec is released with the connection, and a reconnect negotiates a new one
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.isPerMessageDeflateActive()) {
+            assertTrue(System.nanoTime() < deadline, "codec still held after the close");
+            Thread.sleep(10);
+        }
+        client.connect();
+        client.listen();
+        assertTrue(client.isPerMessageDeflateActive());
+        client.sendText(large);
+        assertEquals(large, new String(received.poll(5, TimeUnit.SECONDS), StandardCharsets.UTF_8));
+        client.sendClose(1000, "done");
+    }
+
+    @Test
+    public void testServerDeclineLeavesCompressionOff() throws Exception {
+        // The server only answers with permessage-deflate when it is offered
+        WebSocketClient client = new WebSocketClient("localhost", serverSocket.getLocalPort(), "/");
+        BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        client.setMessageHandler((opcode, data) -> received.add(data));
+        client.connect();
+        client.listen();
+        assertFalse(client.isPerMessageDeflateActive());
+
+        String large = repeatedJson(10);
+        client.sendText(large);
+        assertEquals(large, new String(received.poll(5, TimeUnit.SECONDS), StandardCharsets.UTF_8));
+        client.sendClose(1000, "done");
+    }
+}
@@ -408,6 +408,28 @@ public class WebSocketServerTest {
         socket.close();
     }
 
+    @Test
+    @Order(14)
+    public void testFragmentedCompressedTextFrame() throws Exception {
+        System.out.println("=== TEST: FRAGMENTED COMPRESSED TEXT FRAME ===");
+        Socket socket = doHandshake("/", Map.of("sec-websocket-extensions","permessage-deflate"));
+        OutputStream out = socket.getOutputStream();
+
+        String message = "Hello fragmented compressed world! ".repeat(20);
+        byte[] compressed = deflatePerMessage(message.getBytes(StandardCharsets.UTF_8));
+        int mid = compressed.length / 2;
+
+        // RSV1 only on the first fragment; the DEFLATE stream spans the whole message
+        sendFrame(out, 0x1, false, Arrays.copyOfRange(compressed, 0, mid), true, true);
+        sendFrame(out, 0x0, true, Arrays.copyOfRange(compressed, mid, compressed.length), true, false);
+
+        byte[] echoed = readFrame(socket.getInputStream());
+        assertNotNull(echoed, "Echoed message should not be null");
+        assertEquals(message, new String(inflatePerMessage(echoed), StandardCharsets.UTF_8),
+              "Server should inflate the reassembled message");
+        socket.close();
+    }
+
     // ===================== NEGATIVE TESTS =====================
     @Test @Order(8)
     void testUnmaskedFrame() throws Exception {
@@ -525,4 +547,39 @@ public class WebSocketServerTest {
         assertTrue(close.reason.contains("Unexpected continuation"), "Expected 1002 for unexpected CONTINUATION");
         socket.close();
     }
+
+    @Test @Order(15)
+    void testCompressedFrameInflatingPastTheLimitIsRejected() throws Exception {
+        System.out.println("=== TEST: DEFLATE BOMB ===");
+        Socket socket = doHandshake("/", Map.of("sec-websocket-extensions","permessage-deflate"));
+        OutputStream out = socket.getOutputStream();
+
+        // ~17 KB on the wire, 17 MB once inflated
+        byte[] bomb = deflatePerMessage(new byte[17 * 1024 * 1024]);
+        sendFrame(out, 0x2, true, bomb, true, true);
+
+        CloseFrame close = readCloseFrame(socket);
+        System.out.println("[ASSERT] code=" + close.code + ", reason=" + close.reason);
+
+        assertEquals(1009, close.code, "Inflated size over the message limit must trigger 1009");
+        socket.close();
+    }
+
+    @Test @Order(16)
+    void testFragmentedCompressedMessageInflatingPastTheLimitIsRejected() throws Exception {
+        System.out.println("=== TEST: FRAGMENTED DEFLATE BOMB ===");
+        Socket socket = doHandshake("/", Map.of("sec-websocket-extensions","permessage-deflate"));
+        OutputStream out = socket.getOutputStream();
+
+        byte[] bomb = deflatePerMessage(new byte[17 * 1024 * 1024]);
+        int mid = bomb.length / 2;
+        sendFrame(out, 0x2, false, Arrays.copyOfRange(bomb, 0, mid), true, true);
+        sendFrame(out, 0x0, true, Arrays.copyOfRange(bomb, mid, bomb.length), true, false);
+
+        CloseFrame close = readCloseFrame(socket);
+        System.out.println("[ASSERT] code=" + close.code + ", reason=" + close.reason);
+
+        assertEquals(1009, close.code, "Inflated size over the message limit must trigger 1009");
+        socket.close();
+    }
 }
@@ -0,0 +1,254 @@
+package com.websocket.internal.jetty;
+
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.transport.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.websocket.api.Callback;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.InputStream;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ChatWebSocketTest {
+
+    private Server server;
+    private URI uri;
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    @BeforeAll
+    void startServer() throws Exception {
+        server = WebSocketServer.createServer(0);
+        server.start();
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        uri = URI.create("ws://localhost:" + port + "/chat");
+    }
+
+    @AfterAll
+    void stopServer() throws Exception {
+        server.stop();
+    }
+
+    private static class Collector implements WebSocket.Listener {
+        final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        final CompletableFuture<Integer> closeCode = new CompletableFuture<>();
+        private final StringBuilder partial = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closeCode.complete(statusCode);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                messages.add(partial.toString());
+                partial.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+    }
+
+    @Test
+    public void testMessageIsFannedOutToEveryPeer() throws Exception {
+        List<Collector> collectors = new ArrayList<>();
+        List<WebSocket> sockets = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Collector c = new Collector();
+            sockets.add(http.newWebSocketBuilder().buildAsync(uri, c).get(5, TimeUnit.SECONDS));
+            collectors.add(c);
+            assertTrue(c.messages.poll(5, TimeUnit.SECONDS).startsWith("Welcome "));
+        }
+
+        awaitAllPeersReachable(sockets.get(0), collectors);
+
+        for (int i = 0; i < 20; i++) {
+            sockets.get(0).sendText("hello-" + i, true).get(5, TimeUnit.SECONDS);
+        }
+        for (Collector c : collectors) {
+            for (int i = 0; i < 20; i++) {
+                String msg = c.messages.poll(5, TimeUnit.SECONDS);
+                assertNotNull(msg, "peer missed message " + i);
+                assertTrue(msg.matches("Client \\S+: hello-" + i), msg);
+            }
+        }
+        assertEquals(0, ChatWebSocket.failedDeliveries());
+
+        for (WebSocket ws : sockets) ws.sendClose(WebSocket.NORMAL_CLOSURE, "done").get(5, TimeUnit.SECONDS);
+    }
+
+    // Jetty adds a session to getOpenSessions() only after onOpen returns, so a peer can miss
+    // broadcasts sent right after its welcome message arrives
+    private static void awaitAllPeersReachable(WebSocket sender, List<Collector> collectors) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        boolean reachable = false;
+        while (!reachable && System.nanoTime() < deadline) {
+            sender.sendText("sync", true).get(5, TimeUnit.SECONDS);
+            Thread.sleep(50);
+            reachable = collectors.stream().allMatch(c -> c.messages.stream().anyMatch(m -> m.endsWith(": sync")));
+        }
+        assertTrue(reachable, "not every peer joined the broadcast set");
+        Thread.sleep(100);
+        collectors.forEach(c -> c.messages.clear());
+    }
+
+    @Test
+    public void testConfigFromPropertiesOverridesDefaults() {
+        Properties props = new Properties();
+        props.setProperty("jetty.ws.maxThreads", "64");
+        props.setProperty("jetty.ws.selectors", "2");
+        props.setProperty("jetty.ws.virtualThreads", "true");
+        JettyServerConfig config = JettyServerConfig.fromProperties(props);
+        assertEquals(64, config.maxThreads);
+        assertEquals(2, config.selectors);
+        assertTrue(config.virtualThreads);
+        assertEquals(-1, config.acceptors);
+        assertThrows(IllegalArgumentException.class, () -> JettyServerConfig.builder().minThreads(10).maxThreads(5).build());
+    }
+
+    @Test
+    public void testConfiguredLimitsAreApplied() throws Exception {
+        Server limited = WebSocketServer.createServer(JettyServerConfig.builder()
+              .port(0).maxThreads(16).minThreads(4).selectors(1).acceptors(1)
+              .inputBufferSize(8192).outputBufferSize(8192).maxTextMessageSize(1024).build());
+        limited.start();
+        try {
+            int port = ((ServerConnector) limited.getConnectors()[0]).getLocalPort();
+            Collector c = new Collector();
+            WebSocket ws = http.newWebSocketBuilder().buildAsync(URI.create("ws://localhost:" + port + "/chat"), c).get(5, TimeUnit.SECONDS);
+            assertTrue(c.messages.poll(5, TimeUnit.SECONDS).startsWith("Welcome "));
+
+            ws.sendText("small", true);
+            assertTrue(c.messages.poll(5, TimeUnit.SECONDS).endsWith(": small"));
+
+            ws.sendText("x".repeat(4096), true);
+            assertEquals(1009, c.closeCode.get(5, TimeUnit.SECONDS), "message over maxTextMessageSize must close with 1009");
+        } finally {
+            limited.stop();
+        }
+    }
+
+    @Test
+    public void testServesWssWithAKeyStore(@TempDir Path dir) throws Exception {
+        Path keyStore = generateKeyStore(dir);
+        Server tls = WebSocketServer.createServer(JettyServerConfig.builder().port(0).keyStore(keyStore.toString(), "changeit").build());
+        tls.start();
+        try {
+            int port = ((ServerConnector) tls.getConnectors()[0]).getLocalPort();
+            HttpClient https = HttpClient.newBuilder().sslContext(trusting(keyStore)).build();
+            Collector c = new Collector();
+            WebSocket ws = https.newWebSocketBuilder().buildAsync(URI.create("wss://localhost:" + port + "/chat"), c).get(5, TimeUnit.SECONDS);
+            assertTrue(c.messages.poll(5, TimeUnit.SECONDS).startsWith("Welcome "));
+            ws.sendText("secure", true);
+            assertTrue(c.messages.poll(5, TimeUnit.SECONDS).endsWith(": secure"));
+            ws.sendClose(WebSocket.NORMAL_CLOSURE, "done").get(5, TimeUnit.SECONDS);
+        } finally {
+            tls.stop();
+        }
+    }
+
+    @Test
+    public void testWebSocketsOverH2cShareOneConnection() throws Exception {
+        Server h2c = WebSocketServer.createServer(JettyServerConfig.builder().port(0).http2(true).build());
+        h2c.start();
+        org.eclipse.jetty.websocket.client.WebSocketClient client = h2cWebSocketClient();
+        try {
+            ServerConnector connector = (ServerConnector) h2c.getConnectors()[0];
+            assertEquals(List.of("http/1.1", "h2c"), connector.getProtocols());
+            URI chat = URI.create("ws://localhost:" + connector.getLocalPort() + "/chat");
+
+            // Two tabs: RFC 8441 CONNECT streams on the same HTTP/2 connection
+            H2cCollector a = new H2cCollector();
+            H2cCollector b = new H2cCollector();
+            Session sa = client.connect(a, chat).get(5, TimeUnit.SECONDS);
+            Session sb = client.connect(b, chat).get(5, TimeUnit.SECONDS);
+            // 200 to a CONNECT, where an HTTP/1.1 upgrade gets 101
+            assertEquals(200, sa.getUpgradeResponse().getStatusCode());
+            assertTrue(a.messages.poll(5, TimeUnit.SECONDS).startsWith("Welcome "));
+            assertTrue(b.messages.poll(5, TimeUnit.SECONDS).startsWith("Welcome "));
+            assertEquals(1, connector.getConnectedEndPoints().size());
+
+            sa.sendText("over h2c", Callback.NOOP);
+            assertTrue(a.messages.poll(5, TimeUnit.SECONDS).endsWith(": over h2c"));
+            // b's welcome can arrive before Jetty lists b in getOpenSessions(); send again until it is
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            boolean reached = false;
+            while (!reached && System.nanoTime() < deadline) {
+                String atB = b.messages.poll(100, TimeUnit.MILLISECONDS);
+                if (atB == null) sa.sendText("over h2c", Callback.NOOP);
+                reached = atB != null && atB.endsWith(": over h2c");
+            }
+            assertTrue(reached, "message did not reach the other stream");
+
+            sa.close();
+            sb.close();
+        } finally {
+            client.stop();
+            h2c.stop();
+        }
+    }
+
+    /** Jetty's WebSocket client on an HTTP/2 prior-knowledge transport, so upgrades go out as extended CONNECT. */
+    public static org.eclipse.jetty.websocket.client.WebSocketClient h2cWebSocketClient() throws Exception {
+        org.eclipse.jetty.client.HttpClient transport = new org.eclipse.jetty.client.HttpClient(
+              new HttpClientTransportOverHTTP2(new HTTP2Client()));
+        org.eclipse.jetty.websocket.client.WebSocketClient client = new org.eclipse.jetty.websocket.client.WebSocketClient(transport);
+        client.start();
+        return client;
+    }
+
+    public static class H2cCollector implements Session.Listener.AutoDemanding {
+        public final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onWebSocketText(String message) {
+            messages.add(message);
+        }
+    }
+
+    /** A self-signed certificate for localhost, password changeit. */
+    static Path generateKeyStore(Path dir) throws Exception {
+        Path keyStore = dir.resolve("keystore.p12");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+              "-genkeypair", "-keystore", keyStore.toString(), "-storetype", "PKCS12", "-storepass", "changeit",
+              "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1", "-validity", "1",
+              "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1")
+              .redirectErrorStream(true).start();
+        String output = new String(keytool.getInputStream().readAllBytes());
+        assertEquals(0, keytool.waitFor(), output);
+        return keyStore;
+    }
+
+    /** Trusts the certificate in the key store. */
+    static SSLContext trusting(Path keyStore) throws Exception {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            store.load(in, "changeit".toCharArray());
+        }
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+}
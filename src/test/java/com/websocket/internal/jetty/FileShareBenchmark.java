@@ -0,0 +1,153 @@
+package com.websocket.internal.jetty;
+
+import jakarta.websocket.OnMessage;
+import jakarta.websocket.OnOpen;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.ServerEndpoint;
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.websocket.jakarta.server.JakartaWebSocketServerContainer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Large transfers through the /files relay, against a relay that takes whole messages.
+ *
+ *  - streamed:  FileShareWebSocket, partial messages passed on frame by frame
+ *  - buffered:  the same relay with a plain @OnMessage(ByteBuffer) handler, i.e. Jetty assembles
+ *               each message before the endpoint sees it (max message size raised to fit)
+ *
+ * One sender uploads a message of each size in 1 MB fragments to `receivers` clients, which
+ * checksum what they get without keeping it. Everything runs in this JVM, so the heap numbers
+ * cover both ends; the clients' share is small and the same in both variants.
+ * Reported per size and variant:
+ *  - MB/s       : message bytes delivered to one receiver per second, upload start to last byte
+ *  - peak heap  : highest heap used during the transfer (sampled every 5 ms), over the heap used
+ *                 after a GC before it
+ *
+ * Run with: -Dsizes=10,50,100 -Dreceivers=2 -Xmx1g (the buffered 100 MB case needs several
+ * copies of the message at once; with a smaller heap it fails, which is the point)
+ */
+public class FileShareBenchmark {
+
+    private static final String SIZES = System.getProperty("sizes", "10,50,100");
+    private static final int RECEIVERS = Integer.getInteger("receivers", 2);
+    private static final int FRAGMENT = 1024 * 1024;
+
+    private static final PrintStream console = System.out;
+    private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    /** The relay as it would be written without partial messages. */
+    @ServerEndpoint("/buffered")
+    public static class BufferedRelay {
+        @OnOpen
+        public void onOpen(Session session) {
+            session.setMaxBinaryMessageBufferSize(Integer.MAX_VALUE);
+        }
+
+        @OnMessage
+        public void onBinary(ByteBuffer message, Session session) throws IOException {
+            for (Session peer : session.getOpenSessions()) {
+                if (peer != session && peer.isOpen() && peer.getRequestURI().getPath().equals("/buffered")) {
+                    peer.getBasicRemote().sendBinary(message.duplicate());
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = WebSocketServer.createServer(JettyServerConfig.builder().port(0).maxStreamedMessageSize(-1).build());
+        server.start();
+        JakartaWebSocketServerContainer.getContainer(((ServletContextHandler) server.getHandler()).getServletContext())
+              .addEndpoint(BufferedRelay.class);
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        HttpClient http = HttpClient.newHttpClient();
+
+        console.printf("%d receivers, max heap %d MB%n", RECEIVERS, Runtime.getRuntime().maxMemory() >> 20);
+        console.printf("%-10s %-10s %10s %14s%n", "size", "variant", "MB/s", "peak heap MB");
+        // First round warms up, not reported
+        run(http, port, "files", 10, false);
+        for (String s : SIZES.split(",")) {
+            int megabytes = Integer.parseInt(s.trim());
+            for (String variant : new String[] { "files", "buffered" }) {
+                run(http, port, variant, megabytes, true);
+            }
+        }
+        server.stop();
+        System.exit(0);
+    }
+
+    private static void run(HttpClient http, int port, String path, int megabytes, boolean report) throws Exception {
+        URI uri = URI.create("ws://localhost:" + port + "/" + path);
+        long size = (long) megabytes * 1024 * 1024;
+        List<FileShareWebSocketTest.Receiver> receivers = new ArrayList<>();
+        List<WebSocket> sockets = new ArrayList<>();
+        for (int i = 0; i < RECEIVERS; i++) {
+            FileShareWebSocketTest.Receiver r = new FileShareWebSocketTest.Receiver();
+            sockets.add(http.newWebSocketBuilder().buildAsync(uri, r).get(5, TimeUnit.SECONDS));
+            receivers.add(r);
+        }
+        FileShareWebSocketTest.Receiver self = new FileShareWebSocketTest.Receiver();
+        WebSocket sender = http.newWebSocketBuilder().buildAsync(uri, self).get(5, TimeUnit.SECONDS);
+        sockets.add(sender);
+        Thread.sleep(200); // Jetty lists a session as open only after its onOpen returned
+
+        System.gc();
+        long baseline = memory.getHeapMemoryUsage().getUsed();
+        AtomicLong peak = new AtomicLong(baseline);
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.setDaemon(true);
+        sampler.start();
+
+        String result;
+        long start = System.nanoTime();
+        try {
+            byte[] fragment = new byte[FRAGMENT];
+            for (long sent = 0; sent < size; sent += FRAGMENT) {
+                sender.sendBinary(ByteBuffer.wrap(fragment), sent + FRAGMENT >= size).get(60, TimeUnit.SECONDS);
+            }
+            for (FileShareWebSocketTest.Receiver r : receivers) {
+                Long received = r.binarySizes.poll(120, TimeUnit.SECONDS);
+                if (received == null || received != size) throw new IllegalStateException("receiver got " + received + " bytes");
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            result = String.format("%10.0f %14d", megabytes / seconds, (peak.get() - baseline) >> 20);
+        } catch (Exception | OutOfMemoryError e) {
+            result = "failed: " + e;
+        } finally {
+            sampler.interrupt();
+            for (WebSocket ws : sockets) {
+                try {
+                    ws.sendClose(WebSocket.NORMAL_CLOSURE, "done").get(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    ws.abort();
+                }
+            }
+        }
+        if (report) console.printf("%-10s %-10s %s%n", megabytes + " MB", path.equals("files") ? "streamed" : "buffered", result);
+        Thread.sleep(200);
+    }
+}
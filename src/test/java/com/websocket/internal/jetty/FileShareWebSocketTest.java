@@ -0,0 +1,175 @@
+package com.websocket.internal.jetty;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class FileShareWebSocketTest {
+
+    private static final int LIMIT = 4 * 1024 * 1024;
+
+    private Server server;
+    private URI uri;
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    @BeforeAll
+    void startServer() throws Exception {
+        server = WebSocketServer.createServer(JettyServerConfig.builder().port(0).maxStreamedMessageSize(LIMIT).build());
+        server.start();
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        uri = URI.create("ws://localhost:" + port + "/files");
+    }
+
+    @AfterAll
+    void stopServer() throws Exception {
+        server.stop();
+    }
+
+    /** Checksums binary messages as they stream in, never holding one whole. */
+    static class Receiver implements WebSocket.Listener {
+        final BlockingQueue<Long> binarySizes = new LinkedBlockingQueue<>();
+        final BlockingQueue<Long> binaryChecksums = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> texts = new LinkedBlockingQueue<>();
+        final CompletableFuture<Integer> closeCode = new CompletableFuture<>();
+        volatile int maxChunk;
+        int chunks;
+        private final CRC32 crc = new CRC32();
+        private long size;
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            maxChunk = Math.max(maxChunk, data.remaining());
+            chunks++;
+            size += data.remaining();
+            crc.update(data);
+            if (last) {
+                binarySizes.add(size);
+                binaryChecksums.add(crc.getValue());
+                size = 0;
+                crc.reset();
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                texts.add(text.toString());
+                text.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closeCode.complete(statusCode);
+            return null;
+        }
+    }
+
+    private WebSocket connect(Receiver receiver) throws Exception {
+        return http.newWebSocketBuilder().buildAsync(uri, receiver).get(5, TimeUnit.SECONDS);
+    }
+
+    // Jetty adds a session to getOpenSessions() only after onOpen returns
+    private static void awaitReachable(WebSocket sender, List<Receiver> receivers) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            sender.sendText("sync", true).get(5, TimeUnit.SECONDS);
+            Thread.sleep(50);
+            if (receivers.stream().allMatch(r -> r.texts.contains("sync"))) break;
+            assertTrue(System.nanoTime() < deadline, "not every receiver joined");
+        }
+        Thread.sleep(100);
+        receivers.forEach(r -> r.texts.clear());
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    @Test
+    public void testLargeMessagesAreRelayedInFrames() throws Exception {
+        Receiver a = new Receiver(), b = new Receiver(), self = new Receiver();
+        WebSocket wa = connect(a), wb = connect(b), sender = connect(self);
+        awaitReachable(sender, List.of(a, b));
+
+        // Sent in 256 KB fragments; the relay passes each on as it arrives
+        byte[] file = randomBytes(3 * 1024 * 1024);
+        int fragment = 256 * 1024;
+        for (int off = 0; off < file.length; off += fragment) {
+            int len = Math.min(fragment, file.length - off);
+            sender.sendBinary(ByteBuffer.wrap(file, off, len), off + len == file.length).get(5, TimeUnit.SECONDS);
+        }
+        for (Receiver r : List.of(a, b)) {
+            assertEquals(file.length, r.binarySizes.poll(10, TimeUnit.SECONDS));
+            assertEquals(crc(file, file.length), r.binaryChecksums.poll(1, TimeUnit.SECONDS));
+            assertTrue(r.chunks > 1, "delivered in one piece");
+            assertTrue(r.maxChunk <= 64 * 1024, "chunk of " + r.maxChunk + " bytes");
+        }
+        assertNull(self.binarySizes.poll(100, TimeUnit.MILLISECONDS), "not echoed to the sender");
+
+        // Text is streamed the same way
+        sender.sendText("part one, ", false).get(5, TimeUnit.SECONDS);
+        sender.sendText("part two", true).get(5, TimeUnit.SECONDS);
+        assertEquals("part one, part two", a.texts.poll(5, TimeUnit.SECONDS));
+        assertEquals("part one, part two", b.texts.poll(5, TimeUnit.SECONDS));
+
+        for (WebSocket ws : List.of(wa, wb, sender)) ws.sendClose(WebSocket.NORMAL_CLOSURE, "done").get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testMessageOverTheLimitIsCutOff() throws Exception {
+        Receiver receiver = new Receiver(), self = new Receiver();
+        WebSocket wr = connect(receiver), sender = connect(self);
+        awaitReachable(sender, List.of(receiver));
+        long aborted = FileShareWebSocket.abortedMessages.get();
+
+        byte[] chunk = randomBytes(512 * 1024);
+        try {
+            for (int i = 0; i < 2 * LIMIT / chunk.length; i++) sender.sendBinary(ByteBuffer.wrap(chunk), false).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException expected) {
+            // the server closed the connection under the remaining fragments
+        }
+        assertEquals(1009, self.closeCode.get(5, TimeUnit.SECONDS));
+
+        long cutAt = receiver.binarySizes.poll(5, TimeUnit.SECONDS);
+        assertTrue(cutAt <= LIMIT, "relayed " + cutAt + " bytes");
+        assertTrue(receiver.texts.poll(5, TimeUnit.SECONDS).matches("Transfer from client \\S+ aborted"));
+        assertEquals(aborted + 1, FileShareWebSocket.abortedMessages.get());
+
+        // The receiver is free for the next message
+        Receiver nextSelf = new Receiver();
+        WebSocket next = connect(nextSelf);
+        awaitReachable(next, List.of(receiver));
+        next.sendBinary(ByteBuffer.wrap(chunk), true).get(5, TimeUnit.SECONDS);
+        assertEquals(chunk.length, receiver.binarySizes.poll(5, TimeUnit.SECONDS));
+
+        wr.sendClose(WebSocket.NORMAL_CLOSURE, "done").get(5, TimeUnit.SECONDS);
+        next.sendClose(WebSocket.NORMAL_CLOSURE, "done").get(5, TimeUnit.SECONDS);
+    }
+}
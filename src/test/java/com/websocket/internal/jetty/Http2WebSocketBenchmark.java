@@ -0,0 +1,160 @@
+package com.websocket.internal.jetty;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.transport.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.http2.WindowRateControl;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.transport.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.io.ClientConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+import javax.net.ssl.SSLContext;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many tabs, one origin: WebSockets over HTTP/1.1 upgrades against WebSockets as HTTP/2 streams
+ * (RFC 8441 extended CONNECT), on loopback against WebSocketServer's /chat.
+ *
+ * Each variant starts a fresh server and opens `tabs` WebSockets one after the other, the way a
+ * restored browser session does, and waits for every tab's welcome message. Reported:
+ *  - connections : TCP connections the server holds for the tabs
+ *  - p50/p99 ms  : handshake time of one tab, connect() to the 101 / 200 response; over HTTP/1.1 it
+ *                  includes the TCP connect (and the TLS handshake)
+ *  - total ms    : all tabs open
+ *  - heap KB/tab : heap growth after a GC with all tabs open, server and clients together
+ *
+ * Variants: ws (HTTP/1.1), h2c, and with -Dtls=true also wss and h2 over TLS (ALPN), on a
+ * self-signed certificate. Every variant uses Jetty's WebSocket client, on an HTTP/1.1 or an HTTP/2
+ * transport; the HTTP/2 one opens another connection when one is at the server's
+ * SETTINGS_MAX_CONCURRENT_STREAMS, as a browser would.
+ *
+ * Run with: -Dtabs=500 -DmaxStreams=1000 -Dtls=false
+ */
+public class Http2WebSocketBenchmark {
+
+    private static final int TABS = Integer.getInteger("tabs", 500);
+    private static final int MAX_STREAMS = Integer.getInteger("maxStreams", 1000);
+    private static final boolean TLS = Boolean.getBoolean("tls");
+
+    private static final PrintStream console = System.out;
+
+    public static void main(String[] args) throws Exception {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Path dir = Files.createTempDirectory("h2-bench");
+        Path keyStore = TLS ? ChatWebSocketTest.generateKeyStore(dir) : null;
+        SSLContext ssl = TLS ? ChatWebSocketTest.trusting(keyStore) : null;
+
+        console.printf("%d tabs%n", TABS);
+        console.printf("%-6s %12s %9s %9s %9s %12s%n", "", "connections", "p50 ms", "p99 ms", "total ms", "heap KB/tab");
+        List<String> variants = new ArrayList<>(List.of("ws", "h2c"));
+        if (TLS) variants.addAll(List.of("wss", "h2"));
+        run("ws", false, null, null, false); // warm-up, not reported
+        run("h2c", true, null, null, false);
+        for (String variant : variants) {
+            boolean tls = variant.equals("wss") || variant.equals("h2");
+            boolean h2 = variant.startsWith("h2");
+            run(variant, h2, tls ? keyStore : null, tls ? ssl : null, true);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, boolean h2, Path keyStore, SSLContext ssl, boolean report) throws Exception {
+        JettyServerConfig.Builder config = JettyServerConfig.builder().port(0).http2(h2).http2MaxConcurrentStreams(MAX_STREAMS);
+        if (keyStore != null) config.keyStore(keyStore.toString(), "changeit");
+        Server server = WebSocketServer.createServer(config.build());
+        ServerConnector connector = (ServerConnector) server.getConnectors()[0];
+        // Jetty's HTTP/2 client resets a stream for each WebSocket it opens; the server's rapid reset
+        // guard (128 a second) would otherwise close the connection while the tabs open back to back
+        AbstractHTTP2ServerConnectionFactory http2 = connector.getConnectionFactory(AbstractHTTP2ServerConnectionFactory.class);
+        if (http2 != null) http2.setRateControlFactory(new WindowRateControl.Factory(TABS * 4));
+        server.start();
+        URI chat = URI.create((ssl != null ? "wss" : "ws") + "://localhost:" + connector.getLocalPort() + "/chat");
+
+        WebSocketClient client = webSocketClient(h2, ssl);
+        long heapBefore = usedHeapAfterGc();
+        long[] handshakeNanos = new long[TABS];
+        CountDownLatch welcomes = new CountDownLatch(TABS);
+        List<Session> open = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int tab = 0; tab < TABS; tab++) {
+                long t0 = System.nanoTime();
+                open.add(client.connect(new Tab(welcomes), chat).get(10, TimeUnit.SECONDS));
+                handshakeNanos[tab] = System.nanoTime() - t0;
+            }
+            if (!welcomes.await(30, TimeUnit.SECONDS)) throw new IllegalStateException(welcomes.getCount() + " tabs got no welcome");
+            long totalMs = (System.nanoTime() - start) / 1_000_000;
+            long heapPerTab = (usedHeapAfterGc() - heapBefore) / TABS / 1024;
+            int connections = connector.getConnectedEndPoints().size();
+            Arrays.sort(handshakeNanos);
+            if (report) {
+                console.printf("%-6s %12d %9.2f %9.2f %9d %12d%n", name, connections, handshakeNanos[TABS / 2] / 1e6,
+                      handshakeNanos[(int) (TABS * 0.99)] / 1e6, totalMs, heapPerTab);
+            }
+        } finally {
+            for (Session s : open) s.close();
+            client.stop();
+            server.stop();
+        }
+    }
+
+    /** Jetty's WebSocket client on HTTP/1.1 (one connection per WebSocket) or HTTP/2 (streams) transport. */
+    private static WebSocketClient webSocketClient(boolean h2, SSLContext ssl) throws Exception {
+        ClientConnector clientConnector = new ClientConnector();
+        if (ssl != null) {
+            SslContextFactory.Client tls = new SslContextFactory.Client();
+            tls.setSslContext(ssl);
+            clientConnector.setSslContextFactory(tls);
+        }
+        HttpClient http = new HttpClient(h2
+              ? new HttpClientTransportOverHTTP2(new HTTP2Client(clientConnector))
+              : new HttpClientTransportOverHTTP(clientConnector));
+        // Every tab stays open; the HTTP/1.1 transport needs a connection for each of them
+        http.setMaxConnectionsPerDestination(TABS + 1);
+        WebSocketClient client = new WebSocketClient(http);
+        client.start();
+        return client;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /** Counts the tab's welcome message. */
+    public static final class Tab implements Session.Listener.AutoDemanding {
+
+        private final CountDownLatch welcomes;
+        private boolean welcomed;
+
+        Tab(CountDownLatch welcomes) {
+            this.welcomes = welcomes;
+        }
+
+        @Override
+        public void onWebSocketText(String message) {
+            if (!welcomed) {
+                welcomed = true;
+                welcomes.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.websocket.internal.jetty;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.VirtualThreads;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmark matrix over the JettyServerConfig knobs, against the /chat broadcast endpoint.
+ *
+ * Every cell starts a fresh in-process server on a free port, connects `clients` JDK WebSocket
+ * clients and lets each send `messages` messages as fast as it can. Each message is broadcast to
+ * every client, so a cell delivers clients^2 * messages messages. Reported per cell:
+ *  - deliveries/s : broadcast messages received by all clients per second of wall time
+ *  - p50/p99 ms   : send -> receive latency (the timestamp travels in the message)
+ *  - threads      : peak live JVM threads during the run (pool + selectors + clients)
+ *  - dropped      : messages ChatWebSocket dropped for slow peers (raise the per-peer budget
+ *                   with -Dchat.fanout.maxInFlight to trade memory for completeness)
+ *
+ * Matrix: maxThreads {16, 200} x selectors {1, Jetty default} x buffers {Jetty default, 32 KB}
+ * x virtual threads {off, on}. Virtual-thread cells are skipped on JVMs without them.
+ * Server stdout is muted, otherwise per-message logging dominates.
+ * Run with: -Dclients=16 -Dmessages=200 -Dpayload=256
+ */
+public class JettyTuningBenchmark {
+
+    private static final int CLIENTS = Integer.getInteger("clients", 16);
+    private static final int MESSAGES = Integer.getInteger("messages", 200);
+    private static final int PAYLOAD = Integer.getInteger("payload", 256);
+    private static final long TIMEOUT_SEC = Long.getLong("timeout", 60);
+
+    private static final PrintStream console = System.out;
+
+    public static void main(String[] args) throws Exception {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        List<String> names = new ArrayList<>();
+        List<JettyServerConfig> cells = new ArrayList<>();
+        for (int maxThreads : new int[] { 16, 200 }) {
+            for (int selectors : new int[] { 1, -1 }) {
+                for (int buffer : new int[] { -1, 32 * 1024 }) {
+                    for (boolean virtual : new boolean[] { false, true }) {
+                        if (virtual && !VirtualThreads.areSupported()) continue;
+                        names.add("threads=" + maxThreads + " sel=" + (selectors < 0 ? "auto" : selectors)
+                              + " buf=" + (buffer < 0 ? "auto" : buffer / 1024 + "K") + (virtual ? " vt" : ""));
+                        cells.add(JettyServerConfig.builder().port(0)
+                              .maxThreads(maxThreads).minThreads(Math.min(8, maxThreads)).selectors(selectors)
+                              .inputBufferSize(buffer).outputBufferSize(buffer).virtualThreads(virtual).build());
+                    }
+                }
+            }
+        }
+        if (!VirtualThreads.areSupported()) {
+            console.println("Virtual threads not supported by " + Runtime.version() + ", skipping those cells");
+        }
+
+        // Warm-up cell, not reported
+        runCell(cells.get(cells.size() - 1));
+
+        console.printf("%d clients x %d messages x %d B, %d deliveries per cell%n",
+              CLIENTS, MESSAGES, PAYLOAD, (long) CLIENTS * CLIENTS * MESSAGES);
+        console.printf("%-36s %14s %9s %9s %8s %8s%n", "cell", "deliveries/s", "p50 ms", "p99 ms", "threads", "dropped");
+        for (int i = 0; i < cells.size(); i++) {
+            Result r = runCell(cells.get(i));
+            console.printf("%-36s %14.0f %9.2f %9.2f %8d %8d%s%n", names.get(i), r.throughput, r.p50Ms, r.p99Ms,
+                  r.peakThreads, r.dropped, r.complete ? "" : "  (timed out)");
+        }
+        System.exit(0);
+    }
+
+    private record Result(double throughput, double p50Ms, double p99Ms, int peakThreads, long dropped, boolean complete) {}
+
+    private static Result runCell(JettyServerConfig config) throws Exception {
+        Server server = WebSocketServer.createServer(config);
+        server.start();
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        URI uri = URI.create("ws://127.0.0.1:" + port + "/chat");
+        long droppedBefore = ChatWebSocket.droppedMessages();
+
+        long expected = (long) CLIENTS * CLIENTS * MESSAGES;
+        LongAdder received = new LongAdder();
+        long[] latencies = new long[(int) Math.min(expected, 2_000_000)];
+        AtomicLong latencyCount = new AtomicLong();
+        CountDownLatch welcomed = new CountDownLatch(CLIENTS);
+
+        HttpClient http = HttpClient.newHttpClient();
+        List<WebSocket> sockets = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            sockets.add(http.newWebSocketBuilder().buildAsync(uri, new WebSocket.Listener() {
+                private final StringBuilder partial = new StringBuilder();
+
+                @Override
+                public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+                    partial.append(data);
+                    if (last) {
+                        String msg = partial.toString();
+                        partial.setLength(0);
+                        int bar = msg.indexOf('|');
+                        if (bar < 0) {
+                            welcomed.countDown();
+                        } else {
+                            long sent = Long.parseLong(msg, bar + 1, msg.indexOf('|', bar + 1), 10);
+                            long idx = latencyCount.getAndIncrement();
+                            if (idx < latencies.length) latencies[(int) idx] = System.nanoTime() - sent;
+                            received.increment();
+                        }
+                    }
+                    ws.request(1);
+                    return null;
+                }
+            }).get(10, TimeUnit.SECONDS));
+        }
+        welcomed.await(10, TimeUnit.SECONDS);
+        // Jetty lists a session in getOpenSessions() only after onOpen returns
+        Thread.sleep(300);
+
+        String pad = "x".repeat(Math.max(0, PAYLOAD - 24));
+        int[] peakThreads = { Thread.activeCount() };
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakThreads[0] = Math.max(peakThreads[0], Thread.activeCount()), 0, 20, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        ExecutorService senders = Executors.newFixedThreadPool(CLIENTS);
+        for (WebSocket ws : sockets) {
+            senders.submit(() -> {
+                for (int m = 0; m < MESSAGES; m++) {
+                    ws.sendText(m + "|" + System.nanoTime() + "|" + pad, true).join();
+                }
+                return null;
+            });
+        }
+        // A cell is done once every broadcast was either received or dropped by the server
+        long deadline = start + TimeUnit.SECONDS.toNanos(TIMEOUT_SEC);
+        boolean complete;
+        while (!(complete = received.sum() + ChatWebSocket.droppedMessages() - droppedBefore >= expected)
+              && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        sampler.shutdownNow();
+        senders.shutdownNow();
+
+        for (WebSocket ws : sockets) ws.abort();
+        server.stop();
+
+        int n = (int) Math.min(latencyCount.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        double p50 = n == 0 ? 0 : sorted[n / 2] / 1e6;
+        double p99 = n == 0 ? 0 : sorted[Math.min(n - 1, (int) (n * 0.99))] / 1e6;
+        return new Result(received.sum() / (elapsed / 1e9), p50, p99, peakThreads[0],
+              ChatWebSocket.droppedMessages() - droppedBefore, complete);
+    }
+}
@@ -0,0 +1,129 @@
+package com.websocket.internal.jetty.springimpl;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator.OverflowStrategy;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ChatWebSocketHandlerTest {
+
+    private final ChatWebSocketHandler handler = new ChatWebSocketHandler(1000, 64 * 1024, OverflowStrategy.DROP, 4);
+
+    private static WebSocketSession session(String id, BlockingQueue<WebSocketMessage<?>> inbox) throws Exception {
+        WebSocketSession s = mock(WebSocketSession.class);
+        when(s.getId()).thenReturn(id);
+        when(s.isOpen()).thenReturn(true);
+        doAnswer(inv -> inbox.add(inv.getArgument(0))).when(s).sendMessage(any());
+        return s;
+    }
+
+    @Test
+    public void testBroadcastBuildsMessageOnceAndReachesEveryRecipient() throws Exception {
+        int n = 32;
+        List<BlockingQueue<WebSocketMessage<?>>> inboxes = new ArrayList<>();
+        List<WebSocketSession> sessions = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            BlockingQueue<WebSocketMessage<?>> inbox = new LinkedBlockingQueue<>();
+            WebSocketSession s = session("s" + i, inbox);
+            handler.afterConnectionEstablished(s);
+            assertTrue(((String) inbox.poll(5, TimeUnit.SECONDS).getPayload()).contains("Welcome s" + i));
+            inboxes.add(inbox);
+            sessions.add(s);
+        }
+        assertEquals(n, handler.sessionCount());
+
+        for (int m = 0; m < 50; m++) handler.handleTextMessage(sessions.get(m % n), new TextMessage("hi-" + m));
+        // Sends run on the fan-out pool, so only the set per recipient is fixed, not the order
+        Map<Object, WebSocketMessage<?>> instances = new HashMap<>();
+        for (BlockingQueue<WebSocketMessage<?>> inbox : inboxes) {
+            Set<Object> payloads = new HashSet<>();
+            for (int m = 0; m < 50; m++) {
+                WebSocketMessage<?> msg = inbox.poll(5, TimeUnit.SECONDS);
+                assertNotNull(msg);
+                payloads.add(msg.getPayload());
+                WebSocketMessage<?> first = instances.putIfAbsent(msg.getPayload(), msg);
+                if (first != null) assertSame(first, msg, "one TextMessage instance is shared by all recipients");
+            }
+            for (int m = 0; m < 50; m++) assertTrue(payloads.contains("[s" + (m % n) + "]: hi-" + m));
+        }
+    }
+
+    @Test
+    public void testCloseIsBroadcastToRemainingSessions() throws Exception {
+        BlockingQueue<WebSocketMessage<?>> aInbox = new LinkedBlockingQueue<>();
+        BlockingQueue<WebSocketMessage<?>> bInbox = new LinkedBlockingQueue<>();
+        WebSocketSession a = session("a", aInbox);
+        WebSocketSession b = session("b", bInbox);
+        handler.afterConnectionEstablished(a);
+        handler.afterConnectionEstablished(b);
+        aInbox.take();
+        bInbox.take();
+
+        handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+        assertEquals("[a]: closed", bInbox.poll(5, TimeUnit.SECONDS).getPayload());
+        assertEquals(1, handler.sessionCount());
+        assertNull(aInbox.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSlowSessionIsBufferedThenClosedWithoutStallingOthers() throws Exception {
+        ChatWebSocketHandler limited = new ChatWebSocketHandler(300, 64 * 1024, OverflowStrategy.DROP, 4);
+
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WebSocketSession slow = mock(WebSocketSession.class);
+        when(slow.getId()).thenReturn("slow");
+        when(slow.isOpen()).thenReturn(true);
+        // First send (the welcome) goes through, the next one hangs until released
+        doNothing().doAnswer(inv -> {
+            stuck.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        }).when(slow).sendMessage(any());
+        limited.afterConnectionEstablished(slow);
+
+        BlockingQueue<WebSocketMessage<?>> inbox = new LinkedBlockingQueue<>();
+        WebSocketSession fast = session("fast", inbox);
+        limited.afterConnectionEstablished(fast);
+        inbox.poll(5, TimeUnit.SECONDS);
+
+        // One fan-out thread gets stuck flushing the slow session, the inbound thread does not
+        Thread inbound = new Thread(() -> limited.handleTextMessage(fast, new TextMessage("m0")));
+        inbound.start();
+        assertTrue(stuck.await(5, TimeUnit.SECONDS));
+        inbound.join(1000);
+        assertFalse(inbound.isAlive(), "inbound thread waited for the slow session");
+
+        // Everyone else only buffers for it and keeps delivering to the fast session
+        for (int i = 1; i <= 10; i++) {
+            long start = System.nanoTime();
+            limited.handleTextMessage(fast, new TextMessage("m" + i));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200), "broadcast " + i + " blocked");
+        }
+        List<Object> received = new ArrayList<>();
+        WebSocketMessage<?> m;
+        while ((m = inbox.poll(500, TimeUnit.MILLISECONDS)) != null) received.add(m.getPayload());
+        for (int i = 1; i <= 10; i++) assertTrue(received.contains("[fast]: m" + i), "missing m" + i);
+
+        // Past the send time limit the next send closes the slow session
+        Thread.sleep(400);
+        limited.handleTextMessage(fast, new TextMessage("late"));
+        verify(slow, timeout(1000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertTrue(limited.failedSends.get() >= 1);
+
+        assertTrue(received.contains("[fast]: m0"));
+        release.countDown();
+        limited.destroy();
+    }
+}
@@ -0,0 +1,61 @@
+package com.websocket.internal.jetty.springimpl;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExtendedConnectUpgradeFilterTest {
+
+    private final ExtendedConnectUpgradeFilter filter = new ExtendedConnectUpgradeFilter();
+
+    private static MockHttpServletRequest request(String method, String protocol) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/ws-stomp/websocket");
+        request.setProtocol(protocol);
+        request.addHeader("Sec-WebSocket-Version", "13");
+        return request;
+    }
+
+    private HttpServletRequest filtered(MockHttpServletRequest request) throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        return (HttpServletRequest) chain.getRequest();
+    }
+
+    @Test
+    public void testHttp2ConnectIsShownToSpringAsAnUpgrade() throws Exception {
+        MockHttpServletRequest connect = request("CONNECT", "HTTP/2.0");
+        connect.addHeader("Sec-WebSocket-Protocol", "v12.stomp");
+        HttpServletRequest filtered = filtered(connect);
+        assertNotSame(connect, filtered);
+
+        // What AbstractHandshakeHandler checks
+        ServletServerHttpRequest spring = new ServletServerHttpRequest(filtered);
+        HttpHeaders headers = spring.getHeaders();
+        assertEquals(HttpMethod.GET, spring.getMethod());
+        assertEquals("websocket", headers.getUpgrade());
+        assertEquals(List.of("Upgrade"), headers.getConnection());
+        assertEquals(ExtendedConnectUpgradeFilter.PLACEHOLDER_KEY, headers.getFirst("Sec-WebSocket-Key"));
+        assertEquals("13", headers.getFirst("Sec-WebSocket-Version"));
+        assertEquals("v12.stomp", headers.getFirst("Sec-WebSocket-Protocol"));
+        assertNull(headers.getFirst("Sec-WebSocket-Extensions"));
+    }
+
+    @Test
+    public void testOtherRequestsAreLeftAlone() throws Exception {
+        MockHttpServletRequest http1 = request("GET", "HTTP/1.1");
+        assertSame(http1, filtered(http1));
+
+        MockHttpServletRequest tunnel = new MockHttpServletRequest("CONNECT", "/");
+        tunnel.setProtocol("HTTP/2.0");
+        assertSame(tunnel, filtered(tunnel), "a CONNECT without a WebSocket version is not a WebSocket");
+    }
+}
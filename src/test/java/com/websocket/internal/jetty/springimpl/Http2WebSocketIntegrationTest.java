@@ -0,0 +1,44 @@
+package com.websocket.internal.jetty.springimpl;
+
+import com.websocket.internal.jetty.ChatWebSocketTest;
+import com.websocket.internal.jetty.ChatWebSocketTest.H2cCollector;
+import org.eclipse.jetty.websocket.api.Callback;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The Spring app with the http2 profile: RFC 8441 CONNECT over h2c through ExtendedConnectUpgradeFilter. */
+@SpringBootTest(classes = JettyWebsocketApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+      properties = { "chat.history.enabled=false", "chat.offline.enabled=false" })
+@ActiveProfiles("http2")
+public class Http2WebSocketIntegrationTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    public void testChatHandlerOverH2c() throws Exception {
+        WebSocketClient client = ChatWebSocketTest.h2cWebSocketClient();
+        try {
+            H2cCollector collector = new H2cCollector();
+            Session session = client.connect(collector, URI.create("ws://localhost:" + port + "/chat")).get(10, TimeUnit.SECONDS);
+            // 200 to a CONNECT, where an HTTP/1.1 upgrade gets 101
+            assertEquals(200, session.getUpgradeResponse().getStatusCode());
+            assertTrue(collector.messages.poll(5, TimeUnit.SECONDS).contains("Welcome"));
+
+            session.sendText("over h2c", Callback.NOOP);
+            assertTrue(collector.messages.poll(5, TimeUnit.SECONDS).endsWith(": over h2c"));
+            session.close();
+        } finally {
+            client.stop();
+        }
+    }
+}
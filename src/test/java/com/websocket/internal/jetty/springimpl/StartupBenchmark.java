@@ -0,0 +1,151 @@
+package com.websocket.internal.jetty.springimpl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Node startup time: from launching the JVM to the first accepted WebSocket upgrade
+ * (HTTP 101 on /ws-stomp/websocket), which is when a scaled-out node starts taking reconnects.
+ *
+ * Every run is a fresh JVM. Variants:
+ *  - default:  JettyWebsocketApplication on this benchmark's class path, application.properties
+ *  - prod:     the same with the prod profile (lazy initialization, no DEBUG logging)
+ *  - aot+cds:  the build of `mvn -f pom-spring-jetty.xml -Pstartup package` in -Dapp.dir:
+ *              AOT-processed bean definitions and the AppCDS archive, prod profile
+ *              (skipped when that directory has no application.jsa)
+ *
+ * Reports, per variant, the median and best of: ms to the first 101, and Spring's own
+ * "Started ... in" time. The client retries the upgrade every 5 ms until it gets a 101.
+ *
+ * Configuration (system properties): -Druns=5 -Dvariants=default,prod,aot+cds -Dapp.dir=target/app
+ */
+public class StartupBenchmark {
+
+    private static final int RUNS = Integer.getInteger("runs", 5);
+    private static final String VARIANTS = System.getProperty("variants", "default,prod,aot+cds");
+    private static final Path APP_DIR = Path.of(System.getProperty("app.dir", "target/app"));
+    private static final Pattern STARTED = Pattern.compile("Started JettyWebsocketApplication in ([0-9.]+) seconds");
+
+    public static void main(String[] args) throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        System.out.printf("%-10s %12s %12s %14s%n", "variant", "p50 101 ms", "best 101 ms", "p50 Started ms");
+        for (String variant : VARIANTS.split(",")) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            Path workDir = Path.of(".");
+            switch (variant.trim()) {
+                case "default", "prod" -> {
+                    command.addAll(List.of("-cp", System.getProperty("java.class.path"), JettyWebsocketApplication.class.getName()));
+                    if (variant.trim().equals("prod")) command.add("--spring.profiles.active=prod");
+                }
+                case "aot+cds" -> {
+                    if (!Files.exists(APP_DIR.resolve("application.jsa"))) {
+                        System.out.printf("%-10s skipped, no %s (mvn -f pom-spring-jetty.xml -Pstartup package)%n", variant, APP_DIR.resolve("application.jsa"));
+                        continue;
+                    }
+                    Path jar;
+                    try (var files = Files.list(APP_DIR)) {
+                        jar = files.filter(p -> p.toString().endsWith(".jar")).findFirst().orElseThrow();
+                    }
+                    workDir = APP_DIR;
+                    command.addAll(List.of("-XX:SharedArchiveFile=application.jsa", "-Dspring.aot.enabled=true",
+                          "-jar", jar.getFileName().toString(), "--spring.profiles.active=prod"));
+                }
+                default -> throw new IllegalArgumentException("Unknown variant " + variant);
+            }
+            long[] upgradeMillis = new long[RUNS];
+            long[] startedMillis = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                long[] result = startOnce(command, workDir);
+                upgradeMillis[run] = result[0];
+                startedMillis[run] = result[1];
+            }
+            Arrays.sort(upgradeMillis);
+            Arrays.sort(startedMillis);
+            System.out.printf("%-10s %12d %12d %14d%n", variant, upgradeMillis[RUNS / 2], upgradeMillis[0], startedMillis[RUNS / 2]);
+        }
+    }
+
+    /** @return ms from launch to the first 101, and the "Started ... in" time in ms */
+    private static long[] startOnce(List<String> baseCommand, Path workDir) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Path data = Files.createTempDirectory("startup-bench");
+        List<String> command = new ArrayList<>(baseCommand);
+        command.addAll(List.of("--server.port=" + port,
+              "--chat.history.dir=" + data.resolve("history"), "--chat.offline.dir=" + data.resolve("offline")));
+
+        long launched = System.nanoTime();
+        Process process = new ProcessBuilder(command).directory(workDir.toFile()).redirectErrorStream(true).start();
+        long[] started = { -1 };
+        Thread reader = new Thread(() -> {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    Matcher m = STARTED.matcher(line);
+                    if (m.find()) started[0] = (long) (Double.parseDouble(m.group(1)) * 1000);
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            long deadline = launched + 60_000_000_000L;
+            while (!upgrade(port)) {
+                if (!process.isAlive()) throw new IllegalStateException("Application exited with " + process.exitValue());
+                if (System.nanoTime() > deadline) throw new IllegalStateException("No upgrade within 60 s");
+                Thread.sleep(5);
+            }
+            long upgraded = (System.nanoTime() - launched) / 1_000_000;
+            // The "Started" line is printed after the connector opens
+            for (int i = 0; i < 200 && started[0] < 0; i++) Thread.sleep(10);
+            return new long[] { upgraded, started[0] };
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    private static boolean upgrade(int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /ws-stomp/websocket?username=startup HTTP/1.1\r\n"
+                  + "Host: 127.0.0.1:" + port + "\r\n"
+                  + "Upgrade: websocket\r\n"
+                  + "Connection: Upgrade\r\n"
+                  + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                  + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] status = new byte[12];
+            int n = 0;
+            while (n < status.length) {
+                int r = in.read(status, n, status.length - n);
+                if (r < 0) return false;
+                n += r;
+            }
+            return new String(status, StandardCharsets.US_ASCII).startsWith("HTTP/1.1 101");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChannelQueueMetricsTest {
+
+    @Test
+    public void testPercentilesComeFromPowerOfTwoBuckets() {
+        ChannelQueueMetrics metrics = new ChannelQueueMetrics("test");
+        assertEquals(0, metrics.percentileMicros(0.99));
+        for (int i = 0; i < 98; i++) metrics.record(500);           // < 1 us
+        metrics.record(TimeUnit.MICROSECONDS.toNanos(3));           // [2, 4) us
+        metrics.record(TimeUnit.MILLISECONDS.toNanos(10));          // [8192, 16384) us
+
+        assertEquals(100, metrics.tasks());
+        assertEquals(1, metrics.percentileMicros(0.50));
+        assertEquals(4, metrics.percentileMicros(0.99));
+        assertEquals(16384, metrics.percentileMicros(1.0));
+        assertEquals(10_000L, metrics.snapshot().get("maxWaitMicros"));
+    }
+
+    @Test
+    public void testDecoratedTasksReportTheirQueueWait() throws Exception {
+        ChannelQueueMetrics metrics = new ChannelQueueMetrics("test");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(2);
+            executor.execute(metrics.decorate(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }));
+            executor.execute(metrics.decorate(done::countDown)); // waits behind the first one
+
+            Thread.sleep(20);
+            assertEquals(1, metrics.queued());
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            assertEquals(0, metrics.queued());
+            assertEquals(2, metrics.tasks());
+            assertTrue((Long) metrics.snapshot().get("maxWaitMicros") >= 20_000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChatMessageCompactConverterTest {
+
+    private final ChatMessageCompactConverter converter = new ChatMessageCompactConverter();
+
+    private static ChatMessage chat(String type, String from, String to, String roomId, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setType(type);
+        m.setFrom(from);
+        m.setTo(to);
+        m.setRoomId(roomId);
+        m.setContent(content);
+        return m;
+    }
+
+    private static void assertSameFields(ChatMessage expected, ChatMessage actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getFrom(), actual.getFrom());
+        assertEquals(expected.getTo(), actual.getTo());
+        assertEquals(expected.getRoomId(), actual.getRoomId());
+        assertEquals(expected.getContent(), actual.getContent());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ChatMessage[] messages = {
+              chat("CHAT", "alice", null, "7", "hi"),
+              chat(null, null, null, null, null),
+              chat("", "", "", "", ""),
+              chat("CHAT", "bob", "carol", null, "12:ab-3:x 1-:-"), // separators inside values
+              chat("CHAT", "zoë", null, "räum", "héllo 👋 wörld"),  // multi-byte and surrogate pairs
+              chat("CHAT", "x", null, null, "y".repeat(100_000)),
+        };
+        for (ChatMessage m : messages) {
+            byte[] encoded = ChatMessageCompactConverter.encode(m);
+            assertSameFields(m, ChatMessageCompactConverter.decode(new String(encoded, StandardCharsets.UTF_8)));
+        }
+        assertEquals("14:CHAT5:alice-1:72:hi",
+              new String(ChatMessageCompactConverter.encode(messages[0]), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMalformedInputIsRejected() {
+        for (String bad : new String[] { "", "2-----", "1-----x", "14:CHA", "1x:abc----", "1-----5", "1--" }) {
+            assertThrows(MessageConversionException.class, () -> ChatMessageCompactConverter.decode(bad), bad);
+        }
+    }
+
+    @Test
+    public void testOnlyUsedForItsContentType() {
+        ChatMessage m = chat("CHAT", "alice", null, null, "hi");
+        assertNull(converter.toMessage(m, null), "no content type: leave it to the JSON converter");
+
+        MessageHeaders compact = new MessageHeaders(Map.of(MessageHeaders.CONTENT_TYPE, ChatMessageCompactConverter.CHAT_COMPACT));
+        Message<?> encoded = converter.toMessage(m, compact);
+        assertNotNull(encoded);
+        assertSameFields(m, (ChatMessage) converter.fromMessage(encoded, ChatMessage.class));
+
+        // Browsers send the bare type without charset
+        Message<byte[]> inbound = MessageBuilder.withPayload(ChatMessageCompactConverter.encode(m))
+              .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.parseMimeType("application/x-chat-compact")).build();
+        assertSameFields(m, (ChatMessage) converter.fromMessage(inbound, ChatMessage.class));
+        assertNull(converter.fromMessage(inbound, String.class));
+    }
+
+    @Test
+    public void testEncodingIsChosenPerSession() {
+        ChatMessageEncoding encoding = new ChatMessageEncoding();
+        assertEquals(ChatMessageCompactConverter.CHAT_COMPACT, ChatMessageEncoding.negotiate("application/x-chat-compact, application/json"));
+        assertNull(ChatMessageEncoding.negotiate("application/json, application/x-chat-compact"));
+        assertNull(ChatMessageEncoding.negotiate("text/plain"));
+        assertNull(ChatMessageEncoding.negotiate("not a mime type;;"));
+
+        SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        connect.setSessionId("compact");
+        connect.setNativeHeader(ChatMessageEncoding.ACCEPT_HEADER, "application/x-chat-compact,application/json");
+        encoding.onConnect(new SessionConnectEvent(this, MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders())));
+
+        ChatMessage m = chat("CHAT", "alice", null, null, "hi");
+        byte[] json = "{\"content\":\"hi\"}".getBytes(StandardCharsets.UTF_8);
+        MessageHeaders extra = encoding.headersFor(m);
+        Message<?> toCompact = encoding.preSend(outbound("compact", json, extra), null);
+        Message<?> toJson = encoding.preSend(outbound("json", json, extra), null);
+
+        assertEquals(ChatMessageCompactConverter.CHAT_COMPACT, toCompact.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+        assertArrayEquals(ChatMessageCompactConverter.encode(m), (byte[]) toCompact.getPayload());
+        assertNull(toCompact.getHeaders().get(ChatMessageEncoding.PAYLOADS_HEADER));
+        assertSame(json, toJson.getPayload(), "sessions that did not ask keep JSON");
+        assertEquals(MimeTypeUtils.APPLICATION_JSON, encoding.encodingOf("json"));
+    }
+
+    private static Message<byte[]> outbound(String sessionId, byte[] payload, MessageHeaders extra) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setHeader(ChatMessageEncoding.PAYLOADS_HEADER, extra.get(ChatMessageEncoding.PAYLOADS_HEADER));
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+}
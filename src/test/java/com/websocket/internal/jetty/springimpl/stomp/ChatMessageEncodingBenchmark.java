@@ -0,0 +1,108 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire size and CPU of the ChatMessage encodings: Jackson JSON (what MappingJackson2MessageConverter
+ * produces) against ChatMessageCompactConverter.
+ *
+ * For a few message shapes it reports
+ *  - payload bytes, and bytes of the whole STOMP MESSAGE frame as the client receives it
+ *    (destination, subscription, message-id, content-type, content-length headers included)
+ *  - encode and decode cost in ns per message (single thread, after warm-up)
+ *
+ * Configuration (system properties): -Diterations=2000000
+ */
+public class ChatMessageEncodingBenchmark {
+
+    private static final int ITERATIONS = Integer.getInteger("iterations", 2_000_000);
+
+    private static final ObjectMapper json = new ObjectMapper();
+    private static final StompEncoder stompEncoder = new StompEncoder();
+
+    private interface Codec {
+        byte[] encode(ChatMessage m) throws Exception;
+        ChatMessage decode(byte[] bytes) throws Exception;
+    }
+
+    private static final Codec JSON = new Codec() {
+        public byte[] encode(ChatMessage m) throws Exception { return json.writeValueAsBytes(m); }
+        public ChatMessage decode(byte[] b) throws Exception { return json.readValue(b, ChatMessage.class); }
+    };
+
+    private static final Codec COMPACT = new Codec() {
+        public byte[] encode(ChatMessage m) { return ChatMessageCompactConverter.encode(m); }
+        public ChatMessage decode(byte[] b) { return ChatMessageCompactConverter.decode(new String(b, StandardCharsets.UTF_8)); }
+    };
+
+    private static ChatMessage chat(String type, String from, String to, String roomId, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setType(type);
+        m.setFrom(from);
+        m.setTo(to);
+        m.setRoomId(roomId);
+        m.setContent(content);
+        return m;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] names = { "join", "short chat", "private", "room 200 chars" };
+        ChatMessage[] shapes = {
+              chat("JOIN", "alice", null, "general", "alice joined the room."),
+              chat("CHAT", "alice", null, null, "hi"),
+              chat("CHAT", "alice", "bob", null, "are you there?"),
+              chat("MESSAGE", "alice", null, "engineering", "x".repeat(200)),
+        };
+
+        System.out.printf("%-16s %-8s %9s %9s %11s %11s%n", "shape", "codec", "payload B", "frame B", "encode ns", "decode ns");
+        for (int i = 0; i < shapes.length; i++) {
+            for (Codec codec : new Codec[] { JSON, COMPACT }) {
+                boolean isJson = codec == JSON;
+                byte[] payload = codec.encode(shapes[i]);
+                int frame = frameSize(payload, isJson ? MimeTypeUtils.APPLICATION_JSON : ChatMessageCompactConverter.CHAT_COMPACT);
+                double enc = timeEncode(codec, shapes[i]);
+                double dec = timeDecode(codec, payload);
+                System.out.printf("%-16s %-8s %9d %9d %11.1f %11.1f%n", names[i], isJson ? "json" : "compact",
+                      payload.length, frame, enc, dec);
+            }
+        }
+    }
+
+    private static int frameSize(byte[] payload, MimeType contentType) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setDestination("/topic/room/general");
+        accessor.setSubscriptionId("sub-0");
+        accessor.setMessageId("f3b2c1d0-1234-5678-9abc-def012345678-42");
+        accessor.setContentType(contentType);
+        accessor.setContentLength(payload.length);
+        return stompEncoder.encode(MessageBuilder.createMessage(payload, accessor.getMessageHeaders())).length;
+    }
+
+    private static double timeEncode(Codec codec, ChatMessage m) throws Exception {
+        long sink = 0;
+        for (int i = 0; i < ITERATIONS / 4; i++) sink += codec.encode(m).length; // warm-up
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) sink += codec.encode(m).length;
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) System.out.print("");
+        return (double) elapsed / ITERATIONS;
+    }
+
+    private static double timeDecode(Codec codec, byte[] payload) throws Exception {
+        long sink = 0;
+        for (int i = 0; i < ITERATIONS / 4; i++) sink += codec.decode(payload).getFrom().length();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) sink += codec.decode(payload).getFrom().length();
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) System.out.print("");
+        return (double) elapsed / ITERATIONS;
+    }
+}
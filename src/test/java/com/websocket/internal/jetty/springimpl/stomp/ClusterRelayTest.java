@@ -0,0 +1,193 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import com.websocket.internal.cluster.TcpClusterBus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Two STOMP nodes on loopback, each with its own broker, joined by a TcpClusterBus. */
+public class ClusterRelayTest {
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    @TempDir
+    Path dir;
+
+    private final class Node {
+        final ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+        final ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+        final TrieBrokerMessageHandler broker = new TrieBrokerMessageHandler(
+              inbound, outbound, brokerChannel, List.of("/topic", "/queue"), 2, 64, 16);
+        final TcpClusterBus bus;
+        final RoomDelivery rooms;
+        final PrivateDelivery privates;
+        final OfflineDelivery offline;
+        final ClusterRelay relay;
+
+        Node(String id, TcpClusterBus seed) throws Exception {
+            outbound.subscribe(sent::add);
+            broker.start();
+            SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+            template.setMessageConverter(new MappingJackson2MessageConverter());
+            bus = new TcpClusterBus(id, "127.0.0.1", 0, "127.0.0.1", seed == null ? List.of() : List.of(seed.localAddress()));
+            bus.setHeartbeatMillis(50);
+            rooms = new RoomDelivery(template, broker);
+            privates = new PrivateDelivery(template, broker);
+            RoomHistory history = new RoomHistory(template, rooms, new RoomRegistry(), broker, false, "", 0, 0, 1, 0, 1, 1);
+            offline = new OfflineDelivery(privates, new DeliveryReceipts(), true, dir.resolve(id).toString(), 1 << 20, 1000, 24, 100, 5000);
+            relay = new ClusterRelay(bus, template, rooms, history, privates, offline, new ChatMessageEncoding(), 2, 1024);
+            bus.start();
+            nodes.add(this);
+        }
+
+        void subscribe(String sessionId, String subscriptionId, String destination, String user) {
+            Message<byte[]> frame = frame(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination);
+            Principal principal = new WebSocketMessageBrokerConfig.StompPrincipal(user);
+            rooms.onSubscribe(new SessionSubscribeEvent(this, frame, principal));
+            privates.onSubscribe(new SessionSubscribeEvent(this, frame, principal));
+            inbound.send(frame); // and the broker, for /topic/public
+        }
+    }
+
+    @AfterEach
+    void stop() {
+        for (Node node : nodes) {
+            node.bus.close();
+            node.relay.destroy();
+            node.offline.destroy();
+            node.broker.stop();
+        }
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static ChatMessage chat(String to, String roomId, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setType("CHAT");
+        m.setFrom("alice");
+        m.setTo(to);
+        m.setRoomId(roomId);
+        m.setContent(content);
+        return m;
+    }
+
+    private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("timed out waiting for " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    private static Message<?> next(Node node) throws InterruptedException {
+        Message<?> m = node.sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(m, "nothing delivered");
+        return m;
+    }
+
+    private static String body(Message<?> m) {
+        return new String((byte[]) m.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoomPrivateAndPublicMessagesReachSubscribersOnTheOtherNode() throws Exception {
+        Node one = new Node("one", null);
+        Node two = new Node("two", one.bus);
+        await("both nodes connected", () -> one.bus.members().size() == 2 && two.bus.members().size() == 2);
+
+        one.subscribe("s1", "room", "/topic/room/7", "bob");
+        one.subscribe("s1", "dm", PrivateDelivery.PRIVATE_QUEUE, "bob");
+        one.subscribe("s1", "pub", "/topic/public", "bob");
+        await("interest reaches node two", () -> two.bus.publish("room:7", ChatMessageCompactConverter.encode(chat(null, "7", "probe"))) == 1
+              && two.bus.publish("user:bob", ChatMessageCompactConverter.encode(chat("bob", null, "probe"))) == 1);
+        Thread.sleep(200);
+        one.sent.clear();
+
+        two.relay.publishRoom("7", chat(null, "7", "to the room"));
+        Message<?> room = next(one);
+        assertEquals("/topic/room/7", SimpMessageHeaderAccessor.getDestination(room.getHeaders()));
+        assertEquals("room", SimpMessageHeaderAccessor.getSubscriptionId(room.getHeaders()));
+        assertTrue(body(room).contains("\"content\":\"to the room\""));
+
+        two.relay.publishPrivate("bob", chat("bob", null, "to bob"));
+        Message<?> dm = next(one);
+        assertEquals(PrivateDelivery.PRIVATE_QUEUE, SimpMessageHeaderAccessor.getDestination(dm.getHeaders()));
+        assertTrue(body(dm).contains("\"content\":\"to bob\""));
+
+        two.relay.publishPublic(chat(null, null, "to everyone"));
+        Message<?> pub = next(one);
+        assertEquals("/topic/public", SimpMessageHeaderAccessor.getDestination(pub.getHeaders()));
+        assertTrue(body(pub).contains("\"content\":\"to everyone\""));
+
+        assertNull(two.sent.poll(200, TimeUnit.MILLISECONDS), "node two has no subscribers");
+    }
+
+    @Test
+    public void testRelayedRoomMessagesKeepTheirOrder() throws Exception {
+        Node one = new Node("one", null);
+        Node two = new Node("two", one.bus);
+        await("both nodes connected", () -> two.bus.members().size() == 2);
+        one.subscribe("s1", "room", "/topic/room/7", "bob");
+        await("interest", () -> two.bus.publish("room:7", ChatMessageCompactConverter.encode(chat(null, "7", "probe"))) == 1);
+        Thread.sleep(200);
+        one.sent.clear();
+
+        // Delivered on a relay lane, not the bus reader thread, and still in order for the topic
+        for (int i = 0; i < 200; i++) two.relay.publishRoom("7", chat(null, "7", "m" + i));
+        for (int i = 0; i < 200; i++) assertTrue(body(next(one)).contains("\"content\":\"m" + i + "\""), "m" + i);
+        assertEquals(0, one.relay.dropped.sum());
+    }
+
+    @Test
+    public void testNodeStopsReceivingARoomOnceItsLastSubscriberLeaves() throws Exception {
+        Node one = new Node("one", null);
+        Node two = new Node("two", one.bus);
+        await("both nodes connected", () -> two.bus.members().size() == 2);
+
+        one.subscribe("s1", "room", "/topic/room/7", "bob");
+        await("interest", () -> two.bus.publish("room:7", ChatMessageCompactConverter.encode(chat(null, "7", "probe"))) == 1);
+
+        one.rooms.onDisconnect(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, "s1", null, null), "s1", CloseStatus.NORMAL));
+        await("interest withdrawn", () -> two.bus.publish("room:7", ChatMessageCompactConverter.encode(chat(null, "7", "probe"))) == 0);
+    }
+
+    @Test
+    public void testPrivateMessageForAUserWhoLeftTheReceivingNodeIsQueuedThere() throws Exception {
+        Node one = new Node("one", null);
+
+        // As if node two saw bob's subscription just before it was withdrawn
+        one.relay.onClusterMessage("user:bob", ChatMessageCompactConverter.encode(chat("bob", null, "to bob")), "two");
+        await("queued for bob", () -> one.offline.pending("bob") == 1);
+        assertNull(one.sent.poll(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,78 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DeliveryReceiptsTest {
+
+    private final DeliveryReceipts receipts = new DeliveryReceipts();
+
+    private static String frame(String messageId, String body) {
+        return "MESSAGE\nsubscription:sub-0\ndestination:/user/queue/private\nmessage-id:" + messageId + "\n\n" + body + "\0";
+    }
+
+    /** The session the decorators above DeliveryReceipts would see, and the transport session underneath it. */
+    private WebSocketSession[] connect() throws Exception {
+        WebSocketSession transport = mock(WebSocketSession.class);
+        when(transport.getId()).thenReturn("s1");
+        AtomicReference<WebSocketSession> seen = new AtomicReference<>();
+        WebSocketHandler inner = mock(WebSocketHandler.class);
+        doAnswer(inv -> {
+            seen.set(inv.getArgument(0));
+            return null;
+        }).when(inner).afterConnectionEstablished(any());
+        receipts.decorate(inner).afterConnectionEstablished(transport);
+        return new WebSocketSession[] { seen.get(), transport };
+    }
+
+    @Test
+    public void testWriteCompletesTheFramesInTheMessage() throws Exception {
+        String a = receipts.newId();
+        String b = receipts.newId();
+        String c = receipts.newId();
+        CompletableFuture<Void> wa = receipts.expect(a);
+        CompletableFuture<Void> wb = receipts.expect(b);
+        CompletableFuture<Void> wc = receipts.expect(c);
+        WebSocketSession[] s = connect();
+
+        // A batched message: two frames, one of them without a receipt id
+        s[0].sendMessage(new TextMessage(frame(a, "{}") + frame("s1-0", "{}") + frame(b, "{}")));
+        verify(s[1]).sendMessage(any());
+        assertTrue(wa.isDone());
+        assertTrue(wb.isDone());
+        assertFalse(wc.isDone());
+        assertEquals(1, receipts.waitingCount());
+        assertEquals(2, receipts.confirmed.sum());
+    }
+
+    @Test
+    public void testFailedWriteCompletesNothing() throws Exception {
+        String id = receipts.newId();
+        CompletableFuture<Void> write = receipts.expect(id);
+        WebSocketSession[] s = connect();
+        doThrow(new IOException("closed")).when(s[1]).sendMessage(any());
+
+        assertThrows(IOException.class, () -> s[0].sendMessage(new TextMessage(frame(id, "{}"))));
+        assertFalse(write.isDone());
+        receipts.forget(id);
+        assertEquals(0, receipts.waitingCount());
+    }
+
+    @Test
+    public void testIdsOfAnotherNodeAreIgnored() throws Exception {
+        String other = new DeliveryReceipts().newId();
+        CompletableFuture<Void> mine = receipts.expect(receipts.newId());
+        receipts.written(frame(other, "{}"));
+        assertFalse(mine.isDone());
+        assertEquals(1, receipts.waitingCount());
+    }
+}
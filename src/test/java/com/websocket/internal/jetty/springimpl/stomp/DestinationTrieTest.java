@@ -0,0 +1,107 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DestinationTrieTest {
+
+    private static Set<String> subscribers(DestinationTrie trie, String destination, int shards) {
+        Set<String> out = new TreeSet<>();
+        for (DestinationTrie.Node node : trie.match(destination)) {
+            for (int i = 0; i < shards; i++) {
+                for (DestinationTrie.Subscription sub : node.shard(i)) {
+                    assertEquals(i, trie.shardOf(sub.sessionId()), "subscription stored in its session's shard");
+                    out.add(sub.sessionId() + ":" + sub.subscriptionId());
+                }
+            }
+        }
+        for (DestinationTrie.Subscription sub : trie.matchPatterns(destination)) {
+            out.add(sub.sessionId() + ":" + sub.subscriptionId());
+        }
+        return out;
+    }
+
+    @Test
+    public void testExactAndWildcardMatching() {
+        DestinationTrie trie = new DestinationTrie(4);
+        trie.subscribe("a", "1", "/topic/room/42");
+        trie.subscribe("b", "1", "/topic/room/*");
+        trie.subscribe("c", "1", "/topic/**");
+        trie.subscribe("d", "1", "/topic/room-?");
+        trie.subscribe("e", "1", "/queue/private-usere");
+
+        assertEquals(Set.of("a:1", "b:1", "c:1"), subscribers(trie, "/topic/room/42", 4));
+        assertEquals(Set.of("b:1", "c:1"), subscribers(trie, "/topic/room/7", 4));
+        assertEquals(Set.of("c:1"), subscribers(trie, "/topic/room/7/typing", 4));
+        assertEquals(Set.of("c:1"), subscribers(trie, "/topic", 4));
+        assertEquals(Set.of("c:1", "d:1"), subscribers(trie, "/topic/room-1", 4));
+        assertEquals(Set.of("e:1"), subscribers(trie, "/queue/private-usere", 4));
+        assertEquals(Set.of(), subscribers(trie, "/queue/private-userx", 4));
+
+        // Without the literal subscriber's node
+        Set<String> wildcards = new TreeSet<>();
+        for (DestinationTrie.Node node : trie.matchWildcards("/topic/room/42")) {
+            for (int i = 0; i < 4; i++) node.shard(i).forEach(sub -> wildcards.add(sub.sessionId()));
+        }
+        assertEquals(Set.of("b", "c"), wildcards);
+        assertTrue(trie.hasWildcards());
+        for (String session : List.of("b", "c", "d")) trie.removeSession(session);
+        assertFalse(trie.hasWildcards());
+        assertEquals(List.of(), trie.matchWildcards("/topic/room/42"));
+    }
+
+    @Test
+    public void testDoubleStarInTheMiddleMatchesOnce() {
+        DestinationTrie trie = new DestinationTrie(2);
+        trie.subscribe("a", "1", "/topic/**/typing");
+
+        assertEquals(Set.of("a:1"), subscribers(trie, "/topic/typing", 2));
+        assertEquals(Set.of("a:1"), subscribers(trie, "/topic/room/7/typing", 2));
+        assertEquals(1, trie.match("/topic/room/typing/typing").size());
+        assertEquals(Set.of(), subscribers(trie, "/topic/room/7", 2));
+    }
+
+    @Test
+    public void testUnsubscribeAndDisconnectPruneNodes() {
+        DestinationTrie trie = new DestinationTrie(4);
+        trie.subscribe("a", "1", "/topic/room/1");
+        trie.subscribe("a", "2", "/queue/private-usera");
+        trie.subscribe("a", "3", "/topic/room-?");
+        trie.subscribe("b", "1", "/topic/room/1");
+        assertEquals(4, trie.subscriptionCount());
+
+        trie.unsubscribe("b", "1");
+        assertEquals(Set.of("a:1"), subscribers(trie, "/topic/room/1", 4));
+
+        trie.removeSession("a");
+        assertEquals(0, trie.subscriptionCount());
+        assertTrue(trie.isEmptyTree(), "empty nodes are pruned");
+        assertEquals(Set.of(), subscribers(trie, "/topic/room-1", 4));
+    }
+
+    @Test
+    public void testResubscribeWithSameIdReplacesDestination() {
+        DestinationTrie trie = new DestinationTrie(4);
+        trie.subscribe("a", "1", "/topic/room/1");
+        trie.subscribe("a", "1", "/topic/room/2");
+
+        assertEquals(Set.of(), subscribers(trie, "/topic/room/1", 4));
+        assertEquals(Set.of("a:1"), subscribers(trie, "/topic/room/2", 4));
+        assertEquals(1, trie.subscriptionCount());
+    }
+
+    @Test
+    public void testSessionsSpreadOverShards() {
+        DestinationTrie trie = new DestinationTrie(8);
+        for (int i = 0; i < 800; i++) trie.subscribe("session-" + i, "1", "/topic/public");
+
+        DestinationTrie.Node node = trie.match("/topic/public").get(0);
+        for (int i = 0; i < 8; i++) {
+            assertFalse(node.shard(i).isEmpty(), "shard " + i + " has subscribers");
+        }
+        assertEquals(800, subscribers(trie, "/topic/public", 8).size());
+    }
+}
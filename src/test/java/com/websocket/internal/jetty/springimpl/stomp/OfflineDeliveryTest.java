@@ -0,0 +1,238 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OfflineDeliveryTest {
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+    private final DeliveryReceipts receipts = new DeliveryReceipts();
+    // Whether the sessions' transports accept what reaches them
+    private volatile boolean writable = true;
+    // Sessions whose transport takes nothing at all
+    private final Set<String> stalled = ConcurrentHashMap.newKeySet();
+    private final TrieBrokerMessageHandler broker = new TrieBrokerMessageHandler(
+          inbound, outbound, brokerChannel, List.of("/topic", "/queue"), 2, 64, 16);
+    private final PrivateDelivery privateDelivery;
+    private final List<OfflineDelivery> offline = new ArrayList<>();
+
+    {
+        outbound.subscribe(m -> {
+            if (!writable || stalled.contains(SimpMessageHeaderAccessor.getSessionId(m.getHeaders()))) return;
+            sent.add(m);
+            String id = SimpMessageHeaderAccessor.getFirstNativeHeader(DeliveryReceipts.MESSAGE_ID, m.getHeaders());
+            if (id != null) receipts.confirm(id);
+        });
+        broker.start();
+        SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        privateDelivery = new PrivateDelivery(template, broker);
+    }
+
+    @AfterEach
+    void stop() {
+        offline.forEach(OfflineDelivery::destroy);
+        broker.stop();
+    }
+
+    private OfflineDelivery offline(int drainBatch) throws Exception {
+        return offline(drainBatch, 200);
+    }
+
+    private OfflineDelivery offline(int drainBatch, long receiptTimeoutMs) throws Exception {
+        OfflineDelivery delivery = new OfflineDelivery(privateDelivery, receipts, true, dir.toString(), 1 << 20, 1000, 24, drainBatch, receiptTimeoutMs);
+        offline.add(delivery);
+        return delivery;
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(destination == null ? null : "sub-" + sessionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private void connect(OfflineDelivery delivery, String username, String sessionId) {
+        Principal user = new WebSocketMessageBrokerConfig.StompPrincipal(username);
+        privateDelivery.onConnected(new SessionConnectedEvent(this, frame(SimpMessageType.CONNECT_ACK, sessionId, null), user));
+        SessionSubscribeEvent subscribe = new SessionSubscribeEvent(this, frame(SimpMessageType.SUBSCRIBE, sessionId, PrivateDelivery.PRIVATE_QUEUE), user);
+        privateDelivery.onSubscribe(subscribe);
+        delivery.onSubscribe(subscribe);
+    }
+
+    private static ChatMessage dm(String to, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setType("CHAT");
+        m.setFrom("alice");
+        m.setTo(to);
+        m.setContent(content);
+        return m;
+    }
+
+    private List<String> received(int expected) throws InterruptedException {
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < expected; i++) {
+            Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m, "expected " + expected + " messages, got " + i);
+            String json = new String((byte[]) m.getPayload(), StandardCharsets.UTF_8);
+            int start = json.indexOf("\"content\":\"") + 11;
+            contents.add(json.substring(start, json.indexOf('"', start)));
+        }
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        return contents;
+    }
+
+    private static void await(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testQueuedMessagesAreDrainedInOrderWhenTheUserSubscribes() throws Exception {
+        OfflineDelivery delivery = offline(2);
+        for (int i = 1; i <= 5; i++) {
+            assertFalse(privateDelivery.send("bob", dm("bob", "m" + i)));
+            assertTrue(delivery.enqueue("bob", dm("bob", "m" + i)));
+        }
+        await(() -> delivery.pending("bob") == 5);
+        received(0);
+
+        connect(delivery, "bob", "s1");
+        assertEquals(List.of("m1", "m2", "m3", "m4", "m5"), received(5));
+        await(() -> delivery.pending("bob") == 0);
+        assertEquals(5, delivery.drained.sum());
+
+        // Nothing left to send on the next connection
+        connect(delivery, "bob", "s2");
+        received(0);
+    }
+
+    @Test
+    public void testQueueSurvivesARestart() throws Exception {
+        OfflineDelivery before = offline(100);
+        before.enqueue("bob", dm("bob", "kept"));
+        await(() -> before.pending("bob") == 1);
+        before.destroy();
+        offline.remove(before);
+
+        OfflineDelivery after = offline(100);
+        assertEquals(1, after.pending("bob"));
+        connect(after, "bob", "s1");
+        assertEquals(List.of("kept"), received(1));
+        await(() -> after.pending("bob") == 0);
+    }
+
+    @Test
+    public void testMessageQueuedWhileTheUserIsSubscribedIsSentAtOnce() throws Exception {
+        OfflineDelivery delivery = offline(100);
+        connect(delivery, "bob", "s1");
+        // e.g. queued by a sender that saw bob before the subscription arrived
+        delivery.enqueue("bob", dm("bob", "late"));
+        assertEquals(List.of("late"), received(1));
+        await(() -> delivery.pending("bob") == 0);
+    }
+
+    @Test
+    public void testDrainStopsWhenTheUserIsGoneAgain() throws Exception {
+        OfflineDelivery delivery = offline(100);
+        delivery.enqueue("bob", dm("bob", "m1"));
+        await(() -> delivery.pending("bob") == 1);
+        Principal user = new WebSocketMessageBrokerConfig.StompPrincipal("bob");
+        privateDelivery.onConnected(new SessionConnectedEvent(this, frame(SimpMessageType.CONNECT_ACK, "s1", null), user));
+        privateDelivery.onDisconnect(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, "s1", null), "s1", CloseStatus.NORMAL));
+
+        delivery.drain("bob").get(5, TimeUnit.SECONDS);
+        assertEquals(1, delivery.pending("bob"));
+        received(0);
+    }
+
+    @Test
+    public void testMessagesThatWereNotWrittenStayQueued() throws Exception {
+        OfflineDelivery delivery = offline(2);
+        for (int i = 1; i <= 3; i++) delivery.enqueue("bob", dm("bob", "m" + i));
+        await(() -> delivery.pending("bob") == 3);
+
+        // e.g. the lane dropped them because the session closed, or no subscription was there yet
+        writable = false;
+        connect(delivery, "bob", "s1");
+        await(() -> delivery.unconfirmed.sum() >= 2);
+        assertEquals(3, delivery.pending("bob"));
+        assertEquals(0, delivery.drained.sum());
+        assertEquals(0, receipts.waitingCount());
+
+        // Still subscribed: the drain is retried and acks once the frames are written
+        writable = true;
+        await(() -> delivery.pending("bob") == 0);
+        assertEquals(List.of("m1", "m2", "m3"), received(3));
+        assertEquals(3, delivery.drained.sum());
+    }
+
+    @Test
+    public void testDrainGivesUpAfterRetriesWithoutProgress() throws Exception {
+        OfflineDelivery delivery = offline(100);
+        delivery.enqueue("bob", dm("bob", "m1"));
+        await(() -> delivery.pending("bob") == 1);
+
+        writable = false;
+        connect(delivery, "bob", "s1");
+        // The first round and three retries, 200 ms each
+        await(() -> delivery.unconfirmed.sum() == 4);
+        Thread.sleep(500);
+        assertEquals(4, delivery.unconfirmed.sum());
+        assertEquals(1, delivery.pending("bob"));
+    }
+
+    @Test
+    public void testSlowUserDoesNotHoldUpTheDrainOfOthers() throws Exception {
+        OfflineDelivery delivery = offline(100, 5000);
+        delivery.enqueue("bob", dm("bob", "b1"));
+        delivery.enqueue("carol", dm("carol", "c1"));
+        await(() -> delivery.pending("bob") == 1 && delivery.pending("carol") == 1);
+
+        // bob's frame is never written, so his batch waits out the receipt timeout
+        stalled.add("s1");
+        connect(delivery, "bob", "s1");
+        Thread.sleep(100);
+        long start = System.nanoTime();
+        connect(delivery, "carol", "s2");
+        assertEquals(List.of("c1"), received(1));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2), "carol waited for bob");
+        await(() -> delivery.pending("carol") == 0);
+        assertEquals(1, delivery.pending("bob"));
+    }
+}
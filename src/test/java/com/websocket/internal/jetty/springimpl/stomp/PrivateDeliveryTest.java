@@ -0,0 +1,152 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrivateDeliveryTest {
+
+    private final ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+    private final TrieBrokerMessageHandler broker = new TrieBrokerMessageHandler(
+          inbound, outbound, brokerChannel, List.of("/topic", "/queue"), 4, 64, 16);
+    private final PrivateDelivery delivery;
+
+    {
+        outbound.subscribe(sent::add);
+        broker.start();
+        SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        delivery = new PrivateDelivery(template, broker);
+    }
+
+    @AfterEach
+    void stop() {
+        broker.stop();
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private void connect(String username, String sessionId, String subscriptionId, String destination) {
+        Principal user = new WebSocketMessageBrokerConfig.StompPrincipal(username);
+        delivery.onConnected(new SessionConnectedEvent(this, frame(SimpMessageType.CONNECT_ACK, sessionId, null, null), user));
+        delivery.onSubscribe(new SessionSubscribeEvent(this, frame(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination), user));
+    }
+
+    private void disconnect(String sessionId) {
+        delivery.onDisconnect(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, sessionId, null, null), sessionId, CloseStatus.NORMAL));
+    }
+
+    private static ChatMessage dm(String to, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setType("CHAT");
+        m.setFrom("alice");
+        m.setTo(to);
+        m.setContent(content);
+        return m;
+    }
+
+    private Map<String, Message<?>> drain(int expected) throws InterruptedException {
+        Map<String, Message<?>> bySession = new HashMap<>();
+        for (int i = 0; i < expected; i++) {
+            Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m, "expected " + expected + " messages, got " + i);
+            assertNull(bySession.put(SimpMessageHeaderAccessor.getSessionId(m.getHeaders()), m), "one copy per session");
+        }
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        return bySession;
+    }
+
+    @Test
+    public void testPrivateMessageGoesToEveryPrivateSubscriptionOfTheUser() throws Exception {
+        connect("bob", "b1", "q1", PrivateDelivery.PRIVATE_QUEUE);
+        connect("bob", "b2", "q2", PrivateDelivery.PRIVATE_QUEUE);
+        connect("bob", "b3", "t", "/topic/public");   // online, but not listening for DMs
+        connect("carol", "c1", "q", PrivateDelivery.PRIVATE_QUEUE);
+
+        assertTrue(delivery.send("bob", dm("bob", "hi bob")));
+
+        Map<String, Message<?>> received = drain(2);
+        assertEquals(Set.of("b1", "b2"), received.keySet());
+        Message<?> m = received.get("b2");
+        assertEquals("q2", SimpMessageHeaderAccessor.getSubscriptionId(m.getHeaders()));
+        assertEquals("/user/queue/private", SimpMessageHeaderAccessor.getDestination(m.getHeaders()));
+        assertTrue(new String((byte[]) m.getPayload(), StandardCharsets.UTF_8).contains("\"content\":\"hi bob\""));
+        assertSame(received.get("b1").getPayload(), m.getPayload(), "payload serialized once");
+
+        assertEquals(1L, delivery.snapshot().get("sends"));
+        assertEquals(0L, delivery.snapshot().get("misses"));
+    }
+
+    @Test
+    public void testRegistryFollowsUnsubscribeAndDisconnect() throws Exception {
+        connect("bob", "b1", "q1", PrivateDelivery.PRIVATE_QUEUE);
+        connect("bob", "b2", "q2", PrivateDelivery.PRIVATE_QUEUE);
+        assertEquals(1, delivery.userCount());
+
+        delivery.onUnsubscribe(new SessionUnsubscribeEvent(this, frame(SimpMessageType.UNSUBSCRIBE, "b1", "q1", null)));
+        assertTrue(delivery.send("bob", dm("bob", "only b2")));
+        assertEquals(Set.of("b2"), drain(1).keySet());
+        assertTrue(delivery.isOnline("bob"), "b1 is still connected");
+
+        disconnect("b2");
+        assertFalse(delivery.send("bob", dm("bob", "nobody listening")));
+        disconnect("b1");
+        assertFalse(delivery.isOnline("bob"));
+        assertEquals(0, delivery.userCount());
+        assertFalse(delivery.send("nobody", dm("nobody", "unknown user")));
+        drain(0);
+        assertEquals(2L, delivery.snapshot().get("misses"));
+    }
+
+    @Test
+    public void testEveryPrivateSubscriptionOfASessionGetsACopy() throws Exception {
+        connect("bob", "b1", "q1", PrivateDelivery.PRIVATE_QUEUE);
+        delivery.onSubscribe(new SessionSubscribeEvent(this, frame(SimpMessageType.SUBSCRIBE, "b1", "q2", PrivateDelivery.PRIVATE_QUEUE),
+              new WebSocketMessageBrokerConfig.StompPrincipal("bob")));
+
+        assertTrue(delivery.send("bob", dm("bob", "twice")));
+        Set<String> subscriptions = new TreeSet<>();
+        for (int i = 0; i < 2; i++) {
+            Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m);
+            subscriptions.add(SimpMessageHeaderAccessor.getSubscriptionId(m.getHeaders()));
+        }
+        assertEquals(Set.of("q1", "q2"), subscriptions);
+
+        delivery.onUnsubscribe(new SessionUnsubscribeEvent(this, frame(SimpMessageType.UNSUBSCRIBE, "b1", "q1", null)));
+        assertTrue(delivery.send("bob", dm("bob", "once")));
+        assertEquals("q2", SimpMessageHeaderAccessor.getSubscriptionId(drain(1).get("b1").getHeaders()));
+
+        disconnect("b1");
+        assertFalse(delivery.isSubscribed("bob"));
+    }
+}
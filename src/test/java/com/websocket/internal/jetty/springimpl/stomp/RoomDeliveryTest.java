@@ -0,0 +1,185 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomDeliveryTest {
+
+    private final ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+    private final TrieBrokerMessageHandler broker = new TrieBrokerMessageHandler(
+          inbound, outbound, brokerChannel, List.of("/topic", "/queue"), 4, 64, 16);
+    private final RoomDelivery delivery;
+
+    {
+        outbound.subscribe(sent::add);
+        broker.start();
+        SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        delivery = new RoomDelivery(template, broker);
+    }
+
+    @AfterEach
+    void stop() {
+        broker.stop();
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        delivery.onSubscribe(new SessionSubscribeEvent(this, frame(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination)));
+    }
+
+    private static ChatMessage chat(String content) {
+        ChatMessage m = new ChatMessage();
+        m.setType("CHAT");
+        m.setRoomId("7");
+        m.setContent(content);
+        return m;
+    }
+
+    private Map<String, Message<?>> drain(int expected) throws InterruptedException {
+        Map<String, Message<?>> bySession = new HashMap<>();
+        for (int i = 0; i < expected; i++) {
+            Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m, "expected " + expected + " messages, got " + i);
+            assertNull(bySession.put(SimpMessageHeaderAccessor.getSessionId(m.getHeaders()), m), "one copy per session");
+        }
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        return bySession;
+    }
+
+    @Test
+    public void testRoomMessageIsSerializedOnceAndSentToSubscribedSessions() throws Exception {
+        for (int s = 0; s < 10; s++) subscribe("s" + s, "sub-" + s, "/topic/room/7");
+        subscribe("other", "x", "/topic/room/8");
+        subscribe("pub", "p", "/topic/public");
+        assertEquals(10, delivery.subscriptionCount("7"));
+
+        delivery.send("7", chat("hello"));
+
+        Map<String, Message<?>> received = drain(10);
+        Object sharedPayload = null;
+        for (int s = 0; s < 10; s++) {
+            Message<?> m = received.get("s" + s);
+            assertEquals("sub-" + s, SimpMessageHeaderAccessor.getSubscriptionId(m.getHeaders()));
+            assertEquals("/topic/room/7", SimpMessageHeaderAccessor.getDestination(m.getHeaders()));
+            assertEquals("application/json", String.valueOf(m.getHeaders().get("contentType")));
+            assertTrue(new String((byte[]) m.getPayload(), StandardCharsets.UTF_8).contains("\"content\":\"hello\""));
+            if (sharedPayload == null) sharedPayload = m.getPayload();
+            assertSame(sharedPayload, m.getPayload(), "payload serialized once");
+        }
+    }
+
+    @Test
+    public void testUnsubscribeAndDisconnectMaintainIndex() throws Exception {
+        subscribe("a", "1", "/topic/room/7");
+        subscribe("a", "2", "/topic/room/8");
+        subscribe("b", "1", "/topic/room/7");
+        subscribe("c", "1", "/topic/room/*"); // a pattern, left to the broker
+        assertEquals(2, delivery.roomCount());
+
+        delivery.onUnsubscribe(new SessionUnsubscribeEvent(this, frame(SimpMessageType.UNSUBSCRIBE, "b", "1", null)));
+        delivery.send("7", chat("only a"));
+        assertEquals(Set.of("a"), drain(1).keySet());
+
+        delivery.onDisconnect(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, "a", null, null), "a", CloseStatus.NORMAL));
+        assertEquals(0, delivery.roomCount());
+        delivery.send("7", chat("nobody"));
+        drain(0);
+    }
+
+    private Set<String> drainSubscriptions(int expected) throws InterruptedException {
+        Set<String> subscriptions = new TreeSet<>();
+        for (int i = 0; i < expected; i++) {
+            Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m, "expected " + expected + " messages, got " + i);
+            assertEquals("/topic/room/7", SimpMessageHeaderAccessor.getDestination(m.getHeaders()));
+            String id = SimpMessageHeaderAccessor.getSessionId(m.getHeaders()) + ":"
+                  + SimpMessageHeaderAccessor.getSubscriptionId(m.getHeaders());
+            assertTrue(subscriptions.add(id), "one copy per subscription");
+        }
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        return subscriptions;
+    }
+
+    @Test
+    public void testEverySubscriptionOfASessionGetsACopy() throws Exception {
+        subscribe("a", "1", "/topic/room/7");
+        subscribe("a", "2", "/topic/room/7");
+        assertEquals(2, delivery.subscriptionCount("7"));
+
+        delivery.send("7", chat("twice"));
+        assertEquals(Set.of("a:1", "a:2"), drainSubscriptions(2));
+
+        delivery.onUnsubscribe(new SessionUnsubscribeEvent(this, frame(SimpMessageType.UNSUBSCRIBE, "a", "1", null)));
+        delivery.send("7", chat("once"));
+        assertEquals(Set.of("a:2"), drainSubscriptions(1));
+    }
+
+    @Test
+    public void testWildcardAndPatternSubscribersReceiveRoomMessages() throws Exception {
+        // Pattern subscriptions reach the broker's trie only; RoomDelivery does not track them
+        for (String[] sub : new String[][] { { "b", "/topic/room/*" }, { "c", "/topic/**" }, { "d", "/topic/room/?" } }) {
+            inbound.send(frame(SimpMessageType.SUBSCRIBE, sub[0], "1", sub[1]));
+            subscribe(sub[0], "1", sub[1]);
+        }
+        inbound.send(frame(SimpMessageType.SUBSCRIBE, "a", "1", "/topic/room/7"));
+        subscribe("a", "1", "/topic/room/7");
+        assertEquals(1, delivery.roomCount());
+
+        delivery.send("7", chat("everyone"));
+        assertEquals(Set.of("a:1", "b:1", "c:1", "d:1"), drainSubscriptions(4));
+
+        // Nobody is in room 7 by name any more, the patterns still match it
+        delivery.onUnsubscribe(new SessionUnsubscribeEvent(this, frame(SimpMessageType.UNSUBSCRIBE, "a", "1", null)));
+        delivery.send("7", chat("patterns"));
+        assertEquals(Set.of("b:1", "c:1", "d:1"), drainSubscriptions(3));
+    }
+
+    @Test
+    public void testOrderIsKeptWithBrokerTraffic() throws Exception {
+        // The same session gets room messages via RoomDelivery and public ones via the broker
+        inbound.send(frame(SimpMessageType.SUBSCRIBE, "a", "pub", "/topic/public"));
+        subscribe("a", "room", "/topic/room/7");
+        SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+
+        for (int i = 0; i < 100; i++) {
+            if (i % 2 == 0) delivery.send("7", chat("m" + i));
+            else template.convertAndSend("/topic/public", chat("m" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m);
+            assertTrue(new String((byte[]) m.getPayload(), StandardCharsets.UTF_8).contains("\"content\":\"m" + i + "\""));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cost of RoomHistory: appending a room message (sequence, mapped log write, broker message) and
+ * answering "last N" at SUBSCRIBE time from the in-memory ring (warm) and from the mapped segment
+ * log after a restart (cold, decoded and serialized again).
+ *
+ * No subscribers, so only the history itself is measured. Reports ns per append and the
+ * p50/p99 of one last(N) call in µs.
+ *
+ * Configuration (system properties): -Dmessages=200000 -Dlast=50 -Dreads=20000 -Dring=256
+ */
+public class RoomHistoryBenchmark {
+
+    private static final int MESSAGES = Integer.getInteger("messages", 200_000);
+    private static final int LAST = Integer.getInteger("last", 50);
+    private static final int READS = Integer.getInteger("reads", 20_000);
+    private static final int RING = Integer.getInteger("ring", 256);
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("room-history-bench");
+        ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+        TrieBrokerMessageHandler broker = new TrieBrokerMessageHandler(
+              new ExecutorSubscribableChannel(), channel, channel, List.of("/topic"), 1, 64, 16);
+        SimpMessagingTemplate template = new SimpMessagingTemplate(channel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        RoomDelivery delivery = new RoomDelivery(template, broker);
+
+        RoomHistory history = history(template, delivery, broker, dir);
+        ChatMessage m = new ChatMessage();
+        m.setType("CHAT");
+        m.setFrom("alice");
+        m.setRoomId("general");
+        m.setContent("x".repeat(120));
+
+        for (int i = 0; i < MESSAGES / 10; i++) history.publish("warmup", m);
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) history.publish("general", m);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("append: %,d messages, %d ns/message, %,.0f messages/s%n",
+              MESSAGES, elapsed / MESSAGES, MESSAGES * 1e9 / elapsed);
+
+        report("warm last(" + LAST + ")", history, LAST <= RING);
+        history.destroy();
+
+        RoomHistory reopened = history(template, delivery, broker, dir);
+        report("cold last(" + LAST + ")", reopened, false);
+        reopened.destroy();
+    }
+
+    private static RoomHistory history(SimpMessagingTemplate template, RoomDelivery delivery,
+          TrieBrokerMessageHandler broker, Path dir) {
+        RoomRegistry registry = new RoomRegistry();
+        registry.joinRoom("warmup", "alice");
+        registry.joinRoom("general", "alice"); // history is only kept for rooms with members
+        return new RoomHistory(template, delivery, registry, broker, true, dir.toString(), 4 << 20, MESSAGES, RING, 500, 1024, 10000);
+    }
+
+    private static void report(String name, RoomHistory history, boolean expectWarm) {
+        for (int i = 0; i < READS / 10; i++) history.last("general", LAST);
+        long[] nanos = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            long start = System.nanoTime();
+            int n = history.last("general", LAST).size();
+            nanos[i] = System.nanoTime() - start;
+            if (n != LAST) throw new IllegalStateException("got " + n);
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%s: p50 %.1f µs, p99 %.1f µs, cold reads %d%s%n", name,
+              nanos[READS / 2] / 1000.0, nanos[READS * 99 / 100] / 1000.0, history.coldReads.sum(),
+              expectWarm && history.coldReads.sum() > 0 ? " (expected none)" : "");
+    }
+}
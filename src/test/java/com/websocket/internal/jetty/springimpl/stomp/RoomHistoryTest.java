@@ -0,0 +1,289 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomHistoryTest {
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+    private final TrieBrokerMessageHandler broker = new TrieBrokerMessageHandler(
+          inbound, outbound, brokerChannel, List.of("/topic", "/queue"), 2, 64, 16);
+    private final SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+    private final RoomDelivery delivery;
+    private final RoomRegistry registry = new RoomRegistry();
+    private final List<RoomHistory> histories = new ArrayList<>();
+
+    {
+        outbound.subscribe(sent::add);
+        broker.start();
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        delivery = new RoomDelivery(template, broker);
+        registry.joinRoom("7", "alice");
+    }
+
+    @AfterEach
+    void stop() {
+        histories.forEach(RoomHistory::destroy);
+        broker.stop();
+    }
+
+    private RoomHistory history(int ringSize) {
+        return history(ringSize, 1024);
+    }
+
+    private RoomHistory history(int ringSize, int maxOpenRooms) {
+        return history(ringSize, maxOpenRooms, 10000);
+    }
+
+    private RoomHistory history(int ringSize, int maxOpenRooms, int maxRooms) {
+        RoomHistory history = new RoomHistory(template, delivery, registry, broker, true, dir.toString(), 4096, 1000, ringSize, 100,
+              maxOpenRooms, maxRooms);
+        histories.add(history);
+        return history;
+    }
+
+    private static ChatMessage chat(String content) {
+        return chat("7", content);
+    }
+
+    private static ChatMessage chat(String roomId, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setType("CHAT");
+        m.setRoomId(roomId);
+        m.setContent(content);
+        return m;
+    }
+
+    private void subscribe(RoomHistory history, String sessionId, String header, String value) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-" + sessionId);
+        accessor.setDestination("/topic/room/7");
+        if (header != null) accessor.setNativeHeader(header, value);
+        SessionSubscribeEvent event = new SessionSubscribeEvent(this, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+        delivery.onSubscribe(event);
+        history.onSubscribe(event);
+    }
+
+    private static String seq(Message<?> m) {
+        return SimpMessageHeaderAccessor.wrap(m).getFirstNativeHeader(RoomHistory.SEQ_HEADER);
+    }
+
+    private static String content(Message<?> m) {
+        String json = new String((byte[]) m.getPayload(), StandardCharsets.UTF_8);
+        int start = json.indexOf("\"content\":\"") + 11;
+        return json.substring(start, json.indexOf('"', start));
+    }
+
+    private List<Message<?>> received(int expected) throws InterruptedException {
+        List<Message<?>> messages = new ArrayList<>();
+        for (int i = 0; i < expected; i++) {
+            Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m, "expected " + expected + " messages, got " + i);
+            messages.add(m);
+        }
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        return messages;
+    }
+
+    @Test
+    public void testPublishedMessagesCarryTheRoomSequence() throws Exception {
+        RoomHistory history = history(16);
+        subscribe(history, "s1", null, null);
+        history.publish("7", chat("a"));
+        history.publish("7", chat("b"));
+
+        List<Message<?>> messages = received(2);
+        assertEquals(List.of("1", "2"), messages.stream().map(RoomHistoryTest::seq).toList());
+        assertEquals("s1", SimpMessageHeaderAccessor.getSessionId(messages.get(0).getHeaders()));
+    }
+
+    @Test
+    public void testSubscribeWithHistoryLastReplaysToThatSubscriptionOnly() throws Exception {
+        RoomHistory history = history(16);
+        subscribe(history, "s1", null, null);
+        for (int i = 1; i <= 5; i++) history.publish("7", chat("m" + i));
+        received(5);
+
+        subscribe(history, "s2", RoomHistory.LAST_HEADER, "3");
+        List<Message<?>> replay = received(3);
+        assertEquals(List.of("3", "4", "5"), replay.stream().map(RoomHistoryTest::seq).toList());
+        assertEquals(List.of("m3", "m4", "m5"), replay.stream().map(RoomHistoryTest::content).toList());
+        for (Message<?> m : replay) {
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(m);
+            assertEquals("s2", headers.getSessionId());
+            assertEquals("sub-s2", headers.getSubscriptionId());
+        }
+
+        // The new subscriber is live as well
+        history.publish("7", chat("m6"));
+        assertEquals(2, received(2).size());
+    }
+
+    @Test
+    public void testSubscribeWithHistorySinceReplaysTheMissedMessages() throws Exception {
+        RoomHistory history = history(16);
+        for (int i = 1; i <= 6; i++) history.publish("7", chat("m" + i));
+
+        subscribe(history, "s1", RoomHistory.SINCE_HEADER, "4");
+        assertEquals(List.of("5", "6"), received(2).stream().map(RoomHistoryTest::seq).toList());
+
+        subscribe(history, "s2", RoomHistory.SINCE_HEADER, "6");
+        subscribe(history, "s3", RoomHistory.LAST_HEADER, "not a number");
+        subscribe(history, "s4", null, null);
+        received(0);
+        assertEquals(2, history.replays.sum(), "the malformed header is ignored");
+        assertEquals(2, history.replayedMessages.sum());
+    }
+
+    @Test
+    public void testWarmHistoryIsServedFromTheRing() {
+        RoomHistory history = history(4);
+        for (int i = 1; i <= 10; i++) history.publish("7", chat("m" + i));
+
+        List<Message<?>> last = history.last("7", 3);
+        assertEquals(List.of("m8", "m9", "m10"), last.stream().map(RoomHistoryTest::content).toList());
+        assertSame(last.get(2), history.last("7", 1).get(0), "the delivered message, not a copy");
+        assertEquals(0, history.coldReads.sum());
+
+        // Older than the ring: the rest comes from the mapped log
+        List<Message<?>> more = history.last("7", 8);
+        assertEquals(List.of("m3", "m4", "m5", "m6", "m7", "m8", "m9", "m10"), more.stream().map(RoomHistoryTest::content).toList());
+        assertEquals(List.of("3", "4", "5", "6", "7", "8", "9", "10"), more.stream().map(RoomHistoryTest::seq).toList());
+        assertEquals(1, history.coldReads.sum());
+    }
+
+    @Test
+    public void testHistorySurvivesARestart() {
+        RoomHistory before = history(16);
+        for (int i = 1; i <= 5; i++) before.publish("7", chat("m" + i));
+        before.destroy();
+        histories.remove(before);
+
+        RoomHistory after = history(16);
+        assertEquals(List.of("m4", "m5"), after.last("7", 2).stream().map(RoomHistoryTest::content).toList());
+        after.publish("7", chat("m6"));
+        List<Message<?>> since = after.since("7", 3, 10);
+        assertEquals(List.of("4", "5", "6"), since.stream().map(RoomHistoryTest::seq).toList());
+        assertTrue(after.last("unknown", 5).isEmpty());
+    }
+
+    @Test
+    public void testRoomsWithoutMembersLeaveNothingBehind() throws Exception {
+        RoomHistory history = history(16);
+        for (int i = 0; i < 100; i++) history.publish("made-up-" + i, chat("made-up-" + i, "x"));
+
+        assertEquals(0, history.appended.sum());
+        assertEquals(0, history.snapshot().get("rooms"));
+        assertFalse(Files.exists(dir.resolve("room-made-up-0")));
+        assertTrue(history.last("made-up-0", 5).isEmpty());
+        received(0);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedRoomIsClosedAtTheCap() {
+        for (String room : List.of("a", "b", "c")) registry.joinRoom(room, "alice");
+        RoomHistory history = history(16, 2);
+        history.publish("a", chat("a", "a1"));
+        history.publish("b", chat("b", "b1"));
+        history.last("a", 1); // a is used more recently than b
+
+        history.publish("c", chat("c", "c1"));
+        assertEquals(1, history.evicted.sum());
+        assertEquals(2, history.snapshot().get("rooms"));
+        assertEquals(List.of("a1"), history.last("a", 1).stream().map(RoomHistoryTest::content).toList());
+
+        // b is read back from disk, and its sequence goes on where it stopped
+        history.publish("b", chat("b", "b2"));
+        List<Message<?>> b = history.last("b", 2);
+        assertEquals(List.of("b1", "b2"), b.stream().map(RoomHistoryTest::content).toList());
+        assertEquals(List.of("1", "2"), b.stream().map(RoomHistoryTest::seq).toList());
+    }
+
+    @Test
+    public void testFailedAppendFallsBackToMemory() throws Exception {
+        RoomHistory history = history(16);
+        subscribe(history, "s1", null, null);
+        history.publish("7", chat("m1"));
+        // The next segment cannot be created
+        try (var files = Files.walk(dir.resolve("room-7"))) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+
+        for (int i = 2; i <= 300; i++) history.publish("7", chat("m" + i)); // more than one 4 KiB segment
+        assertEquals(300, received(300).size(), "live delivery goes on");
+        assertEquals(1, history.failedAppends.sum());
+        assertEquals(List.of("m299", "m300"), history.last("7", 2).stream().map(RoomHistoryTest::content).toList());
+        assertEquals(List.of("299", "300"), history.last("7", 2).stream().map(RoomHistoryTest::seq).toList());
+    }
+
+    @Test
+    public void testRoomThatFellBehindItsLogKeepsItsSeqOnceReopened() throws Exception {
+        registry.joinRoom("other", "alice");
+        RoomHistory history = history(16, 1);
+        history.publish("7", chat("m1"));
+        try (var files = Files.walk(dir.resolve("room-7"))) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+        for (int i = 2; i <= 300; i++) history.publish("7", chat("m" + i));
+        assertEquals(1, history.failedAppends.sum());
+
+        // Closing room 7 to open another, then coming back to it
+        history.publish("other", chat("other", "x"));
+        assertEquals(1, history.evicted.sum());
+        history.publish("7", chat("m301"));
+        assertEquals(List.of("301"), history.since("7", 299, 10).stream().map(RoomHistoryTest::seq).toList());
+        assertEquals(List.of("m301"), history.last("7", 5).stream().map(RoomHistoryTest::content).toList());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedRoomDirectoryIsDeletedAtTheCap() throws Exception {
+        for (String room : List.of("a", "b", "c")) registry.joinRoom(room, "alice");
+        RoomHistory history = history(16, 1, 2);
+        history.publish("a", chat("a", "a1"));
+        history.publish("b", chat("b", "b1"));
+        assertTrue(Files.isDirectory(dir.resolve("room-a")));
+
+        history.publish("c", chat("c", "c1"));
+        assertFalse(Files.exists(dir.resolve("room-a")));
+        assertTrue(Files.isDirectory(dir.resolve("room-b")));
+        assertTrue(Files.isDirectory(dir.resolve("room-c")));
+        assertEquals(1, history.deletedRooms.sum());
+        assertTrue(history.last("a", 5).isEmpty());
+        assertEquals(List.of("b1"), history.last("b", 5).stream().map(RoomHistoryTest::content).toList());
+        history.destroy();
+
+        // The cap counts the directories found on disk after a restart too
+        RoomHistory after = history(16, 1, 2);
+        after.publish("a", chat("a", "a2"));
+        assertFalse(Files.exists(dir.resolve("room-b")) && Files.exists(dir.resolve("room-c")));
+        assertEquals(2, after.snapshot().get("roomsOnDisk"));
+    }
+}
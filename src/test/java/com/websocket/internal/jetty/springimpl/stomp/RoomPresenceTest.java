@@ -0,0 +1,136 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomPresenceTest {
+
+    private final RoomRegistry registry = new RoomRegistry();
+    private final BlockingQueue<Message<?>> published = new LinkedBlockingQueue<>();
+    private RoomPresence presence;
+
+    private RoomPresence presence(long coalesceMillis) {
+        ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+        channel.subscribe(published::add);
+        presence = new RoomPresence(registry, new SimpMessagingTemplate(channel), coalesceMillis);
+        return presence;
+    }
+
+    @AfterEach
+    void stop() {
+        presence.destroy();
+    }
+
+    private void join(String roomId, String user) {
+        registry.joinRoom(roomId, user);
+        presence.changed(roomId);
+    }
+
+    private void leave(String roomId, String user) {
+        registry.leaveRoom(roomId, user);
+        presence.changed(roomId);
+    }
+
+    private RoomPresence.Delta nextDelta(long timeoutMillis) throws InterruptedException {
+        Message<?> m = published.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (m == null) return null;
+        assertTrue(SimpMessageHeaderAccessor.getDestination(m.getHeaders()).startsWith(RoomPresence.PRESENCE_PREFIX));
+        return (RoomPresence.Delta) m.getPayload();
+    }
+
+    @Test
+    public void testDeltasCarryTheNetChangeAndChainVersions() throws Exception {
+        presence(60_000); // flushed by hand
+        join("7", "a");
+        join("7", "b");
+        join("7", "c");
+        presence.flush("7");
+        RoomPresence.Delta first = nextDelta(1000);
+        assertEquals(0, first.fromVersion());
+        assertEquals(1, first.version());
+        assertEquals(Set.of("a", "b", "c"), Set.copyOf(first.joined()));
+        assertTrue(first.left().isEmpty());
+
+        join("7", "d");
+        leave("7", "d");
+        presence.flush("7");
+        assertNull(nextDelta(100), "a join undone in the same window is never sent");
+
+        leave("7", "a");
+        join("7", "e");
+        join("7", "b"); // already a member
+        presence.flush("7");
+        RoomPresence.Delta second = nextDelta(1000);
+        assertEquals(1, second.fromVersion());
+        assertEquals(2, second.version());
+        assertEquals(List.of("e"), List.copyOf(second.joined()));
+        assertEquals(List.of("a"), List.copyOf(second.left()));
+
+        RoomPresence.Snapshot snapshot = presence.snapshot("7");
+        assertEquals(2, snapshot.version());
+        assertEquals(Set.of("b", "c", "e"), Set.copyOf(snapshot.members()));
+        // An untracked room starts where the versions have got to, not back at 0
+        assertEquals(new RoomPresence.Snapshot("8", 2, List.of()), presence.snapshot("8"));
+    }
+
+    @Test
+    public void testChurnWithinTheWindowIsCoalescedIntoOneDelta() throws Exception {
+        presence(100);
+        for (int i = 0; i < 1000; i++) join("big", "u" + i);
+        for (int i = 0; i < 500; i++) leave("big", "u" + i);
+
+        RoomPresence.Delta delta = nextDelta(5000);
+        assertEquals(500, delta.joined().size());
+        assertTrue(delta.left().isEmpty());
+        assertNull(nextDelta(300));
+        assertEquals(1, presence.deltasPublished.sum());
+        assertEquals(1500, presence.changes.sum());
+    }
+
+    @Test
+    public void testEmptiedRoomKeepsItsVersionsGrowing() throws Exception {
+        presence(60_000);
+        join("7", "a");
+        presence.flush("7");
+        assertEquals(1, nextDelta(1000).version());
+        leave("7", "a");
+        presence.flush("7");
+        RoomPresence.Delta emptied = nextDelta(1000);
+        assertEquals(List.of("a"), List.copyOf(emptied.left()));
+        assertEquals(2, presence.snapshot("7").version(), "not tracked any more, but not back at 0");
+
+        // Refilled: the delta chains on from what a client last saw
+        join("7", "b");
+        presence.flush("7");
+        RoomPresence.Delta refilled = nextDelta(1000);
+        assertEquals(2, refilled.fromVersion());
+        assertEquals(3, refilled.version());
+        leave("7", "b");
+        presence.flush("7");
+        assertEquals(4, nextDelta(1000).version());
+
+        // Other rooms moved on meanwhile: a client at 4 sees a gap and takes a snapshot
+        for (int i = 0; i < 3; i++) {
+            join("8", "u" + i);
+            presence.flush("8");
+            nextDelta(1000);
+        }
+        join("7", "c");
+        presence.flush("7");
+        RoomPresence.Delta later = nextDelta(1000);
+        assertEquals(7, later.fromVersion(), "where room 8 got to");
+        assertEquals(8, later.version());
+    }
+}
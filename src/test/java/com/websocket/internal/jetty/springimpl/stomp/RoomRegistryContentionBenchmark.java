@@ -0,0 +1,147 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark: RoomRegistry against the previous single-lock implementation.
+ *
+ * Each worker thread runs a mix that mirrors ChatController traffic on many churning rooms:
+ * join / leave (the JOIN and LEAVE messages), getMembers (readers iterating a room), memberCount,
+ * and now and then a leaveAll for a disconnecting user. Reported per thread count: total ops/s for
+ * both registries. The baseline's leaveAll has no reverse index and scans every room.
+ *
+ * Configuration (system properties):
+ *  -Dthreads=1,4,16 -Drooms=5000 -Dusers=20000 -DdurationMs=2000 -DreadPercent=50
+ */
+public class RoomRegistryContentionBenchmark {
+
+    private static final int[] THREADS = Arrays.stream(System.getProperty("threads", "1,4,16").split(","))
+          .mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    private static final int ROOMS = Integer.getInteger("rooms", 5000);
+    private static final int USERS = Integer.getInteger("users", 20000);
+    private static final long DURATION_MS = Long.getLong("durationMs", 2000);
+    private static final int READ_PERCENT = Integer.getInteger("readPercent", 50);
+
+    /** The operations both registries support. */
+    private interface Registry {
+        void join(String room, String user);
+        void leave(String room, String user);
+        int readMembers(String room);
+        int count(String room);
+        void leaveAll(String user);
+    }
+
+    /** RoomRegistry as it was: one monitor around a HashMap of HashSets. */
+    private static final class SynchronizedRegistry implements Registry {
+        private final Map<String, Set<String>> roomMembers = new HashMap<>();
+
+        public synchronized void join(String room, String user) {
+            roomMembers.computeIfAbsent(room, k -> new HashSet<>()).add(user);
+        }
+
+        public synchronized void leave(String room, String user) {
+            Set<String> members = roomMembers.get(room);
+            if (members != null) {
+                members.remove(user);
+                if (members.isEmpty()) roomMembers.remove(room);
+            }
+        }
+
+        public int readMembers(String room) {
+            // Callers used to iterate the live set outside the lock; copy under it to stay correct
+            synchronized (this) {
+                return new HashSet<>(roomMembers.getOrDefault(room, Collections.emptySet())).size();
+            }
+        }
+
+        public synchronized int count(String room) {
+            return roomMembers.getOrDefault(room, Collections.emptySet()).size();
+        }
+
+        public synchronized void leaveAll(String user) {
+            roomMembers.values().removeIf(members -> members.remove(user) && members.isEmpty());
+        }
+    }
+
+    private static final class Sharded implements Registry {
+        private final RoomRegistry registry = new RoomRegistry();
+
+        public void join(String room, String user) { registry.joinRoom(room, user); }
+        public void leave(String room, String user) { registry.leaveRoom(room, user); }
+        public int readMembers(String room) {
+            int n = 0;
+            for (String ignored : registry.getMembers(room)) n++;
+            return n;
+        }
+        public int count(String room) { return registry.memberCount(room); }
+        public void leaveAll(String user) { registry.leaveAll(user); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] rooms = new String[ROOMS];
+        String[] users = new String[USERS];
+        for (int i = 0; i < ROOMS; i++) rooms[i] = "room-" + i;
+        for (int i = 0; i < USERS; i++) users[i] = "user-" + i;
+
+        // Warm-up
+        run(new SynchronizedRegistry(), 4, rooms, users);
+        run(new Sharded(), 4, rooms, users);
+
+        System.out.printf("%d rooms, %d users, %d%% reads, %d ms per cell%n", ROOMS, USERS, READ_PERCENT, DURATION_MS);
+        System.out.printf("%-8s %16s %16s %8s%n", "threads", "synchronized/s", "sharded/s", "speedup");
+        for (int threads : THREADS) {
+            double baseline = run(new SynchronizedRegistry(), threads, rooms, users);
+            double sharded = run(new Sharded(), threads, rooms, users);
+            System.out.printf("%-8d %16.0f %16.0f %7.1fx%n", threads, baseline, sharded, sharded / baseline);
+        }
+    }
+
+    private static double run(Registry registry, int threads, String[] rooms, String[] users) throws Exception {
+        // Pre-populate so readers see non-trivial rooms
+        ThreadLocalRandom seed = ThreadLocalRandom.current();
+        for (int i = 0; i < USERS; i++) registry.join(rooms[seed.nextInt(rooms.length)], users[i]);
+
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long[] blackhole = new long[threads];
+        List<Future<?>> futures = new ArrayList<>();
+        long[] end = new long[1];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                long n = 0;
+                while (System.nanoTime() < end[0]) {
+                    String room = rooms[rnd.nextInt(rooms.length)];
+                    String user = users[rnd.nextInt(users.length)];
+                    int op = rnd.nextInt(100);
+                    if (op < READ_PERCENT) {
+                        blackhole[id] += registry.readMembers(room);
+                    } else if (op < READ_PERCENT + 10) {
+                        blackhole[id] += registry.count(room);
+                    } else if (op == 99) {
+                        registry.leaveAll(user);
+                    } else if ((op & 1) == 0) {
+                        registry.join(room, user);
+                    } else {
+                        registry.leave(room, user);
+                    }
+                    n++;
+                }
+                ops.add(n);
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        end[0] = begin + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        start.countDown();
+        for (Future<?> f : futures) f.get();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        return ops.sum() / (elapsed / 1e9);
+    }
+}
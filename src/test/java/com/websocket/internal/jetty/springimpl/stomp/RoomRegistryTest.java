@@ -0,0 +1,134 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomRegistryTest {
+
+    @Test
+    public void testJoinLeaveAndCounts() {
+        RoomRegistry registry = new RoomRegistry(4);
+        registry.joinRoom("r1", "alice");
+        registry.joinRoom("r1", "bob");
+        registry.joinRoom("r1", "bob");
+        registry.joinRoom("r2", "alice");
+
+        assertEquals(Set.of("alice", "bob"), registry.getMembers("r1"));
+        assertEquals(2, registry.memberCount("r1"));
+        assertTrue(registry.isMember("r2", "alice"));
+        assertEquals(Set.of("r1", "r2"), registry.getRooms("alice"));
+        assertEquals(2, registry.roomCount());
+
+        registry.leaveRoom("r2", "alice");
+        assertEquals(1, registry.roomCount(), "empty rooms are removed");
+        assertEquals(Set.of("r1"), registry.getRooms("alice"));
+        assertEquals(Set.of(), registry.getMembers("r2"));
+        assertEquals(0, registry.memberCount("unknown"));
+    }
+
+    @Test
+    public void testSnapshotsAreImmutableAndStable() {
+        RoomRegistry registry = new RoomRegistry(4);
+        registry.joinRoom("r1", "alice");
+        Set<String> before = registry.getMembers("r1");
+        assertThrows(UnsupportedOperationException.class, () -> before.add("mallory"));
+        assertSame(before, registry.getMembers("r1"), "unchanged room hands out the cached snapshot");
+
+        registry.joinRoom("r1", "bob");
+        assertEquals(Set.of("alice"), before, "old snapshot is not affected by later joins");
+        assertEquals(Set.of("alice", "bob"), registry.getMembers("r1"));
+    }
+
+    @Test
+    public void testLeaveAllUsesReverseIndex() {
+        RoomRegistry registry = new RoomRegistry(4);
+        for (int i = 0; i < 50; i++) registry.joinRoom("room-" + i, "alice");
+        registry.joinRoom("room-0", "bob");
+
+        assertEquals(50, registry.leaveAll("alice").size());
+        assertEquals(Set.of(), registry.getRooms("alice"));
+        assertEquals(1, registry.roomCount());
+        assertEquals(Set.of("bob"), registry.getMembers("room-0"));
+        assertEquals(Set.of(), registry.leaveAll("alice"));
+    }
+
+    @Test
+    public void testConcurrentChurnLeavesConsistentIndexes() throws Exception {
+        RoomRegistry registry = new RoomRegistry(8);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    String room = "room-" + rnd.nextInt(32);
+                    String user = "user-" + rnd.nextInt(16);
+                    switch (rnd.nextInt(4)) {
+                        case 0, 1 -> registry.joinRoom(room, user);
+                        case 2 -> registry.leaveRoom(room, user);
+                        default -> registry.getMembers(room).size();
+                    }
+                }
+                // Every thread ends with a known membership
+                registry.joinRoom("final", "thread-" + id);
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(threads, registry.getMembers("final").size());
+        // Forward and reverse indexes agree
+        for (int u = 0; u < 16; u++) {
+            String user = "user-" + u;
+            for (String room : registry.getRooms(user)) {
+                assertTrue(registry.isMember(room, user), user + " indexed in " + room);
+            }
+            for (int r = 0; r < 32; r++) {
+                String room = "room-" + r;
+                assertEquals(registry.isMember(room, user), registry.getRooms(user).contains(room));
+            }
+        }
+    }
+
+    @Test
+    public void testLeaveAllRacingJoinsLeavesConsistentIndexes() throws Exception {
+        RoomRegistry registry = new RoomRegistry(8);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 2_000; round++) {
+                for (int r = 0; r < 64; r++) registry.joinRoom("room-" + r, "alice");
+                CyclicBarrier start = new CyclicBarrier(2);
+                Future<?> joins = pool.submit(() -> {
+                    start.await();
+                    for (int r = 0; r < 64; r++) registry.joinRoom("room-" + r, "alice");
+                    return null;
+                });
+                Future<?> leave = pool.submit(() -> {
+                    start.await();
+                    return registry.leaveAll("alice");
+                });
+                joins.get(5, TimeUnit.SECONDS);
+                leave.get(5, TimeUnit.SECONDS);
+
+                for (int r = 0; r < 64; r++) {
+                    String room = "room-" + r;
+                    assertEquals(registry.isMember(room, "alice"), registry.getRooms("alice").contains(room),
+                          "round " + round + ": alice in " + room);
+                }
+                registry.leaveAll("alice");
+                assertEquals(0, registry.roomCount(), "round " + round + ": nothing is left behind");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
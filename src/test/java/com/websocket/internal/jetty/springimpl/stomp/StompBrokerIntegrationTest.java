@@ -0,0 +1,248 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import com.websocket.internal.jetty.springimpl.JettyWebsocketApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** End to end over STOMP: @MessageMapping -> SimpMessagingTemplate -> TrieBrokerMessageHandler -> client. */
+@SpringBootTest(classes = JettyWebsocketApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class StompBrokerIntegrationTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private AbstractBrokerMessageHandler simpleBrokerMessageHandler;
+
+    @Autowired
+    private OfflineDelivery offlineDelivery;
+
+    private final List<StompSession> sessions = new ArrayList<>();
+
+    @AfterEach
+    void disconnect() throws InterruptedException {
+        sessions.forEach(StompSession::disconnect);
+        // The context is shared between tests; let the broker drop these sessions' subscriptions
+        TrieBrokerMessageHandler broker = (TrieBrokerMessageHandler) simpleBrokerMessageHandler;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (broker.subscriptionCount() > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+    }
+
+    private StompSession connect(String username) throws Exception {
+        return connect(username, new StompHeaders());
+    }
+
+    private StompSession connect(String username, StompHeaders connectHeaders) throws Exception {
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        // Picks by the frame's content-type, like the browser client
+        client.setMessageConverter(new CompositeMessageConverter(
+              List.of(new ChatMessageCompactConverter(), new MappingJackson2MessageConverter())));
+        StompSession session = client.connectAsync("ws://localhost:" + port + "/ws-stomp/websocket?username=" + username,
+              new WebSocketHttpHeaders(), connectHeaders, new StompSessionHandlerAdapter() {}).get(10, TimeUnit.SECONDS);
+        sessions.add(session);
+        return session;
+    }
+
+    private static BlockingQueue<ChatMessage> subscribe(StompSession session, String destination) {
+        return subscribe(session, destination, new LinkedBlockingQueue<>());
+    }
+
+    private static BlockingQueue<ChatMessage> subscribe(StompSession session, String destination,
+          BlockingQueue<String> contentTypes) {
+        BlockingQueue<ChatMessage> inbox = new LinkedBlockingQueue<>();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return ChatMessage.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                contentTypes.add(String.valueOf(headers.getContentType()));
+                inbox.add((ChatMessage) payload);
+            }
+        });
+        return inbox;
+    }
+
+    private static BlockingQueue<JsonNode> subscribeJson(StompSession session, String destination) {
+        BlockingQueue<JsonNode> inbox = new LinkedBlockingQueue<>();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return JsonNode.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                inbox.add((JsonNode) payload);
+            }
+        });
+        return inbox;
+    }
+
+    private void awaitSubscriptions(int count) throws InterruptedException {
+        // SUBSCRIBE frames carry no receipt here; wait until the broker has registered them
+        TrieBrokerMessageHandler broker = (TrieBrokerMessageHandler) simpleBrokerMessageHandler;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (broker.subscriptionCount() < count && System.nanoTime() < deadline) Thread.sleep(10);
+    }
+
+    private static ChatMessage message(String from, String to, String roomId, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setType("CHAT");
+        m.setFrom(from);
+        m.setTo(to);
+        m.setRoomId(roomId);
+        m.setContent(content);
+        return m;
+    }
+
+    @Test
+    public void testBroadcastRoomAndPrivateMessagesGoThroughTrieBroker() throws Exception {
+        assertInstanceOf(TrieBrokerMessageHandler.class, simpleBrokerMessageHandler);
+
+        StompSession alice = connect("alice");
+        StompSession bob = connect("bob");
+        BlockingQueue<ChatMessage> alicePublic = subscribe(alice, "/topic/public");
+        BlockingQueue<ChatMessage> bobPublic = subscribe(bob, "/topic/public");
+        BlockingQueue<ChatMessage> bobRoom = subscribe(bob, "/topic/room/7");
+        BlockingQueue<ChatMessage> bobPrivate = subscribe(bob, "/user/queue/private");
+
+        awaitSubscriptions(4);
+
+        alice.send("/app/chat", message("alice", null, null, "hello all"));
+        assertEquals("hello all", alicePublic.poll(5, TimeUnit.SECONDS).getContent());
+        assertEquals("hello all", bobPublic.poll(5, TimeUnit.SECONDS).getContent());
+
+        alice.send("/app/chat", message("alice", null, "7", "hello room"));
+        assertEquals("hello room", bobRoom.poll(5, TimeUnit.SECONDS).getContent());
+
+        alice.send("/app/chat", message("alice", "bob", null, "hello bob"));
+        assertEquals("hello bob", bobPrivate.poll(5, TimeUnit.SECONDS).getContent());
+        assertNull(alicePublic.poll(200, TimeUnit.MILLISECONDS), "room and private messages stay off /topic/public");
+    }
+
+    @Test
+    public void testOfflineMessagesAreAckedOnceWrittenToTheSession() throws Exception {
+        String carol = "carol-" + System.nanoTime(); // the offline log outlives the test context
+        StompSession alice = connect("alice");
+        alice.send("/app/chat", message("alice", carol, null, "while you were away"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (offlineDelivery.pending(carol) == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(1, offlineDelivery.pending(carol));
+
+        BlockingQueue<ChatMessage> inbox = subscribe(connect(carol), "/user/queue/private");
+        assertEquals("while you were away", inbox.poll(5, TimeUnit.SECONDS).getContent());
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (offlineDelivery.pending(carol) > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(0, offlineDelivery.pending(carol));
+    }
+
+    @Test
+    public void testCompactEncodingIsNegotiatedPerSession() throws Exception {
+        StompHeaders acceptCompact = new StompHeaders();
+        acceptCompact.set(ChatMessageEncoding.ACCEPT_HEADER, "application/x-chat-compact,application/json");
+        StompSession carol = connect("carol", acceptCompact);
+        StompSession dave = connect("dave");
+        BlockingQueue<String> carolTypes = new LinkedBlockingQueue<>();
+        BlockingQueue<String> daveTypes = new LinkedBlockingQueue<>();
+        BlockingQueue<ChatMessage> carolPublic = subscribe(carol, "/topic/public", carolTypes);
+        BlockingQueue<ChatMessage> davePublic = subscribe(dave, "/topic/public", daveTypes);
+        BlockingQueue<ChatMessage> carolRoom = subscribe(carol, "/topic/room/9", carolTypes);
+        awaitSubscriptions(3);
+
+        // carol also sends in the compact encoding
+        StompHeaders send = new StompHeaders();
+        send.setDestination("/app/chat");
+        send.setContentType(ChatMessageCompactConverter.CHAT_COMPACT);
+        carol.send(send, message("carol", null, null, "compact ünïcode 👋"));
+
+        assertEquals("compact ünïcode 👋", carolPublic.poll(5, TimeUnit.SECONDS).getContent());
+        assertTrue(carolTypes.poll().startsWith("application/x-chat-compact"));
+        assertEquals("compact ünïcode 👋", davePublic.poll(5, TimeUnit.SECONDS).getContent());
+        assertTrue(daveTypes.poll().startsWith("application/json"));
+
+        dave.send("/app/chat", message("dave", null, "9", "to room 9"));
+        assertEquals("to room 9", carolRoom.poll(5, TimeUnit.SECONDS).getContent());
+        assertTrue(carolTypes.poll().startsWith("application/x-chat-compact"));
+    }
+
+    @Test
+    public void testChannelQueueMetricsAreExposed() throws Exception {
+        StompSession erin = connect("erin");
+        BlockingQueue<ChatMessage> erinPublic = subscribe(erin, "/topic/public");
+        awaitSubscriptions(1);
+        erin.send("/app/chat", message("erin", null, null, "measured"));
+        assertEquals("measured", erinPublic.poll(5, TimeUnit.SECONDS).getContent());
+
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+              HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/stomp/metrics")).build(),
+              HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        JsonNode metrics = new ObjectMapper().readTree(response.body());
+        for (String channel : new String[] { "clientInbound", "brokerLanes", "clientOutbound" }) {
+            assertTrue(metrics.path(channel).path("tasks").asLong() > 0, channel + " " + metrics.path(channel));
+            assertTrue(metrics.path(channel).has("p99WaitMicros"));
+        }
+        assertTrue(metrics.path("broker").path("delivered").asLong() > 0);
+        assertTrue(metrics.path("outboundBatching").path("batchesSent").asLong() > 0, "/topic frames go through the batcher");
+    }
+
+    @Test
+    public void testPresenceSnapshotThenDeltas() throws Exception {
+        StompSession frank = connect("frank");
+        StompSession grace = connect("grace");
+        ChatMessage join = message("frank", null, "lobby", null);
+        join.setType("JOIN");
+        frank.send("/app/chat", join);
+
+        BlockingQueue<JsonNode> deltas = subscribeJson(grace, "/topic/presence/lobby");
+        awaitSubscriptions(1);
+        JsonNode snapshot = null;
+        for (int i = 0; i < 50 && (snapshot == null || snapshot.path("members").isEmpty()); i++) {
+            snapshot = subscribeJson(grace, "/app/presence/lobby").poll(5, TimeUnit.SECONDS);
+            if (snapshot.path("members").isEmpty()) Thread.sleep(50); // the join has not been published yet
+        }
+        assertEquals("[\"frank\"]", snapshot.path("members").toString());
+        long version = snapshot.path("version").asLong();
+
+        join.setFrom("grace");
+        grace.send("/app/chat", join);
+        JsonNode delta = deltas.poll(5, TimeUnit.SECONDS);
+        // Frank's own delta may still be on its way; the snapshot already covers it, as in the client
+        while (delta != null && delta.path("version").asLong() <= version) delta = deltas.poll(5, TimeUnit.SECONDS);
+        assertEquals(version, delta.path("fromVersion").asLong());
+        assertEquals(version + 1, delta.path("version").asLong());
+        assertEquals("[\"grace\"]", delta.path("joined").toString());
+        assertEquals("[]", delta.path("left").toString());
+    }
+}
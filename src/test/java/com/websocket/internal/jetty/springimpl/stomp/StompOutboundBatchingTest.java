@@ -0,0 +1,208 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class StompOutboundBatchingTest {
+
+    private StompOutboundBatching batching;
+    // What the timer sent to the outbound channel
+    private final BlockingQueue<Message<?>> outbound = new LinkedBlockingQueue<>();
+    // Whether the outbound channel hands those messages to the session at once, as Spring's handler would
+    private boolean deliverOutbound = true;
+
+    @AfterEach
+    void shutdown() {
+        if (batching != null) batching.destroy();
+    }
+
+    private static String frame(String destination, String body) {
+        return "MESSAGE\nsubscription:sub-0\ndestination:" + destination + "\ncontent-type:application/json\n\n" + body + "\0";
+    }
+
+    /** The batching session Spring's handler would see, and the transport session underneath it. */
+    private WebSocketSession[] connect(String windows, int maxChars) throws Exception {
+        AtomicReference<WebSocketSession> seen = new AtomicReference<>();
+        MessageChannel channel = (m, timeout) -> {
+            outbound.add(m);
+            if (deliverOutbound) deliver(seen.get(), m);
+            return true;
+        };
+        batching = new StompOutboundBatching(channel, true, windows, maxChars, 1);
+        WebSocketSession transport = mock(WebSocketSession.class);
+        when(transport.getId()).thenReturn("s1");
+        WebSocketHandler inner = mock(WebSocketHandler.class);
+        doAnswer(inv -> {
+            seen.set(inv.getArgument(0));
+            return null;
+        }).when(inner).afterConnectionEstablished(any());
+        batching.decorate(inner).afterConnectionEstablished(transport);
+        return new WebSocketSession[] { seen.get(), transport };
+    }
+
+    /** What StompSubProtocolHandler does with a HEARTBEAT from the outbound channel. */
+    private static void deliver(WebSocketSession session, Message<?> message) {
+        assertEquals(SimpMessageType.HEARTBEAT, SimpMessageHeaderAccessor.getMessageType(message.getHeaders()));
+        assertEquals(session.getId(), SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+        try {
+            session.sendMessage(new TextMessage(StompOutboundBatching.HEARTBEAT));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<String> sent(WebSocketSession transport, int expected) throws Exception {
+        ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(transport, timeout(2000).times(expected)).sendMessage(captor.capture());
+        return captor.getAllValues().stream().map(m -> m.getPayload().toString()).toList();
+    }
+
+    @Test
+    public void testRulesPickTheLongestPrefix() {
+        batching = new StompOutboundBatching((m, timeout) -> true, true, "/topic/=5, /topic/room/vip=0,/topic/room/=20", 1024, 1);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), batching.windowNanos(frame("/topic/room/7", "{}")));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), batching.windowNanos(frame("/topic/public", "{}")));
+        assertEquals(0, batching.windowNanos(frame("/topic/room/vip", "{}")));
+        assertEquals(0, batching.windowNanos(frame("/user/queue/private", "{}")));
+        assertEquals(0, batching.windowNanos("CONNECTED\nversion:1.2\n\n\0"));
+        assertEquals(0, batching.windowNanos("\n"));
+        assertEquals(0, batching.windowNanos("MESSAGE\nsubscription:sub-0\n\ndestination:/topic/x\0"), "only headers count");
+        assertThrows(IllegalArgumentException.class, () -> StompOutboundBatching.parseRules("/topic/"));
+    }
+
+    @Test
+    public void testFramesWithinTheWindowGoOutAsOneMessage() throws Exception {
+        WebSocketSession[] s = connect("/topic/=50", 1 << 16);
+        for (int i = 0; i < 3; i++) s[0].sendMessage(new TextMessage(frame("/topic/public", "m" + i)));
+        verify(s[1], never()).sendMessage(any());
+
+        List<String> out = sent(s[1], 1);
+        assertEquals(frame("/topic/public", "m0") + frame("/topic/public", "m1") + frame("/topic/public", "m2"), out.get(0));
+        assertEquals(1, batching.batchesSent.sum());
+        assertEquals(3, batching.framesBatched.sum());
+    }
+
+    @Test
+    public void testImmediateFramesFlushWhatIsHeldFirst() throws Exception {
+        WebSocketSession[] s = connect("/topic/=10000", 1 << 16);
+        s[0].sendMessage(new TextMessage(frame("/topic/public", "a")));
+        s[0].sendMessage(new TextMessage(frame("/topic/public", "b")));
+        s[0].sendMessage(new TextMessage(frame("/user/queue/private", "dm")));
+        s[0].sendMessage(new BinaryMessage(new byte[] { 1 }));
+
+        List<String> out = sent(s[1], 3);
+        assertEquals(frame("/topic/public", "a") + frame("/topic/public", "b"), out.get(0));
+        assertEquals(frame("/user/queue/private", "dm"), out.get(1));
+        assertTrue(out.get(2).startsWith("java.nio"), "binary frames pass through");
+    }
+
+    @Test
+    public void testBatchesStayUnderTheSizeCap() throws Exception {
+        String f = frame("/topic/public", "x".repeat(40));
+        WebSocketSession[] s = connect("/topic/=10000", f.length() * 2 + 1);
+        for (int i = 0; i < 5; i++) s[0].sendMessage(new TextMessage(f));
+        List<String> out = sent(s[1], 2);
+        assertEquals(f + f, out.get(0));
+        assertEquals(f + f, out.get(1));
+
+        s[0].sendMessage(new TextMessage(frame("/topic/public", "y".repeat(200)))); // larger than the cap on its own
+        out = sent(s[1], 4);
+        assertEquals(f, out.get(2));
+        assertEquals(frame("/topic/public", "y".repeat(200)), out.get(3));
+    }
+
+    @Test
+    public void testTimerHandsTheFlushToTheOutboundChannel() throws Exception {
+        deliverOutbound = false;
+        WebSocketSession[] s = connect("/topic/=20", 1 << 16);
+        s[0].sendMessage(new TextMessage(frame("/topic/public", "a")));
+        s[0].sendMessage(new TextMessage(frame("/topic/public", "b")));
+
+        Message<?> heartbeat = outbound.poll(2, TimeUnit.SECONDS);
+        assertNotNull(heartbeat);
+        Thread.sleep(100);
+        verify(s[1], never()).sendMessage(any());
+        assertTrue(outbound.isEmpty(), "one request per pending batch");
+
+        // The outbound thread flushes; the heart-beat that carried the flush is not sent
+        deliver(s[0], heartbeat);
+        assertEquals(List.of(frame("/topic/public", "a") + frame("/topic/public", "b")), sent(s[1], 1));
+
+        // A heart-beat with nothing held goes out as usual
+        s[0].sendMessage(new TextMessage(StompOutboundBatching.HEARTBEAT));
+        assertEquals(StompOutboundBatching.HEARTBEAT, sent(s[1], 2).get(1));
+    }
+
+    @Test
+    public void testSlowClientDoesNotPinTheTimerThread() throws Exception {
+        batching = new StompOutboundBatching((m, timeout) -> outbound.add(m), true, "/topic/=20", 1 << 16, 1);
+        Map<String, WebSocketSession> seen = new ConcurrentHashMap<>();
+        WebSocketHandler inner = mock(WebSocketHandler.class);
+        doAnswer(inv -> {
+            WebSocketSession session = inv.getArgument(0);
+            seen.put(session.getId(), session);
+            return null;
+        }).when(inner).afterConnectionEstablished(any());
+        WebSocketHandler handler = batching.decorate(inner);
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WebSocketSession slowTransport = mock(WebSocketSession.class);
+        when(slowTransport.getId()).thenReturn("slow");
+        doAnswer(inv -> {
+            writing.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        }).when(slowTransport).sendMessage(any());
+        WebSocketSession otherTransport = mock(WebSocketSession.class);
+        when(otherTransport.getId()).thenReturn("other");
+        handler.afterConnectionEstablished(slowTransport);
+        handler.afterConnectionEstablished(otherTransport);
+
+        // An outbound thread holds the slow session's lock while its transport takes the batch,
+        // and the slow session's timer comes due meanwhile
+        WebSocketSession slow = seen.get("slow");
+        slow.sendMessage(new TextMessage(frame("/topic/public", "a")));
+        Thread writer = new Thread(() -> {
+            try {
+                slow.sendMessage(new TextMessage("RECEIPT\nreceipt-id:1\n\n\0"));
+            } catch (IOException ignored) {
+            }
+        });
+        writer.start();
+        assertTrue(writing.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        // The only timer thread is still free for the other session
+        seen.get("other").sendMessage(new TextMessage(frame("/topic/public", "b")));
+        Message<?> heartbeat = outbound.poll(2, TimeUnit.SECONDS);
+        assertNotNull(heartbeat, "timer thread stuck behind the slow session");
+        assertEquals("other", SimpMessageHeaderAccessor.getSessionId(heartbeat.getHeaders()));
+
+        release.countDown();
+        writer.join(2000);
+    }
+}
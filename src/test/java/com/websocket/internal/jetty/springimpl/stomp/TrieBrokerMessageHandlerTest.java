@@ -0,0 +1,181 @@
+package com.websocket.internal.jetty.springimpl.stomp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrieBrokerMessageHandlerTest {
+
+    private final ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+    private final TrieBrokerMessageHandler broker = new TrieBrokerMessageHandler(
+          inbound, outbound, brokerChannel, List.of("/topic", "/queue"), 4, 64, 16);
+
+    {
+        outbound.subscribe(sent::add);
+        broker.start();
+    }
+
+    @AfterEach
+    void stop() {
+        broker.stop();
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId,
+          String destination, String payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(payload.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private Message<?> next() throws InterruptedException {
+        Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(m, "expected an outbound message");
+        return m;
+    }
+
+    @Test
+    public void testConnectIsAcknowledged() throws Exception {
+        Message<byte[]> connect = frame(SimpMessageType.CONNECT, "s1", null, null, "");
+        inbound.send(connect);
+
+        Message<?> ack = next();
+        assertEquals(SimpMessageType.CONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(ack.getHeaders()));
+        assertEquals("s1", SimpMessageHeaderAccessor.getSessionId(ack.getHeaders()));
+        assertSame(connect, ack.getHeaders().get(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER));
+    }
+
+    @Test
+    public void testPublishReachesEverySubscriberInOrder() throws Exception {
+        int sessions = 20;
+        int messages = 200;
+        for (int s = 0; s < sessions; s++) {
+            inbound.send(frame(SimpMessageType.SUBSCRIBE, "s" + s, "sub-" + s, "/topic/room/1", ""));
+        }
+        inbound.send(frame(SimpMessageType.SUBSCRIBE, "other", "x", "/topic/room/2", ""));
+        assertEquals(sessions + 1, broker.subscriptionCount());
+
+        for (int m = 0; m < messages; m++) {
+            // Application messages (SimpMessagingTemplate, @SendTo) go through the broker channel
+            brokerChannel.send(frame(SimpMessageType.MESSAGE, null, null, "/topic/room/1", "m" + m));
+        }
+
+        Map<String, Integer> nextExpected = new HashMap<>();
+        for (int i = 0; i < sessions * messages; i++) {
+            Message<?> m = next();
+            String session = SimpMessageHeaderAccessor.getSessionId(m.getHeaders());
+            assertEquals("sub-" + session.substring(1), SimpMessageHeaderAccessor.getSubscriptionId(m.getHeaders()));
+            assertEquals("/topic/room/1", SimpMessageHeaderAccessor.getDestination(m.getHeaders()));
+            int expected = nextExpected.merge(session, 1, Integer::sum) - 1;
+            assertEquals("m" + expected, new String((byte[]) m.getPayload(), StandardCharsets.UTF_8), "order for " + session);
+        }
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS), "nothing for the other room");
+        assertEquals(messages, broker.published.sum());
+        assertEquals((long) sessions * messages, broker.delivered.sum());
+    }
+
+    @Test
+    public void testUnsubscribeAndDisconnectStopDelivery() throws Exception {
+        inbound.send(frame(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/public", ""));
+        inbound.send(frame(SimpMessageType.SUBSCRIBE, "s1", "b", "/queue/private-users1", ""));
+        inbound.send(frame(SimpMessageType.SUBSCRIBE, "s2", "a", "/topic/public", ""));
+        inbound.send(frame(SimpMessageType.UNSUBSCRIBE, "s2", "a", null, ""));
+
+        brokerChannel.send(frame(SimpMessageType.MESSAGE, null, null, "/topic/public", "hello"));
+        assertEquals("s1", SimpMessageHeaderAccessor.getSessionId(next().getHeaders()));
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+
+        inbound.send(frame(SimpMessageType.DISCONNECT, "s1", null, null, ""));
+        Message<?> ack = next();
+        assertEquals(SimpMessageType.DISCONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(ack.getHeaders()));
+        assertEquals(0, broker.subscriptionCount());
+
+        brokerChannel.send(frame(SimpMessageType.MESSAGE, null, null, "/queue/private-users1", "gone"));
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testResolvedRecipientsThatDisconnectedAreSkipped() throws Exception {
+        inbound.send(frame(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/room/1", ""));
+        DestinationTrie.Subscription resolved = new DestinationTrie.Subscription("s1", "a", "/topic/room/1");
+        inbound.send(frame(SimpMessageType.DISCONNECT, "s1", null, null, ""));
+        assertEquals(SimpMessageType.DISCONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(next().getHeaders()));
+
+        // e.g. a room or private delivery that looked s1 up before its DISCONNECT
+        broker.deliver(List.of(resolved), frame(SimpMessageType.MESSAGE, null, null, "/topic/room/1", "late"));
+        assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFullLaneDropsPublishesInsteadOfBlocking() throws Exception {
+        ExecutorSubscribableChannel stuckOutbound = new ExecutorSubscribableChannel();
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingQueue<Message<?>> delivered = new LinkedBlockingQueue<>();
+        stuckOutbound.subscribe(m -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.add(m);
+        });
+        TrieBrokerMessageHandler oneLane = new TrieBrokerMessageHandler(
+              inbound, stuckOutbound, brokerChannel, List.of("/topic"), 1, 2, 1);
+        oneLane.setLaneOfferTimeoutMillis(20);
+        oneLane.start();
+        try {
+            oneLane.handleMessage(frame(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/public", ""));
+            oneLane.handleMessage(frame(SimpMessageType.MESSAGE, null, null, "/topic/public", "m0")); // stuck sending
+            Thread.sleep(100);
+
+            long start = System.nanoTime();
+            for (int m = 1; m <= 5; m++) {
+                oneLane.handleMessage(frame(SimpMessageType.MESSAGE, null, null, "/topic/public", "m" + m));
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2), "publisher was not held up");
+            assertEquals(3, oneLane.droppedPublishes.sum(), "two queued, the rest dropped");
+            // Session bookkeeping still gets in behind the queued publishes
+            oneLane.handleMessage(frame(SimpMessageType.CONNECT, "s2", null, null, ""));
+            assertEquals(3, oneLane.droppedPublishes.sum());
+
+            release.countDown();
+            List<String> received = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Message<?> m = delivered.poll(5, TimeUnit.SECONDS);
+                assertNotNull(m);
+                received.add(SimpMessageHeaderAccessor.getMessageType(m.getHeaders()) == SimpMessageType.CONNECT_ACK
+                      ? "ack" : new String((byte[]) m.getPayload(), StandardCharsets.UTF_8));
+            }
+            assertEquals(List.of("m0", "m1", "m2", "ack"), received);
+        } finally {
+            release.countDown();
+            oneLane.stop();
+        }
+    }
+
+    @Test
+    public void testDestinationsOutsidePrefixesAreIgnored() throws Exception {
+        inbound.send(frame(SimpMessageType.SUBSCRIBE, "s1", "a", "/app/chat", ""));
+        assertEquals(0, broker.subscriptionCount());
+        brokerChannel.send(frame(SimpMessageType.MESSAGE, null, null, "/app/chat", "x"));
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, broker.published.sum());
+    }
+}
@@ -0,0 +1,97 @@
+package com.websocket.internal.store;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Throughput of KeyedMessageLog, the offline private-message queue.
+ *
+ * append, durable:  producer threads that each wait for their message to be on disk before
+ *                   sending the next; shows how group commit spreads one fsync over the writers
+ * append, async:    one thread queueing without waiting, as ChatController does
+ * drain:            read(user, batch) + ack per batch for every user, what OfflineDelivery does
+ *                   when the users come back
+ *
+ * Reports messages/s and records per fsync.
+ *
+ * Configuration (system properties): -Dmessages=200000 -Dthreads=1,4,16 -Dusers=1000
+ *   -Dsize=200 -Dbatch=100 -Ddir=(temp dir; point it at the disk to measure)
+ */
+public class KeyedMessageLogBenchmark {
+
+    private static final int MESSAGES = Integer.getInteger("messages", 200_000);
+    private static final String THREADS = System.getProperty("threads", "1,4,16");
+    private static final int USERS = Integer.getInteger("users", 1000);
+    private static final int SIZE = Integer.getInteger("size", 200);
+    private static final int BATCH = Integer.getInteger("batch", 100);
+
+    public static void main(String[] args) throws Exception {
+        byte[] payload = new byte[SIZE];
+        for (String t : THREADS.split(",")) {
+            int threads = Integer.parseInt(t.trim());
+            try (KeyedMessageLog log = open()) {
+                int perThread = Math.max(1, MESSAGES / threads / 20); // each one waits for every fsync
+                CountDownLatch done = new CountDownLatch(threads);
+                long start = System.nanoTime();
+                for (int i = 0; i < threads; i++) {
+                    int id = i;
+                    Thread thread = new Thread(() -> {
+                        for (int n = 0; n < perThread; n++) log.append("user" + (id * perThread + n) % USERS, payload).join();
+                        done.countDown();
+                    });
+                    thread.start();
+                }
+                done.await();
+                report("append, durable, " + threads + " threads", threads * perThread, System.nanoTime() - start, log);
+            }
+        }
+
+        Path dir = dir();
+        try (KeyedMessageLog log = new KeyedMessageLog(dir, 64 << 20, Integer.MAX_VALUE, Duration.ofDays(1))) {
+            List<CompletableFuture<Long>> appends = new ArrayList<>(MESSAGES);
+            long start = System.nanoTime();
+            for (int n = 0; n < MESSAGES; n++) appends.add(log.append("user" + n % USERS, payload));
+            CompletableFuture.allOf(appends.toArray(CompletableFuture[]::new)).join();
+            report("append, async", MESSAGES, System.nanoTime() - start, log);
+        }
+
+        // Reopened, so the drain also includes rebuilding the index from the segments
+        long start = System.nanoTime();
+        try (KeyedMessageLog log = new KeyedMessageLog(dir, 64 << 20, Integer.MAX_VALUE, Duration.ofDays(1))) {
+            System.out.printf("reopen: %d ms for %,d messages%n", (System.nanoTime() - start) / 1_000_000, MESSAGES);
+            start = System.nanoTime();
+            long drained = 0;
+            for (int u = 0; u < USERS; u++) {
+                String user = "user" + u;
+                while (true) {
+                    List<KeyedMessageLog.Entry> batch = log.read(user, BATCH);
+                    if (batch.isEmpty()) break;
+                    drained += batch.size();
+                    log.ack(user, batch.get(batch.size() - 1).offset()).join();
+                }
+            }
+            report("drain, batch " + BATCH, drained, System.nanoTime() - start, log);
+            System.out.println("segments left: " + log.segmentCount());
+        }
+    }
+
+    private static Path dir() throws Exception {
+        String dir = System.getProperty("dir");
+        return dir == null ? Files.createTempDirectory("message-log-bench") : Files.createTempDirectory(Path.of(dir), "message-log-bench");
+    }
+
+    private static KeyedMessageLog open() throws Exception {
+        return new KeyedMessageLog(dir(), 64 << 20, Integer.MAX_VALUE, Duration.ofDays(1));
+    }
+
+    private static void report(String name, long messages, long nanos, KeyedMessageLog log) {
+        long commits = log.commits.sum();
+        System.out.printf("%-28s %,9d messages  %,10.0f messages/s  %6.1f records/fsync%n", name, messages,
+              messages * 1e9 / nanos, commits == 0 ? 0 : (log.messagesAppended.sum() + log.acks.sum()) / (double) commits);
+    }
+}
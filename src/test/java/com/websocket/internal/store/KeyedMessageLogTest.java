@@ -0,0 +1,197 @@
+package com.websocket.internal.store;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyedMessageLogTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<KeyedMessageLog> logs = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        logs.forEach(KeyedMessageLog::close);
+    }
+
+    private KeyedMessageLog open(long segmentBytes, int maxPerKey, Duration retention) throws IOException {
+        KeyedMessageLog log = new KeyedMessageLog(dir, segmentBytes, maxPerKey, retention);
+        logs.add(log);
+        return log;
+    }
+
+    private KeyedMessageLog open() throws IOException {
+        return open(1 << 20, 1000, Duration.ofDays(1));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> texts(List<KeyedMessageLog.Entry> entries) {
+        return entries.stream().map(e -> new String(e.payload(), StandardCharsets.UTF_8)).toList();
+    }
+
+    private long files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testMessagesAreReadPerKeyInOrderUntilAcked() throws Exception {
+        KeyedMessageLog log = open();
+        log.append("bob", bytes("b1")).join();
+        log.append("carol", bytes("c1")).join();
+        log.append("bob", bytes("b2")).join();
+        long third = log.append("bob", bytes("b3")).join();
+
+        assertEquals(List.of("b1", "b2"), texts(log.read("bob", 2)));
+        assertEquals(List.of("b1", "b2", "b3"), texts(log.read("bob", 10)));
+        assertEquals(3, log.pending("bob"));
+        assertEquals(2, log.keyCount());
+        assertTrue(log.read("nobody", 10).isEmpty());
+
+        List<KeyedMessageLog.Entry> first = log.read("bob", 2);
+        log.ack("bob", first.get(1).offset()).join();
+        assertEquals(List.of("b3"), texts(log.read("bob", 10)));
+        assertEquals(third, log.read("bob", 1).get(0).offset());
+
+        log.ack("bob", third).join();
+        assertEquals(0, log.pending("bob"));
+        assertEquals(1, log.keyCount());
+        assertEquals(List.of("c1"), texts(log.read("carol", 10)));
+    }
+
+    @Test
+    public void testConcurrentAppendsShareCommits() throws Exception {
+        KeyedMessageLog log = open();
+        List<CompletableFuture<Long>> appends = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) appends.add(log.append("user" + (i % 10), bytes("message " + i)));
+        CompletableFuture.allOf(appends.toArray(CompletableFuture[]::new)).join();
+
+        assertEquals(2000, log.messagesAppended.sum());
+        assertTrue(log.commits.sum() < 2000, "one fsync for many appends, commits: " + log.commits.sum());
+        assertEquals(200, log.pending("user3"));
+        assertEquals("message 3", texts(log.read("user3", 1)).get(0));
+    }
+
+    @Test
+    public void testRecoversQueuesAndAcksOnReopen() throws Exception {
+        KeyedMessageLog log = open(256, 1000, Duration.ofDays(1));
+        for (int i = 1; i <= 30; i++) log.append(i % 2 == 0 ? "even" : "odd", bytes("m" + i)).join();
+        List<KeyedMessageLog.Entry> odd = log.read("odd", 5);
+        log.ack("odd", odd.get(4).offset()).join();
+        assertTrue(log.segmentCount() > 1);
+        log.close();
+
+        KeyedMessageLog reopened = open(256, 1000, Duration.ofDays(1));
+        assertEquals(15, reopened.pending("even"));
+        assertEquals(10, reopened.pending("odd"));
+        assertEquals(List.of("m11", "m13"), texts(reopened.read("odd", 2)));
+        reopened.append("odd", bytes("after")).join();
+        assertEquals(11, reopened.pending("odd"));
+    }
+
+    @Test
+    public void testFullyConsumedSegmentsAreDeleted() throws Exception {
+        KeyedMessageLog log = open(256, 1000, Duration.ofDays(1));
+        for (int i = 0; i < 40; i++) log.append("bob", bytes("message " + i)).join();
+        long segments = log.segmentCount();
+        assertTrue(segments > 3, "segments: " + segments);
+
+        List<KeyedMessageLog.Entry> all = log.read("bob", 100);
+        log.ack("bob", all.get(all.size() - 1).offset()).join();
+        assertEquals(1, log.segmentCount(), "only the active segment is left");
+        assertEquals(1, files());
+    }
+
+    @Test
+    public void testKeepsAtMostMaxPerKeyAndExpiresOldSegments() throws Exception {
+        KeyedMessageLog capped = open(1 << 20, 3, Duration.ofDays(1));
+        for (int i = 1; i <= 5; i++) capped.append("bob", bytes("m" + i)).join();
+        assertEquals(List.of("m3", "m4", "m5"), texts(capped.read("bob", 10)));
+        assertEquals(2, capped.dropped.sum());
+        capped.close();
+
+        KeyedMessageLog expiring = open(256, 2, Duration.ZERO);
+        assertEquals(List.of("m4", "m5"), texts(expiring.read("bob", 10)), "the cap applies on replay too");
+        for (int i = 0; i < 40; i++) expiring.append("carol", bytes("message " + i)).join();
+        assertEquals(1, expiring.segmentCount(), "every segment but the active one is past the retention");
+        assertEquals(0, expiring.pending("bob"));
+        assertTrue(expiring.expired.sum() >= 2);
+    }
+
+    @Test
+    public void testCutsOffATornTail() throws Exception {
+        KeyedMessageLog log = open();
+        log.append("bob", bytes("m1")).join();
+        log.append("bob", bytes("m2")).join();
+        log.close();
+
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // A record header promising more bytes than were written
+            channel.write(ByteBuffer.allocate(12).putInt(0, 100).putInt(4, 12345), size);
+        }
+
+        KeyedMessageLog reopened = open();
+        assertEquals(List.of("m1", "m2"), texts(reopened.read("bob", 10)));
+        assertEquals(size, Files.size(segment));
+        reopened.append("bob", bytes("m3")).join();
+        assertEquals(List.of("m1", "m2", "m3"), texts(reopened.read("bob", 10)));
+    }
+
+    @Test
+    public void testFailedCommitIsRolledBackBeforeTheNextOne() throws Exception {
+        KeyedMessageLog log = open();
+        log.append("bob", bytes("m1")).join();
+        log.tearNextFlush = true;
+        assertThrows(Exception.class, () -> log.append("bob", bytes("lost")).join());
+        long third = log.append("bob", bytes("m3")).join();
+        assertEquals(List.of("m1", "m3"), texts(log.read("bob", 10)));
+        log.close();
+
+        KeyedMessageLog reopened = open();
+        assertEquals(List.of("m1", "m3"), texts(reopened.read("bob", 10)));
+        assertEquals(third, reopened.read("bob", 10).get(1).offset());
+    }
+
+    @Test
+    public void testFailedCommitDeletesTheSegmentItRolled() throws Exception {
+        // Each "bob" record of two payload bytes is 16 bytes, so the third rolls a new segment
+        KeyedMessageLog log = open(40, 1000, Duration.ofDays(1));
+        log.append("bob", bytes("m1")).join();
+        log.append("bob", bytes("m2")).join();
+        log.tearNextFlush = true;
+        assertThrows(Exception.class, () -> log.append("bob", bytes("m3")).join());
+        assertEquals(1, log.segmentCount());
+        assertEquals(1, files());
+        log.append("bob", bytes("m4")).join();
+        log.close();
+
+        KeyedMessageLog reopened = open(40, 1000, Duration.ofDays(1));
+        assertEquals(List.of("m1", "m2", "m4"), texts(reopened.read("bob", 10)));
+    }
+}
@@ -0,0 +1,126 @@
+package com.websocket.internal.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedSegmentLogTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(MappedSegmentLog.Entry e) {
+        return new String(e.payload(), StandardCharsets.UTF_8);
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testAppendAndReadBySequence() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(dir, 4096, 1000)) {
+            assertEquals(0, log.lastSeq());
+            assertEquals(1, log.firstSeq());
+            assertTrue(log.read(1, 10).isEmpty());
+
+            for (int i = 1; i <= 5; i++) assertEquals(i, log.append(bytes("m" + i), 100 + i));
+
+            List<MappedSegmentLog.Entry> all = log.read(1, 10);
+            assertEquals(5, all.size());
+            assertEquals("m1", text(all.get(0)));
+            assertEquals(101, all.get(0).timestampMillis());
+
+            List<MappedSegmentLog.Entry> since = log.read(4, 10);
+            assertEquals(List.of(4L, 5L), since.stream().map(MappedSegmentLog.Entry::seq).toList());
+            assertEquals(2, log.read(2, 2).size());
+            assertTrue(log.read(6, 10).isEmpty());
+        }
+    }
+
+    @Test
+    public void testRollsSegmentsAndReadsAcrossThem() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(dir, 256, 1000)) {
+            for (int i = 1; i <= 100; i++) log.append(bytes("message " + i), i);
+            assertTrue(log.segmentCount() > 5, "segments: " + log.segmentCount());
+
+            List<MappedSegmentLog.Entry> all = log.read(1, 1000);
+            assertEquals(100, all.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i + 1, all.get(i).seq());
+                assertEquals("message " + (i + 1), text(all.get(i)));
+            }
+
+            // An entry larger than a segment gets a segment of its own size
+            byte[] big = new byte[1000];
+            long seq = log.append(big, 0);
+            assertEquals(1000, log.read(seq, 1).get(0).payload().length);
+        }
+    }
+
+    @Test
+    public void testRetentionDeletesWholeOldSegments() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(dir, 256, 20)) {
+            for (int i = 1; i <= 200; i++) log.append(bytes("message " + i), i);
+
+            long first = log.firstSeq();
+            assertTrue(first > 100, "old segments deleted, first: " + first);
+            assertTrue(log.lastSeq() - first + 1 >= 20, "at least the retained count is kept");
+            assertEquals(log.segmentCount(), segmentFiles());
+            // Reading from before the retained range starts at the oldest entry
+            assertEquals(first, log.read(1, 1).get(0).seq());
+        }
+    }
+
+    @Test
+    public void testRecoversEntriesAndIndexOnReopen() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(dir, 256, 1000)) {
+            for (int i = 1; i <= 50; i++) log.append(bytes("message " + i), i);
+        }
+        try (MappedSegmentLog log = new MappedSegmentLog(dir, 256, 1000)) {
+            assertEquals(1, log.firstSeq());
+            assertEquals(50, log.lastSeq());
+            assertEquals("message 37", text(log.read(37, 1).get(0)));
+            assertEquals(51, log.append(bytes("after reopen"), 0));
+            assertEquals("after reopen", text(log.read(51, 1).get(0)));
+        }
+    }
+
+    @Test
+    public void testIgnoresATornRecordAtTheEnd() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(dir, 4096, 1000)) {
+            for (int i = 1; i <= 3; i++) log.append(bytes("m" + i), i);
+        }
+        // The body of a fourth record without its length, as if the process died mid-append
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        int end = 3 * (20 + 2);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, 4), end + 4);
+        }
+        try (MappedSegmentLog log = new MappedSegmentLog(dir, 4096, 1000)) {
+            assertEquals(3, log.lastSeq());
+            assertEquals(4, log.append(bytes("m4"), 4));
+            assertEquals("m4", text(log.read(4, 1).get(0)));
+        }
+    }
+}